@@ -1,6 +1,10 @@
 package lang;
 
+import lang.binary.BinaryWriter;
 import lang.grammars.decaf.DecafLanguage;
+import lang.ir.IRProgram;
+import lang.ir.Inliner;
+import lang.ir.Optimizer;
 import lang.types.ASTBase;
 import lang.utils.CommandLineInterface.CompilerAction;
 
@@ -15,6 +19,14 @@ import java.nio.charset.StandardCharsets;
  */
 public class Compiler {
     private final Language language;
+    private boolean binaryOutput = false;
+    private boolean pipelined = false;
+    private boolean debug = false;
+    private boolean[] optimizations = new boolean[0];
+    private int inlineBudget = Inliner.DEFAULT_BUDGET;
+
+    // Below this many characters, starting a scanner thread costs more than the overlap saves
+    private static final int PIPELINE_MIN_CHARS = 1 << 16;
 
     /**
      * Creates a new compiler for the given language.
@@ -25,6 +37,61 @@ public class Compiler {
         this.language = language;
     }
 
+    /**
+     * Makes the SCAN and PARSE stages write their results in the binary format read by
+     * {@link lang.binary.BinaryReader}: the token stream, and for PARSE also the tree.
+     *
+     * @param binaryOutput true for binary output, false for the textual listing
+     */
+    public void setBinaryOutput(boolean binaryOutput) {
+        this.binaryOutput = binaryOutput;
+    }
+
+    /**
+     * Runs scanning and parsing concurrently on large inputs: the scanner streams tokens to the
+     * parser on a second thread instead of finishing before the parser starts. Output and
+     * errors are the same either way.
+     *
+     * The pipelined parser is sequential, and the parser that parses method bodies on several
+     * threads needs every token before it starts, so the two do not combine. Inputs large
+     * enough that the language may parse them in parallel are scanned first and parsed in
+     * parallel instead, as that scales with the cores where pipelining only overlaps two
+     * stages; pipelining is used on the inputs below that size.
+     *
+     * @param pipelined true to overlap scanning and parsing
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Prints debugging output: each token as it is scanned, and how much each optimization
+     * changed.
+     *
+     * @param debug true to print debugging output
+     */
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    /**
+     * Selects the IR optimizations to run before the INTER and ASSEMBLY stages.
+     *
+     * @param optimizations Which passes to run, indexed as {@link Optimizer#names()}
+     */
+    public void setOptimizations(boolean[] optimizations) {
+        this.optimizations = optimizations;
+    }
+
+    /**
+     * Limits how much the inlining optimization may grow the program.
+     *
+     * @param inlineBudget The growth allowed, as a percentage of the program's size
+     */
+    public void setInlineBudget(int inlineBudget) {
+        this.inlineBudget = inlineBudget;
+    }
+
     /**
      * Compiles the input source code to the specified target stage.
      *
@@ -33,9 +100,10 @@ public class Compiler {
      * @param target The target compilation stage (SCAN, PARSE, INTER, ASSEMBLY)
      * @throws IOException if I/O errors occur
      * @throws ParseException if parsing fails
+     * @throws SemanticException if the program violates the language's semantic rules
      */
     public void compile(InputStream input, OutputStream output, CompilerAction target)
-            throws IOException, ParseException {
+            throws IOException, ParseException, SemanticException {
         // Read source code
         String sourceCode = new String(input.readAllBytes(), StandardCharsets.UTF_8);
 
@@ -44,36 +112,67 @@ public class Compiler {
         if (language instanceof DecafLanguage) {
             // Use DecafLanguage factory method for now
             lexer = ((DecafLanguage) language).createLexer(sourceCode);
+            lexer.setDebug(debug);
         } else {
             throw new UnsupportedOperationException("Language not yet supported: " + language.getName());
         }
 
-        lexer.scan();
+        // Only binary output consumes the tree at PARSE; otherwise checking the syntax is enough
+        boolean recognizeOnly = target == CompilerAction.PARSE && !binaryOutput;
+        boolean pipeline = pipelined && target != CompilerAction.SCAN
+                && sourceCode.length() >= PIPELINE_MIN_CHARS
+                && language instanceof DecafLanguage
+                && !((DecafLanguage) language).mayParseInParallel(sourceCode.length());
+        ASTBase ast = null;
+        if (pipeline) {
+            ast = scanAndParse(lexer, recognizeOnly);
+        } else {
+            lexer.scan();
+        }
 
         if (target == CompilerAction.SCAN) {
-            lexer.write(output);
+            if (binaryOutput) {
+                new BinaryWriter().tokens(lexer.getTokens()).write(output);
+            } else {
+                lexer.write(output);
+            }
             return;
         }
 
         // Parse stage - syntax analysis
-        Parser parser;
-        if (language instanceof DecafLanguage) {
-            // Use DecafLanguage factory method for now
-            parser = ((DecafLanguage) language).createParser(lexer.getTokens());
-        } else {
-            throw new UnsupportedOperationException("Language not yet supported: " + language.getName());
+        if (!pipeline) {
+            Parser parser;
+            if (language instanceof DecafLanguage) {
+                // Use DecafLanguage factory method for now
+                parser = ((DecafLanguage) language).createParser(lexer.getTokens());
+            } else {
+                throw new UnsupportedOperationException("Language not yet supported: " + language.getName());
+            }
+            parser.setRecognizeOnly(recognizeOnly);
+            ast = parser.parseProgram();
         }
 
-        ASTBase ast = parser.parseProgram();
-
         if (target == CompilerAction.PARSE) {
+            if (binaryOutput) {
+                new BinaryWriter().tokens(lexer.getTokens()).tree(ast).write(output);
+            }
             return;
         }
 
-        // Future stages: Intermediate representation and assembly generation
+        // Semantic analysis
+        Analyzer analyzer = language.createAnalyzer(ast);
+        analyzer.analyze(ast);
+
+        // Lowering - three-address IR
+        IRProgram ir = language.lower(ast, analyzer);
+        Optimizer optimizer = new Optimizer(optimizations, inlineBudget);
+        optimizer.optimize(ir);
+        if (debug) {
+            optimizer.getStatistics().forEach((pass, changes) -> System.err.println(pass + ": " + changes));
+        }
+
         if (target == CompilerAction.INTER) {
-            // Analyzer analyzer = language.createAnalyzer(ast);
-            // analyzer.analyze(ast);
+            ir.write(output);
             return;
         }
 
@@ -82,4 +181,33 @@ public class Compiler {
             return;
         }
     }
+
+    /*
+     * Scans on a second thread while parsing on this one. Returns once the scanner thread has
+     * finished, so the lexer's tokens are complete afterwards.
+     */
+    private ASTBase scanAndParse(Lexer lexer, boolean recognizeOnly) throws ParseException {
+        PipelinedParse parser = ((DecafLanguage) language).createPipelinedParser();
+        parser.setRecognizeOnly(recognizeOnly);
+        lexer.setTokenSink(parser.sink());
+        Thread scanner = new Thread(() -> {
+            try {
+                lexer.scan();
+            } catch (Throwable t) {
+                parser.fail(t);
+            }
+        }, "scanner");
+        scanner.setDaemon(true);
+        scanner.start();
+        try {
+            return parser.parseProgram();
+        } finally {
+            parser.cancel();
+            try {
+                scanner.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
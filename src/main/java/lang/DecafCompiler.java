@@ -6,17 +6,25 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 
 import lang.grammars.decaf.DecafLanguage;
+import lang.ir.Optimizer;
 import lang.utils.CommandLineInterface;
 import lang.utils.CommandLineInterface.CompilerAction;
 
 public class DecafCompiler {
 
     public static void main(String[] args) {
-        CommandLineInterface.parse(args, new String[0]);
+        CommandLineInterface.parse(args, Optimizer.names());
 
         // Create Decaf language and generic compiler
         Language decaf = new DecafLanguage();
         Compiler compiler = new Compiler(decaf);
+        compiler.setBinaryOutput(CommandLineInterface.binary);
+        compiler.setDebug(CommandLineInterface.debug);
+        compiler.setOptimizations(CommandLineInterface.opts);
+        if (CommandLineInterface.inlineBudget >= 0) {
+            compiler.setInlineBudget(CommandLineInterface.inlineBudget);
+        }
+        compiler.setPipelined(Runtime.getRuntime().availableProcessors() > 1);
 
         try (InputStream inputStream = CommandLineInterface.infile == null ?
                 System.in : Files.newInputStream(Path.of(CommandLineInterface.infile));
@@ -31,6 +39,9 @@ public class DecafCompiler {
         } catch (ParseException e) {
             System.out.println("Parsing failed: " + e.getMessage());
             System.exit(1);
+        } catch (SemanticException e) {
+            System.out.println("Semantic analysis failed:\n" + e.getMessage());
+            System.exit(1);
         }
     }
 
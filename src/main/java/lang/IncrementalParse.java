@@ -0,0 +1,276 @@
+package lang;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lang.types.ASTBase;
+import lang.types.CFGGraph;
+import lang.types.CFGNode;
+import lang.types.LexicalToken;
+
+/**
+ * Parser that keeps its tree between edits and reparses only what an edit touches.
+ *
+ * Every fragment (BLOCK in Decaf) is recorded with its token range [start, end), including its
+ * braces. An edit replaces a range of tokens; the parser then reparses the smallest fragment
+ * that strictly contains the edit and swaps the new tree into the old one's place. Nested
+ * fragments that lie entirely outside the edited range are not reparsed: the parser jumps over
+ * them and reuses their old subtrees. If the reparsed fragment no longer ends where it used to
+ * (the edit changed the brace structure) or fails to parse, the enclosing fragment is tried,
+ * and finally the whole program, still reusing every fragment the edit did not touch. Errors
+ * are therefore reported by a parse of the same scope as a full reparse would.
+ *
+ * Edits are given in tokens, so the caller rescans the edited lines and passes the new tokens.
+ */
+public class IncrementalParse extends Parse {
+    private static class Fragment {
+        CFGNode entry;
+        int start;
+        int end;
+        ASTBase tree;
+        Fragment parent;    // enclosing fragment, null for a method body
+        ASTBase container;  // node holding tree as a child
+        int index;          // position of tree among the container's children
+    }
+
+    // Fragments in order of their start position, i.e. in pre-order
+    private List<Fragment> fragments = new ArrayList<>();
+    private ASTBase root = null;
+    private boolean stale = false; // true until a full parse succeeds; fragments may be out of date
+    private List<ASTBase> changedInPlace = new ArrayList<>();
+
+    // State for the parse in progress
+    private List<Fragment> collected = null;
+    private Fragment open = null;
+    private Map<Integer, Integer> reusable = new HashMap<>(); // start position -> index in fragments
+
+    public IncrementalParse(List<LexicalToken> tokens, CFGGraph cfgGraph) {
+        super(tokens, cfgGraph);
+    }
+
+    @Override
+    public ASTBase parseProgram() throws ParseException {
+        this.reusable.clear();
+        this.stale = true;
+        ASTBase tree = parseWhole();
+        this.stale = false;
+        return tree;
+    }
+
+    /**
+     * Replaces the tokens in [from, to) with the given tokens and updates the tree.
+     * @param from Index of the first replaced token
+     * @param to Index after the last replaced token
+     * @param replacement Tokens to insert in their place
+     * @return The root of the updated tree
+     * @throws ParseException if the edited program does not parse; the tokens stay edited
+     */
+    public ASTBase reparse(int from, int to, List<LexicalToken> replacement) throws ParseException {
+        List<LexicalToken> tokens = getTokenBuffer();
+        if (from < 0 || from > to || to > tokens.size() - 1) {
+            throw new IndexOutOfBoundsException("Edit [" + from + ", " + to + ") outside token buffer");
+        }
+        if (this.root == null) {
+            throw new IllegalStateException("reparse called before parseProgram");
+        }
+
+        this.changedInPlace.clear();
+
+        // Fragments must be located before the buffer changes
+        Fragment target = innermostContaining(from, to);
+        int delta = replacement.size() - (to - from);
+        tokens.subList(from, to).clear();
+        tokens.addAll(from, replacement);
+
+        // Shift everything at or after the edit; fragments holding the edit grow or shrink
+        int editEnd = from + replacement.size(); // end of the edit in new positions
+        for (Fragment f : this.fragments) {
+            if (f.start >= to) {
+                f.start += delta;
+                f.end += delta;
+            } else if (f.end > from) {
+                f.end += delta;
+            }
+        }
+
+        if (!this.stale) {
+            for (Fragment f = target; f != null; f = f.parent) {
+                if (tryReparse(f, from, editEnd)) {
+                    if (f.parent != null) {
+                        Fragment outermost = f.parent;
+                        while (outermost.parent != null) {
+                            outermost = outermost.parent;
+                        }
+                        this.changedInPlace.add(outermost.tree);
+                    }
+                    return this.root;
+                }
+            }
+        }
+        markReusable(0, this.fragments.size(), from, editEnd);
+        this.stale = true;
+        ASTBase tree = parseWhole();
+        this.stale = false;
+        return tree;
+    }
+
+    /**
+     * @return The number of fragments currently recorded
+     */
+    public int getFragmentCount() {
+        return this.fragments.size();
+    }
+
+    /**
+     * Method bodies that the last reparse changed without replacing them: the edit was reparsed
+     * within one of their nested fragments, so each body is the same node as before but its
+     * contents differ. Bodies that were reparsed as a whole are new nodes and are not listed.
+     * @return The outermost fragments changed in place by the last call to reparse
+     */
+    public List<ASTBase> getBodiesChangedInPlace() {
+        return Collections.unmodifiableList(this.changedInPlace);
+    }
+
+    /**
+     * @return The current token buffer, including the trailing EOF token
+     */
+    public List<LexicalToken> getTokens() {
+        return getTokenBuffer();
+    }
+
+    @Override
+    protected ParseResult parseFragment(CFGNode entry, int pos, ASTBase parent) throws ParseException {
+        Integer old = this.reusable.get(pos);
+        if (old != null && this.fragments.get(old).entry == entry) {
+            // Untouched fragment: keep its subtree and its nested fragments as they are
+            Fragment reused = this.fragments.get(old);
+            reused.parent = this.open;
+            reused.container = parent;
+            reused.index = parent.getNumChildren();
+            int last = old + 1;
+            while (last < this.fragments.size() && this.fragments.get(last).start < reused.end) {
+                last++;
+            }
+            this.collected.addAll(this.fragments.subList(old, last));
+            return new ParseResult(reused.tree, reused.end);
+        }
+
+        Fragment fragment = new Fragment();
+        fragment.entry = entry;
+        fragment.start = pos;
+        fragment.parent = this.open;
+        fragment.container = parent;
+        fragment.index = parent.getNumChildren();
+        this.collected.add(fragment);
+
+        Fragment enclosing = this.open;
+        this.open = fragment;
+        try {
+            ParseResult result = super.parseFragment(entry, pos, parent);
+            fragment.end = result.nextPos;
+            fragment.tree = result.tree;
+            return result;
+        } finally {
+            this.open = enclosing;
+        }
+    }
+
+    private ASTBase parseWhole() throws ParseException {
+        this.collected = new ArrayList<>();
+        this.open = null;
+        try {
+            ASTBase tree = super.parseProgram();
+            this.root = tree;
+            this.fragments = this.collected;
+            return tree;
+        } finally {
+            this.collected = null;
+            this.reusable.clear();
+        }
+    }
+
+    /*
+     * Reparses a single fragment in place. Returns false, leaving the tree unchanged, if the
+     * fragment no longer parses to exactly its recorded range.
+     */
+    private boolean tryReparse(Fragment target, int editStart, int editEnd) {
+        int first = this.fragments.indexOf(target);
+        int last = first + 1;
+        while (last < this.fragments.size() && this.fragments.get(last).start < target.end) {
+            last++;
+        }
+        markReusable(first + 1, last, editStart, editEnd);
+
+        Fragment outermost = target;
+        while (outermost.parent != null) {
+            outermost = outermost.parent;
+        }
+        List<Fragment> replaced = new ArrayList<>();
+        this.collected = replaced;
+        this.open = target.parent;
+        ParseResult result;
+        try {
+            result = outermost == target
+                ? parseFragment(target.entry, target.start, target.container)
+                : parseNestedFragment(target.entry, target.start, target.container, outermost.tree);
+        } catch (ParseException e) {
+            return false;
+        } finally {
+            this.collected = null;
+            this.open = null;
+            this.reusable.clear();
+        }
+
+        if (result.nextPos != target.end) {
+            return false;
+        }
+
+        // parseFragment recorded the new fragment at the end of the container; move it into place
+        Fragment fresh = replaced.get(0);
+        fresh.index = target.index;
+        fresh.container.setChild(fresh.index, fresh.tree);
+        List<Fragment> span = this.fragments.subList(first, last);
+        span.clear();
+        span.addAll(replaced);
+        return true;
+    }
+
+    /*
+     * Offers the fragments in [first, last) that do not overlap the edit for reuse.
+     */
+    private void markReusable(int first, int last, int editStart, int editEnd) {
+        this.reusable.clear();
+        for (int i = first; i < last; i++) {
+            Fragment f = this.fragments.get(i);
+            if (f.end <= editStart || f.start >= editEnd) {
+                this.reusable.put(f.start, i);
+            }
+        }
+    }
+
+    /*
+     * Finds the innermost fragment whose braces strictly enclose [from, to), or null.
+     */
+    private Fragment innermostContaining(int from, int to) {
+        // last fragment starting before the edit; the answer is it or one of its ancestors
+        int lo = 0;
+        int hi = this.fragments.size() - 1;
+        Fragment candidate = null;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.fragments.get(mid).start < from) {
+                candidate = this.fragments.get(mid);
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        while (candidate != null && !(candidate.start < from && to < candidate.end)) {
+            candidate = candidate.parent;
+        }
+        return candidate;
+    }
+}
@@ -1,5 +1,6 @@
 package lang;
 
+import lang.ir.IRProgram;
 import lang.scanner.ScannerConfig;
 import lang.parser.ParserConfig;
 import lang.types.ASTBase;
@@ -31,6 +32,16 @@ public interface Language {
         throw new UnsupportedOperationException("Static analysis not yet implemented");
     }
 
+    /**
+     * Lowers an analyzed program to three-address code
+     * @param ast The abstract syntax tree, after semantic analysis has accepted it
+     * @param analyzer The analyzer that accepted it, whose results the lowering may use
+     * @return The program's IR
+     */
+    default IRProgram lower(ASTBase ast, Analyzer analyzer) {
+        throw new UnsupportedOperationException("Lowering to IR not yet implemented");
+    }
+
     /**
      * Gets the language name for display purposes
      * @return The language name (e.g., "Decaf")
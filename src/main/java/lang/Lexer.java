@@ -1,5 +1,6 @@
 package lang;
 
+import lang.scanner.TokenSink;
 import lang.types.LexicalToken;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -16,6 +17,21 @@ public interface Lexer {
      */
     void scan();
 
+    /**
+     * Streams tokens to the given sink in batches during {@link #scan()}, closing it when the
+     * scan completes. Must be called before scanning.
+     * @param sink Sink to receive the tokens
+     */
+    void setTokenSink(TokenSink sink);
+
+    /**
+     * Asks the lexer to print what it scans, for debugging. Lexers with nothing to print may
+     * ignore this.
+     * @param debug true to print debugging output
+     */
+    default void setDebug(boolean debug) {
+    }
+
     /**
      * Returns the list of tokens produced by scanning.
      * @return List of lexical tokens
@@ -0,0 +1,186 @@
+package lang;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import lang.types.ASTBase;
+import lang.types.CFGGraph;
+import lang.types.CFGNode;
+import lang.types.LexicalToken;
+
+/**
+ * Parser that parses method bodies concurrently.
+ *
+ * A linear prepass matches braces over the token buffer; every brace pair at nesting depth 0
+ * is a method body. When the grammar walk reaches its first top-level fragment, the bodies are
+ * handed to a ForkJoinPool in source order, batched so each task covers enough tokens to be
+ * worth scheduling. The walk over the top-level structure then carries on and, at each body,
+ * joins the task that parsed it and adds the tree in place, so the result is the same tree a
+ * sequential parse builds.
+ *
+ * A body parsed from a given position always gives the same tree or error whichever thread
+ * parses it, and the walk joins bodies in source order, so the reported error is the first one
+ * in the program, exactly as for {@link Parse}. Fragments the prepass did not predict (the
+ * braces do not balance, or the program is malformed around a body) are parsed on the calling
+ * thread.
+ */
+public class ParallelParse extends Parse {
+    private static final int MIN_TOKENS_PER_TASK = 4096;
+
+    private final ForkJoinPool pool;
+
+    // Top-level brace pairs found by the prepass: body i spans [bodyStart[i], bodyEnd[i])
+    private int[] bodyStart = new int[0];
+    private int[] bodyEnd = new int[0];
+    private BodyTask[] taskOf = null; // task that parses body i, once submitted
+    private CFGNode bodyEntry = null;
+
+    public ParallelParse(List<LexicalToken> tokens, CFGGraph cfgGraph) {
+        this(tokens, cfgGraph, ForkJoinPool.commonPool());
+    }
+
+    public ParallelParse(List<LexicalToken> tokens, CFGGraph cfgGraph, ForkJoinPool pool) {
+        super(tokens, cfgGraph);
+        this.pool = pool;
+    }
+
+    @Override
+    public ASTBase parseProgram() throws ParseException {
+        matchBraces();
+        try {
+            return super.parseProgram();
+        } finally {
+            // an error stops the walk early; bodies after it are no longer needed
+            if (this.taskOf != null) {
+                for (BodyTask task : this.taskOf) {
+                    task.cancel(false);
+                }
+            }
+            this.taskOf = null;
+            this.bodyEntry = null;
+        }
+    }
+
+    /**
+     * @return The number of method bodies found by the brace-matching prepass
+     */
+    public int getBodyCount() {
+        return this.bodyStart.length;
+    }
+
+    @Override
+    protected ParseResult parseFragment(CFGNode entry, int pos, ASTBase parent) throws ParseException {
+        int body = Arrays.binarySearch(this.bodyStart, pos);
+        if (body < 0) {
+            return super.parseFragment(entry, pos, parent);
+        }
+        if (this.taskOf == null) {
+            submit(entry);
+        }
+        if (entry != this.bodyEntry) {
+            return super.parseFragment(entry, pos, parent);
+        }
+        return this.taskOf[body].result(body);
+    }
+
+    /*
+     * Finds the top-level brace pairs. Leaves no bodies if the braces do not balance, in which
+     * case the whole program is parsed sequentially and reports the error as usual.
+     */
+    private void matchBraces() {
+        List<LexicalToken> tokens = getTokenBuffer();
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count = 0;
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            LexicalToken token = tokens.get(i);
+            if (token.getTokenType() != LexicalToken.TokenType.PUNCTUATION) {
+                continue;
+            }
+            if (token.getVal().equals("{")) {
+                if (depth++ == 0) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                        ends = Arrays.copyOf(ends, count * 2);
+                    }
+                    starts[count] = i;
+                }
+            } else if (token.getVal().equals("}")) {
+                if (depth == 0) {
+                    count = 0;
+                    break;
+                }
+                if (--depth == 0) {
+                    ends[count++] = i + 1;
+                }
+            }
+        }
+        if (depth != 0) {
+            count = 0;
+        }
+        this.bodyStart = Arrays.copyOf(starts, count);
+        this.bodyEnd = Arrays.copyOf(ends, count);
+    }
+
+    /*
+     * Batches the bodies into tasks of at least MIN_TOKENS_PER_TASK tokens and submits them in
+     * source order.
+     */
+    private void submit(CFGNode entry) {
+        this.bodyEntry = entry;
+        this.taskOf = new BodyTask[this.bodyStart.length];
+        int first = 0;
+        while (first < this.bodyStart.length) {
+            int last = first + 1;
+            while (last < this.bodyStart.length
+                    && this.bodyEnd[last - 1] - this.bodyStart[first] < MIN_TOKENS_PER_TASK) {
+                last++;
+            }
+            BodyTask task = new BodyTask(first, last);
+            Arrays.fill(this.taskOf, first, last, task);
+            this.pool.execute(task);
+            first = last;
+        }
+    }
+
+    /*
+     * Parses bodies [first, last) with a parser of its own. Stops at the first body that fails;
+     * the walk never asks for a body past a failed one.
+     */
+    private class BodyTask extends RecursiveAction {
+        private final int first;
+        private final int last;
+        private final ParseResult[] results;
+        private ParseException error = null;
+
+        BodyTask(int first, int last) {
+            this.first = first;
+            this.last = last;
+            this.results = new ParseResult[last - first];
+        }
+
+        @Override
+        protected void compute() {
+            Parse parser = new Parse(ParallelParse.this);
+            try {
+                for (int i = first; i < last; i++) {
+                    results[i - first] = parser.parseFragment(bodyEntry, bodyStart[i], null);
+                }
+            } catch (ParseException e) {
+                error = e;
+            }
+        }
+
+        ParseResult result(int body) throws ParseException {
+            join();
+            ParseResult result = results[body - first];
+            if (result == null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+}
@@ -9,9 +9,11 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import lang.types.ASTBase;
+import lang.types.ASTCursor;
 import lang.types.ASTExpr;
 import lang.types.CFGNode;
 import lang.types.CFGGraph;
+import lang.types.HashConsTable;
 import lang.types.LexicalToken;
 import lang.types.LexicalToken.TokenType;
 
@@ -25,6 +27,21 @@ public class Parse implements Parser {
     private static final String END_FN_CALL_TOKEN = ")";
     private static final String POSTFIX_INCREMENT_TOKEN = "++";
     private static final String POSTFIX_DECREMENT_TOKEN = "--";
+    private static final String LEN_TOKEN = "len";
+
+    private static final Set<String> INFIX_OR_POSTFIX_OPERATORS = Set.of(
+        "||", "&&", "==", "!=", "<", "<=", ">", ">=",
+        "+", "-", "*", "/", "%", "(", "[", "++", "--"
+    );
+    private static final Set<String> PREFIX_UNARY_OPERATORS = Set.of(
+        "-", "!", "++", "--", "int", "long"
+    );
+    private static final Set<String> POSTFIX_UNARY_OPERATORS = Set.of(
+        "++", "--"
+    );
+    private static final Set<String> POSTFIX_OPERATORS = Set.of(
+        "(", "[", "++", "--"
+    );
 
 
     private List<LexicalToken> tokens;
@@ -33,6 +50,10 @@ public class Parse implements Parser {
     private String error = null;
     private List<String> warnings = new ArrayList<>();
     private ASTBase ast = null;
+    private HashConsTable hashConsTable = null; // optional, shares identical pure subexpressions
+    private int fragmentDepth = 0;
+    private boolean buildTree = true;
+    private ASTBase exprTree = null; // tree of the expression last parsed by expr()
 
     @AllArgsConstructor
     public static class ParseResult {
@@ -59,21 +80,65 @@ public class Parse implements Parser {
          */
         this.tokens = new ArrayList<>(tokens); // Create mutable copy
         this.cfgGraph = cfgGraph;
-        this.tokens.add(new LexicalToken(LexicalToken.TokenType.PUNCTUATION, "EOF", -1, -1)); // EOF token
+        this.tokens.add(eofToken());
         this.ast = new ASTBase();
     }
 
+    /**
+     * Creates a parser with an empty token buffer, for subclasses that fill the buffer
+     * themselves through {@link #hasToken(int)} and {@link #tokenAt(int)}. The subclass must
+     * end the buffer with {@link #eofToken()}.
+     */
+    protected Parse(CFGGraph cfgGraph) {
+        this.tokens = new ArrayList<>();
+        this.cfgGraph = cfgGraph;
+        this.ast = new ASTBase();
+    }
+
+    /**
+     * Creates a parser over the same token buffer and grammar as base, for parsing part of
+     * base's input on another thread. It gets its own hash-consing table if base has one.
+     */
+    protected Parse(Parse base) {
+        this.tokens = base.tokens;
+        this.cfgGraph = base.cfgGraph;
+        this.hashConsTable = base.hashConsTable != null ? new HashConsTable() : null;
+        this.buildTree = base.buildTree;
+        this.ast = new ASTBase();
+    }
+
+    /**
+     * Enables hash-consing of expression nodes. Structurally identical side-effect-free
+     * subexpressions within a method body are then built once and shared, turning each
+     * expression tree into a DAG. The table is cleared at the start of every method body.
+     * @param table The table to build through, or null to allocate every node
+     */
+    public void setHashConsTable(HashConsTable table) {
+        this.hashConsTable = table;
+    }
+
+    /**
+     * Switches between building the tree and only recognizing the input. A recognizer runs
+     * the same LL(1) and Pratt logic and reports exactly the same errors, but allocates no
+     * nodes: parseProgram returns null and ParseResult trees are null.
+     * @param recognizeOnly true to check syntax without building a tree
+     */
+    @Override
+    public void setRecognizeOnly(boolean recognizeOnly) {
+        this.buildTree = !recognizeOnly;
+    }
+
     private LexicalToken gobble() throws ParseException {
         /*
          * Advances the token position by one.
          * Returns the current token before advancing.
          */
-        if (this.pos < this.tokens.size() - 1) {
-            LexicalToken currentToken = this.tokens.get(this.pos);
+        if (hasToken(this.pos + 1)) {
+            LexicalToken currentToken = tokenAt(this.pos);
             this.pos++;
             return currentToken;
         } else {
-            LexicalToken lastToken = this.tokens.isEmpty() ? null : this.tokens.get(this.tokens.size() - 1);
+            LexicalToken lastToken = lastToken();
             throw new ParseException("Index out of bounds error: No more tokens", lastToken);
         }
     }
@@ -81,10 +146,10 @@ public class Parse implements Parser {
         /*
          * Precondition: to be called after gobble
          */
-        if (this.pos < this.tokens.size()) {
-            return this.tokens.get(this.pos);
+        if (hasToken(this.pos)) {
+            return tokenAt(this.pos);
         } else {
-            LexicalToken lastToken = this.tokens.isEmpty() ? null : this.tokens.get(this.tokens.size() - 1);
+            LexicalToken lastToken = lastToken();
             throw new ParseException("Index out of bounds error: No more tokens", lastToken);
         }
     }
@@ -112,8 +177,8 @@ public class Parse implements Parser {
 
     public ASTBase parseProgram() throws ParseException {
         ParseResult result = parseFromState(this.cfgGraph.getRoot(), 0);
-        if (result.nextPos != tokens.size()) {
-            LexicalToken unexpectedToken = result.nextPos < tokens.size() ? tokens.get(result.nextPos) : null;
+        if (hasToken(result.nextPos)) {
+            LexicalToken unexpectedToken = tokenAt(result.nextPos);
             expect(false, "Did not reach end of token stream after parsing program", unexpectedToken);
         }
         return result.tree;
@@ -121,27 +186,62 @@ public class Parse implements Parser {
 
     public ParseResult parseFromState(CFGNode state, int pos) throws ParseException {
         /*
-         * Pre-conditions
-         *  - state is not a fragmente-entry node
+         * Walks the grammar from state until a terminal node and builds a container node for
+         * the walk: the program root, or a BLOCK for a fragment entry.
+         *
+         * Every pass through a list node (one declared with items(...)) starts a new DECL or
+         * STMT item. Tokens consumed while an item is open become leaves of the item, in source
+         * order, and parsed expressions and nested fragments are added in place. Tokens consumed
+         * outside any item (a block's opening brace) become the container's token, and tokens
+         * that lead into a terminal node (a block's closing brace, EOF) are not kept.
          */
+        ASTBase container = this.buildTree ? new ASTBase() : null;
+        if (container != null && state.getKind() == CFGNode.CFGNodeKind.FRAGMENT_ENTRY) {
+            container.setType(ASTBase.Environment.BLOCK);
+        }
+        ASTBase item = null;
         CFGNode curNode = state;
         CFGNode nextNode = null;
         LexicalToken ll1;
         while (!curNode.isTerminal()) {
+            if (this.buildTree && curNode.getItemEnvironment() != null) {
+                // Back at a list node: close the current item and start the next one
+                addItem(container, item);
+                item = new ASTBase(curNode.getItemEnvironment(), null);
+            }
+
             // Parse normal LL(1) token advancing 1 or 0
-            ll1 = tokens.get(pos);
+            ll1 = tokenAt(pos);
             CFGNode.Transition t = curNode.matchLL1(ll1);
             nextNode = t.targetNode();
-            pos += (t.consumesToken()) ? 1 : 0;
+            if (t.consumesToken()) {
+                pos++;
+                if (!this.buildTree || nextNode.isTerminal()) {
+                    // recognizing only, or a closing delimiter implied by the container
+                } else if (item != null) {
+                    if (item.getToken() == null) {
+                        item.setToken(ll1);
+                    }
+                    item.addChild(new ASTBase(ll1));
+                } else if (container.getToken() == null) {
+                    container.setToken(ll1);
+                }
+            }
 
+            ASTBase parent = item != null ? item : container;
             if (nextNode.getKind() == CFGNode.CFGNodeKind.EXPR_ENTRY) {
-                ParseResult exprResult = parseExpr(pos);
-                pos = exprResult.nextPos;
+                pos = expr(pos, 0);
+                if (this.buildTree) {
+                    parent.addChild(this.exprTree);
+                }
                 // After returning from expression, continue from the successor
                 curNode = curNode.getSuccessor();
                 continue;
             } else if (nextNode.getKind() == CFGNode.CFGNodeKind.FRAGMENT_ENTRY) {
-                ParseResult fragmentResult = parseFromState(nextNode, pos);
+                ParseResult fragmentResult = parseFragment(nextNode, pos, parent);
+                if (this.buildTree) {
+                    parent.addChild(fragmentResult.tree);
+                }
                 // After returning from fragment, continue from the successor
                 curNode = curNode.getSuccessor();
                 pos = fragmentResult.nextPos;
@@ -151,7 +251,114 @@ public class Parse implements Parser {
                 
             }
         }
-        return new ParseResult(null, pos);
+        if (this.buildTree) {
+            addItem(container, item);
+        }
+        return new ParseResult(container, pos);
+    }
+
+    /**
+     * Parses a nested fragment (a BLOCK in Decaf) whose tree will be added as the next child
+     * of parent. Subclasses override this to record fragment boundaries or to reuse trees
+     * from an earlier parse.
+     * @param entry The fragment entry node
+     * @param pos Position of the fragment's first token
+     * @param parent The node the fragment's tree will be added to
+     * @return The fragment's tree and the position after its last token
+     */
+    protected ParseResult parseFragment(CFGNode entry, int pos, ASTBase parent) throws ParseException {
+        if (this.hashConsTable != null && this.fragmentDepth == 0) {
+            this.hashConsTable.clear(); // entering a method body
+        }
+        this.fragmentDepth++;
+        try {
+            return parseFromState(entry, pos);
+        } finally {
+            this.fragmentDepth--;
+        }
+    }
+
+    /**
+     * Parses a fragment nested in a method body that has already been built, as when
+     * reparsing it alone. Expressions are hash-consed against those in the rest of that body
+     * instead of in a cleared table, so they stay shared with its untouched nodes.
+     * @param body The tree of the enclosing method body
+     * @see #parseFragment(CFGNode, int, ASTBase)
+     */
+    protected ParseResult parseNestedFragment(CFGNode entry, int pos, ASTBase parent, ASTBase body)
+            throws ParseException {
+        if (this.hashConsTable != null) {
+            this.hashConsTable.clear();
+            // the operators of the body and their operands, children first so they are
+            // canonical; other leaves, such as declared names, were never shared
+            ASTCursor cursor = new ASTCursor(body);
+            while (cursor.nextPostOrder()) {
+                ASTBase node = cursor.node();
+                if (!(node instanceof ASTExpr)) {
+                    continue;
+                }
+                for (int i = 0; i < node.getNumChildren(); i++) {
+                    ASTBase child = node.getChildAt(i);
+                    if (child != null && child.getNumChildren() == 0 && child.getToken() != null) {
+                        this.hashConsTable.intern(child);
+                    }
+                }
+                this.hashConsTable.intern(node);
+            }
+        }
+        this.fragmentDepth++;
+        try {
+            return parseFragment(entry, pos, parent);
+        } finally {
+            this.fragmentDepth--;
+        }
+    }
+
+    /**
+     * Checks whether the token buffer extends to pos. All token reads go through this and
+     * {@link #tokenAt(int)}, so a subclass can fill the buffer while parsing is under way.
+     */
+    protected boolean hasToken(int pos) {
+        return pos < this.tokens.size();
+    }
+
+    /**
+     * Gets the token at pos. pos must be inside the complete buffer, which always holds the
+     * token after any non-EOF token.
+     */
+    protected LexicalToken tokenAt(int pos) {
+        return this.tokens.get(pos);
+    }
+
+    protected static LexicalToken eofToken() {
+        return new LexicalToken(LexicalToken.TokenType.PUNCTUATION, "EOF", -1, -1);
+    }
+
+    private LexicalToken lastToken() {
+        int last = this.pos;
+        while (hasToken(last + 1)) {
+            last++;
+        }
+        return hasToken(last) ? tokenAt(last) : null;
+    }
+
+    /**
+     * Gets the token buffer being parsed, including the trailing EOF token.
+     * Subclasses may edit it between parses.
+     */
+    protected List<LexicalToken> getTokenBuffer() {
+        return this.tokens;
+    }
+
+    protected CFGGraph getGrammar() {
+        return this.cfgGraph;
+    }
+
+    private static void addItem(ASTBase container, ASTBase item) {
+        // lists are re-entered without consuming anything, e.g. between declarations and statements
+        if (item != null && item.getNumChildren() > 0) {
+            container.addChild(item);
+        }
     }
 
     /*
@@ -159,6 +366,16 @@ public class Parse implements Parser {
      */
 
     private static class PrecedenceInfo {
+        // Shared by every lookup so that parsing an operator allocates nothing
+        private static final PrecedenceInfo LOGICAL_OR = new PrecedenceInfo(1, 2);     // LEFT: rbp = lbp + 1
+        private static final PrecedenceInfo LOGICAL_AND = new PrecedenceInfo(2, 3);    // LEFT: rbp = lbp + 1
+        private static final PrecedenceInfo EQUALITY = new PrecedenceInfo(3, 4);       // LEFT: rbp = lbp + 1
+        private static final PrecedenceInfo RELATIONAL = new PrecedenceInfo(4, 5);     // LEFT: rbp = lbp + 1
+        private static final PrecedenceInfo ADDITIVE = new PrecedenceInfo(5, 6);       // LEFT: rbp = lbp + 1
+        private static final PrecedenceInfo MULTIPLICATIVE = new PrecedenceInfo(6, 7); // LEFT: rbp = lbp + 1
+        private static final PrecedenceInfo PREFIX = new PrecedenceInfo(8, 8);         // higher than any infix
+        private static final PrecedenceInfo POSTFIX = new PrecedenceInfo(8, 7);        // postfix binds tightly
+
         public int leftBindingPower;
         public int rightBindingPower;
 
@@ -210,24 +427,24 @@ public class Parse implements Parser {
 
             switch (op) {
                 case "||":
-                    return new PrecedenceInfo(1, 2); // LEFT: rbp = lbp + 1
+                    return LOGICAL_OR;
                 case "&&":
-                    return new PrecedenceInfo(2, 3); // LEFT: rbp = lbp + 1
+                    return LOGICAL_AND;
                 case "==":
                 case "!=":
-                    return new PrecedenceInfo(3, 4); // LEFT: rbp = lbp + 1
+                    return EQUALITY;
                 case "<":
                 case "<=":
                 case ">":
                 case ">=":
-                    return new PrecedenceInfo(4, 5); // LEFT: rbp = lbp + 1
+                    return RELATIONAL;
                 case "+":
                 case "-":
-                    return new PrecedenceInfo(5, 6); // LEFT: rbp = lbp + 1
+                    return ADDITIVE;
                 case "*":
                 case "/":
                 case "%":
-                    return new PrecedenceInfo(6, 7); // LEFT: rbp = lbp + 1
+                    return MULTIPLICATIVE;
                 default:
                     throw new IllegalArgumentException("Unknown infix operator: " + op);
             }
@@ -250,7 +467,7 @@ public class Parse implements Parser {
                 case "--":
                 case "int":
                 case "long":
-                    return new PrecedenceInfo(8, 8); // higher than any infix
+                    return PREFIX;
                 default:
                     throw new IllegalArgumentException("Unknown prefix operator: " + op);
             }
@@ -269,7 +486,7 @@ public class Parse implements Parser {
                 case "[":
                 case "++":
                 case "--":
-                    return new PrecedenceInfo(8, 7); // postfix binds tightly
+                    return POSTFIX;
                 default:
                     throw new IllegalArgumentException("Unknown postfix operator: " + op);
             }
@@ -281,9 +498,29 @@ public class Parse implements Parser {
     }
 
     public ParseResult parseExpr(int startPos, int precedence) throws ParseException {
+        int nextPos = expr(startPos, precedence);
+        return new ParseResult(this.exprTree, nextPos);
+    }
+
+    public ParseResult parseExprPrefix(int startPos) throws ParseException {
+        int nextPos = exprPrefix(startPos);
+        return new ParseResult(this.exprTree, nextPos);
+    }
+
+    public ParseResult parseExprPostfix(ASTBase left, int startPos) throws ParseException {
+        int nextPos = exprPostfix(left, startPos);
+        return new ParseResult(this.exprTree, nextPos);
+    }
+
+    /*
+     * The Pratt core below returns the position after the expression and leaves its tree in
+     * exprTree (null when only recognizing), so no ParseResult is allocated per subexpression.
+     */
+
+    private int expr(int startPos, int precedence) throws ParseException {
         /*
          * Pre-conditions
-         *   - startPos is within [0, tokens.size())
+         *   - startPos is within the token buffer
          *   - startPos is a valid start to an expression
          *   - precedence >= 0
          * 
@@ -294,20 +531,19 @@ public class Parse implements Parser {
          * 
          * Post-conditions
          *   - [startPos, nextPos) forms a valid stand-alone expression
-         *   - returns a fully-formed AST subtree
+         *   - exprTree holds a fully-formed AST subtree
          *     with no missing children and no post-hoc mutation required
          * 
          */
 
         // assert pre-conditions
-        assert startPos >= 0 && startPos < this.tokens.size();
-        // assert getSyntacticEnv(this.tokens.get(startPos)) == SyntacticEnv.EXPR;
+        assert startPos >= 0 && hasToken(startPos);
+        // assert getSyntacticEnv(tokenAt(startPos)) == SyntacticEnv.EXPR;
         assert precedence >= 0;
 
         // parse prefix operators
-        ParseResult prefixResult = parseExprPrefix(startPos);
-        int pos = prefixResult.nextPos;
-        ASTBase root = prefixResult.tree; 
+        int pos = exprPrefix(startPos);
+        ASTBase root = this.exprTree;
 
         // parse infix operators
         while (hasInfixOrPostfixOperator(pos)) {
@@ -315,13 +551,11 @@ public class Parse implements Parser {
              * pos is always an operator token here
              */
             
-            LexicalToken op = this.tokens.get(pos);
-            boolean isPostfix = hasPostfixOperator(pos);
+            LexicalToken op = tokenAt(pos);
 
-            if (isPostfix) {
-                ParseResult result = parseExprPostfix(root, pos);
-                root = result.tree;
-                pos = result.nextPos;
+            if (hasPostfixOperator(pos)) {
+                pos = exprPostfix(root, pos);
+                root = this.exprTree;
                 continue;
             }
 
@@ -331,49 +565,47 @@ public class Parse implements Parser {
             }
 
             pos++; // consume operator
-            
-            if (!isPostfix) {
-                ParseResult result = parseExpr(pos, precInfo.rightBindingPower);
-                ASTBase right = result.tree;
-                pos = result.nextPos;
-
-                root = ASTExpr.binaryInfix(op).left(root).right(right).build();
+            pos = expr(pos, precInfo.rightBindingPower);
+            if (this.buildTree) {
+                root = ASTExpr.binaryInfix(op).left(root).right(this.exprTree).build(this.hashConsTable);
             }
         }
 
         // assert post-conditions
-        LexicalToken currentToken = pos > 0 && pos - 1 < this.tokens.size() ? this.tokens.get(pos - 1) : null;
-        expect(root != null, "Parsed expression tree is null", currentToken);
-        
-        return new ParseResult(root, pos);
+        if (this.buildTree) {
+            LexicalToken currentToken = pos > 0 && hasToken(pos - 1) ? tokenAt(pos - 1) : null;
+            expect(root != null, "Parsed expression tree is null", currentToken);
+        }
+
+        this.exprTree = root;
+        return pos;
     }
 
-    public ParseResult parseExprPrefix(int startPos) throws ParseException {
-        LexicalToken token = startPos < this.tokens.size() ? this.tokens.get(startPos) :
-                             (this.tokens.isEmpty() ? null : this.tokens.get(this.tokens.size() - 1));
-        expect(startPos < this.tokens.size(), "Unexpected end of input while parsing expression", token);
+    private int exprPrefix(int startPos) throws ParseException {
+        LexicalToken token = hasToken(startPos) ? tokenAt(startPos) :
+                             lastToken();
+        expect(hasToken(startPos), "Unexpected end of input while parsing expression", token);
 
-        if (hasPrefixUnaryOperator(startPos)) {
+        if (token.getTokenType() == LexicalToken.TokenType.KEYWORD && token.getVal().equals(LEN_TOKEN)) {
+            return exprLen(startPos);
+        } else if (hasPrefixUnaryOperator(startPos)) {
             // parse prefix unary operator
             String op = token.getVal();
-            ParseResult operandResult = parseExpr(startPos + 1, PrecedenceInfo.forPrefixOperator(token).rightBindingPower);
-            ASTBase operand = operandResult.tree;
-            int pos = operandResult.nextPos;
-
-            ASTBase root = ASTExpr.unaryPrefix(op)
-                .operand(operand)
-                .build();
-
-            return new ParseResult(root, pos);
+            int pos = expr(startPos + 1, PrecedenceInfo.forPrefixOperator(token).rightBindingPower);
+            if (this.buildTree) {
+                this.exprTree = ASTExpr.unaryPrefix(op)
+                    .operand(this.exprTree)
+                    .build(this.hashConsTable);
+            }
+            return pos;
         } else if (token.getTokenType() == LexicalToken.TokenType.PUNCTUATION && token.getVal().equals("(")) {
-            // parse parenthesized expression
-            ParseResult innerResult = parseExpr(startPos + 1, 0);
-            int pos = innerResult.nextPos;
+            // parse parenthesized expression; exprTree is left holding the inner expression
+            int pos = expr(startPos + 1, 0);
 
             // expect closing parenthesis
-            LexicalToken closingToken = pos < this.tokens.size() ? this.tokens.get(pos) : token;
+            LexicalToken closingToken = hasToken(pos) ? tokenAt(pos) : token;
             expect(
-                pos < this.tokens.size() &&
+                hasToken(pos) &&
                 closingToken.getTokenType() == LexicalToken.TokenType.PUNCTUATION &&
                 closingToken.getVal().equals(")"),
                 "Expected closing parenthesis ')'",
@@ -381,10 +613,10 @@ public class Parse implements Parser {
             );
             pos++; // consume ')'
 
-            return new ParseResult(innerResult.tree, pos);
+            return pos;
         }
 
-        LexicalToken firstToken = this.tokens.get(startPos);
+        LexicalToken firstToken = tokenAt(startPos);
         expect(
             firstToken.getTokenType() == LexicalToken.TokenType.IDENTIFIER ||
             firstToken.getTokenType() == LexicalToken.TokenType.INTLITERAL ||
@@ -395,81 +627,116 @@ public class Parse implements Parser {
             "Expected identifier or literal",
             firstToken
         );
-        ASTBase root = new ASTBase(firstToken); // TODO: initialize with proper prefix unary expr
-        int pos = startPos+1;
-        return new ParseResult(root, pos);
+        if (!this.buildTree) {
+            this.exprTree = null;
+        } else if (this.hashConsTable != null) {
+            this.exprTree = this.hashConsTable.leaf(firstToken);
+        } else {
+            this.exprTree = new ASTBase(firstToken); // TODO: initialize with proper prefix unary expr
+        }
+        return startPos + 1;
     }
 
-    public ParseResult parseExprPostfix(ASTBase left, int startPos) throws ParseException {
-        LexicalToken opToken = startPos < this.tokens.size() ? this.tokens.get(startPos) : null;
-        expect(startPos < this.tokens.size(), "Unexpected end of input while parsing postfix expression", opToken);
+    /*
+     * len ( id ): unlike a call, the operand is always a bare identifier. The tree is a unary
+     * prefix node whose token is the 'len' keyword and whose operand is the identifier's leaf.
+     */
+    private int exprLen(int startPos) throws ParseException {
+        LexicalToken len = tokenAt(startPos);
+        int pos = startPos + 1;
+        expect(hasToken(pos) && START_FN_CALL_TOKEN.equals(tokenAt(pos).getVal()),
+            "Expected '(' after 'len'", hasToken(pos) ? tokenAt(pos) : len);
+        pos++;
+        expect(hasToken(pos) && tokenAt(pos).getTokenType() == LexicalToken.TokenType.IDENTIFIER,
+            "Expected an array name in 'len'", hasToken(pos) ? tokenAt(pos) : len);
+        LexicalToken name = tokenAt(pos++);
+        expect(hasToken(pos) && END_FN_CALL_TOKEN.equals(tokenAt(pos).getVal()),
+            "Expected closing parenthesis ')'", hasToken(pos) ? tokenAt(pos) : name);
+        pos++;
+
+        if (!this.buildTree) {
+            this.exprTree = null;
+        } else {
+            ASTBase operand = this.hashConsTable != null ? this.hashConsTable.leaf(name) : new ASTBase(name);
+            this.exprTree = ASTExpr.unaryPrefix(len).operand(operand).build(this.hashConsTable);
+        }
+        return pos;
+    }
+
+    private int exprPostfix(ASTBase left, int startPos) throws ParseException {
+        LexicalToken opToken = hasToken(startPos) ? tokenAt(startPos) : null;
+        expect(hasToken(startPos), "Unexpected end of input while parsing postfix expression", opToken);
 
         String op = opToken.getVal();
 
         if (START_INDEX_TOKEN.equals(op)) {
             // parse array indexing
-            expect(startPos + 1 < this.tokens.size(), "Unexpected end of input after '['", opToken);
+            expect(hasToken(startPos + 1), "Unexpected end of input after '['", opToken);
 
-            ParseResult indexResult = parseExpr(startPos + 1, 0);
-            int pos = indexResult.nextPos;
+            int pos = expr(startPos + 1, 0);
 
             // expect closing bracket
-            LexicalToken closingToken = pos < this.tokens.size() ? this.tokens.get(pos) : opToken;
+            LexicalToken closingToken = hasToken(pos) ? tokenAt(pos) : opToken;
             expect(
-                pos < this.tokens.size() && END_INDEX_TOKEN.equals(this.tokens.get(pos).getVal()),
+                hasToken(pos) && END_INDEX_TOKEN.equals(tokenAt(pos).getVal()),
                 "Expected closing bracket ']'",
                 closingToken
             );
 
             pos++; // consume ']'
 
-            ASTExpr tree = ASTExpr.arrayAccess()
-                .array(left)
-                .index(indexResult.tree)
-                .build();
-
-            return new ParseResult(tree, pos);
+            if (this.buildTree) {
+                this.exprTree = ASTExpr.arrayAccess()
+                    .array(left)
+                    .index(this.exprTree)
+                    .build(this.hashConsTable);
+            }
+            return pos;
 
         } else if (START_FN_CALL_TOKEN.equals(op)) {
             // parse function call
             int pos = startPos + 1;
-            List<ASTBase> args = new ArrayList<>();
+            List<ASTBase> args = this.buildTree ? new ArrayList<>() : null;
 
-            while (pos < this.tokens.size() &&
-                   !END_FN_CALL_TOKEN.equals(this.tokens.get(pos).getVal())) {
-                ParseResult argResult = parseExpr(pos, 0);
-                args.add(argResult.tree);
-                pos = argResult.nextPos;
+            while (hasToken(pos) &&
+                   !END_FN_CALL_TOKEN.equals(tokenAt(pos).getVal())) {
+                pos = expr(pos, 0);
+                if (this.buildTree) {
+                    args.add(this.exprTree);
+                }
 
                 // check for argument delimiter
-                if (!ARG_DELIMITER_TOKEN.equals(this.tokens.get(pos).getVal())) {
+                if (!ARG_DELIMITER_TOKEN.equals(tokenAt(pos).getVal())) {
                     break;
                 }
                 pos++; // consume ','
             }
 
-            LexicalToken closingToken = pos < this.tokens.size() ? this.tokens.get(pos) : opToken;
+            LexicalToken closingToken = hasToken(pos) ? tokenAt(pos) : opToken;
             expect(
-                pos < this.tokens.size() && END_FN_CALL_TOKEN.equals(this.tokens.get(pos).getVal()),
+                hasToken(pos) && END_FN_CALL_TOKEN.equals(tokenAt(pos).getVal()),
                 "Expected closing parenthesis ')'",
                 closingToken
             );
 
             pos++; // consume ')'
 
-            ASTExpr tree = ASTExpr.methodCall()
-                .function(left)
-                .arguments(args)
-                .build();
-
-            return new ParseResult(tree, pos);
-
-        } else if (POSTFIX_INCREMENT_TOKEN.equals(this.tokens.get(startPos).getVal()) ||
-                   POSTFIX_DECREMENT_TOKEN.equals(this.tokens.get(startPos).getVal())) {
-            ASTBase root = ASTExpr.unaryPostfix(op)
-                .operand(left)
-                .build();
-                return new ParseResult(root, startPos + 1);
+            if (this.buildTree) {
+                this.exprTree = ASTExpr.methodCall()
+                    .function(left)
+                    .arguments(args)
+                    .build(this.hashConsTable);
+            }
+            return pos;
+
+        } else if (POSTFIX_INCREMENT_TOKEN.equals(tokenAt(startPos).getVal()) ||
+                   POSTFIX_DECREMENT_TOKEN.equals(tokenAt(startPos).getVal())) {
+            if (this.buildTree) {
+                this.exprTree = ASTExpr.unaryPostfix(op)
+                    .operand(left)
+                    .build(this.hashConsTable);
+            }
+            return startPos + 1;
         }
         else {
             throw new ParseException("Unknown postfix operator", opToken);
@@ -480,15 +747,11 @@ public class Parse implements Parser {
         /*
          * Returns true if there is a infix operator token at pos.
          */
-        if (pos < this.tokens.size()) {
-            LexicalToken token = this.tokens.get(pos);
+        if (hasToken(pos)) {
+            LexicalToken token = tokenAt(pos);
             if (token.getTokenType() == LexicalToken.TokenType.PUNCTUATION) {
                 String op = token.getVal();
-                Set<String> operators = Set.of(
-                    "||", "&&", "==", "!=", "<", "<=", ">", ">=",
-                    "+", "-", "*", "/", "%", "(", "[", "++", "--"
-                );
-                return operators.contains(op);
+                return INFIX_OR_POSTFIX_OPERATORS.contains(op);
             }
             return false;
         }
@@ -499,13 +762,10 @@ public class Parse implements Parser {
         /*
          * Returns true if there is a prefix unary operator token at pos.
          */
-        if (pos < this.tokens.size()) {
-            LexicalToken token = this.tokens.get(pos);
+        if (hasToken(pos)) {
+            LexicalToken token = tokenAt(pos);
             String op = token.getVal();
-            Set<String> operators = Set.of(
-                "-", "!", "++", "--", "int", "long"
-            );
-            return operators.contains(op);
+            return PREFIX_UNARY_OPERATORS.contains(op);
         }
         return false;
     }
@@ -514,14 +774,11 @@ public class Parse implements Parser {
         /*
          * Returns true if there is a prefix unary operator token at pos.
          */
-        if (pos < this.tokens.size()) {
-            LexicalToken token = this.tokens.get(pos);
+        if (hasToken(pos)) {
+            LexicalToken token = tokenAt(pos);
             if (token.getTokenType() == LexicalToken.TokenType.PUNCTUATION) {
                 String op = token.getVal();
-                Set<String> operators = Set.of(
-                    "++", "--"
-                );
-                return operators.contains(op);
+                return POSTFIX_UNARY_OPERATORS.contains(op);
             }
             return false;
         }
@@ -532,14 +789,11 @@ public class Parse implements Parser {
         /*
          * Returns true if there is a postfix operator token at pos.
          */
-        if (pos < this.tokens.size()) {
-            LexicalToken token = this.tokens.get(pos);
+        if (hasToken(pos)) {
+            LexicalToken token = tokenAt(pos);
             if (token.getTokenType() == LexicalToken.TokenType.PUNCTUATION) {
                 String op = token.getVal();
-                Set<String> operators = Set.of(
-                    "(", "[", "++", "--"
-                );
-                return operators.contains(op);
+                return POSTFIX_OPERATORS.contains(op);
             }
             return false;
         }
@@ -13,4 +13,13 @@ public interface Parser {
      * @throws ParseException if parsing fails
      */
     ASTBase parseProgram() throws ParseException;
+
+    /**
+     * Asks the parser to only check the syntax of its input. {@link #parseProgram()} then
+     * reports the same errors but may return null instead of a tree. Parsers that cannot skip
+     * building the tree may ignore this.
+     * @param recognizeOnly true if the caller will not use the tree
+     */
+    default void setRecognizeOnly(boolean recognizeOnly) {
+    }
 }
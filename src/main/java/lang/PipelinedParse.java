@@ -0,0 +1,125 @@
+package lang;
+
+import java.util.Collections;
+import java.util.List;
+
+import lang.scanner.TokenSink;
+import lang.types.ASTBase;
+import lang.types.CFGGraph;
+import lang.types.LexicalToken;
+import lang.utils.SpscRingBuffer;
+
+/**
+ * Parser that consumes tokens while they are still being scanned on another thread.
+ *
+ * The scanner publishes batches of tokens through {@link #sink()} into a bounded
+ * single-producer/single-consumer ring; the parser pulls batches into its token buffer only
+ * when it reads past the tokens it already has, waiting (spin, then park) if the scanner is
+ * behind. When the scanner closes the stream the EOF token is appended, so the parser sees
+ * exactly the buffer {@link Parse} would have been given and reports the same errors.
+ *
+ * <pre>
+ *     PipelinedParse parser = new PipelinedParse(grammar);
+ *     lexer.setTokenSink(parser.sink());
+ *     // run lexer.scan() on another thread, calling parser.fail(t) if it throws
+ *     try {
+ *         ast = parser.parseProgram();
+ *     } finally {
+ *         parser.cancel();
+ *     }
+ * </pre>
+ */
+public class PipelinedParse extends Parse {
+    private static final int RING_CAPACITY = 64; // batches in flight
+
+    private final SpscRingBuffer<LexicalToken[]> ring = new SpscRingBuffer<>(RING_CAPACITY);
+    private final List<LexicalToken> buffer;
+    private boolean ended = false;
+    private Throwable failure = null;
+
+    public PipelinedParse(CFGGraph cfgGraph) {
+        super(cfgGraph);
+        this.buffer = getTokenBuffer();
+    }
+
+    /**
+     * @return The sink for the scanner thread to publish tokens into
+     */
+    public TokenSink sink() {
+        return new TokenSink() {
+            @Override
+            public void accept(LexicalToken[] batch) {
+                ring.put(batch);
+            }
+
+            @Override
+            public void close() {
+                ring.close();
+            }
+        };
+    }
+
+    /**
+     * Ends the token stream with a failure from the scanner thread; once it has consumed the
+     * tokens published before it, {@link #parseProgram()} throws a {@link ParseException}
+     * caused by it, as a scan failure on the sequential path would.
+     */
+    public void fail(Throwable cause) {
+        failure = cause; // published by the ring
+        ring.fail(cause);
+    }
+
+    /**
+     * Stops accepting tokens, releasing a scanner blocked on a full ring. Call once parsing
+     * is over, whether or not it succeeded.
+     */
+    public void cancel() {
+        ring.cancel();
+    }
+
+    @Override
+    public ASTBase parseProgram() throws ParseException {
+        try {
+            return super.parseProgram();
+        } catch (ScanFailure e) {
+            Throwable cause = e.getCause();
+            throw new ParseException("Scanning failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    protected boolean hasToken(int pos) {
+        while (pos >= buffer.size() && !ended) {
+            fill();
+        }
+        return pos < buffer.size();
+    }
+
+    @Override
+    protected LexicalToken tokenAt(int pos) {
+        hasToken(pos);
+        return buffer.get(pos);
+    }
+
+    private void fill() {
+        LexicalToken[] batch;
+        try {
+            batch = ring.take();
+        } catch (RuntimeException e) {
+            throw new ScanFailure(failure != null ? failure : e);
+        }
+        if (batch == null) {
+            buffer.add(eofToken());
+            ended = true;
+        } else {
+            Collections.addAll(buffer, batch);
+        }
+    }
+
+    // A scanner failure on its way out of the parse methods, which only throw ParseException
+    private static final class ScanFailure extends RuntimeException {
+        ScanFailure(Throwable cause) {
+            super(cause);
+        }
+    }
+}
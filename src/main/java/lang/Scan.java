@@ -15,6 +15,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
 
+import lang.scanner.TokenSink;
 import lang.types.LexicalToken;
 import lombok.Getter;
 
@@ -385,6 +386,12 @@ public class Scan implements Lexer {
     private Integer columnNumber = 1;
 
     private boolean foundError = false;
+
+    private boolean debug = false;
+
+    private static final int SINK_BATCH_SIZE = 512;
+    private TokenSink sink = null;
+    private int flushed = 0; // tokens already handed to the sink
     private boolean canGobble() {
         return !foundError && end < in.length();
     }
@@ -418,23 +425,32 @@ public class Scan implements Lexer {
             TokenType tokenType;
             try {
                 tokenType = currentState.toTokenType(token);
-                System.out.println("Type: " + tokenType + " Token: " + token);
+                if (debug) {
+                    System.out.println("Type: " + tokenType + " Token: " + token);
+                }
                 // Only create LexicalToken if tokenType is NOT IGNORE
                 if (tokenType != TokenType.IGNORE) {
                     // Convert Scan.TokenType to LexicalToken.TokenType
                     LexicalToken.TokenType lexicalTokenType = convertToLexicalTokenType(tokenType);
                     tokens.add(new LexicalToken(lexicalTokenType, token, lineNumber, columnNumber));
+                    if (sink != null && tokens.size() - flushed >= SINK_BATCH_SIZE) {
+                        flush();
+                    }
                 }
             } catch (IllegalSyntaxException e) {
                 String errorMsg = e.getMessage();
-                System.out.println("Error: " + errorMsg);
+                if (debug) {
+                    System.out.println("Error: " + errorMsg);
+                }
                 putError(errorMsg);
             }
         } 
         else if (nextState == State.ERROR) {
             String token = in.substring(start, end);
             String errorMsg = "Unexpected character '" + c + "' after '" + token + "'";
-            System.out.println("Error: " + errorMsg);
+            if (debug) {
+                System.out.println("Error: " + errorMsg);
+            }
             putError(errorMsg);
         }
         
@@ -476,6 +492,32 @@ public class Scan implements Lexer {
         while (this.canGobble()) {
             this.gobble();
         }
+        if (sink != null) {
+            flush();
+            sink.close();
+        }
+    }
+
+    /**
+     * Prints each token and error as it is scanned.
+     */
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    /**
+     * Streams tokens to the sink in batches while scanning. Tokens are still collected for
+     * {@link #getTokens()} as well.
+     */
+    public void setTokenSink(TokenSink sink) {
+        this.sink = sink;
+    }
+
+    private void flush() {
+        if (flushed < tokens.size()) {
+            sink.accept(tokens.subList(flushed, tokens.size()).toArray(new LexicalToken[0]));
+            flushed = tokens.size();
+        }
     }
 
     public String toString() {
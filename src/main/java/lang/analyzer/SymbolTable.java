@@ -0,0 +1,277 @@
+package lang.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * Block-structured symbol table for semantic analysis.
+ *
+ * Identifiers are interned to dense integer IDs through an open-addressing hash table, so a
+ * name is hashed once per occurrence and everything else works on ints. Because the IDs are
+ * dense, the map from an ID to its innermost binding is a plain array indexed by ID. Each
+ * binding records the binding of the same name that it shadows, so a lookup is a single array
+ * read no matter how many scopes are open.
+ *
+ * Entering a scope records the current number of bindings. Leaving it unwinds the bindings
+ * made since then, restoring whatever each one shadowed; no map is ever copied or cleared.
+ * Every binding is made and unwound exactly once, so a program with n declarations and m uses
+ * costs O(n + m) in total regardless of how deeply its scopes nest.
+ *
+ * A table can be frozen and then shared by any number of child tables, one per thread. A child
+ * sees the frozen table's names and bindings as its outermost scopes and keeps everything it
+ * interns or declares to itself; IDs from the frozen table mean the same thing in every child.
+ * A table is not thread-safe, but a frozen one is never written again and can be read from
+ * any thread.
+ *
+ * @param <V> Symbol information stored with each binding
+ */
+public class SymbolTable<V> {
+    /** Returned by {@link #find(String)} for names that were never interned. */
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Frozen table whose names and bindings this one extends, or null
+    private final SymbolTable<V> enclosing;
+    private final int baseId;    // IDs below this belong to the enclosing table
+    private final int baseDepth; // scopes at or below this depth belong to the enclosing table
+    private boolean frozen = false;
+
+    // Names interned here: slots hold (id - baseId) + 1 so that 0 means empty
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] nameHashes = new int[INITIAL_CAPACITY];
+    private int nameCount = 0;
+
+    // id -> 1 + index of its innermost binding made here, or 0; grown on demand
+    private int[] innermost = new int[INITIAL_CAPACITY];
+
+    // Bindings, in declaration order; the open scopes own contiguous suffixes of this stack.
+    // shadowed[b] is 1 + the binding that b hides, or 0
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int[] bindingIds = new int[INITIAL_CAPACITY];
+    private int[] shadowed = new int[INITIAL_CAPACITY];
+    private int[] bindingDepths = new int[INITIAL_CAPACITY];
+    private int bindingCount = 0;
+
+    // scopeStarts[d - baseDepth - 1] is the first binding made in the scope at depth d
+    private int[] scopeStarts = new int[16];
+    private int depth;
+
+    public SymbolTable() {
+        this.enclosing = null;
+        this.baseId = 0;
+        this.baseDepth = 0;
+        this.depth = 0;
+    }
+
+    /**
+     * Creates a table whose outermost scopes are those of a frozen table.
+     * @throws IllegalStateException if the enclosing table is not frozen
+     */
+    public SymbolTable(SymbolTable<V> enclosing) {
+        if (!enclosing.frozen) {
+            throw new IllegalStateException("Only a frozen table can be shared");
+        }
+        this.enclosing = enclosing;
+        this.baseId = enclosing.size();
+        this.baseDepth = enclosing.depth;
+        this.depth = this.baseDepth;
+    }
+
+    /**
+     * Makes this table read-only so that child tables on other threads can share it.
+     */
+    public void freeze() {
+        this.frozen = true;
+    }
+
+    /**
+     * Returns the ID for the given name, assigning the next free ID on first use.
+     */
+    public int intern(String name) {
+        checkWritable();
+        int hash = mix(name.hashCode());
+        int mask = this.slots.length - 1;
+        int i = hash & mask;
+        for (; this.slots[i] != 0; i = (i + 1) & mask) {
+            int local = this.slots[i] - 1;
+            if (this.nameHashes[local] == hash && this.names[local].equals(name)) {
+                return this.baseId + local;
+            }
+        }
+        if (this.enclosing != null) {
+            int id = this.enclosing.find(name);
+            if (id != NOT_FOUND) {
+                return id;
+            }
+        }
+
+        int local = this.nameCount++;
+        if (local == this.names.length) {
+            this.names = Arrays.copyOf(this.names, local * 2);
+            this.nameHashes = Arrays.copyOf(this.nameHashes, local * 2);
+        }
+        this.names[local] = name;
+        this.nameHashes[local] = hash;
+        this.slots[i] = local + 1;
+        if (this.nameCount * 2 > this.slots.length) {
+            rehash();
+        }
+        return this.baseId + local;
+    }
+
+    /**
+     * Returns the ID of the given name without interning it.
+     * @return The ID, or {@link #NOT_FOUND} if the name was never interned
+     */
+    public int find(String name) {
+        int hash = mix(name.hashCode());
+        int mask = this.slots.length - 1;
+        for (int i = hash & mask; this.slots[i] != 0; i = (i + 1) & mask) {
+            int local = this.slots[i] - 1;
+            if (this.nameHashes[local] == hash && this.names[local].equals(name)) {
+                return this.baseId + local;
+            }
+        }
+        return this.enclosing == null ? NOT_FOUND : this.enclosing.find(name);
+    }
+
+    public String name(int id) {
+        return id < this.baseId ? this.enclosing.name(id) : this.names[id - this.baseId];
+    }
+
+    /**
+     * Number of names interned so far, including those of the enclosing table; IDs run from
+     * 0 to this value exclusive.
+     */
+    public int size() {
+        return this.baseId + this.nameCount;
+    }
+
+    /**
+     * Opens a scope nested in the current one. O(1).
+     */
+    public void enterScope() {
+        checkWritable();
+        int open = this.depth - this.baseDepth;
+        if (open == this.scopeStarts.length) {
+            this.scopeStarts = Arrays.copyOf(this.scopeStarts, open * 2);
+        }
+        this.scopeStarts[open] = this.bindingCount;
+        this.depth++;
+    }
+
+    /**
+     * Closes the current scope, dropping its bindings and uncovering what they shadowed.
+     * Costs O(1) per binding made in the scope.
+     * @throws IllegalStateException if no scope of this table is open
+     */
+    public void exitScope() {
+        checkWritable();
+        if (this.depth == this.baseDepth) {
+            throw new IllegalStateException("No scope to exit");
+        }
+        int start = this.scopeStarts[--this.depth - this.baseDepth];
+        for (int b = this.bindingCount - 1; b >= start; b--) {
+            this.innermost[this.bindingIds[b]] = this.shadowed[b];
+            this.values[b] = null;
+        }
+        this.bindingCount = start;
+    }
+
+    /**
+     * Number of open scopes, including those of the enclosing table; the outermost scope has
+     * depth 1.
+     */
+    public int depth() {
+        return this.depth;
+    }
+
+    /**
+     * Binds an ID in the current scope, shadowing any binding from an enclosing scope.
+     * @return null on success, or the value already bound to the ID in the current scope, in
+     *         which case the table is left unchanged
+     * @throws IllegalStateException if no scope of this table is open
+     */
+    @SuppressWarnings("unchecked")
+    public V declare(int id, V value) {
+        checkWritable();
+        if (this.depth == this.baseDepth) {
+            throw new IllegalStateException("Cannot declare outside of a scope");
+        }
+        if (id >= this.innermost.length) {
+            this.innermost = Arrays.copyOf(this.innermost, Math.max(id + 1, this.innermost.length * 2));
+        }
+        int previous = this.innermost[id] - 1;
+        if (previous >= 0 && this.bindingDepths[previous] == this.depth) {
+            return (V) this.values[previous];
+        }
+        int b = this.bindingCount++;
+        if (b == this.values.length) {
+            growBindings();
+        }
+        this.values[b] = value;
+        this.bindingIds[b] = id;
+        this.shadowed[b] = previous + 1;
+        this.bindingDepths[b] = this.depth;
+        this.innermost[id] = b + 1;
+        return null;
+    }
+
+    /**
+     * Returns the value of the innermost binding of an ID, or null if it is not in scope.
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(int id) {
+        int b = id < this.innermost.length ? this.innermost[id] - 1 : -1;
+        if (b >= 0) {
+            return (V) this.values[b];
+        }
+        return id < this.baseId ? this.enclosing.lookup(id) : null;
+    }
+
+    /**
+     * Returns the depth of the scope holding the innermost binding of an ID, or 0 if it is not
+     * in scope.
+     */
+    public int scopeOf(int id) {
+        int b = id < this.innermost.length ? this.innermost[id] - 1 : -1;
+        if (b >= 0) {
+            return this.bindingDepths[b];
+        }
+        return id < this.baseId ? this.enclosing.scopeOf(id) : 0;
+    }
+
+    private void checkWritable() {
+        if (this.frozen) {
+            throw new IllegalStateException("Symbol table is frozen");
+        }
+    }
+
+    private void growBindings() {
+        int capacity = this.values.length * 2;
+        this.values = Arrays.copyOf(this.values, capacity);
+        this.bindingIds = Arrays.copyOf(this.bindingIds, capacity);
+        this.shadowed = Arrays.copyOf(this.shadowed, capacity);
+        this.bindingDepths = Arrays.copyOf(this.bindingDepths, capacity);
+    }
+
+    private void rehash() {
+        int[] grown = new int[this.slots.length * 2];
+        int mask = grown.length - 1;
+        for (int local = 0; local < this.nameCount; local++) {
+            int i = this.nameHashes[local] & mask;
+            while (grown[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            grown[i] = local + 1;
+        }
+        this.slots = grown;
+    }
+
+    // String.hashCode is weak in the low bits for short identifiers that share a prefix
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,135 @@
+package lang.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Layout of the binary token/AST format shared by {@link BinaryWriter} and {@link BinaryReader}.
+ *
+ * All fixed-width integers are little-endian. A file is a 28-byte header followed by three
+ * sections, each prefixed with its length in bytes so a reader can skip what it does not need:
+ * <pre>
+ *   header    "DCFB", u16 version, u16 flags, u32 strings, u32 streamTokens, u32 tokens,
+ *             u32 nodes, u32 root (0xFFFFFFFF if there is no tree)
+ *   STRINGS   u32 offset[strings + 1], then the UTF-8 bytes of every string back to back
+ *   TOKENS    columns: type (1 byte each), value (string id), line, column
+ *   NODES     columns: kind (1 byte each), token, child count, children
+ * </pre>
+ * Every column is itself length-prefixed. Columns other than the byte columns hold varints;
+ * lines are zigzag-encoded differences from the previous token's line and columns are zigzag
+ * encoded, so positions of -1 (the parser's EOF token) survive.
+ *
+ * The first streamTokens tokens are the scanner's token stream; the rest are tokens that only
+ * appear in the tree. Nodes are stored in post-order, children before parents, so every child
+ * reference is the (positive) distance back from the parent's id, with 0 for a null child. A
+ * node shared by several parents (see {@link lang.types.HashConsTable}) is stored once. A
+ * node's token is 0 for none or 1 + the token's index.
+ *
+ * The kind byte packs the node class and its fields: bits 0-2 hold the environment ordinal + 1
+ * (0 for none), bit 3 is set for an ASTExpr, bit 4 holds its fixity and bits 5-6 its arity.
+ */
+final class BinaryFormat {
+    static final byte[] MAGIC = {'D', 'C', 'F', 'B'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 28;
+    static final int NO_ROOT = -1;
+
+    static final int FLAG_TOKENS = 1;
+    static final int FLAG_TREE = 2;
+
+    static final int KIND_ENV_MASK = 0x7;
+    static final int KIND_EXPR = 0x8;
+    static final int KIND_FIXITY_SHIFT = 4;
+    static final int KIND_ARITY_SHIFT = 5;
+
+    private BinaryFormat() {}
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads an unsigned varint at the buffer's position, advancing it.
+     */
+    static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Decodes a whole varint column.
+     */
+    static int[] readVarints(ByteBuffer column, int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = readVarint(column);
+        }
+        return values;
+    }
+
+    /**
+     * Growable byte array that the writer builds each column in.
+     */
+    static final class Column {
+        private byte[] bytes = new byte[64];
+        private int size = 0;
+
+        void writeByte(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeInt(int value) {
+            writeByte(value);
+            writeByte(value >>> 8);
+            writeByte(value >>> 16);
+            writeByte(value >>> 24);
+        }
+
+        void writeBytes(byte[] data) {
+            for (byte b : data) {
+                writeByte(b);
+            }
+        }
+
+        /**
+         * Appends another column, prefixed with its length.
+         */
+        void writeColumn(Column column) {
+            writeInt(column.size);
+            if (size + column.size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + column.size));
+            }
+            System.arraycopy(column.bytes, 0, bytes, size, column.size);
+            size += column.size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
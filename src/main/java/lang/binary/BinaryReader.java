@@ -0,0 +1,294 @@
+package lang.binary;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lang.types.ASTBase;
+import lang.types.ASTExpr;
+import lang.types.LexicalToken;
+
+/**
+ * Reads the binary format described in {@link BinaryFormat}.
+ *
+ * Opening a file maps it and checks the header, its flags and the section lengths; nothing
+ * else is decoded until it is asked for. Strings are decoded one at a time through the offset
+ * index, a token column is decoded the first time a token is requested, and tree nodes are
+ * built on demand, so reading one subtree does not build the rest of the tree. Decoded tokens,
+ * strings and nodes are cached, and a node shared in the written tree is shared again when read
+ * back.
+ *
+ * Instances are not thread-safe.
+ */
+public class BinaryReader {
+    private final ByteBuffer buffer;
+    private final int version;
+    private final int flags;
+    private final int stringCount;
+    private final int streamTokenCount;
+    private final int tokenCount;
+    private final int nodeCount;
+    private final int root;
+
+    private final ByteBuffer stringOffsets;
+    private final ByteBuffer stringData;
+    private final ByteBuffer[] tokenColumns = new ByteBuffer[4];
+    private final ByteBuffer[] nodeColumns = new ByteBuffer[4];
+
+    private String[] strings;
+    private LexicalToken[] tokens;
+    private int[] tokenValues, tokenLines, tokenCols;
+    private ASTBase[] nodes;
+    private int[] nodeTokens, firstChild, childRefs;
+
+    /**
+     * Maps a file written by {@link BinaryWriter}.
+     * @throws IOException if the file cannot be read or is not in a supported format
+     */
+    public static BinaryReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new BinaryReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads from an in-memory or mapped buffer, starting at its position.
+     * @throws IOException if the buffer is not in a supported format
+     */
+    public BinaryReader(ByteBuffer data) throws IOException {
+        this.buffer = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (byte b : BinaryFormat.MAGIC) {
+                if (buffer.get() != b) {
+                    throw new IOException("Not a Decaf binary file");
+                }
+            }
+            this.version = Short.toUnsignedInt(buffer.getShort());
+            if (this.version != BinaryFormat.VERSION) {
+                throw new IOException("Unsupported binary format version " + this.version);
+            }
+            this.flags = Short.toUnsignedInt(buffer.getShort());
+            if ((this.flags & ~(BinaryFormat.FLAG_TOKENS | BinaryFormat.FLAG_TREE)) != 0) {
+                throw new IOException("Unsupported binary format flags 0x" + Integer.toHexString(this.flags));
+            }
+            this.stringCount = buffer.getInt();
+            this.streamTokenCount = buffer.getInt();
+            this.tokenCount = buffer.getInt();
+            this.nodeCount = buffer.getInt();
+            this.root = buffer.getInt();
+
+            ByteBuffer stringSection = section(buffer);
+            this.stringOffsets = section(stringSection);
+            this.stringData = section(stringSection);
+            ByteBuffer tokenSection = section(buffer);
+            for (int i = 0; i < tokenColumns.length; i++) {
+                tokenColumns[i] = section(tokenSection);
+            }
+            ByteBuffer nodeSection = section(buffer);
+            for (int i = 0; i < nodeColumns.length; i++) {
+                nodeColumns[i] = section(nodeSection);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated Decaf binary file", e);
+        }
+        if (this.stringOffsets.remaining() != 4 * (this.stringCount + 1)
+                || this.tokenColumns[0].remaining() != this.tokenCount
+                || this.nodeColumns[0].remaining() != this.nodeCount) {
+            throw new IOException("Corrupt Decaf binary file: section sizes do not match header");
+        }
+        if (hasTree() != (this.root != BinaryFormat.NO_ROOT) || !hasTokens() && this.streamTokenCount != 0) {
+            throw new IOException("Corrupt Decaf binary file: flags do not match header");
+        }
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean hasTokens() {
+        return (flags & BinaryFormat.FLAG_TOKENS) != 0;
+    }
+
+    public boolean hasTree() {
+        return (flags & BinaryFormat.FLAG_TREE) != 0;
+    }
+
+    /**
+     * @return The number of tokens in the scanner's token stream
+     */
+    public int getTokenCount() {
+        return streamTokenCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return The token stream as written by {@link BinaryWriter#tokens(List)}
+     */
+    public List<LexicalToken> getTokens() {
+        List<LexicalToken> stream = new ArrayList<>(streamTokenCount);
+        for (int i = 0; i < streamTokenCount; i++) {
+            stream.add(getToken(i));
+        }
+        return stream;
+    }
+
+    /**
+     * Gets a token by index. Indices past {@link #getTokenCount()} reach the tokens that only
+     * appear in the tree.
+     */
+    public LexicalToken getToken(int index) {
+        if (index < 0 || index >= tokenCount) {
+            throw new IndexOutOfBoundsException("Token " + index + " of " + tokenCount);
+        }
+        if (tokens == null) {
+            decodeTokenColumns();
+        }
+        LexicalToken token = tokens[index];
+        if (token == null) {
+            token = new LexicalToken(
+                LexicalToken.TokenType.values()[tokenColumns[0].get(index)],
+                string(tokenValues[index]),
+                tokenLines[index],
+                tokenCols[index]);
+            tokens[index] = token;
+        }
+        return token;
+    }
+
+    /**
+     * @return The root of the tree, or null if none was written
+     */
+    public ASTBase getTree() {
+        return root == BinaryFormat.NO_ROOT ? null : getNode(root);
+    }
+
+    /**
+     * Gets a node and its subtree by id. Ids are assigned in post-order, so the root has the
+     * highest id.
+     */
+    public ASTBase getNode(int id) {
+        if (id < 0 || id >= nodeCount) {
+            throw new IndexOutOfBoundsException("Node " + id + " of " + nodeCount);
+        }
+        if (nodes == null) {
+            decodeNodeColumns();
+        }
+        if (nodes[id] != null) {
+            return nodes[id];
+        }
+
+        // Children have lower ids than their parents; build the unbuilt ones bottom-up
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = id;
+        while (top > 0) {
+            int current = stack[top - 1];
+            boolean ready = true;
+            for (int k = firstChild[current]; k < firstChild[current + 1]; k++) {
+                int child = childRefs[k] == 0 ? -1 : current - childRefs[k];
+                if (child >= 0 && nodes[child] == null) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = child;
+                    ready = false;
+                }
+            }
+            if (ready) {
+                top--;
+                if (nodes[current] == null) {
+                    nodes[current] = build(current);
+                }
+            }
+        }
+        return nodes[id];
+    }
+
+    /**
+     * Decodes one string of the string table.
+     */
+    public String string(int id) {
+        if (strings == null) {
+            strings = new String[stringCount];
+        }
+        String s = strings[id];
+        if (s == null) {
+            int start = stringOffsets.getInt(4 * id);
+            int end = stringOffsets.getInt(4 * (id + 1));
+            byte[] bytes = new byte[end - start];
+            stringData.get(start, bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[id] = s;
+        }
+        return s;
+    }
+
+    private ASTBase build(int id) {
+        int kind = nodeColumns[0].get(id);
+        ASTBase.Environment[] environments = ASTBase.Environment.values();
+        ASTBase node;
+        if ((kind & BinaryFormat.KIND_EXPR) != 0) {
+            node = new ASTExpr(
+                ASTExpr.Fixity.values()[(kind >>> BinaryFormat.KIND_FIXITY_SHIFT) & 0x1],
+                ASTExpr.Arity.values()[(kind >>> BinaryFormat.KIND_ARITY_SHIFT) & 0x3]);
+        } else {
+            node = new ASTBase();
+        }
+        int environment = kind & BinaryFormat.KIND_ENV_MASK;
+        if (environment != 0) {
+            node.setType(environments[environment - 1]);
+        }
+        if (nodeTokens[id] != 0) {
+            node.setToken(getToken(nodeTokens[id] - 1));
+        }
+        for (int k = firstChild[id]; k < firstChild[id + 1]; k++) {
+            node.addChild(childRefs[k] == 0 ? null : nodes[id - childRefs[k]]);
+        }
+        return node;
+    }
+
+    private void decodeTokenColumns() {
+        tokenValues = BinaryFormat.readVarints(tokenColumns[1].duplicate(), tokenCount);
+        tokenLines = BinaryFormat.readVarints(tokenColumns[2].duplicate(), tokenCount);
+        tokenCols = BinaryFormat.readVarints(tokenColumns[3].duplicate(), tokenCount);
+        int line = 0;
+        for (int i = 0; i < tokenCount; i++) {
+            line += BinaryFormat.unzigzag(tokenLines[i]);
+            tokenLines[i] = line;
+            tokenCols[i] = BinaryFormat.unzigzag(tokenCols[i]);
+        }
+        tokens = new LexicalToken[tokenCount];
+    }
+
+    private void decodeNodeColumns() {
+        nodeTokens = BinaryFormat.readVarints(nodeColumns[1].duplicate(), nodeCount);
+        int[] counts = BinaryFormat.readVarints(nodeColumns[2].duplicate(), nodeCount);
+        firstChild = new int[nodeCount + 1];
+        for (int i = 0; i < nodeCount; i++) {
+            firstChild[i + 1] = firstChild[i] + counts[i];
+        }
+        childRefs = BinaryFormat.readVarints(nodeColumns[3].duplicate(), firstChild[nodeCount]);
+        nodes = new ASTBase[nodeCount];
+    }
+
+    /*
+     * Reads a length-prefixed section at the buffer's position and advances past it.
+     */
+    private static ByteBuffer section(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer section = buffer.slice(buffer.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + length);
+        return section;
+    }
+}
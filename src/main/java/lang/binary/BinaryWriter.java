@@ -0,0 +1,197 @@
+package lang.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lang.binary.BinaryFormat.Column;
+import lang.types.ASTBase;
+import lang.types.ASTCursor;
+import lang.types.ASTExpr;
+import lang.types.LexicalToken;
+
+/**
+ * Writes a token stream and/or an AST in the binary format described in {@link BinaryFormat}.
+ *
+ * <pre>
+ *     new BinaryWriter().tokens(lexer.getTokens()).tree(ast).write(out);
+ * </pre>
+ * Tokens must be added before the tree so that the tree's leaves can refer to them instead of
+ * storing their own copies.
+ */
+public class BinaryWriter {
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final IdentityHashMap<LexicalToken, Integer> tokenIds = new IdentityHashMap<>();
+    private final List<LexicalToken> tokens = new ArrayList<>();
+    private int streamTokens = 0;
+
+    private final Column kinds = new Column();
+    private final Column nodeTokens = new Column();
+    private final Column childCounts = new Column();
+    private final Column childRefs = new Column();
+    private int nodes = 0;
+    private int root = BinaryFormat.NO_ROOT;
+    private int flags = 0;
+
+    /**
+     * Adds the scanner's token stream.
+     * @throws IllegalStateException if tokens or a tree were already added
+     */
+    public BinaryWriter tokens(List<LexicalToken> stream) {
+        if (this.flags != 0) {
+            throw new IllegalStateException("Tokens must be added once, before the tree");
+        }
+        for (LexicalToken token : stream) {
+            tokenId(token);
+        }
+        this.streamTokens = this.tokens.size();
+        this.flags |= BinaryFormat.FLAG_TOKENS;
+        return this;
+    }
+
+    /**
+     * Adds a tree. Nodes reachable along several paths are written once.
+     * @throws IllegalStateException if a tree was already added
+     */
+    public BinaryWriter tree(ASTBase tree) {
+        if ((this.flags & BinaryFormat.FLAG_TREE) != 0) {
+            throw new IllegalStateException("Only one tree can be written");
+        }
+        this.flags |= BinaryFormat.FLAG_TREE;
+        if (tree == null) {
+            return this;
+        }
+
+        IdentityHashMap<ASTBase, Integer> nodeIds = new IdentityHashMap<>();
+        ASTCursor cursor = new ASTCursor(tree);
+        while (cursor.advance()) {
+            ASTBase node = cursor.node();
+            if (cursor.event() == ASTCursor.Event.ENTER) {
+                if (nodeIds.containsKey(node)) {
+                    cursor.skipChildren(); // shared node, already written with its subtree
+                }
+                continue;
+            }
+            if (nodeIds.containsKey(node)) {
+                continue;
+            }
+            int id = this.nodes++;
+            nodeIds.put(node, id);
+            this.kinds.writeByte(kindOf(node));
+            this.nodeTokens.writeVarint(node.getToken() == null ? 0 : tokenId(node.getToken()) + 1);
+            this.childCounts.writeVarint(node.getNumChildren());
+            for (ASTBase child : node.children()) {
+                this.childRefs.writeVarint(child == null ? 0 : id - nodeIds.get(child));
+            }
+        }
+        this.root = this.nodes - 1;
+        return this;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        out.write(toByteArray());
+    }
+
+    public byte[] toByteArray() {
+        Column tokenSection = tokenSection(); // interns the token values, so before the strings
+        Column file = new Column();
+        file.writeBytes(BinaryFormat.MAGIC);
+        file.writeByte(BinaryFormat.VERSION);
+        file.writeByte(BinaryFormat.VERSION >>> 8);
+        file.writeByte(this.flags);
+        file.writeByte(this.flags >>> 8);
+        file.writeInt(this.strings.size());
+        file.writeInt(this.streamTokens);
+        file.writeInt(this.tokens.size());
+        file.writeInt(this.nodes);
+        file.writeInt(this.root);
+
+        file.writeColumn(stringSection());
+        file.writeColumn(tokenSection);
+        Column nodeSection = new Column();
+        nodeSection.writeColumn(this.kinds);
+        nodeSection.writeColumn(this.nodeTokens);
+        nodeSection.writeColumn(this.childCounts);
+        nodeSection.writeColumn(this.childRefs);
+        file.writeColumn(nodeSection);
+        return file.toByteArray();
+    }
+
+    private Column stringSection() {
+        Column offsets = new Column();
+        Column data = new Column();
+        for (String s : this.strings) {
+            offsets.writeInt(data.size());
+            data.writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+        offsets.writeInt(data.size());
+
+        Column section = new Column();
+        section.writeColumn(offsets);
+        section.writeColumn(data);
+        return section;
+    }
+
+    private Column tokenSection() {
+        Column types = new Column();
+        Column values = new Column();
+        Column lines = new Column();
+        Column columns = new Column();
+        int previousLine = 0;
+        for (LexicalToken token : this.tokens) {
+            int line = token.getLineNumber() == null ? -1 : token.getLineNumber();
+            int column = token.getColumnNumber() == null ? -1 : token.getColumnNumber();
+            types.writeByte(token.getTokenType().ordinal());
+            values.writeVarint(stringId(token.getVal()));
+            lines.writeVarint(BinaryFormat.zigzag(line - previousLine));
+            columns.writeVarint(BinaryFormat.zigzag(column));
+            previousLine = line;
+        }
+
+        Column section = new Column();
+        section.writeColumn(types);
+        section.writeColumn(values);
+        section.writeColumn(lines);
+        section.writeColumn(columns);
+        return section;
+    }
+
+    private int tokenId(LexicalToken token) {
+        Integer id = this.tokenIds.get(token);
+        if (id == null) {
+            id = this.tokens.size();
+            this.tokenIds.put(token, id);
+            this.tokens.add(token);
+        }
+        return id;
+    }
+
+    private int stringId(String s) {
+        Integer id = this.stringIds.get(s);
+        if (id == null) {
+            id = this.strings.size();
+            this.stringIds.put(s, id);
+            this.strings.add(s);
+        }
+        return id;
+    }
+
+    private static int kindOf(ASTBase node) {
+        int kind = node.getType() == null ? 0 : node.getType().ordinal() + 1;
+        if (node instanceof ASTExpr) {
+            ASTExpr expr = (ASTExpr) node;
+            kind |= BinaryFormat.KIND_EXPR;
+            kind |= expr.getFixity().ordinal() << BinaryFormat.KIND_FIXITY_SHIFT;
+            kind |= expr.getArity().ordinal() << BinaryFormat.KIND_ARITY_SHIFT;
+        } else if (node.getClass() != ASTBase.class) {
+            throw new IllegalArgumentException("Cannot serialize node of class " + node.getClass().getName());
+        }
+        return kind;
+    }
+}
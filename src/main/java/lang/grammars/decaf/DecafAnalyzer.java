@@ -0,0 +1,1073 @@
+package lang.grammars.decaf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import lang.Analyzer;
+import lang.SemanticException;
+import lang.analyzer.SymbolTable;
+import lang.grammars.decaf.DecafSymbol.Kind;
+import lang.types.ASTBase;
+import lang.types.ASTCursor;
+import lang.types.ASTExpr;
+import lang.types.LexicalToken;
+import lang.types.LexicalToken.TokenType;
+
+/**
+ * Semantic checker for Decaf: scoping, declaration before use, and the type rules of the
+ * language specification.
+ *
+ * The analyzer walks the item tree built by {@link lang.Parse}. The program's children are
+ * declaration items, and each BLOCK node holds declaration and statement items whose children
+ * are the item's tokens, expression trees and nested BLOCKs in source order. Items are read
+ * positionally, the same way the grammar lays them out.
+ *
+ * Analysis runs in two phases. Decaf declares every import and global field before the first
+ * method, and a method body can only see the global scope and its own locals, so the first
+ * phase walks the top level alone: it declares every global, including each method's
+ * signature, and then freezes the global table. The second phase checks method bodies on a
+ * ForkJoinPool, each task with a child table of its own over the shared frozen one. Textual
+ * order still matters for methods: a global is only visible in bodies of methods declared at
+ * or after it, which keeps "used before declared" errors the same as in a sequential walk.
+ *
+ * Names are resolved through a {@link SymbolTable}, so each use costs one hash of the name and
+ * one array read, and leaving a block costs one step per variable it declared. Each item's
+ * errors are kept apart and merged in source order afterwards, so every violation found is
+ * reported in the same order, in a single {@link SemanticException}, however the bodies were
+ * scheduled.
+ *
+ * Type checking also evaluates constant expressions, with the wraparound of the generated code
+ * (see {@link DecafConstants}), and checks that int and long literals are in range. The tree is
+ * left as parsed, since an incremental parser hands the same subtrees back after an edit that
+ * may change what they fold to; instead, each expression with constant subexpressions,
+ * including {@code len} of an array, gets a folded copy in a side table, which
+ * {@link #folded(ASTBase, int)} reads, so later stages see no arithmetic that could have been
+ * done at compile time.
+ *
+ * An analyzer can be reused for successive versions of a program, such as the trees an
+ * {@link lang.IncrementalParse} produces after each edit. It keeps every body's errors together
+ * with the globals the body referred to, keyed by the body's BLOCK node, and a reverse index from
+ * each global name to the bodies that use it. The next analysis still redeclares the globals,
+ * which is one pass over the top-level items, but compares each global's signature with the
+ * previous one and re-checks only the bodies that are new, that were invalidated, whose own
+ * header changed, or that use a global whose signature changed or moved. All other bodies
+ * reuse their errors and folded expressions, so the cost of re-analysis follows the size of the
+ * edit rather than the size of the program. Bodies edited in place, where the BLOCK node is
+ * kept but its contents change, must be passed to {@link #invalidate(ASTBase)} first.
+ *
+ * An analyzer is not thread-safe: its own calls must not overlap, though each call checks
+ * bodies in parallel.
+ */
+public class DecafAnalyzer implements Analyzer {
+    // Below this many methods, a task is checked on one thread rather than split further
+    private static final int MIN_METHODS_PER_TASK = 64;
+
+    private final ForkJoinPool pool;
+
+    // Results of the previous analysis: bodies by their BLOCK node, the bodies using each global
+    // name, and the globals bound, by name and in declaration order
+    private Map<ASTBase, MethodBody> results = new IdentityHashMap<>();
+    private final Map<String, Set<ASTBase>> dependents = new HashMap<>();
+    private Map<String, DecafSymbol> lastGlobals = null;
+    private List<String> lastOrder = List.of();
+    private int checkedBodyCount = 0;
+
+    // Folded copies of the expressions of every body, by the statement holding them, each at its
+    // child index
+    private final Map<ASTBase, ASTBase[]> folds = new IdentityHashMap<>();
+
+    public DecafAnalyzer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public DecafAnalyzer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void analyze(ASTBase ast) throws SemanticException {
+        // Phase 1: the global scope, in source order
+        SymbolTable<DecafSymbol> globals = new SymbolTable<>();
+        globals.enterScope();
+        Checker declarations = new Checker(globals, Integer.MAX_VALUE);
+        declarations.bound = new ArrayList<>();
+        List<List<String>> itemErrors = new ArrayList<>(ast.getNumChildren());
+        List<MethodBody> methods = new ArrayList<>();
+        for (int i = 0; i < ast.getNumChildren(); i++) {
+            ASTBase item = ast.getChildAt(i);
+            declarations.errors = new ArrayList<>();
+            if (isSyntax(item.getChildAt(0), "import")) {
+                LexicalToken name = item.getChildAt(1).getToken();
+                declarations.declare(name, new DecafSymbol(Kind.IMPORT, DecafType.INT, null, name, i, 0));
+            } else if (item.getNumChildren() > 2 && isSyntax(item.getChildAt(2), "(")) {
+                methods.add(new MethodBody(i, item, declarations.declareMethod(item, i)));
+            } else {
+                declarations.checkFieldDecl(item, i);
+            }
+            itemErrors.add(declarations.errors);
+        }
+        globals.freeze();
+        Map<String, DecafSymbol> bound = new HashMap<>();
+        List<String> order = new ArrayList<>(declarations.bound.size());
+        for (DecafSymbol symbol : declarations.bound) {
+            bound.put(symbol.getToken().getVal(), symbol);
+            order.add(symbol.getToken().getVal());
+        }
+
+        // Phase 2: method bodies, each against the frozen globals, skipping those whose
+        // previous result still holds
+        Set<String> changed = changedGlobals(bound, order);
+        Set<ASTBase> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (changed != null) {
+            for (String name : changed) {
+                dirty.addAll(this.dependents.getOrDefault(name, Set.of()));
+            }
+        }
+        Map<ASTBase, MethodBody> current = new IdentityHashMap<>();
+        List<MethodBody> unchecked = new ArrayList<>();
+        for (MethodBody method : methods) {
+            ASTBase body = method.body();
+            String name = method.symbol.getToken().getVal();
+            method.bound = bound.get(name) == method.symbol;
+            MethodBody cached = changed == null ? null : this.results.get(body);
+            if (cached != null && cached.bound && method.bound && !dirty.contains(body)
+                    && !changed.contains(name) && cached.sameHeader(method)) {
+                method.errors = cached.errors;
+                current.put(body, cached);
+            } else {
+                unchecked.add(method);
+                current.put(body, method);
+            }
+        }
+
+        BodyTask bodies = new BodyTask(globals, unchecked, 0, unchecked.size());
+        if (unchecked.size() <= MIN_METHODS_PER_TASK || this.pool.getParallelism() <= 1) {
+            bodies.compute();
+        } else {
+            this.pool.invoke(bodies);
+        }
+        remember(current, unchecked, bound, order);
+
+        List<String> errors = new ArrayList<>();
+        int next = 0;
+        for (int i = 0; i < itemErrors.size(); i++) {
+            errors.addAll(itemErrors.get(i));
+            if (next < methods.size() && methods.get(next).index == i) {
+                errors.addAll(methods.get(next++).errors);
+            }
+        }
+        checkMain(globals, errors);
+        if (!errors.isEmpty()) {
+            throw new SemanticException(String.join("\n", errors));
+        }
+    }
+
+    /**
+     * Drops the result kept for a method body, so that the next analysis checks it again. Needed
+     * when the body's contents changed but the BLOCK node itself was kept, as after an
+     * {@link lang.IncrementalParse} reparse of one of its nested blocks.
+     * @param body The BLOCK node of a method body
+     */
+    public void invalidate(ASTBase body) {
+        MethodBody cached = this.results.remove(body);
+        if (cached != null) {
+            forget(body, cached);
+        }
+    }
+
+    /**
+     * Returns an expression of a statement as the last analysis folded it: a literal if it is
+     * constant, a copy in which its constant subexpressions are literals, or the expression
+     * itself if it has none.
+     * @param item A statement item of a method body of the analyzed program
+     * @param index The position of the expression among the item's children
+     */
+    public ASTBase folded(ASTBase item, int index) {
+        ASTBase[] slots = this.folds.get(item);
+        ASTBase replacement = slots == null ? null : slots[index];
+        return replacement != null ? replacement : item.getChildAt(index);
+    }
+
+    /**
+     * @return The number of method bodies checked by the last analysis; the others reused the
+     *         results of an earlier one
+     */
+    public int getCheckedBodyCount() {
+        return this.checkedBodyCount;
+    }
+
+    /*
+     * Names of the globals that a body using them could see differently than in the previous
+     * analysis: those added, removed or redeclared with another signature, and those whose
+     * order relative to the other globals changed, which decides where they are visible. Null
+     * if there was no previous analysis.
+     */
+    private Set<String> changedGlobals(Map<String, DecafSymbol> bound, List<String> order) {
+        if (this.lastGlobals == null) {
+            return null;
+        }
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, DecafSymbol> entry : bound.entrySet()) {
+            DecafSymbol old = this.lastGlobals.get(entry.getKey());
+            if (old == null || !sameSignature(old, entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String name : this.lastGlobals.keySet()) {
+            if (!bound.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+
+        // Both sequences hold the same names; from the first difference on, everything moved
+        Iterator<String> before = this.lastOrder.stream().filter(bound::containsKey).iterator();
+        Iterator<String> after = order.stream().filter(this.lastGlobals::containsKey).iterator();
+        while (before.hasNext()) {
+            String previous = before.next();
+            String now = after.next();
+            if (!previous.equals(now)) {
+                changed.add(previous);
+                changed.add(now);
+                before.forEachRemaining(changed::add);
+                after.forEachRemaining(changed::add);
+            }
+        }
+        return changed;
+    }
+
+    /*
+     * Keeps this analysis's results for the next one and updates the reverse index for the
+     * bodies that were checked again or are gone.
+     */
+    private void remember(Map<ASTBase, MethodBody> current, List<MethodBody> checked,
+                          Map<String, DecafSymbol> bound, List<String> order) {
+        for (Map.Entry<ASTBase, MethodBody> entry : this.results.entrySet()) {
+            if (current.get(entry.getKey()) != entry.getValue()) {
+                forget(entry.getKey(), entry.getValue());
+            }
+        }
+        for (MethodBody method : checked) {
+            for (String name : method.uses) {
+                this.dependents.computeIfAbsent(name, k -> Collections.newSetFromMap(new IdentityHashMap<>()))
+                    .add(method.body());
+            }
+            this.folds.putAll(method.folds);
+        }
+        this.results = current;
+        this.lastGlobals = bound;
+        this.lastOrder = order;
+        this.checkedBodyCount = checked.size();
+    }
+
+    private void forget(ASTBase body, MethodBody result) {
+        for (String name : result.uses) {
+            Set<ASTBase> users = this.dependents.get(name);
+            if (users != null) {
+                users.remove(body);
+                if (users.isEmpty()) {
+                    this.dependents.remove(name);
+                }
+            }
+        }
+        result.folds.forEach(this.folds::remove);
+    }
+
+    private static boolean sameSignature(DecafSymbol a, DecafSymbol b) {
+        return a.getKind() == b.getKind() && a.getType() == b.getType() && a.getLength() == b.getLength()
+            && Objects.equals(a.getParameters(), b.getParameters());
+    }
+
+    private static void checkMain(SymbolTable<DecafSymbol> globals, List<String> errors) {
+        int id = globals.find("main");
+        DecafSymbol main = id == SymbolTable.NOT_FOUND ? null : globals.lookup(id);
+        if (main == null || main.getKind() != Kind.METHOD
+                || main.getType() != DecafType.VOID || !main.getParameters().isEmpty()) {
+            errors.add("Program must define a method 'void main()' with no parameters");
+        }
+    }
+
+    /*
+     * A method declared at the top level, with the errors found in its body and the globals the
+     * body refers to
+     */
+    private static class MethodBody {
+        final int index; // position of the method among the program's items
+        final ASTBase item;
+        final DecafSymbol symbol;
+        boolean bound;   // whether the symbol won its name, rather than being a duplicate
+        List<String> errors = List.of();
+        Set<String> uses = Set.of();
+        Map<ASTBase, ASTBase[]> folds = Map.of();
+
+        MethodBody(int index, ASTBase item, DecafSymbol symbol) {
+            this.index = index;
+            this.item = item;
+            this.symbol = symbol;
+        }
+
+        ASTBase body() {
+            return this.item.getChildAt(this.item.getNumChildren() - 1);
+        }
+
+        // Whether both items have the very same tokens before the body, so that the body is
+        // checked with the same name, result and parameters
+        boolean sameHeader(MethodBody other) {
+            int count = this.item.getNumChildren();
+            if (other.item.getNumChildren() != count) {
+                return false;
+            }
+            for (int i = 0; i < count - 1; i++) {
+                if (this.item.getChildAt(i).getToken() != other.item.getChildAt(i).getToken()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     * Checks bodies [first, last), splitting the range until it is small enough to check on
+     * one thread. Each leaf gets one child table and reuses it for all of its bodies.
+     */
+    private static class BodyTask extends RecursiveAction {
+        private final SymbolTable<DecafSymbol> globals;
+        private final List<MethodBody> methods;
+        private final int first;
+        private final int last;
+
+        BodyTask(SymbolTable<DecafSymbol> globals, List<MethodBody> methods, int first, int last) {
+            this.globals = globals;
+            this.methods = methods;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.last - this.first > MIN_METHODS_PER_TASK) {
+                int middle = (this.first + this.last) >>> 1;
+                invokeAll(new BodyTask(this.globals, this.methods, this.first, middle),
+                          new BodyTask(this.globals, this.methods, middle, this.last));
+                return;
+            }
+            SymbolTable<DecafSymbol> symbols = new SymbolTable<>(this.globals);
+            for (int i = this.first; i < this.last; i++) {
+                MethodBody method = this.methods.get(i);
+                Checker checker = new Checker(symbols, method.index);
+                checker.uses = new HashSet<>();
+                checker.folds = new IdentityHashMap<>();
+                checker.checkBody(method.item, method.symbol);
+                method.errors = checker.errors;
+                method.uses = checker.uses;
+                method.folds = checker.folds;
+            }
+        }
+    }
+
+    /*
+     * Checks declarations, statements and expressions against one symbol table, collecting
+     * errors in source order. Globals declared after the given position are treated as not
+     * declared yet.
+     */
+    private static class Checker {
+        private final SymbolTable<DecafSymbol> symbols;
+        private final int position;
+        private List<String> errors = new ArrayList<>();
+        private DecafSymbol method = null; // enclosing method while checking a body
+        private int loopDepth = 0;
+        private List<DecafSymbol> bound = null; // if set, collects the symbols declared
+        private Set<String> uses = null;        // if set, collects the global names looked up
+        private Map<ASTBase, ASTBase[]> folds = null; // if set, collects the folded expressions
+
+        // Expression side arrays, indexed by node ID and reused for every expression
+        private final ASTCursor cursor = new ASTCursor(null);
+        private DecafType[] types = new DecafType[64];
+        private DecafSymbol[] bindings = new DecafSymbol[64]; // callee of each call, variable of each name
+        private int[] open = new int[64];     // ID of the node entered at each depth
+        private int[] operands = new int[64]; // IDs of finished nodes whose parent is still open
+        private boolean[] constant = new boolean[64]; // whether the node is a compile-time constant
+        private long[] values = new long[64];         // its value if so
+        private ASTBase[] folded = new ASTBase[64];   // what replaces the node, or null if it stays
+
+        Checker(SymbolTable<DecafSymbol> symbols, int position) {
+            this.symbols = symbols;
+            this.position = position;
+        }
+
+        /*
+         * Declarations
+         */
+
+        // [type, name, '(', (type, name, ',')*, ')', BLOCK]
+        private DecafSymbol declareMethod(ASTBase item, int index) {
+            DecafType result = DecafType.fromKeyword(item.getChildAt(0).getToken().getVal());
+            LexicalToken name = item.getChildAt(1).getToken();
+            int body = item.getNumChildren() - 1;
+            List<DecafType> parameters = new ArrayList<>();
+            for (int i = 3; i < body - 1; i += 3) {
+                parameters.add(DecafType.fromKeyword(item.getChildAt(i).getToken().getVal()));
+            }
+            DecafSymbol symbol = new DecafSymbol(Kind.METHOD, result, parameters, name, index, 0);
+            declare(name, symbol);
+            return symbol;
+        }
+
+        private void checkBody(ASTBase item, DecafSymbol symbol) {
+            int body = item.getNumChildren() - 1;
+            // parameters and the top level of the body share one scope
+            this.symbols.enterScope();
+            this.method = symbol;
+            try {
+                for (int i = 3; i < body - 1; i += 3) {
+                    LexicalToken parameter = item.getChildAt(i + 1).getToken();
+                    declare(parameter, new DecafSymbol(Kind.VARIABLE, symbol.getParameters().get(i / 3 - 1),
+                        null, parameter, -1, 0));
+                }
+                checkBlockItems(item.getChildAt(body));
+            } finally {
+                this.method = null;
+                this.symbols.exitScope();
+            }
+        }
+
+        // [type, name, ('[', size, ']')?, (',', name, ('[', size, ']')?)*, ';']
+        private void checkFieldDecl(ASTBase item, int index) {
+            DecafType type = DecafType.fromKeyword(item.getChildAt(0).getToken().getVal());
+            int count = item.getNumChildren();
+            int i = 1;
+            while (i < count - 1) {
+                LexicalToken name = item.getChildAt(i++).getToken();
+                DecafType declared = type;
+                int length = 0;
+                if (isSyntax(item.getChildAt(i), "[")) {
+                    LexicalToken size = item.getChildAt(i + 1).getToken();
+                    if (checkRange(size, false) && (length = (int) DecafConstants.valueOf(size)) <= 0) {
+                        error("Array '" + name.getVal() + "' must have a positive size", size);
+                    }
+                    declared = type.arrayType();
+                    i += 3;
+                }
+                declare(name, new DecafSymbol(Kind.VARIABLE, declared, null, name, index, length));
+                i++; // ',' or ';'
+            }
+        }
+
+        private void declare(LexicalToken name, DecafSymbol symbol) {
+            if (this.symbols.declare(this.symbols.intern(name.getVal()), symbol) != null) {
+                error("'" + name.getVal() + "' is already declared in this scope", name);
+            } else if (this.bound != null) {
+                this.bound.add(symbol);
+            }
+        }
+
+        /*
+         * Statements
+         */
+
+        private void checkBlock(ASTBase block) {
+            this.symbols.enterScope();
+            try {
+                checkBlockItems(block);
+            } finally {
+                this.symbols.exitScope();
+            }
+        }
+
+        private void checkBlockItems(ASTBase block) {
+            for (ASTBase item : block.children()) {
+                if (item.getType() == ASTBase.Environment.DECL) {
+                    checkFieldDecl(item, -1);
+                } else {
+                    checkStatement(item);
+                }
+            }
+        }
+
+        private void checkStatement(ASTBase item) {
+            ASTBase first = item.getChildAt(0);
+            String keyword = first.getToken().getVal();
+            if (first.getToken().getTokenType() == TokenType.IDENTIFIER) {
+                checkIdentifierStatement(item);
+                return;
+            }
+            switch (keyword) {
+                case "if":
+                    checkIf(item);
+                    break;
+                case "while":
+                    checkCondition(item, 2, "while");
+                    checkLoopBody(item.getChildAt(4));
+                    break;
+                case "for":
+                    checkFor(item);
+                    break;
+                case "return":
+                    checkReturn(item);
+                    break;
+                case "break":
+                case "continue":
+                    if (this.loopDepth == 0) {
+                        error("'" + keyword + "' must be inside a loop", first.getToken());
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected statement item: " + keyword);
+            }
+        }
+
+        // ['if', '(', cond, ')', BLOCK, ('else', 'if', '(', cond, ')', BLOCK)*, ('else', BLOCK)?]
+        private void checkIf(ASTBase item) {
+            int count = item.getNumChildren();
+            int i = 0;
+            while (true) {
+                checkCondition(item, i + 2, "if");
+                checkBlock(item.getChildAt(i + 4));
+                i += 5;
+                if (i >= count) {
+                    return;
+                }
+                if (!isSyntax(item.getChildAt(i + 1), "if")) {
+                    checkBlock(item.getChildAt(i + 1));
+                    return;
+                }
+                i++; // 'else' 'if' continues the chain
+            }
+        }
+
+        // ['for', '(', (id, '=', expr)?, ';', cond?, ';', id, op, expr?, ')', BLOCK]
+        private void checkFor(ASTBase item) {
+            int i = 2;
+            if (!isSyntax(item.getChildAt(i), ";")) {
+                LexicalToken index = item.getChildAt(i).getToken();
+                DecafType type = checkScalarLocation(index);
+                if (type != null && !type.isIntegral()) {
+                    error("Loop variable '" + index.getVal() + "' must be int or long (found " + type + ")", index);
+                }
+                checkAssignment(type, item.getChildAt(i + 1).getToken(), item, i + 2);
+                i += 3;
+            }
+            i++; // ';'
+            if (!isSyntax(item.getChildAt(i), ";")) {
+                checkCondition(item, i, "for");
+                i++;
+            }
+            i++; // ';'
+            LexicalToken location = item.getChildAt(i).getToken();
+            LexicalToken op = item.getChildAt(i + 1).getToken();
+            DecafType type = checkScalarLocation(location);
+            if (op.getVal().equals("++") || op.getVal().equals("--")) {
+                checkIntegralLocation(type, op);
+            } else {
+                checkAssignment(type, op, item, i + 2);
+            }
+            checkLoopBody(item.getChildAt(item.getNumChildren() - 1));
+        }
+
+        private void checkLoopBody(ASTBase block) {
+            this.loopDepth++;
+            try {
+                checkBlock(block);
+            } finally {
+                this.loopDepth--;
+            }
+        }
+
+        // ['return', expr?, ';']
+        private void checkReturn(ASTBase item) {
+            LexicalToken keyword = item.getChildAt(0).getToken();
+            DecafType expected = this.method.getType();
+            if (item.getNumChildren() == 2) {
+                if (expected != DecafType.VOID) {
+                    error("Method '" + this.method.getToken().getVal() + "' must return a value of type " + expected, keyword);
+                }
+                return;
+            }
+            DecafType actual = typeOf(item, 1);
+            if (expected == DecafType.VOID) {
+                error("Method '" + this.method.getToken().getVal() + "' returns void and cannot return a value", keyword);
+            } else if (actual != null && actual != expected) {
+                error("Return value must be " + expected + " (found " + actual + ")", keyword);
+            }
+        }
+
+        // [id, op, expr, ';'] | [id, '[', index, ']', '=', expr, ';'] | [id, '(', (arg, ',')*, ')', ';']
+        private void checkIdentifierStatement(ASTBase item) {
+            LexicalToken name = item.getChildAt(0).getToken();
+            LexicalToken op = item.getChildAt(1).getToken();
+            switch (op.getVal()) {
+                case "(":
+                    checkCallStatement(name, item);
+                    break;
+                case "[": {
+                    DecafType element = checkArrayElement(name, item, 2);
+                    checkAssignment(element, item.getChildAt(4).getToken(), item, 5);
+                    break;
+                }
+                default:
+                    checkAssignment(checkScalarLocation(name), op, item, 2);
+                    break;
+            }
+        }
+
+        /*
+         * Checks `location op value` for '=' and the compound assignments, given the location's
+         * type (null if it already failed to resolve) and where the value is.
+         */
+        private void checkAssignment(DecafType location, LexicalToken op, ASTBase parent, int index) {
+            DecafType type = typeOf(parent, index);
+            if (op.getVal().equals("=")) {
+                if (location != null && type != null && location != type) {
+                    error("Cannot assign " + type + " to a location of type " + location, op);
+                }
+                return;
+            }
+            checkIntegralLocation(location, op);
+            if (type != null && !type.isIntegral()) {
+                error("Right-hand side of '" + op.getVal() + "' must be int or long (found " + type + ")", op);
+            } else if (location != null && type != null && location.isIntegral() && location != type) {
+                error("Operands of '" + op.getVal() + "' must have the same type (found " + location + " and " + type + ")", op);
+            }
+        }
+
+        private void checkIntegralLocation(DecafType location, LexicalToken op) {
+            if (location != null && !location.isIntegral()) {
+                error("Location updated by '" + op.getVal() + "' must be int or long (found " + location + ")", op);
+            }
+        }
+
+        private void checkCondition(ASTBase parent, int index, String statement) {
+            LexicalToken first = firstToken(parent.getChildAt(index));
+            DecafType type = typeOf(parent, index);
+            if (type != null && type != DecafType.BOOL) {
+                error("Condition of '" + statement + "' must be bool (found " + type + ")", first);
+            }
+        }
+
+        /*
+         * Locations
+         */
+
+        // Resolves a variable, or returns null after reporting why it cannot be one
+        private DecafType checkVariable(LexicalToken name) {
+            DecafSymbol symbol = variable(name);
+            return symbol == null ? null : symbol.getType();
+        }
+
+        private DecafSymbol variable(LexicalToken name) {
+            DecafSymbol symbol = resolve(name);
+            if (symbol != null && symbol.isCallable()) {
+                error("'" + name.getVal() + "' is a method, not a variable", name);
+                return null;
+            }
+            return symbol;
+        }
+
+        private DecafType checkScalarLocation(LexicalToken name) {
+            DecafType type = checkVariable(name);
+            if (type != null && type.isArray()) {
+                error("Cannot assign to array '" + name.getVal() + "' without an index", name);
+                return null;
+            }
+            return type;
+        }
+
+        private DecafType checkArrayElement(LexicalToken name, ASTBase parent, int index) {
+            DecafType array = checkVariable(name);
+            ASTBase expr = parent.getChildAt(index);
+            return elementType(name, array, expr, typeOf(parent, index));
+        }
+
+        private DecafType elementType(LexicalToken name, DecafType array, ASTBase index, DecafType indexType) {
+            if (indexType != null && indexType != DecafType.INT) {
+                error("Array index must be int (found " + indexType + ")", firstToken(index));
+            }
+            if (array == null) {
+                return null;
+            }
+            if (!array.isArray()) {
+                error("'" + name.getVal() + "' is not an array", name);
+                return null;
+            }
+            return array.elementType();
+        }
+
+        private DecafSymbol resolve(LexicalToken name) {
+            DecafSymbol symbol = this.symbols.lookup(this.symbols.intern(name.getVal()));
+            if (this.uses != null && (symbol == null || symbol.getPosition() >= 0)) {
+                this.uses.add(name.getVal()); // not a local, so it depends on the globals
+            }
+            if (symbol != null && symbol.getPosition() > this.position) {
+                symbol = null; // a global declared further down
+            }
+            if (symbol == null) {
+                error("'" + name.getVal() + "' is not declared", name);
+            }
+            return symbol;
+        }
+
+        private DecafSymbol resolveCallee(LexicalToken name) {
+            DecafSymbol callee = resolve(name);
+            if (callee != null && !callee.isCallable()) {
+                error("'" + name.getVal() + "' is not a method", name);
+                return null;
+            }
+            return callee;
+        }
+
+        /*
+         * Expressions
+         */
+
+        /*
+         * Returns the type of the expression that is the given child of parent, or null if it is
+         * ill-typed. Errors are reported once, where they occur; enclosing expressions treat null
+         * as "already reported".
+         *
+         * The tree is walked bottom-up with an ASTCursor, so depth costs no stack. Each node
+         * occurrence gets an ID in pre-order; its type goes into the types side array under that
+         * ID, and a parent reads its operands' types from there through the IDs on the operand
+         * stack. A callee is resolved when its call is entered, so its errors come before those
+         * of the arguments, as they read in the source.
+         *
+         * Constants are evaluated in the same walk. Each maximal constant subexpression that is
+         * not already a literal is replaced by one, so later stages never redo its arithmetic.
+         * Nothing in the tree is modified: expression nodes may be hash-consed and shared, and
+         * whole bodies may be reused after an edit. A node above a replacement is copied, and
+         * the copy of the whole expression is kept in folds under the parent's slot.
+         */
+        private DecafType typeOf(ASTBase parent, int index) {
+            int next = 0;
+            int top = 0;
+            this.cursor.reset(parent.getChildAt(index));
+            while (this.cursor.advance()) {
+                ASTBase node = this.cursor.node();
+                int depth = this.cursor.depth();
+                if (this.cursor.event() == ASTCursor.Event.ENTER) {
+                    int id = next++;
+                    if (id == this.types.length) {
+                        growSideArrays();
+                    }
+                    this.open[depth] = id;
+                    this.bindings[id] = isCall(node) ? resolveCallee(node.getToken()) : null;
+                    this.constant[id] = false;
+                    this.folded[id] = null;
+                    continue;
+                }
+                int id = this.open[depth];
+                int count = node.getNumChildren();
+                top -= count;
+                if (node instanceof ASTExpr) {
+                    this.types[id] = typeOfOperator((ASTExpr) node, id, top);
+                    fold((ASTExpr) node, id, top);
+                } else {
+                    this.types[id] = typeOfLeaf(node.getToken(), id, depth == 0 ? -1 : this.open[depth - 1]);
+                }
+                this.operands[top++] = id;
+            }
+            if (this.folded[0] != null && this.folds != null) {
+                this.folds.computeIfAbsent(parent, p -> new ASTBase[p.getNumChildren()])[index] = this.folded[0];
+            }
+            return this.types[0];
+        }
+
+        private DecafType typeOfLeaf(LexicalToken token, int id, int parent) {
+            switch (token.getTokenType()) {
+                case INTLITERAL:
+                case LONGLITERAL:
+                    if (checkRange(token, parent >= 0 && isNegation(this.cursor.parent()))) {
+                        this.constant[id] = true;
+                        this.values[id] = DecafConstants.valueOf(token);
+                    }
+                    return token.getTokenType() == TokenType.INTLITERAL ? DecafType.INT : DecafType.LONG;
+                case CHARLITERAL:
+                case BOOLEANLITERAL:
+                    this.constant[id] = true;
+                    this.values[id] = DecafConstants.valueOf(token);
+                    return token.getTokenType() == TokenType.CHARLITERAL ? DecafType.INT : DecafType.BOOL;
+                case STRINGLITERAL:
+                    if (parent >= 0 && isCall(this.cursor.parent()) && takesAnything(this.bindings[parent])) {
+                        return DecafType.STRING;
+                    }
+                    error("String literals can only be passed to imports", token);
+                    return null;
+                default: {
+                    DecafSymbol variable = variable(token);
+                    this.bindings[id] = variable;
+                    return variable == null ? null : variable.getType();
+                }
+            }
+        }
+
+        /*
+         * Evaluates an operator node whose operands are all constants, replacing it with a
+         * literal, or copies it if any of its operands was replaced.
+         */
+        private void fold(ASTExpr node, int id, int first) {
+            DecafType type = this.types[id];
+            String op = node.getToken().getVal();
+            int count = node.getNumChildren();
+            if (type != null && node.getArity() == ASTExpr.Arity.UNARY) {
+                int operand = this.operands[first];
+                if (op.equals("len")) {
+                    // the length of an array is known from its declaration
+                    this.constant[id] = true;
+                    this.values[id] = this.bindings[operand].getLength();
+                } else if (this.constant[operand]) {
+                    this.constant[id] = true;
+                    this.values[id] = DecafConstants.fold(op, type, this.values[operand]);
+                }
+            } else if (type != null && node.getArity() == ASTExpr.Arity.BINARY && !op.equals("[]")) {
+                int left = this.operands[first];
+                int right = this.operands[first + 1];
+                if (this.constant[left] && this.constant[right]
+                        && DecafConstants.canFold(op, this.types[left], this.values[left], this.values[right])) {
+                    this.constant[id] = true;
+                    this.values[id] = DecafConstants.fold(op, this.types[left], this.values[left], this.values[right]);
+                }
+            }
+            if (this.constant[id]) {
+                LexicalToken at = firstToken(node);
+                this.folded[id] = new ASTBase(DecafConstants.literal(type, this.values[id],
+                    at.getLineNumber(), at.getColumnNumber()));
+                return;
+            }
+
+            ASTExpr copy = null;
+            for (int i = 0; i < count; i++) {
+                if (this.folded[this.operands[first + i]] != null) {
+                    copy = new ASTExpr(node.getFixity(), node.getArity());
+                    copy.setToken(node.getToken());
+                    break;
+                }
+            }
+            if (copy != null) {
+                for (int i = 0; i < count; i++) {
+                    ASTBase replacement = this.folded[this.operands[first + i]];
+                    copy.addChild(replacement != null ? replacement : node.getChildAt(i));
+                }
+                this.folded[id] = copy;
+            }
+        }
+
+        // The operands' IDs are operands[first], operands[first + 1], ...
+        private DecafType typeOfOperator(ASTExpr node, int id, int first) {
+            LexicalToken token = node.getToken();
+            String op = token.getVal();
+            if (node.getArity() == ASTExpr.Arity.UNBOUNDED) {
+                DecafType[] arguments = new DecafType[node.getNumChildren()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = operandType(first + i);
+                }
+                return callResult(token, this.bindings[id], node.children(), arguments, false);
+            }
+            if (op.equals("[]")) {
+                return elementType(node.getChildAt(0).getToken(), operandType(first),
+                    node.getChildAt(1), operandType(first + 1));
+            }
+            if (node.getArity() == ASTExpr.Arity.UNARY) {
+                DecafType operand = operandType(first);
+                switch (op) {
+                    case "-":
+                        if (operand != null && !operand.isIntegral()) {
+                            error("Operand of unary '-' must be int or long (found " + operand + ")", token);
+                            return null;
+                        }
+                        return operand;
+                    case "!":
+                        if (operand != null && operand != DecafType.BOOL) {
+                            error("Operand of '!' must be bool (found " + operand + ")", token);
+                            return null;
+                        }
+                        return DecafType.BOOL;
+                    case "int":
+                    case "long":
+                        if (operand != null && !operand.isIntegral()) {
+                            error("Operand of '" + op + "' cast must be int or long (found " + operand + ")", token);
+                            return null;
+                        }
+                        return DecafType.fromKeyword(op);
+                    case "len":
+                        if (operand != null && !operand.isArray()) {
+                            error("Argument of 'len' must be an array (found " + operand + ")", token);
+                            return null;
+                        }
+                        return operand == null ? null : DecafType.INT;
+                    default:
+                        error("'" + op + "' can only be used as a for-loop update", token);
+                        return null;
+                }
+            }
+
+            DecafType left = operandType(first);
+            DecafType right = operandType(first + 1);
+            switch (op) {
+                case "+": case "-": case "*": case "/": case "%":
+                    if (!checkIntegralOperands(op, left, right, token)) {
+                        return null;
+                    }
+                    if (left != null && right != null && left != right) {
+                        error("Operands of '" + op + "' must have the same type (found " + left + " and " + right + ")", token);
+                        return null;
+                    }
+                    return left != null ? left : right;
+                case "<": case "<=": case ">": case ">=":
+                    checkIntegralOperands(op, left, right, token);
+                    return DecafType.BOOL;
+                case "==": case "!=":
+                    if (left != null && right != null && (left != right || left.isArray() || left == DecafType.VOID)) {
+                        error("Operands of '" + op + "' must both be int, long or bool (found " + left + " and " + right + ")", token);
+                    }
+                    return DecafType.BOOL;
+                case "&&": case "||":
+                    if ((left != null && left != DecafType.BOOL) || (right != null && right != DecafType.BOOL)) {
+                        error("Operands of '" + op + "' must be bool (found " + left + " and " + right + ")", token);
+                    }
+                    return DecafType.BOOL;
+                default:
+                    throw new IllegalStateException("Unexpected operator: " + op);
+            }
+        }
+
+        private DecafType operandType(int slot) {
+            return this.types[this.operands[slot]];
+        }
+
+        private void growSideArrays() {
+            int capacity = this.types.length * 2;
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.bindings = Arrays.copyOf(this.bindings, capacity);
+            this.constant = Arrays.copyOf(this.constant, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+            this.folded = Arrays.copyOf(this.folded, capacity);
+            this.open = Arrays.copyOf(this.open, capacity);
+            this.operands = Arrays.copyOf(this.operands, capacity);
+        }
+
+        private boolean checkIntegralOperands(String op, DecafType left, DecafType right, LexicalToken token) {
+            if ((left != null && !left.isIntegral()) || (right != null && !right.isIntegral())) {
+                error("Operands of '" + op + "' must be int or long (found " + left + " and " + right + ")", token);
+                return false;
+            }
+            return true;
+        }
+
+        // A call statement, [id, '(', (arg, ',')*, ')', ';']: the callee, then each argument in order
+        private void checkCallStatement(LexicalToken name, ASTBase item) {
+            DecafSymbol callee = resolveCallee(name);
+            List<ASTBase> arguments = new ArrayList<>();
+            DecafType[] types = new DecafType[(item.getNumChildren() - 3) / 2];
+            for (int i = 0; i < types.length; i++) {
+                ASTBase argument = item.getChildAt(2 + 2 * i);
+                boolean string = argument.getToken().getTokenType() == TokenType.STRINGLITERAL
+                    && !(argument instanceof ASTExpr);
+                types[i] = string && takesAnything(callee) ? DecafType.STRING : typeOf(item, 2 + 2 * i);
+                arguments.add(argument);
+            }
+            callResult(name, callee, arguments, types, true);
+        }
+
+        /*
+         * Checks the arguments of a call, given their types, and returns its result type. Calls
+         * used as statements may return void; calls used as expressions must return a value.
+         */
+        private DecafType callResult(LexicalToken name, DecafSymbol callee, List<ASTBase> arguments,
+                                     DecafType[] types, boolean statement) {
+            if (callee == null || callee.getKind() == Kind.IMPORT) {
+                return callee == null ? null : callee.getType();
+            }
+            List<DecafType> parameters = callee.getParameters();
+            if (arguments.size() != parameters.size()) {
+                error("Method '" + name.getVal() + "' takes " + parameters.size()
+                    + " argument(s) but was given " + arguments.size(), name);
+            }
+            for (int i = 0; i < arguments.size() && i < parameters.size(); i++) {
+                ASTBase argument = arguments.get(i);
+                DecafType type = types[i];
+                if (type == null) {
+                    continue;
+                }
+                if (type.isArray()) {
+                    error("Array '" + argument.getToken().getVal() + "' cannot be passed to method '" + name.getVal() + "'",
+                        argument.getToken());
+                } else if (type != parameters.get(i)) {
+                    error("Argument " + (i + 1) + " of '" + name.getVal() + "' must be " + parameters.get(i)
+                        + " (found " + type + ")", firstToken(argument));
+                }
+            }
+            if (!statement && callee.getType() == DecafType.VOID) {
+                error("Method '" + name.getVal() + "' returns void and cannot be used in an expression", name);
+                return null;
+            }
+            return callee.getType();
+        }
+
+        // Rules 21 and 22: reports an int or long literal that does not fit its type
+        private boolean checkRange(LexicalToken literal, boolean negated) {
+            if (DecafConstants.inRange(literal, negated)) {
+                return true;
+            }
+            DecafType type = literal.getTokenType() == TokenType.LONGLITERAL ? DecafType.LONG : DecafType.INT;
+            error("Literal '" + literal.getVal() + "' is out of range for " + type, literal);
+            return false;
+        }
+
+        private void error(String message, LexicalToken token) {
+            StringBuilder sb = new StringBuilder(message);
+            if (token != null && token.getLineNumber() != null && token.getColumnNumber() != null) {
+                sb.append(" at line ").append(token.getLineNumber())
+                  .append(", column ").append(token.getColumnNumber());
+            }
+            this.errors.add(sb.toString());
+        }
+    }
+
+    /*
+     * Helpers
+     */
+
+    // Whether the node is the given keyword or punctuation token rather than an expression
+    private static boolean isSyntax(ASTBase node, String value) {
+        if (node.getType() != null || node instanceof ASTExpr || node.getToken() == null) {
+            return false;
+        }
+        TokenType type = node.getToken().getTokenType();
+        return (type == TokenType.KEYWORD || type == TokenType.PUNCTUATION)
+            && node.getToken().getVal().equals(value);
+    }
+
+    // Leftmost token of an expression, for error positions
+    private static LexicalToken firstToken(ASTBase expr) {
+        while (expr instanceof ASTExpr && expr.getNumChildren() > 0
+                && ((ASTExpr) expr).getFixity() == ASTExpr.Fixity.LEFT
+                && ((ASTExpr) expr).getArity() != ASTExpr.Arity.UNBOUNDED) {
+            expr = expr.getChildAt(0);
+        }
+        return expr.getToken();
+    }
+
+    private static boolean isNegation(ASTBase node) {
+        return node instanceof ASTExpr && ((ASTExpr) node).getArity() == ASTExpr.Arity.UNARY
+            && node.getToken().getVal().equals("-");
+    }
+
+    private static boolean isCall(ASTBase node) {
+        return node instanceof ASTExpr && ((ASTExpr) node).getArity() == ASTExpr.Arity.UNBOUNDED;
+    }
+
+    // Imports take anything, including string literals and whole arrays; so do unresolved
+    // callees, whose errors have already been reported
+    private static boolean takesAnything(DecafSymbol callee) {
+        return callee == null || callee.getKind() == Kind.IMPORT;
+    }
+}
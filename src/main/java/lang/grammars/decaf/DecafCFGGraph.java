@@ -4,6 +4,7 @@ import lang.types.CFGNode;
 
 import java.util.List;
 
+import lang.types.ASTBase.Environment;
 import lang.types.CFGGraph;
 import lang.types.LexicalToken;
 import lang.types.CFGNode.CFGNodeKind;
@@ -24,6 +25,7 @@ public class DecafCFGGraph extends CFGGraph {
 
         // Import declaration hierarchy
         nt("IMPORT_LIST")
+            .items(Environment.DECL)
             .rule("import", "IMPORT_DECL_AFTER_IMPORT")
             .epsilon("MEMBER_LIST")
             .build();
@@ -39,6 +41,7 @@ public class DecafCFGGraph extends CFGGraph {
         
         // New Member declaration hierarchy
         nt("MEMBER_LIST")
+            .items(Environment.DECL)
             .rule("void", "METHOD_DECL_AFTER_RETURN_TYPE")
             .rule("int",  "MEMBER_DECL_AFTER_TYPE")
             .rule("long", "MEMBER_DECL_AFTER_TYPE")
@@ -66,6 +69,7 @@ public class DecafCFGGraph extends CFGGraph {
             .build();
 
         nt("METHOD_LIST")
+            .items(Environment.DECL)
             .rule("void", "METHOD_DECL_AFTER_RETURN_TYPE")
             .rule("int",  "METHOD_DECL_AFTER_RETURN_TYPE")
             .rule("long", "METHOD_DECL_AFTER_RETURN_TYPE")
@@ -122,6 +126,7 @@ public class DecafCFGGraph extends CFGGraph {
 
         // Field declaration list - variable declarations must come before statements
         nt("FIELD_DECL_LIST")
+            .items(Environment.DECL)
             .rule("int", "VAR_DECL_AFTER_TYPE")
             .rule("long", "VAR_DECL_AFTER_TYPE")
             .rule("bool", "VAR_DECL_AFTER_TYPE")
@@ -130,6 +135,7 @@ public class DecafCFGGraph extends CFGGraph {
 
         // Statement list - can be empty or contain statements (no variable declarations)
         nt("STATEMENT_LIST")
+            .items(Environment.STMT)
             .rule("}", "BLOCK_END")                // Check for end of block (epsilon - don't consume yet)
             .rule("if", "IF_STATEMENT")
             .rule("while", "WHILE_STATEMENT")
@@ -0,0 +1,156 @@
+package lang.grammars.decaf;
+
+import lang.types.LexicalToken;
+import lang.types.LexicalToken.TokenType;
+
+/**
+ * Values of Decaf literals and compile-time evaluation of Decaf operators.
+ *
+ * Every constant is held in a long: an int as its sign-extended 32-bit value, a long as is,
+ * a bool as 1 or 0. Arithmetic wraps around in the width of its type, the way the generated
+ * code computes it, so folding never changes what a program prints.
+ */
+public final class DecafConstants {
+    private DecafConstants() {}
+
+    /**
+     * Whether an int or long literal is within range (rules 21 and 22). The grammar has no
+     * negative literals, so -2147483648 is the literal 2147483648 under a unary minus; a literal
+     * that is negated may therefore be one larger than the type's maximum. Literals produced by
+     * constant folding carry their own sign.
+     * @param literal An INTLITERAL or LONGLITERAL token
+     * @param negated Whether the literal is the operand of a unary minus
+     */
+    public static boolean inRange(LexicalToken literal, boolean negated) {
+        String val = digits(literal);
+        boolean signed = val.startsWith("-");
+        long magnitude;
+        try {
+            magnitude = parseMagnitude(signed ? val.substring(1) : val);
+        } catch (NumberFormatException e) {
+            return false; // more than 64 bits
+        }
+        long max = literal.getTokenType() == TokenType.LONGLITERAL ? Long.MAX_VALUE : Integer.MAX_VALUE;
+        return Long.compareUnsigned(magnitude, signed || negated ? max + 1 : max) <= 0;
+    }
+
+    /**
+     * The value of an int, long, char or bool literal. An int or long literal must be in range
+     * for its type, except that its magnitude may be one past the maximum, which only its
+     * negation can represent.
+     */
+    public static long valueOf(LexicalToken literal) {
+        switch (literal.getTokenType()) {
+            case BOOLEANLITERAL:
+                return literal.getVal().equals("true") ? 1 : 0;
+            case CHARLITERAL:
+                return charValue(literal.getVal());
+            case LONGLITERAL:
+            case INTLITERAL: {
+                String val = digits(literal);
+                boolean signed = val.startsWith("-");
+                long value = parseMagnitude(signed ? val.substring(1) : val);
+                value = signed ? -value : value;
+                return literal.getTokenType() == TokenType.INTLITERAL ? (int) value : value;
+            }
+            default:
+                throw new IllegalArgumentException("Not a constant literal: " + literal);
+        }
+    }
+
+    /**
+     * The literal token for a constant of the given type, placed at the given line and column.
+     */
+    public static LexicalToken literal(DecafType type, long value, Integer line, Integer column) {
+        switch (type) {
+            case BOOL:
+                return new LexicalToken(TokenType.BOOLEANLITERAL, value != 0 ? "true" : "false", line, column);
+            case LONG:
+                return new LexicalToken(TokenType.LONGLITERAL, value + "L", line, column);
+            case INT:
+                return new LexicalToken(TokenType.INTLITERAL, Integer.toString((int) value), line, column);
+            default:
+                throw new IllegalArgumentException("No literals of type " + type);
+        }
+    }
+
+    /**
+     * Whether a binary operator can be evaluated at compile time. Division and remainder trap
+     * at run time when the divisor is zero, and when the least value of the type is divided by
+     * -1, whose quotient does not fit; those are left for run time.
+     */
+    public static boolean canFold(String op, DecafType operands, long left, long right) {
+        if (!op.equals("/") && !op.equals("%")) {
+            return true;
+        }
+        long least = operands == DecafType.INT ? Integer.MIN_VALUE : Long.MIN_VALUE;
+        return right != 0 && !(right == -1 && left == least);
+    }
+
+    /**
+     * Evaluates a binary operator on constants whose type is the type of both operands.
+     */
+    public static long fold(String op, DecafType operands, long left, long right) {
+        boolean isInt = operands == DecafType.INT;
+        switch (op) {
+            case "+":  return isInt ? (int) left + (int) right : left + right;
+            case "-":  return isInt ? (int) left - (int) right : left - right;
+            case "*":  return isInt ? (int) left * (int) right : left * right;
+            case "/":  return isInt ? (int) left / (int) right : left / right;
+            case "%":  return isInt ? (int) left % (int) right : left % right;
+            case "<":  return left < right ? 1 : 0;
+            case "<=": return left <= right ? 1 : 0;
+            case ">":  return left > right ? 1 : 0;
+            case ">=": return left >= right ? 1 : 0;
+            case "==": return left == right ? 1 : 0;
+            case "!=": return left != right ? 1 : 0;
+            case "&&": return left & right;
+            case "||": return left | right;
+            default:
+                throw new IllegalArgumentException("Not a binary operator: " + op);
+        }
+    }
+
+    /**
+     * Evaluates a unary operator or cast on a constant, giving a result of the given type.
+     */
+    public static long fold(String op, DecafType result, long operand) {
+        switch (op) {
+            case "-":    return result == DecafType.INT ? -(int) operand : -operand;
+            case "!":    return operand ^ 1;
+            case "int":  return (int) operand;
+            case "long": return operand;
+            default:
+                throw new IllegalArgumentException("Not a unary operator: " + op);
+        }
+    }
+
+    // The literal's digits without underscores or a long suffix
+    private static String digits(LexicalToken literal) {
+        String val = literal.getVal().replace("_", "");
+        return literal.getTokenType() == TokenType.LONGLITERAL ? val.substring(0, val.length() - 1) : val;
+    }
+
+    // Parses decimal or hex digits as an unsigned 64-bit magnitude
+    private static long parseMagnitude(String digits) {
+        if (digits.startsWith("0x") || digits.startsWith("0X")) {
+            return Long.parseUnsignedLong(digits.substring(2), 16);
+        }
+        return Long.parseUnsignedLong(digits, 10);
+    }
+
+    private static long charValue(String literal) {
+        char c = literal.charAt(1); // literal is quoted
+        if (c != '\\') {
+            return c;
+        }
+        switch (literal.charAt(2)) {
+            case 'b': return '\b';
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'f': return '\f';
+            case 'r': return '\r';
+            default:  return literal.charAt(2); // \' \" \\
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package lang.grammars.decaf;
 
 import lang.*;
+import lang.ir.IRProgram;
 import lang.parser.OperatorPrecedenceHierarchy;
 import lang.parser.ParserConfig;
 import lang.scanner.ScannerConfig;
@@ -18,6 +19,9 @@ import java.util.Set;
  * Provides configuration and factory methods for Decaf-specific compiler components.
  */
 public class DecafLanguage implements Language {
+    // Below this many tokens, scheduling method bodies on other threads costs more than it saves
+    private static final int PARALLEL_PARSE_THRESHOLD = 200_000;
+
     private ScannerConfig<DecafState> cachedScannerConfig;
     private ParserConfig cachedParserConfig;
 
@@ -53,15 +57,65 @@ public class DecafLanguage implements Language {
     }
 
     /**
-     * Creates a Decaf parser for the given tokens.
+     * Creates a Decaf parser for the given tokens. Large inputs get a parser that parses
+     * method bodies concurrently.
      *
      * @param tokens The lexical tokens to parse
      * @return A Parser instance
      */
     public Parser createParser(List<LexicalToken> tokens) {
+        if (tokens.size() >= PARALLEL_PARSE_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+            return new ParallelParse(tokens, new DecafCFGGraph());
+        }
         return new Parse(tokens, new DecafCFGGraph());
     }
 
+    /**
+     * Tells whether {@link #createParser(List)} may return a parser that parses method bodies
+     * concurrently for an input of the given length. Every token takes at least one character,
+     * so a false answer is certain before the input is scanned.
+     *
+     * @param characters The length of the source code
+     * @return false if the input is certainly parsed on one thread
+     */
+    public boolean mayParseInParallel(int characters) {
+        return characters >= PARALLEL_PARSE_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    /**
+     * Creates a Decaf parser that consumes tokens while a lexer is still producing them.
+     * Connect it with {@code lexer.setTokenSink(parser.sink())}.
+     *
+     * @return A PipelinedParse instance
+     */
+    public PipelinedParse createPipelinedParser() {
+        return new PipelinedParse(new DecafCFGGraph());
+    }
+
+    /**
+     * Creates the Decaf semantic checker.
+     *
+     * @param ast The program tree to be analyzed
+     * @return A DecafAnalyzer instance
+     */
+    @Override
+    public Analyzer createAnalyzer(ASTBase ast) {
+        return new DecafAnalyzer();
+    }
+
+    /**
+     * Lowers an analyzed Decaf program to three-address code, with the constant expressions
+     * the analyzer folded.
+     *
+     * @param ast The program tree, after a DecafAnalyzer has accepted it
+     * @param analyzer The DecafAnalyzer that accepted it
+     * @return The program's IR
+     */
+    @Override
+    public IRProgram lower(ASTBase ast, Analyzer analyzer) {
+        return new DecafLowering((DecafAnalyzer) analyzer).lower(ast);
+    }
+
     /**
      * Builds Decaf-specific scanner configuration.
      */
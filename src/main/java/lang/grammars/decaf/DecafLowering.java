@@ -0,0 +1,592 @@
+package lang.grammars.decaf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lang.analyzer.SymbolTable;
+import lang.ir.IRFunction;
+import lang.ir.IRProgram;
+import lang.ir.IRProgram.Symbol;
+import lang.ir.Opcode;
+import lang.ir.Operand;
+import lang.types.ASTBase;
+import lang.types.ASTExpr;
+import lang.types.LexicalToken;
+import lang.types.LexicalToken.TokenType;
+
+/**
+ * Lowers a Decaf program that has passed {@link DecafAnalyzer} to the three-address IR of
+ * {@link lang.ir}.
+ *
+ * The tree is read positionally, as the analyzer reads it, and is assumed to be legal: names
+ * resolve and types match. Each expression of a statement is read through the analyzer that
+ * accepted the program, if it is given, so constant subexpressions arrive folded into
+ * literals; without one, they are lowered as written and left for the optimizations. Names are
+ * resolved again through a {@link SymbolTable} whose values are operands: a register for a
+ * parameter or local scalar, a frame operand for a local array, and a global operand for
+ * everything declared at the top level.
+ *
+ * The lowering is deliberately naive, leaving cleanup to the optimizations that run on the IR:
+ * <ul>
+ * <li>every local scalar lives in one register for the whole method, starts at zero, and an
+ * assignment computes into a temporary that is then moved into it;</li>
+ * <li>global scalars are loaded before each use and stored after each assignment, since any
+ * call may change them;</li>
+ * <li>every array access is preceded by a CHECK of its index against the array's length;</li>
+ * <li>{@code &&}, {@code ||} and {@code !} in conditions become branches, and as values they
+ * become branches that move true or false into a register;</li>
+ * <li>control reaching the end of a method that returns a value traps with exit status -1.</li>
+ * </ul>
+ * Expressions are lowered recursively, so the Java stack used follows their nesting depth.
+ */
+public class DecafLowering {
+    // Exit status when control falls off the end of a method that returns a value
+    private static final long FALL_OFF_STATUS = -1;
+
+    private final DecafAnalyzer analyzer; // where the folded expressions are, or null
+    private final IRProgram program = new IRProgram();
+    private final SymbolTable<Integer> symbols = new SymbolTable<>();
+    private IRFunction function;
+
+    // Targets of continue and break for each enclosing loop, innermost last
+    private int[] continueLabels = new int[8];
+    private int[] breakLabels = new int[8];
+    private int loopDepth = 0;
+
+    public DecafLowering() {
+        this(null);
+    }
+
+    /**
+     * @param analyzer The analyzer that accepted the program, whose folded expressions are
+     *                 lowered in place of those in the tree
+     */
+    public DecafLowering(DecafAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Lowers a whole program. A lowering object is used once.
+     * @param ast A program tree that the analyzer has accepted
+     */
+    public IRProgram lower(ASTBase ast) {
+        this.symbols.enterScope();
+        List<ASTBase> methods = new ArrayList<>();
+        for (ASTBase item : ast.children()) {
+            if (isSyntax(item.getChildAt(0), "import")) {
+                String name = item.getChildAt(1).getToken().getVal();
+                declare(name, this.program.declare(new Symbol(Symbol.Kind.IMPORT, name, DecafType.INT, 0)));
+            } else if (item.getNumChildren() > 2 && isSyntax(item.getChildAt(2), "(")) {
+                String name = item.getChildAt(1).getToken().getVal();
+                DecafType result = DecafType.fromKeyword(item.getChildAt(0).getToken().getVal());
+                declare(name, this.program.declare(new Symbol(Symbol.Kind.METHOD, name, result, 0)));
+                methods.add(item);
+            } else {
+                lowerFieldDecl(item, true);
+            }
+        }
+        for (ASTBase method : methods) {
+            lowerMethod(method);
+        }
+        this.symbols.exitScope();
+        return this.program;
+    }
+
+    /*
+     * Declarations
+     */
+
+    // [type, name, '(', (type, name, ',')*, ')', BLOCK]
+    private void lowerMethod(ASTBase item) {
+        int body = item.getNumChildren() - 1;
+        List<DecafType> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 3; i < body - 1; i += 3) {
+            types.add(DecafType.fromKeyword(item.getChildAt(i).getToken().getVal()));
+            names.add(item.getChildAt(i + 1).getToken().getVal());
+        }
+        DecafType result = DecafType.fromKeyword(item.getChildAt(0).getToken().getVal());
+        this.function = new IRFunction(item.getChildAt(1).getToken().getVal(), result, types, names);
+
+        // parameters and the top level of the body share one scope
+        this.symbols.enterScope();
+        for (int p = 0; p < names.size(); p++) {
+            declare(names.get(p), p);
+        }
+        lowerBlockItems(item.getChildAt(body));
+        this.symbols.exitScope();
+
+        int size = this.function.size();
+        if (size == 0 || !this.function.opcode(size - 1).isTerminator()) {
+            if (result == DecafType.VOID) {
+                emit(Opcode.RETURN, null, Operand.NONE, Operand.NONE, Operand.NONE);
+            } else {
+                emit(Opcode.TRAP, null, Operand.NONE, constant(DecafType.INT, FALL_OFF_STATUS), Operand.NONE);
+            }
+        }
+        this.function.trim();
+        this.program.addFunction(this.function);
+        this.function = null;
+    }
+
+    // [type, name, ('[', size, ']')?, (',', name, ('[', size, ']')?)*, ';']
+    private void lowerFieldDecl(ASTBase item, boolean global) {
+        DecafType type = DecafType.fromKeyword(item.getChildAt(0).getToken().getVal());
+        int count = item.getNumChildren();
+        int i = 1;
+        while (i < count - 1) {
+            String name = item.getChildAt(i++).getToken().getVal();
+            if (isSyntax(item.getChildAt(i), "[")) {
+                int length = (int) DecafConstants.valueOf(item.getChildAt(i + 1).getToken());
+                Symbol array = new Symbol(Symbol.Kind.VARIABLE, name, type.arrayType(), length);
+                declare(name, global ? this.program.declare(array) : this.function.declareFrame(array));
+                i += 3;
+            } else if (global) {
+                declare(name, this.program.declare(new Symbol(Symbol.Kind.VARIABLE, name, type, 0)));
+            } else {
+                int register = this.function.newRegister(type, name);
+                emit(Opcode.MOVE, type, register, constant(type, 0), Operand.NONE);
+                declare(name, register);
+            }
+            i++; // ',' or ';'
+        }
+    }
+
+    private void declare(String name, int operand) {
+        this.symbols.declare(this.symbols.intern(name), operand);
+    }
+
+    private int resolve(LexicalToken name) {
+        return this.symbols.lookup(this.symbols.intern(name.getVal()));
+    }
+
+    /*
+     * Statements
+     */
+
+    private void lowerBlock(ASTBase block) {
+        this.symbols.enterScope();
+        lowerBlockItems(block);
+        this.symbols.exitScope();
+    }
+
+    private void lowerBlockItems(ASTBase block) {
+        for (ASTBase item : block.children()) {
+            if (item.getType() == ASTBase.Environment.DECL) {
+                lowerFieldDecl(item, false);
+            } else {
+                lowerStatement(item);
+            }
+        }
+    }
+
+    private void lowerStatement(ASTBase item) {
+        LexicalToken first = item.getChildAt(0).getToken();
+        if (first.getTokenType() == TokenType.IDENTIFIER) {
+            lowerIdentifierStatement(item);
+            return;
+        }
+        switch (first.getVal()) {
+            case "if":
+                lowerIf(item);
+                break;
+            case "while": {
+                int condition = label();
+                int body = this.function.newLabel();
+                int end = this.function.newLabel();
+                lowerCondition(expression(item, 2), body, end);
+                placeLabel(body);
+                lowerLoopBody(item.getChildAt(4), condition, end);
+                jump(condition);
+                placeLabel(end);
+                break;
+            }
+            case "for":
+                lowerFor(item);
+                break;
+            case "return": {
+                if (item.getNumChildren() == 2) {
+                    emit(Opcode.RETURN, null, Operand.NONE, Operand.NONE, Operand.NONE);
+                } else {
+                    int value = lowerValue(expression(item, 1));
+                    emit(Opcode.RETURN, this.function.getResultType(), Operand.NONE, value, Operand.NONE);
+                }
+                break;
+            }
+            case "break":
+                jump(this.breakLabels[this.loopDepth - 1]);
+                break;
+            case "continue":
+                jump(this.continueLabels[this.loopDepth - 1]);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected statement item: " + first.getVal());
+        }
+    }
+
+    // ['if', '(', cond, ')', BLOCK, ('else', 'if', '(', cond, ')', BLOCK)*, ('else', BLOCK)?]
+    private void lowerIf(ASTBase item) {
+        int count = item.getNumChildren();
+        int end = this.function.newLabel();
+        int i = 0;
+        while (true) {
+            int then = this.function.newLabel();
+            int next = i + 5 >= count ? end : this.function.newLabel();
+            lowerCondition(expression(item, i + 2), then, next);
+            placeLabel(then);
+            lowerBlock(item.getChildAt(i + 4));
+            if (next == end) {
+                break;
+            }
+            jump(end);
+            placeLabel(next);
+            i += 5;
+            if (!isSyntax(item.getChildAt(i + 1), "if")) {
+                lowerBlock(item.getChildAt(i + 1));
+                break;
+            }
+            i++; // 'else' 'if' continues the chain
+        }
+        placeLabel(end);
+    }
+
+    // ['for', '(', (id, '=', expr)?, ';', cond?, ';', id, op, expr?, ')', BLOCK]
+    private void lowerFor(ASTBase item) {
+        int i = 2;
+        if (!isSyntax(item.getChildAt(i), ";")) {
+            assign(resolve(item.getChildAt(i).getToken()), "=", expression(item, i + 2));
+            i += 3;
+        }
+        i++; // ';'
+        int condition = label();
+        int body = this.function.newLabel();
+        int update = this.function.newLabel();
+        int end = this.function.newLabel();
+        if (!isSyntax(item.getChildAt(i), ";")) {
+            lowerCondition(expression(item, i), body, end);
+            i++;
+        }
+        i++; // ';'
+        placeLabel(body);
+        lowerLoopBody(item.getChildAt(item.getNumChildren() - 1), update, end);
+        placeLabel(update);
+        String op = item.getChildAt(i + 1).getToken().getVal();
+        assign(resolve(item.getChildAt(i).getToken()), op, isIncrement(op) ? null : expression(item, i + 2));
+        jump(condition);
+        placeLabel(end);
+    }
+
+    private void lowerLoopBody(ASTBase block, int continueLabel, int breakLabel) {
+        if (this.loopDepth == this.breakLabels.length) {
+            this.breakLabels = Arrays.copyOf(this.breakLabels, this.loopDepth * 2);
+            this.continueLabels = Arrays.copyOf(this.continueLabels, this.loopDepth * 2);
+        }
+        this.continueLabels[this.loopDepth] = continueLabel;
+        this.breakLabels[this.loopDepth++] = breakLabel;
+        lowerBlock(block);
+        this.loopDepth--;
+    }
+
+    // [id, op, expr, ';'] | [id, '[', index, ']', '=', expr, ';'] | [id, '(', (arg, ',')*, ')', ';']
+    private void lowerIdentifierStatement(ASTBase item) {
+        LexicalToken name = item.getChildAt(0).getToken();
+        String op = item.getChildAt(1).getToken().getVal();
+        switch (op) {
+            case "(": {
+                List<ASTBase> arguments = new ArrayList<>();
+                for (int i = 2; i < item.getNumChildren() - 2; i += 2) {
+                    arguments.add(expression(item, i));
+                }
+                lowerCall(name, arguments, false);
+                break;
+            }
+            case "[": {
+                // the location is evaluated before the value
+                int array = resolve(name);
+                int index = checkedIndex(array, expression(item, 2));
+                int value = lowerValue(expression(item, 5));
+                emit(Opcode.STORE, symbol(array).getType().elementType(), array, index, value);
+                break;
+            }
+            default:
+                assign(resolve(name), op, expression(item, 2));
+                break;
+        }
+    }
+
+    /*
+     * Assigns to a local or global scalar: '=', a compound assignment, or '++' and '--', which
+     * have no value expression. The location's current value is read before the value is
+     * computed.
+     */
+    private void assign(int location, String op, ASTBase value) {
+        DecafType type = locationType(location);
+        if (op.equals("=")) {
+            write(location, type, lowerValue(value));
+            return;
+        }
+        int current = read(location, type);
+        int operand = value == null ? constant(type, 1) : lowerValue(value);
+        Opcode opcode = op.startsWith("+") ? Opcode.ADD
+            : op.startsWith("-") ? Opcode.SUB
+            : op.startsWith("*") ? Opcode.MUL
+            : op.startsWith("/") ? Opcode.DIV
+            : Opcode.MOD;
+        if (Operand.isRegister(location)) {
+            emit(opcode, type, location, current, operand);
+        } else {
+            int result = temporary(type);
+            emit(opcode, type, result, current, operand);
+            write(location, type, result);
+        }
+    }
+
+    private int read(int location, DecafType type) {
+        if (Operand.isRegister(location)) {
+            return location;
+        }
+        int result = temporary(type);
+        emit(Opcode.LOAD, type, result, location, Operand.NONE);
+        return result;
+    }
+
+    private void write(int location, DecafType type, int value) {
+        if (Operand.isRegister(location)) {
+            emit(Opcode.MOVE, type, location, value, Operand.NONE);
+        } else {
+            emit(Opcode.STORE, type, location, Operand.NONE, value);
+        }
+    }
+
+    /*
+     * Expressions
+     */
+
+    // The expression at a child of a statement, folded if the analyzer folded it
+    private ASTBase expression(ASTBase item, int index) {
+        return this.analyzer == null ? item.getChildAt(index) : this.analyzer.folded(item, index);
+    }
+
+    /*
+     * Emits code that jumps to ifTrue if the condition holds and to ifFalse otherwise. The
+     * boolean connectives become control flow, so their right operands are skipped when the
+     * left decides the result.
+     */
+    private void lowerCondition(ASTBase condition, int ifTrue, int ifFalse) {
+        if (condition instanceof ASTExpr) {
+            ASTExpr expr = (ASTExpr) condition;
+            String op = expr.getToken().getVal();
+            if (expr.getArity() == ASTExpr.Arity.BINARY && (op.equals("&&") || op.equals("||"))) {
+                int right = this.function.newLabel();
+                if (op.equals("&&")) {
+                    lowerCondition(expr.getChildAt(0), right, ifFalse);
+                } else {
+                    lowerCondition(expr.getChildAt(0), ifTrue, right);
+                }
+                placeLabel(right);
+                lowerCondition(expr.getChildAt(1), ifTrue, ifFalse);
+                return;
+            }
+            if (expr.getArity() == ASTExpr.Arity.UNARY && op.equals("!")) {
+                lowerCondition(expr.getChildAt(0), ifFalse, ifTrue);
+                return;
+            }
+        } else if (condition.getToken().getTokenType() == TokenType.BOOLEANLITERAL) {
+            jump(condition.getToken().getVal().equals("true") ? ifTrue : ifFalse);
+            return;
+        }
+        int value = lowerValue(condition);
+        emit(Opcode.BRANCH, null, ifFalse, value, ifTrue);
+    }
+
+    /*
+     * Emits code computing the expression and returns the operand holding its value: a
+     * constant, a local's own register, or a temporary.
+     */
+    private int lowerValue(ASTBase node) {
+        if (!(node instanceof ASTExpr)) {
+            LexicalToken token = node.getToken();
+            switch (token.getTokenType()) {
+                case INTLITERAL:
+                case CHARLITERAL:
+                    return constant(DecafType.INT, DecafConstants.valueOf(token));
+                case LONGLITERAL:
+                    return constant(DecafType.LONG, DecafConstants.valueOf(token));
+                case BOOLEANLITERAL:
+                    return constant(DecafType.BOOL, DecafConstants.valueOf(token));
+                default: {
+                    int location = resolve(token);
+                    return read(location, locationType(location));
+                }
+            }
+        }
+
+        ASTExpr expr = (ASTExpr) node;
+        String op = expr.getToken().getVal();
+        if (expr.getArity() == ASTExpr.Arity.UNBOUNDED) {
+            return lowerCall(expr.getToken(), expr.children(), true);
+        }
+        if (op.equals("[]")) {
+            int array = resolve(expr.getChildAt(0).getToken());
+            int index = checkedIndex(array, expr.getChildAt(1));
+            DecafType element = symbol(array).getType().elementType();
+            int result = temporary(element);
+            emit(Opcode.LOAD, element, result, array, index);
+            return result;
+        }
+        if (op.equals("&&") || op.equals("||")) {
+            int result = temporary(DecafType.BOOL);
+            int ifTrue = this.function.newLabel();
+            int ifFalse = this.function.newLabel();
+            int end = this.function.newLabel();
+            lowerCondition(expr, ifTrue, ifFalse);
+            placeLabel(ifTrue);
+            emit(Opcode.MOVE, DecafType.BOOL, result, constant(DecafType.BOOL, 1), Operand.NONE);
+            jump(end);
+            placeLabel(ifFalse);
+            emit(Opcode.MOVE, DecafType.BOOL, result, constant(DecafType.BOOL, 0), Operand.NONE);
+            placeLabel(end);
+            return result;
+        }
+        if (expr.getArity() == ASTExpr.Arity.UNARY) {
+            if (op.equals("len")) {
+                return constant(DecafType.INT, symbol(resolve(expr.getChildAt(0).getToken())).getLength());
+            }
+            int operand = lowerValue(expr.getChildAt(0));
+            DecafType type = this.function.typeOf(operand);
+            switch (op) {
+                case "-":
+                    return compute(Opcode.NEG, type, type, operand, Operand.NONE);
+                case "!":
+                    return compute(Opcode.NOT, DecafType.BOOL, DecafType.BOOL, operand, Operand.NONE);
+                case "int":
+                    return type == DecafType.INT ? operand
+                        : compute(Opcode.TRUNCATE, DecafType.INT, DecafType.INT, operand, Operand.NONE);
+                case "long":
+                    return type == DecafType.LONG ? operand
+                        : compute(Opcode.EXTEND, DecafType.LONG, DecafType.LONG, operand, Operand.NONE);
+                default:
+                    throw new IllegalStateException("Unexpected operator: " + op);
+            }
+        }
+
+        int left = lowerValue(expr.getChildAt(0));
+        int right = lowerValue(expr.getChildAt(1));
+        DecafType type = this.function.typeOf(left);
+        Opcode opcode = binaryOpcode(op);
+        return compute(opcode, type, opcode.isComparison() ? DecafType.BOOL : type, left, right);
+    }
+
+    /*
+     * Calls a method or import with arguments evaluated left to right; a string literal or a
+     * whole array, which only imports take, is passed as it is. Returns the register holding
+     * the result, or NONE if it is not needed.
+     */
+    private int lowerCall(LexicalToken name, List<ASTBase> arguments, boolean needsValue) {
+        int callee = resolve(name);
+        int[] operands = new int[arguments.size()];
+        for (int i = 0; i < operands.length; i++) {
+            ASTBase argument = arguments.get(i);
+            LexicalToken token = argument.getToken();
+            if (argument instanceof ASTExpr) {
+                operands[i] = lowerValue(argument);
+            } else if (token.getTokenType() == TokenType.STRINGLITERAL) {
+                operands[i] = this.function.string(token.getVal());
+            } else if (token.getTokenType() == TokenType.IDENTIFIER && locationType(resolve(token)).isArray()) {
+                operands[i] = resolve(token);
+            } else {
+                operands[i] = lowerValue(argument);
+            }
+        }
+        DecafType result = this.program.getSymbol(callee).getType();
+        int dest = needsValue ? temporary(result) : Operand.NONE;
+        emit(Opcode.CALL, needsValue ? result : null, dest, callee, this.function.arguments(operands, operands.length));
+        return dest;
+    }
+
+    // Computes an array index and checks it against the array's length
+    private int checkedIndex(int array, ASTBase index) {
+        int operand = lowerValue(index);
+        emit(Opcode.CHECK, null, Operand.NONE, operand, constant(DecafType.INT, symbol(array).getLength()));
+        return operand;
+    }
+
+    private static Opcode binaryOpcode(String op) {
+        switch (op) {
+            case "+":  return Opcode.ADD;
+            case "-":  return Opcode.SUB;
+            case "*":  return Opcode.MUL;
+            case "/":  return Opcode.DIV;
+            case "%":  return Opcode.MOD;
+            case "==": return Opcode.EQ;
+            case "!=": return Opcode.NE;
+            case "<":  return Opcode.LT;
+            case "<=": return Opcode.LE;
+            case ">":  return Opcode.GT;
+            case ">=": return Opcode.GE;
+            default:
+                throw new IllegalStateException("Unexpected operator: " + op);
+        }
+    }
+
+    /*
+     * Emitting
+     */
+
+    private void emit(Opcode opcode, DecafType type, int dest, int src1, int src2) {
+        this.function.emit(opcode, type, dest, src1, src2);
+    }
+
+    // Emits an instruction computing into a new temporary of the given result type
+    private int compute(Opcode opcode, DecafType type, DecafType result, int src1, int src2) {
+        int dest = temporary(result);
+        emit(opcode, type, dest, src1, src2);
+        return dest;
+    }
+
+    private int temporary(DecafType type) {
+        return this.function.newRegister(type, null);
+    }
+
+    private int constant(DecafType type, long value) {
+        return this.function.constant(type, value);
+    }
+
+    // Creates a label and places it here
+    private int label() {
+        int label = this.function.newLabel();
+        placeLabel(label);
+        return label;
+    }
+
+    private void placeLabel(int label) {
+        emit(Opcode.LABEL, null, Operand.NONE, label, Operand.NONE);
+    }
+
+    private void jump(int label) {
+        emit(Opcode.JUMP, null, Operand.NONE, label, Operand.NONE);
+    }
+
+    private DecafType locationType(int location) {
+        return Operand.isRegister(location) ? this.function.registerType(location) : symbol(location).getType();
+    }
+
+    private Symbol symbol(int operand) {
+        return Operand.isGlobal(operand) ? this.program.getSymbol(operand) : this.function.getFrameSymbol(operand);
+    }
+
+    private static boolean isIncrement(String op) {
+        return op.equals("++") || op.equals("--");
+    }
+
+    // Whether the node is the given keyword or punctuation token rather than an expression
+    private static boolean isSyntax(ASTBase node, String value) {
+        if (node.getType() != null || node instanceof ASTExpr || node.getToken() == null) {
+            return false;
+        }
+        TokenType type = node.getToken().getTokenType();
+        return (type == TokenType.KEYWORD || type == TokenType.PUNCTUATION)
+            && node.getToken().getVal().equals(value);
+    }
+}
@@ -0,0 +1,31 @@
+package lang.grammars.decaf;
+
+import java.util.List;
+
+import lang.types.LexicalToken;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * What a Decaf identifier is bound to: an import, a method, or a variable.
+ */
+@Getter
+@AllArgsConstructor
+public class DecafSymbol {
+    public static enum Kind {
+        IMPORT,
+        METHOD,
+        VARIABLE
+    }
+
+    private final Kind kind;
+    private final DecafType type;             // result type for methods and imports
+    private final List<DecafType> parameters; // null unless a method
+    private final LexicalToken token;         // the declaring identifier
+    private final int position;               // index of the declaring item for globals, -1 for locals
+    private final int length;                 // number of elements for arrays, 0 otherwise
+
+    public boolean isCallable() {
+        return this.kind != Kind.VARIABLE;
+    }
+}
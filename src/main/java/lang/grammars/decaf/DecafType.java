@@ -0,0 +1,74 @@
+package lang.grammars.decaf;
+
+/**
+ * Types of Decaf values, locations and methods.
+ */
+public enum DecafType {
+    INT("int"),
+    LONG("long"),
+    BOOL("bool"),
+    VOID("void"),
+    INT_ARRAY("int[]"),
+    LONG_ARRAY("long[]"),
+    BOOL_ARRAY("bool[]"),
+    STRING("string"); // only legal as an argument to an import
+
+    private final String name;
+
+    DecafType(String name) {
+        this.name = name;
+    }
+
+    public boolean isArray() {
+        return this == INT_ARRAY || this == LONG_ARRAY || this == BOOL_ARRAY;
+    }
+
+    public boolean isIntegral() {
+        return this == INT || this == LONG;
+    }
+
+    /**
+     * @return The element type of an array type
+     * @throws IllegalStateException if this is not an array type
+     */
+    public DecafType elementType() {
+        switch (this) {
+            case INT_ARRAY: return INT;
+            case LONG_ARRAY: return LONG;
+            case BOOL_ARRAY: return BOOL;
+            default: throw new IllegalStateException(this.name + " is not an array type");
+        }
+    }
+
+    /**
+     * @return The type of an array with elements of this type
+     * @throws IllegalStateException if arrays of this type cannot be declared
+     */
+    public DecafType arrayType() {
+        switch (this) {
+            case INT: return INT_ARRAY;
+            case LONG: return LONG_ARRAY;
+            case BOOL: return BOOL_ARRAY;
+            default: throw new IllegalStateException("Cannot declare an array of " + this.name);
+        }
+    }
+
+    /**
+     * @param keyword A type keyword: int, long, bool or void
+     * @return The corresponding type, or null if the keyword does not name a type
+     */
+    public static DecafType fromKeyword(String keyword) {
+        switch (keyword) {
+            case "int": return INT;
+            case "long": return LONG;
+            case "bool": return BOOL;
+            case "void": return VOID;
+            default: return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,186 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * The expressions available at each block: a forward intersection problem. An expression is an
+ * operation with its operands, such as {@code add int %i, 1}, numbered once however many
+ * instructions compute it; it is available at a point if every path there computes it with no
+ * later write to one of its operands. Only {@link Opcode#isPure() pure} operations, divisions
+ * and remainders are expressions, and only those computed by more than one instruction are
+ * tracked, since no other can be redundant; a division that could trap is redundant once one
+ * that did not has run. Outside SSA form a write kills every expression reading the register it
+ * writes; in SSA form nothing is ever killed.
+ */
+public class AvailableExpressions extends Dataflow {
+    private final int[] numbers; // expression each instruction computes, or -1
+
+    /*
+     * Numbers the expressions of a function, with an open-addressing table over their
+     * (opcode and type, src1, src2) triples.
+     */
+    private static final class Numbering {
+        final int[] numbers;
+        int[] triples = new int[3 * 16];
+        int count = 0;
+        int[] slots = new int[32]; // expression + 1, or 0 if empty
+
+        Numbering(IRFunction function) {
+            this.numbers = new int[function.size()];
+            for (int i = 0; i < function.size(); i++) {
+                Opcode opcode = function.opcode(i);
+                boolean expression = opcode.isPure() || opcode == Opcode.DIV || opcode == Opcode.MOD;
+                this.numbers[i] = expression && function.dest(i) != Operand.NONE
+                    ? number(opcode.ordinal() | function.type(i).ordinal() << 8, function.src1(i), function.src2(i))
+                    : -1;
+            }
+
+            // renumber, keeping the expressions computed more than once
+            int[] computed = new int[this.count];
+            for (int e : this.numbers) {
+                if (e >= 0) {
+                    computed[e]++;
+                }
+            }
+            int[] renumbered = new int[this.count];
+            int kept = 0;
+            for (int e = 0; e < this.count; e++) {
+                if (computed[e] > 1) {
+                    System.arraycopy(this.triples, 3 * e, this.triples, 3 * kept, 3);
+                    renumbered[e] = kept++;
+                } else {
+                    renumbered[e] = -1;
+                }
+            }
+            for (int i = 0; i < this.numbers.length; i++) {
+                if (this.numbers[i] >= 0) {
+                    this.numbers[i] = renumbered[this.numbers[i]];
+                }
+            }
+            this.count = kept;
+        }
+
+        private int number(int header, int src1, int src2) {
+            int mask = this.slots.length - 1;
+            int i = hash(header, src1, src2) & mask;
+            for (; this.slots[i] != 0; i = (i + 1) & mask) {
+                int e = 3 * (this.slots[i] - 1);
+                if (this.triples[e] == header && this.triples[e + 1] == src1 && this.triples[e + 2] == src2) {
+                    return this.slots[i] - 1;
+                }
+            }
+            int e = this.count++;
+            if (3 * this.count > this.triples.length) {
+                this.triples = Arrays.copyOf(this.triples, this.triples.length * 2);
+            }
+            this.triples[3 * e] = header;
+            this.triples[3 * e + 1] = src1;
+            this.triples[3 * e + 2] = src2;
+            this.slots[i] = e + 1;
+            if (this.count * 2 > this.slots.length) {
+                int[] grown = new int[this.slots.length * 2];
+                int grownMask = grown.length - 1;
+                for (int x = 0; x < this.count; x++) {
+                    int j = hash(this.triples[3 * x], this.triples[3 * x + 1], this.triples[3 * x + 2]) & grownMask;
+                    while (grown[j] != 0) {
+                        j = (j + 1) & grownMask;
+                    }
+                    grown[j] = x + 1;
+                }
+                this.slots = grown;
+            }
+            return e;
+        }
+
+        private static int hash(int header, int src1, int src2) {
+            int h = header * 0x9E3779B1;
+            h = (h ^ src1) * 0x9E3779B1;
+            h = (h ^ src2) * 0x9E3779B1;
+            return h ^ h >>> 16;
+        }
+    }
+
+    public AvailableExpressions(IRFunction function, ControlFlowGraph cfg) {
+        this(function, cfg, new Numbering(function));
+    }
+
+    private AvailableExpressions(IRFunction function, ControlFlowGraph cfg, Numbering numbering) {
+        super(cfg, numbering.count, Direction.FORWARD, Meet.INTERSECTION);
+        this.numbers = numbering.numbers;
+
+        // the expressions reading each register, back to back
+        int registers = function.getRegisterCount();
+        int[] starts = new int[registers + 1];
+        int[] triples = numbering.triples;
+        for (int e = 0; e < numbering.count; e++) {
+            for (int k = 1; k <= 2; k++) {
+                if (Operand.isRegister(triples[3 * e + k])) {
+                    starts[triples[3 * e + k] + 1]++;
+                }
+            }
+        }
+        for (int r = 0; r < registers; r++) {
+            starts[r + 1] += starts[r];
+        }
+        int[] readers = new int[starts[registers]];
+        int[] fill = Arrays.copyOf(starts, registers);
+        for (int e = 0; e < numbering.count; e++) {
+            for (int k = 1; k <= 2; k++) {
+                if (Operand.isRegister(triples[3 * e + k])) {
+                    readers[fill[triples[3 * e + k]]++] = e;
+                }
+            }
+        }
+
+        // a write kills the expressions reading its register, and those computed since in the
+        // block are all it takes out of gen
+        long[][] masks = new long[registers][];
+        int[] computed = new int[16];
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            int at = b * this.words;
+            int count = 0;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (this.numbers[i] >= 0) {
+                    if (count == computed.length) {
+                        computed = Arrays.copyOf(computed, count * 2);
+                    }
+                    computed[count++] = this.numbers[i];
+                    set(this.gen, at, this.numbers[i]);
+                }
+                if (function.opcode(i).definesRegister() && function.dest(i) != Operand.NONE) {
+                    int r = function.dest(i);
+                    setAll(this.kill, at, readers, starts[r], starts[r + 1], masks, r);
+                    for (int k = 0; k < count; k++) {
+                        if (reads(triples, computed[k], r)) {
+                            clear(this.gen, at, computed[k]);
+                        }
+                    }
+                }
+            }
+        }
+        solve();
+    }
+
+    private static boolean reads(int[] triples, int expression, int register) {
+        return triples[3 * expression + 1] == register || triples[3 * expression + 2] == register;
+    }
+
+    public int getExpressionCount() {
+        return this.bits;
+    }
+
+    /**
+     * @return The expression the instruction computes, or -1 if it computes none that is tracked
+     */
+    public int expression(int instruction) {
+        return this.numbers[instruction];
+    }
+
+    /**
+     * @return Whether the expression has been computed, and its operands not written since, on
+     *         every path to the top of the block
+     */
+    public boolean isAvailable(int block, int expression) {
+        return entry(block, expression);
+    }
+}
@@ -0,0 +1,434 @@
+package lang.ir;
+
+import java.util.Map;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Value-range analysis over a function in SSA form, and the removal of the bounds checks it
+ * proves can never fail, selected with {@code -O bce}.
+ *
+ * Every register gets an interval of the values it can hold. Since a register has one
+ * definition, one interval serves the whole function; what a branch shows about a value is
+ * applied where it is read instead, as π-nodes would: reading a register in a block entered only
+ * along one edge of a branch on {@code x < y}, or in a block dominated by such a block, narrows
+ * x to below the upper end of y's interval and y to above the lower end of x's. Phi arguments
+ * are read at the end of the block they come from. Comparisons of either sign and in either
+ * order count, and {@code ==} and {@code !=} too.
+ *
+ * Intervals start empty and grow as the function is evaluated round by round in reverse
+ * postorder, until none changes. A phi that keeps growing is widened: the end that moved goes
+ * to the limit of its type, and the other stays. An induction variable stepping up thus
+ * keeps its start as its lower end, and the test that ends the loop, read at the step, bounds
+ * it from above and shows the step cannot overflow; so in {@code for (i = 0; i < N; i++)} the
+ * variable is in {@code [0, N - 1]} in the body, which is exactly what a check against an
+ * array of length N needs. Arithmetic that may overflow its type gives the whole type.
+ *
+ * A check is removed when the interval of its index, read where the check is, lies within
+ * zero and one less than the length. How many checks were removed is the count of changes,
+ * and how many were kept is reported as {@code "bce kept"}.
+ */
+public class BoundsCheckElimination implements Optimizer.Pass {
+    private int kept = 0;
+
+    @Override
+    public String getName() {
+        return "bce";
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        Ranges ranges = new Ranges(function);
+        ranges.solve();
+        int removed = ranges.removeChecks();
+        this.kept += ranges.kept;
+        return removed;
+    }
+
+    @Override
+    public void report(Map<String, Integer> statistics) {
+        statistics.put(getName() + " kept", this.kept);
+    }
+
+    private static final class Ranges {
+        // Changes to a phi's interval before it is widened
+        private static final int WIDEN_AFTER = 2;
+
+        private final IRFunction function;
+        private final ControlFlowGraph cfg;
+        private final Dominators dominators;
+        private final DefUse defUse;
+        private final long[] lows;       // interval of each register; empty while low > high
+        private final long[] highs;
+        private final byte[] changes;
+
+        // what the edge into each block entered only along one edge of a branch shows: left
+        // test right, or a null test
+        private final Opcode[] tests;
+        private final int[] lefts;
+        private final int[] rights;
+
+        // the interval last read
+        private long low;
+        private long high;
+
+        private int kept = 0;
+
+        Ranges(IRFunction function) {
+            this.function = function;
+            this.cfg = new ControlFlowGraph(function);
+            this.dominators = new Dominators(this.cfg);
+            this.defUse = new DefUse(function);
+            int registers = function.getRegisterCount();
+            this.lows = new long[registers];
+            this.highs = new long[registers];
+            this.changes = new byte[registers];
+            for (int r = 0; r < registers; r++) {
+                if (this.defUse.def(r) < 0) {
+                    this.lows[r] = min(function.registerType(r)); // a parameter
+                    this.highs[r] = max(function.registerType(r));
+                } else {
+                    this.lows[r] = Long.MAX_VALUE;
+                    this.highs[r] = Long.MIN_VALUE;
+                }
+            }
+
+            int blocks = this.cfg.getBlockCount();
+            this.tests = new Opcode[blocks];
+            this.lefts = new int[blocks];
+            this.rights = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                if (this.cfg.predecessorCount(b) != 1) {
+                    continue;
+                }
+                int p = this.cfg.predecessor(b, 0);
+                int last = this.cfg.end(p) - 1;
+                if (last < this.cfg.start(p) || function.opcode(last) != Opcode.BRANCH
+                        || function.dest(last) == function.src2(last) || !Operand.isRegister(function.src1(last))) {
+                    continue;
+                }
+                int test = this.defUse.def(function.src1(last));
+                if (test < 0 || !function.opcode(test).isComparison()
+                        || !function.typeOf(function.src1(test)).isIntegral()) {
+                    continue;
+                }
+                boolean taken = this.cfg.blockOf(function.src2(last)) == b;
+                this.tests[b] = taken ? function.opcode(test) : negated(function.opcode(test));
+                this.lefts[b] = function.src1(test);
+                this.rights[b] = function.src2(test);
+            }
+        }
+
+        void solve() {
+            IRFunction f = this.function;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int n = 0; n < this.cfg.getReachableCount(); n++) {
+                    int b = this.cfg.reversePostorder(n);
+                    for (int i = this.cfg.start(b); i < this.cfg.end(b); i++) {
+                        if (f.opcode(i).definesRegister() && f.dest(i) != Operand.NONE && evaluate(i, b)) {
+                            changed |= widen(f.dest(i));
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Evaluates an instruction into low and high.
+         * @return False if an operand is not yet known
+         */
+        private boolean evaluate(int i, int b) {
+            IRFunction f = this.function;
+            Opcode opcode = f.opcode(i);
+            DecafType type = f.registerType(f.dest(i));
+            if (opcode == Opcode.PHI) {
+                return evaluatePhi(i);
+            }
+            if (opcode.isComparison() || opcode == Opcode.NOT) {
+                this.low = 0;
+                this.high = 1;
+                return true;
+            }
+            if (!opcode.isPure() && opcode != Opcode.MOVE && opcode != Opcode.DIV && opcode != Opcode.MOD) {
+                this.low = min(type); // loads and calls
+                this.high = max(type);
+                return true;
+            }
+            if (!read(f.src1(i), b)) {
+                return false;
+            }
+            long leftLow = this.low;
+            long leftHigh = this.high;
+            long rightLow = 0;
+            long rightHigh = 0;
+            if (opcode.isBinary()) {
+                if (!read(f.src2(i), b)) {
+                    return false;
+                }
+                rightLow = this.low;
+                rightHigh = this.high;
+            }
+            switch (opcode) {
+                case MOVE:
+                case EXTEND:
+                case TRUNCATE:
+                    set(type, leftLow, leftHigh);
+                    break;
+                case NEG:
+                    set(type, leftHigh == Long.MIN_VALUE ? Long.MIN_VALUE : -leftHigh,
+                        leftLow == Long.MIN_VALUE ? Long.MAX_VALUE : -leftLow);
+                    break;
+                case ADD:
+                    set(type, add(leftLow, rightLow), add(leftHigh, rightHigh));
+                    break;
+                case SUB:
+                    set(type, subtract(leftLow, rightHigh), subtract(leftHigh, rightLow));
+                    break;
+                case MUL: {
+                    long a = multiply(leftLow, rightLow);
+                    long c = multiply(leftLow, rightHigh);
+                    long d = multiply(leftHigh, rightLow);
+                    long e = multiply(leftHigh, rightHigh);
+                    set(type, Math.min(Math.min(a, c), Math.min(d, e)), Math.max(Math.max(a, c), Math.max(d, e)));
+                    break;
+                }
+                case DIV:
+                    if (rightLow == rightHigh && rightLow > 0) {
+                        set(type, leftLow / rightLow, leftHigh / rightLow);
+                    } else {
+                        set(type, Long.MIN_VALUE, Long.MAX_VALUE);
+                    }
+                    break;
+                case MOD: {
+                    // the remainder has the dividend's sign and is smaller than the divisor
+                    long limit = rightLow == rightHigh && rightLow != 0 && rightLow != Long.MIN_VALUE
+                        ? Math.abs(rightLow) - 1
+                        : Long.MAX_VALUE;
+                    if (leftLow >= 0) {
+                        set(type, 0, Math.min(leftHigh, limit));
+                    } else if (leftHigh <= 0) {
+                        set(type, Math.max(leftLow, -limit), 0);
+                    } else {
+                        set(type, -limit, limit);
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unexpected " + opcode);
+            }
+            return true;
+        }
+
+        private boolean evaluatePhi(int phi) {
+            IRFunction f = this.function;
+            int arguments = f.src2(phi);
+            long low = Long.MAX_VALUE;
+            long high = Long.MIN_VALUE;
+            for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+                int pred = this.cfg.blockOf(f.argument(arguments, k));
+                if (pred >= 0 && this.cfg.isReachable(pred) && read(f.argument(arguments, k + 1), pred)) {
+                    low = Math.min(low, this.low);
+                    high = Math.max(high, this.high);
+                }
+            }
+            this.low = low;
+            this.high = high;
+            return low <= high;
+        }
+
+        /**
+         * Sets low and high to an interval of the type, or to the whole type if the interval
+         * does not fit in it. An end at the limit of a long may have overflowed, so it counts as
+         * not fitting.
+         */
+        private void set(DecafType type, long low, long high) {
+            boolean saturated = type == DecafType.LONG && (low == Long.MIN_VALUE || high == Long.MAX_VALUE);
+            if (low < min(type) || high > max(type) || saturated) {
+                this.low = min(type);
+                this.high = max(type);
+            } else {
+                this.low = low;
+                this.high = high;
+            }
+        }
+
+        /**
+         * Merges what was evaluated into the register's interval, widening it if it keeps
+         * growing.
+         * @return Whether the interval changed
+         */
+        private boolean widen(int register) {
+            long low = Math.min(this.lows[register], this.low);
+            long high = Math.max(this.highs[register], this.high);
+            if (low == this.lows[register] && high == this.highs[register]) {
+                return false;
+            }
+            // every cycle of values runs through a phi, so widening those alone is enough
+            boolean known = this.lows[register] <= this.highs[register];
+            boolean phi = this.function.opcode(this.defUse.def(register)) == Opcode.PHI;
+            if (known && phi && this.changes[register]++ >= WIDEN_AFTER) {
+                DecafType type = this.function.registerType(register);
+                if (low < this.lows[register]) {
+                    low = min(type);
+                }
+                if (high > this.highs[register]) {
+                    high = max(type);
+                }
+            }
+            this.lows[register] = low;
+            this.highs[register] = high;
+            return true;
+        }
+
+        /**
+         * Reads an operand in a block into low and high, narrowed by the branches that decide
+         * whether the block runs.
+         * @return False if the operand is not yet known
+         */
+        private boolean read(int operand, int block) {
+            IRFunction f = this.function;
+            if (Operand.isConstant(operand)) {
+                this.low = this.high = f.constantValue(operand);
+                return true;
+            }
+            if (!Operand.isRegister(operand)) {
+                this.low = Long.MIN_VALUE;
+                this.high = Long.MAX_VALUE;
+                return true;
+            }
+            long low = this.lows[operand];
+            long high = this.highs[operand];
+            if (low > high) {
+                return false;
+            }
+            for (int d = block; ; d = this.dominators.idom(d)) {
+                Opcode test = this.tests[d];
+                if (test != null && (this.lefts[d] == operand || this.rights[d] == operand)) {
+                    int other = this.lefts[d] == operand ? this.rights[d] : this.lefts[d];
+                    if (this.lefts[d] != operand) {
+                        test = test.mirrored();
+                    }
+                    long otherLow;
+                    long otherHigh;
+                    if (Operand.isConstant(other)) {
+                        otherLow = otherHigh = f.constantValue(other);
+                    } else if (this.lows[other] <= this.highs[other]) {
+                        otherLow = this.lows[other];
+                        otherHigh = this.highs[other];
+                    } else {
+                        otherLow = Long.MIN_VALUE;
+                        otherHigh = Long.MAX_VALUE;
+                    }
+                    switch (test) {
+                        case LT: high = Math.min(high, subtract(otherHigh, 1)); break;
+                        case LE: high = Math.min(high, otherHigh); break;
+                        case GT: low = Math.max(low, add(otherLow, 1)); break;
+                        case GE: low = Math.max(low, otherLow); break;
+                        case EQ:
+                            low = Math.max(low, otherLow);
+                            high = Math.min(high, otherHigh);
+                            break;
+                        default: // NE
+                            if (otherLow == otherHigh && low == otherLow) {
+                                low = add(low, 1);
+                            } else if (otherLow == otherHigh && high == otherLow) {
+                                high = subtract(high, 1);
+                            }
+                            break;
+                    }
+                }
+                if (d == 0) {
+                    break;
+                }
+            }
+            this.low = low;
+            this.high = high;
+            return true;
+        }
+
+        /**
+         * Removes the checks that cannot fail, and counts those kept.
+         * @return How many were removed
+         */
+        int removeChecks() {
+            IRFunction f = this.function;
+            boolean[] removed = new boolean[f.size()];
+            int count = 0;
+            for (int n = 0; n < this.cfg.getReachableCount(); n++) {
+                int b = this.cfg.reversePostorder(n);
+                for (int i = this.cfg.start(b); i < this.cfg.end(b); i++) {
+                    if (f.opcode(i) != Opcode.CHECK) {
+                        continue;
+                    }
+                    boolean known = read(f.src1(i), b) && this.low <= this.high;
+                    long index = this.low;
+                    long last = this.high;
+                    if (known && read(f.src2(i), b) && index >= 0 && last < this.low) {
+                        removed[i] = true;
+                        count++;
+                    } else {
+                        this.kept++;
+                    }
+                }
+            }
+            if (count > 0) {
+                IRFunction.Code old = f.detachCode();
+                for (int i = 0; i < old.size(); i++) {
+                    if (!removed[i]) {
+                        f.emit(old, i);
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    private static Opcode negated(Opcode comparison) {
+        switch (comparison) {
+            case LT: return Opcode.GE;
+            case LE: return Opcode.GT;
+            case GT: return Opcode.LE;
+            case GE: return Opcode.LT;
+            case EQ: return Opcode.NE;
+            default: return Opcode.EQ;
+        }
+    }
+
+    private static long min(DecafType type) {
+        switch (type) {
+            case INT: return Integer.MIN_VALUE;
+            case LONG: return Long.MIN_VALUE;
+            default: return 0;
+        }
+    }
+
+    private static long max(DecafType type) {
+        switch (type) {
+            case INT: return Integer.MAX_VALUE;
+            case LONG: return Long.MAX_VALUE;
+            default: return 1;
+        }
+    }
+
+    // arithmetic on interval ends, saturating so that an overflow is seen as out of any type
+
+    private static long add(long a, long b) {
+        long sum = a + b;
+        return ((a ^ sum) & (b ^ sum)) < 0 ? (a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE) : sum;
+    }
+
+    private static long subtract(long a, long b) {
+        long difference = a - b;
+        return ((a ^ b) & (a ^ difference)) < 0 ? (a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE) : difference;
+    }
+
+    private static long multiply(long a, long b) {
+        long product = a * b;
+        if (Math.multiplyHigh(a, b) != product >> 63) {
+            return (a < 0) == (b < 0) ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        return product;
+    }
+}
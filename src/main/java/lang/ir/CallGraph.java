@@ -0,0 +1,190 @@
+package lang.ir;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which functions of an {@link IRProgram} call which, and its strongly connected components.
+ *
+ * Functions are numbered in program order, and the callees of each are stored back to back in
+ * one array, each callee once; calls to imports are not edges. The components are found with
+ * Tarjan's algorithm, run with an explicit stack so that a long chain of calls cannot overflow
+ * the Java one. Tarjan's algorithm completes a component only after every component it calls
+ * into, so components are numbered bottom-up: a function's callees are in its own component or
+ * in one with a lower number, and visiting functions in {@link #bottomUp(int)} order reaches
+ * every callee outside a function's component before the function itself.
+ *
+ * A function is recursive if its component has more than one function, or it calls itself.
+ */
+public class CallGraph {
+    private final List<IRFunction> functions;
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final int[] calleeStarts; // callees of each function, back to back
+    private final int[] callees;
+    private final int[] components;   // component of each function, callees first
+    private final int[] order;        // functions by component
+    private final boolean[] recursive;
+
+    public CallGraph(IRProgram program) {
+        this.functions = program.getFunctions();
+        int count = this.functions.size();
+        for (int n = 0; n < count; n++) {
+            this.indices.put(this.functions.get(n).getName(), n);
+        }
+
+        this.calleeStarts = new int[count + 1];
+        int[] callees = new int[Math.max(count, 16)];
+        int size = 0;
+        int[] stamps = new int[count];
+        Arrays.fill(stamps, -1);
+        for (int n = 0; n < count; n++) {
+            IRFunction f = this.functions.get(n);
+            this.calleeStarts[n] = size;
+            for (int i = 0; i < f.size(); i++) {
+                int callee = f.opcode(i) == Opcode.CALL ? callee(program, f, i) : -1;
+                if (callee >= 0 && stamps[callee] != n) {
+                    stamps[callee] = n;
+                    if (size == callees.length) {
+                        callees = Arrays.copyOf(callees, size * 2);
+                    }
+                    callees[size++] = callee;
+                }
+            }
+        }
+        this.calleeStarts[count] = size;
+        this.callees = Arrays.copyOf(callees, size);
+
+        // Tarjan's algorithm: each frame of the explicit stack is a function and the position in
+        // its callee list
+        this.components = new int[count];
+        this.order = new int[count];
+        this.recursive = new boolean[count];
+        int[] numbers = new int[count];   // visiting order + 1, or 0 if not yet visited
+        int[] lowlinks = new int[count];
+        boolean[] onStack = new boolean[count];
+        int[] visited = new int[count];   // the stack of functions not yet in a component
+        int visitedTop = 0;
+        int[] frames = new int[count];
+        int[] positions = new int[count];
+        int number = 0;
+        int componentCount = 0;
+        int ordered = 0;
+        for (int root = 0; root < count; root++) {
+            if (numbers[root] != 0) {
+                continue;
+            }
+            int top = 0;
+            frames[top] = root;
+            positions[top++] = this.calleeStarts[root];
+            numbers[root] = lowlinks[root] = ++number;
+            visited[visitedTop++] = root;
+            onStack[root] = true;
+            while (top > 0) {
+                int v = frames[top - 1];
+                int k = positions[top - 1];
+                if (k < this.calleeStarts[v + 1]) {
+                    positions[top - 1]++;
+                    int w = this.callees[k];
+                    if (numbers[w] == 0) {
+                        frames[top] = w;
+                        positions[top++] = this.calleeStarts[w];
+                        numbers[w] = lowlinks[w] = ++number;
+                        visited[visitedTop++] = w;
+                        onStack[w] = true;
+                    } else if (onStack[w]) {
+                        lowlinks[v] = Math.min(lowlinks[v], numbers[w]);
+                    }
+                    continue;
+                }
+                top--;
+                if (top > 0) {
+                    int parent = frames[top - 1];
+                    lowlinks[parent] = Math.min(lowlinks[parent], lowlinks[v]);
+                }
+                if (lowlinks[v] == numbers[v]) {
+                    int first = ordered;
+                    int w;
+                    do {
+                        w = visited[--visitedTop];
+                        onStack[w] = false;
+                        this.components[w] = componentCount;
+                        this.order[ordered++] = w;
+                    } while (w != v);
+                    for (int n = first; n < ordered; n++) {
+                        int f = this.order[n];
+                        this.recursive[f] = ordered - first > 1 || calls(f, f);
+                    }
+                    componentCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of the function a call calls, or -1 if it calls an import
+     */
+    private int callee(IRProgram program, IRFunction f, int call) {
+        IRProgram.Symbol symbol = program.getSymbol(f.src1(call));
+        if (symbol.getKind() != IRProgram.Symbol.Kind.METHOD) {
+            return -1;
+        }
+        Integer callee = this.indices.get(symbol.getName());
+        return callee == null ? -1 : callee;
+    }
+
+    public int getFunctionCount() {
+        return this.functions.size();
+    }
+
+    public IRFunction function(int index) {
+        return this.functions.get(index);
+    }
+
+    /**
+     * @return The number of the named function, or -1 if there is none
+     */
+    public int indexOf(String name) {
+        Integer index = this.indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    public int calleeCount(int function) {
+        return this.calleeStarts[function + 1] - this.calleeStarts[function];
+    }
+
+    public int callee(int function, int index) {
+        return this.callees[this.calleeStarts[function] + index];
+    }
+
+    /**
+     * @return Whether one function calls another directly
+     */
+    public boolean calls(int function, int callee) {
+        for (int k = this.calleeStarts[function]; k < this.calleeStarts[function + 1]; k++) {
+            if (this.callees[k] == callee) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The strongly connected component the function is in
+     */
+    public int component(int function) {
+        return this.components[function];
+    }
+
+    public boolean isRecursive(int function) {
+        return this.recursive[function];
+    }
+
+    /**
+     * @return The index-th function in bottom-up order
+     */
+    public int bottomUp(int index) {
+        return this.order[index];
+    }
+}
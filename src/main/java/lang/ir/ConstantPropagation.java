@@ -0,0 +1,360 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Sparse conditional constant propagation over a function in SSA form, selected with
+ * {@code -O cp}.
+ *
+ * This is Wegman and Zadeck's algorithm. Each register has a value in a three-level lattice:
+ * not yet known to be written, one constant, or varying. Control flow is followed alongside:
+ * a block is evaluated only once an edge into it is found to be executable, a branch on a
+ * constant marks only the edge it takes, and a phi meets only the values arriving along
+ * executable edges. Two worklists drive it, one of newly executable edges and one of registers
+ * whose value has fallen, followed to their uses through the {@link DefUse} chains; a register
+ * falls at most twice, so each instruction is evaluated a bounded number of times.
+ *
+ * Afterwards every register holding a constant is replaced by it and its definition removed,
+ * each branch on a constant becomes a jump, blocks no executable edge reaches are deleted, and
+ * phis lose the arguments of the edges that were never taken.
+ */
+public class ConstantPropagation implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "cp";
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        return new Propagation(function).run();
+    }
+
+    private static final class Propagation {
+        // lattice levels
+        private static final byte UNKNOWN = 0;
+        private static final byte CONSTANT = 1;
+        private static final byte VARYING = 2;
+
+        private final IRFunction function;
+        private final ControlFlowGraph cfg;
+        private final DefUse defUse;
+        private final int[] blockOf;     // block of each instruction
+        private final int[] edgeStarts;  // index of each block's first outgoing edge
+        private final int[] targets;     // block each edge leads to
+        private final boolean[] executable;
+        private final boolean[] reached;
+
+        private final byte[] levels;
+        private final long[] values;
+
+        private final int[] edgeWork;    // newly executable edges
+        private int edgeTop = 0;
+        private int[] registerWork;      // registers whose level has fallen
+        private int registerTop = 0;
+
+        Propagation(IRFunction function) {
+            this.function = function;
+            this.cfg = new ControlFlowGraph(function);
+            this.defUse = new DefUse(function);
+            int blocks = this.cfg.getBlockCount();
+            this.blockOf = new int[function.size()];
+            this.edgeStarts = new int[blocks + 1];
+            for (int b = 0; b < blocks; b++) {
+                Arrays.fill(this.blockOf, this.cfg.start(b), this.cfg.end(b), b);
+                this.edgeStarts[b + 1] = this.edgeStarts[b] + this.cfg.successorCount(b);
+            }
+            this.targets = new int[this.edgeStarts[blocks]];
+            for (int b = 0; b < blocks; b++) {
+                for (int k = 0; k < this.cfg.successorCount(b); k++) {
+                    this.targets[this.edgeStarts[b] + k] = this.cfg.successor(b, k);
+                }
+            }
+            this.executable = new boolean[this.targets.length];
+            this.reached = new boolean[blocks];
+            this.edgeWork = new int[this.executable.length];
+
+            int registers = function.getRegisterCount();
+            this.levels = new byte[registers];
+            this.values = new long[registers];
+            for (int r = 0; r < registers; r++) {
+                if (this.defUse.def(r) < 0) {
+                    this.levels[r] = VARYING; // a parameter
+                }
+            }
+            this.registerWork = new int[16];
+        }
+
+        int run() {
+            reach(0);
+            while (this.edgeTop > 0 || this.registerTop > 0) {
+                if (this.edgeTop > 0) {
+                    int e = this.edgeWork[--this.edgeTop];
+                    int b = this.targets[e];
+                    if (this.reached[b]) {
+                        // only the phis can see a new edge into a block already evaluated
+                        for (int i = this.cfg.start(b); i < this.cfg.end(b); i++) {
+                            if (this.function.opcode(i) == Opcode.PHI) {
+                                evaluate(i);
+                            }
+                        }
+                    } else {
+                        reach(b);
+                    }
+                } else {
+                    int r = this.registerWork[--this.registerTop];
+                    for (int k = 0; k < this.defUse.useCount(r); k++) {
+                        int i = this.defUse.use(r, k);
+                        if (this.reached[this.blockOf[i]]) {
+                            evaluate(i);
+                        }
+                    }
+                }
+            }
+            return rewrite();
+        }
+
+        private void reach(int b) {
+            this.reached[b] = true;
+            for (int i = this.cfg.start(b); i < this.cfg.end(b); i++) {
+                evaluate(i);
+            }
+            int last = this.cfg.end(b) - 1;
+            if (last < this.cfg.start(b) || !this.function.opcode(last).isTerminator()) {
+                for (int e = this.edgeStarts[b]; e < this.edgeStarts[b + 1]; e++) {
+                    markEdge(e); // falling through
+                }
+            }
+        }
+
+        private void evaluate(int i) {
+            IRFunction f = this.function;
+            Opcode opcode = f.opcode(i);
+            int dest = f.dest(i);
+            switch (opcode) {
+                case MOVE: case NEG: case NOT: case EXTEND: case TRUNCATE:
+                case ADD: case SUB: case MUL: case DIV: case MOD:
+                case EQ: case NE: case LT: case LE: case GT: case GE: {
+                    byte level = level(f.src1(i));
+                    if (opcode.isBinary()) {
+                        level = meet(level, level(f.src2(i)));
+                    }
+                    if (level == CONSTANT && (opcode == Opcode.DIV || opcode == Opcode.MOD)
+                            && traps(f.registerType(dest), value(f.src1(i)), value(f.src2(i)))) {
+                        level = VARYING; // left to happen at run time
+                    }
+                    long value = level == CONSTANT
+                        ? fold(opcode, f.registerType(dest), value(f.src1(i)), opcode.isBinary() ? value(f.src2(i)) : 0)
+                        : 0;
+                    lower(dest, level, value);
+                    break;
+                }
+                case PHI:
+                    evaluatePhi(i);
+                    break;
+                case LOAD:
+                case CALL:
+                    if (dest != Operand.NONE) {
+                        lower(dest, VARYING, 0);
+                    }
+                    break;
+                case JUMP:
+                    markEdge(this.edgeStarts[this.blockOf[i]]);
+                    break;
+                case BRANCH: {
+                    int b = this.blockOf[i];
+                    byte level = level(f.src1(i));
+                    if (level == VARYING) {
+                        for (int e = this.edgeStarts[b]; e < this.edgeStarts[b + 1]; e++) {
+                            markEdge(e);
+                        }
+                    } else if (level == CONSTANT) {
+                        int label = value(f.src1(i)) != 0 ? f.src2(i) : f.dest(i);
+                        markEdge(edge(b, this.cfg.blockOf(label)));
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        private void evaluatePhi(int phi) {
+            IRFunction f = this.function;
+            int b = this.blockOf[phi];
+            int arguments = f.src2(phi);
+            byte level = UNKNOWN;
+            long value = 0;
+            for (int k = 0; k < f.argumentCount(arguments) && level != VARYING; k += 2) {
+                int pred = this.cfg.blockOf(f.argument(arguments, k));
+                if (pred < 0 || !this.executable[edge(pred, b)]) {
+                    continue;
+                }
+                int argument = f.argument(arguments, k + 1);
+                byte argumentLevel = level(argument);
+                if (argumentLevel == CONSTANT) {
+                    if (level == UNKNOWN) {
+                        level = CONSTANT;
+                        value = value(argument);
+                    } else if (value(argument) != value) {
+                        level = VARYING;
+                    }
+                } else if (argumentLevel == VARYING) {
+                    level = VARYING;
+                }
+            }
+            lower(f.dest(phi), level, value);
+        }
+
+        private void lower(int register, byte level, long value) {
+            if (level <= this.levels[register]) {
+                return;
+            }
+            this.levels[register] = level;
+            this.values[register] = value;
+            if (this.registerTop == this.registerWork.length) {
+                this.registerWork = Arrays.copyOf(this.registerWork, this.registerTop * 2);
+            }
+            this.registerWork[this.registerTop++] = register;
+        }
+
+        private void markEdge(int e) {
+            if (!this.executable[e]) {
+                this.executable[e] = true;
+                this.edgeWork[this.edgeTop++] = e;
+            }
+        }
+
+        /**
+         * @return The index of the edge from one block to another
+         */
+        private int edge(int from, int to) {
+            for (int e = this.edgeStarts[from]; e < this.edgeStarts[from + 1]; e++) {
+                if (this.targets[e] == to) {
+                    return e;
+                }
+            }
+            throw new IllegalStateException("No edge from block " + from + " to " + to);
+        }
+
+        /**
+         * @return The level of a result from operands at the two levels
+         */
+        private static byte meet(byte a, byte b) {
+            if (a == VARYING || b == VARYING) {
+                return VARYING;
+            }
+            return a == UNKNOWN || b == UNKNOWN ? UNKNOWN : CONSTANT;
+        }
+
+        private byte level(int operand) {
+            if (Operand.isRegister(operand)) {
+                return this.levels[operand];
+            }
+            return Operand.isConstant(operand) ? CONSTANT : VARYING;
+        }
+
+        private long value(int operand) {
+            return Operand.isRegister(operand) ? this.values[operand] : this.function.constantValue(operand);
+        }
+
+        /**
+         * @return The operand a use of the operand can be replaced by
+         */
+        private int replacement(int operand) {
+            if (Operand.isRegister(operand) && this.levels[operand] == CONSTANT) {
+                return this.function.constant(this.function.registerType(operand), this.values[operand]);
+            }
+            return operand;
+        }
+
+        /**
+         * Replaces the constant registers, folds the constant branches and drops the blocks and
+         * phi arguments that are never reached.
+         * @return How many instructions were removed or turned into jumps
+         */
+        private int rewrite() {
+            IRFunction f = this.function;
+            IRFunction.Code old = f.detachCode();
+            int changes = 0;
+            int[] operands = new int[8];
+            for (int b = 0; b < this.cfg.getBlockCount(); b++) {
+                if (!this.reached[b]) {
+                    changes += this.cfg.end(b) - this.cfg.start(b);
+                    continue;
+                }
+                for (int i = this.cfg.start(b); i < this.cfg.end(b); i++) {
+                    Opcode opcode = old.opcode(i);
+                    int dest = old.dest(i);
+                    if (opcode.definesRegister() && opcode != Opcode.CALL && dest != Operand.NONE
+                            && this.levels[dest] == CONSTANT) {
+                        changes++;
+                        continue;
+                    }
+                    if (opcode == Opcode.BRANCH && level(old.src1(i)) == CONSTANT) {
+                        int label = value(old.src1(i)) != 0 ? old.src2(i) : old.dest(i);
+                        f.emit(Opcode.JUMP, null, Operand.NONE, label, Operand.NONE);
+                        changes++;
+                        continue;
+                    }
+                    int at = f.emit(old, i);
+                    if (opcode == Opcode.PHI) {
+                        int arguments = old.src2(i);
+                        int count = 0;
+                        for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+                            int pred = this.cfg.blockOf(f.argument(arguments, k));
+                            if (pred >= 0 && this.executable[edge(pred, b)]) {
+                                if (count + 2 > operands.length) {
+                                    operands = Arrays.copyOf(operands, operands.length * 2);
+                                }
+                                operands[count++] = f.argument(arguments, k);
+                                operands[count++] = replacement(f.argument(arguments, k + 1));
+                            }
+                        }
+                        if (count < f.argumentCount(arguments)) {
+                            f.setSrc2(at, f.arguments(operands, count));
+                        }
+                    }
+                    for (int k = 0; k < f.useCount(at); k++) {
+                        f.setUse(at, k, replacement(f.use(at, k)));
+                    }
+                }
+            }
+            return changes;
+        }
+
+        /**
+         * Whether a division or remainder traps: by zero, or of the least value of its type by
+         * -1, whose quotient does not fit.
+         */
+        private static boolean traps(DecafType type, long left, long right) {
+            long least = type == DecafType.INT ? Integer.MIN_VALUE : Long.MIN_VALUE;
+            return right == 0 || right == -1 && left == least;
+        }
+
+        private static long fold(Opcode opcode, DecafType type, long left, long right) {
+            long value;
+            switch (opcode) {
+                case MOVE: case EXTEND: value = left; break;
+                case NEG: value = -left; break;
+                case NOT: value = left ^ 1; break;
+                case TRUNCATE: value = (int) left; break;
+                case ADD: value = left + right; break;
+                case SUB: value = left - right; break;
+                case MUL: value = left * right; break;
+                case DIV: value = left / right; break;
+                case MOD: value = left % right; break;
+                case EQ: return left == right ? 1 : 0;
+                case NE: return left != right ? 1 : 0;
+                case LT: return left < right ? 1 : 0;
+                case LE: return left <= right ? 1 : 0;
+                case GT: return left > right ? 1 : 0;
+                case GE: return left >= right ? 1 : 0;
+                default: throw new IllegalArgumentException("Cannot fold " + opcode);
+            }
+            return type == DecafType.INT ? (int) value : value;
+        }
+    }
+}
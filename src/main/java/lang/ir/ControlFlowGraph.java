@@ -0,0 +1,224 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * The basic blocks of an {@link IRFunction} and the edges between them, as of when the graph
+ * was built; it does not follow later changes to the function.
+ *
+ * A block starts at every LABEL and after every terminator, and runs to the next start. Its
+ * successors come from its last instruction: the target of a JUMP, the true and then the false
+ * target of a BRANCH, none after a RETURN or TRAP, and otherwise the next block, into which
+ * control falls through. Block 0 is the entry. Blocks are numbered in layout order, and the
+ * predecessors of each block are listed in that order, with no edge repeated.
+ *
+ * Successor and predecessor lists are stored back to back in single arrays, so walking the
+ * graph touches no objects. Blocks unreachable from the entry stay in the graph, with no
+ * reverse-postorder number, but are not predecessors of anything.
+ */
+public class ControlFlowGraph {
+    private final int blockCount;
+    private final int[] starts;     // first instruction of each block; starts[blockCount] is the size
+    private final int[] blockLabels; // label placed at the start of each block, or -1
+    private final int[] labelBlocks; // block of each label, or -1 if the label is not placed
+
+    private final int[] successorStarts;
+    private final int[] successors;
+    private final int[] predecessorStarts;
+    private final int[] predecessors;
+
+    private final int[] order;      // reachable blocks in reverse postorder
+    private final int[] orderIndex; // position of each block in order, or -1 if unreachable
+
+    public ControlFlowGraph(IRFunction function) {
+        int size = function.size();
+        int[] starts = new int[size + 1];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || function.opcode(i) == Opcode.LABEL || function.opcode(i - 1).isTerminator()) {
+                starts[count++] = i;
+            }
+        }
+        if (count == 0) {
+            starts[count++] = 0; // an empty function still has an entry
+        }
+        this.blockCount = count;
+        this.starts = Arrays.copyOf(starts, count + 1);
+        this.starts[count] = size;
+
+        this.blockLabels = new int[count];
+        this.labelBlocks = new int[function.getLabelCount()];
+        Arrays.fill(this.labelBlocks, -1);
+        for (int b = 0; b < count; b++) {
+            int first = this.starts[b];
+            boolean labeled = first < size && function.opcode(first) == Opcode.LABEL;
+            this.blockLabels[b] = labeled ? function.src1(first) : -1;
+            if (labeled) {
+                this.labelBlocks[function.src1(first)] = b;
+            }
+        }
+
+        // successors, at most two per block
+        this.successorStarts = new int[count + 1];
+        int[] successors = new int[2 * count];
+        int edges = 0;
+        for (int b = 0; b < count; b++) {
+            this.successorStarts[b] = edges;
+            int last = this.starts[b + 1] - 1;
+            Opcode opcode = last >= this.starts[b] ? function.opcode(last) : Opcode.LABEL;
+            if (opcode == Opcode.JUMP) {
+                successors[edges++] = this.labelBlocks[function.src1(last)];
+            } else if (opcode == Opcode.BRANCH) {
+                int ifTrue = this.labelBlocks[function.src2(last)];
+                int ifFalse = this.labelBlocks[function.dest(last)];
+                successors[edges++] = ifTrue;
+                if (ifFalse != ifTrue) {
+                    successors[edges++] = ifFalse;
+                }
+            } else if (opcode != Opcode.RETURN && opcode != Opcode.TRAP && b + 1 < count) {
+                successors[edges++] = b + 1;
+            }
+        }
+        this.successorStarts[count] = edges;
+        this.successors = Arrays.copyOf(successors, edges);
+
+        // reverse postorder of the reachable blocks, with an explicit stack
+        this.orderIndex = new int[count];
+        Arrays.fill(this.orderIndex, -1);
+        int[] postorder = new int[count];
+        int visited = 0;
+        int[] stack = new int[count];
+        int[] next = new int[count]; // next successor to visit of each block on the stack
+        boolean[] seen = new boolean[count];
+        int top = 0;
+        stack[top++] = 0;
+        seen[0] = true;
+        while (top > 0) {
+            int b = stack[top - 1];
+            int k = this.successorStarts[b] + next[b];
+            if (k < this.successorStarts[b + 1]) {
+                next[b]++;
+                int s = this.successors[k];
+                if (!seen[s]) {
+                    seen[s] = true;
+                    stack[top++] = s;
+                }
+            } else {
+                top--;
+                postorder[visited++] = b;
+            }
+        }
+        this.order = new int[visited];
+        for (int i = 0; i < visited; i++) {
+            this.order[i] = postorder[visited - 1 - i];
+            this.orderIndex[this.order[i]] = i;
+        }
+
+        // predecessors from reachable blocks, in layout order
+        this.predecessorStarts = new int[count + 1];
+        for (int b = 0; b < count; b++) {
+            if (this.orderIndex[b] >= 0) {
+                for (int k = this.successorStarts[b]; k < this.successorStarts[b + 1]; k++) {
+                    this.predecessorStarts[this.successors[k] + 1]++;
+                }
+            }
+        }
+        for (int b = 0; b < count; b++) {
+            this.predecessorStarts[b + 1] += this.predecessorStarts[b];
+        }
+        this.predecessors = new int[this.predecessorStarts[count]];
+        int[] fill = Arrays.copyOf(this.predecessorStarts, count);
+        for (int b = 0; b < count; b++) {
+            if (this.orderIndex[b] >= 0) {
+                for (int k = this.successorStarts[b]; k < this.successorStarts[b + 1]; k++) {
+                    this.predecessors[fill[this.successors[k]]++] = b;
+                }
+            }
+        }
+    }
+
+    public int getBlockCount() {
+        return this.blockCount;
+    }
+
+    /**
+     * @return The index of the block's first instruction
+     */
+    public int start(int block) {
+        return this.starts[block];
+    }
+
+    /**
+     * @return One past the index of the block's last instruction
+     */
+    public int end(int block) {
+        return this.starts[block + 1];
+    }
+
+    /**
+     * @return The label placed at the start of the block, or -1 if it has none
+     */
+    public int label(int block) {
+        return this.blockLabels[block];
+    }
+
+    /**
+     * @return The block the label starts, or -1 if the label is not placed
+     */
+    public int blockOf(int label) {
+        return label < this.labelBlocks.length ? this.labelBlocks[label] : -1;
+    }
+
+    public int successorCount(int block) {
+        return this.successorStarts[block + 1] - this.successorStarts[block];
+    }
+
+    public int successor(int block, int index) {
+        return this.successors[this.successorStarts[block] + index];
+    }
+
+    public int predecessorCount(int block) {
+        return this.predecessorStarts[block + 1] - this.predecessorStarts[block];
+    }
+
+    public int predecessor(int block, int index) {
+        return this.predecessors[this.predecessorStarts[block] + index];
+    }
+
+    /**
+     * @return The position of pred among the predecessors of block, or -1 if it is not one
+     */
+    public int predecessorIndex(int block, int pred) {
+        for (int k = this.predecessorStarts[block]; k < this.predecessorStarts[block + 1]; k++) {
+            if (this.predecessors[k] == pred) {
+                return k - this.predecessorStarts[block];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of blocks reachable from the entry
+     */
+    public int getReachableCount() {
+        return this.order.length;
+    }
+
+    /**
+     * @return The index-th reachable block in reverse postorder; the entry is first
+     */
+    public int reversePostorder(int index) {
+        return this.order[index];
+    }
+
+    /**
+     * @return The block's position in reverse postorder, or -1 if it is unreachable
+     */
+    public int reversePostorderIndex(int block) {
+        return this.orderIndex[block];
+    }
+
+    public boolean isReachable(int block) {
+        return this.orderIndex[block] >= 0;
+    }
+}
@@ -0,0 +1,307 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * A bit-vector dataflow problem over the blocks of a {@link ControlFlowGraph}, and its solver.
+ *
+ * A problem is given by its direction, its meet operator, and a transfer function per block;
+ * the default transfer function is {@code out = gen | (in & ~kill)}, over the gen and kill sets
+ * a subclass fills in before calling {@link #solve()}. Every set is a bit vector of
+ * {@code long} words, and the sets of all blocks are stored back to back in single arrays, so
+ * that meets and transfers are loops over words with no allocation.
+ *
+ * The solver keeps a worklist of pending blocks as a bit vector indexed by reverse-postorder
+ * position and sweeps it in that order, or in postorder for backward problems, so that a block
+ * is normally visited after the blocks it takes its input from. A block whose result changes
+ * puts the blocks that read it back on the worklist. On the reducible graphs Decaf produces,
+ * a problem settles in a couple of sweeps.
+ *
+ * Results are kept in program order whatever the direction: {@link #entry(int, int)} sets hold
+ * at the top of a block and {@link #exit(int, int)} sets at its bottom. Blocks unreachable from
+ * the entry are never visited.
+ */
+public abstract class Dataflow {
+    public enum Direction {FORWARD, BACKWARD}
+
+    public enum Meet {UNION, INTERSECTION}
+
+    protected final ControlFlowGraph cfg;
+    private final Direction direction;
+    private final Meet meet;
+    protected final int bits;
+    protected final int words;
+
+    protected final long[] gen;
+    protected final long[] kill;
+    private final long[] entry;
+    private final long[] exit;
+    private int visits = 0;
+
+    protected Dataflow(ControlFlowGraph cfg, int bits, Direction direction, Meet meet) {
+        this.cfg = cfg;
+        this.direction = direction;
+        this.meet = meet;
+        this.bits = bits;
+        this.words = (bits + 63) >>> 6;
+        int size = cfg.getBlockCount() * this.words;
+        this.gen = new long[size];
+        this.kill = new long[size];
+        this.entry = new long[size];
+        this.exit = new long[size];
+    }
+
+    /**
+     * Sets the value flowing into the function: at the entry for a forward problem, and at the
+     * bottom of every block without successors for a backward one. Empty unless overridden.
+     */
+    protected void boundary(int block, long[] value, int at) {
+    }
+
+    /**
+     * Adds to the meet of a block's inputs whatever reaches it other than along an edge. Does
+     * nothing unless overridden.
+     */
+    protected void join(int block, long[] value, int at) {
+    }
+
+    /**
+     * Computes the value leaving a block, in the problem's direction, from the value entering it.
+     */
+    protected void transfer(int block, long[] in, int inAt, long[] out, int outAt) {
+        int at = block * this.words;
+        for (int w = 0; w < this.words; w++) {
+            out[outAt + w] = this.gen[at + w] | (in[inAt + w] & ~this.kill[at + w]);
+        }
+    }
+
+    /**
+     * Solves the problem, once gen and kill are filled in.
+     * @return this
+     */
+    public Dataflow solve() {
+        ControlFlowGraph cfg = this.cfg;
+        boolean forward = this.direction == Direction.FORWARD;
+        long[] in = forward ? this.entry : this.exit;   // what the meet computes
+        long[] out = forward ? this.exit : this.entry;  // what the transfer computes
+        if (this.meet == Meet.INTERSECTION) {
+            // start from the top, all ones, so that the meet only ever removes facts
+            Arrays.fill(out, -1L);
+            int tail = this.bits & 63;
+            for (int at = this.words - 1; tail != 0 && at < out.length; at += this.words) {
+                out[at] = (1L << tail) - 1;
+            }
+        }
+
+        int count = cfg.getReachableCount();
+        long[] pending = new long[(count + 63) >>> 6];
+        Arrays.fill(pending, -1L);
+        if ((count & 63) != 0) {
+            pending[pending.length - 1] = (1L << count) - 1;
+        }
+        long[] value = new long[this.words];
+        int remaining = count;
+        int position = forward ? 0 : count - 1;
+        while (remaining > 0) {
+            // the next pending block in sweep order, wrapping around
+            int next = forward ? nextSet(pending, position) : previousSet(pending, position);
+            if (next < 0) {
+                position = forward ? 0 : count - 1;
+                continue;
+            }
+            pending[next >>> 6] &= ~(1L << next);
+            remaining--;
+            position = next;
+            int b = cfg.reversePostorder(next);
+            int at = b * this.words;
+            this.visits++;
+
+            int inputs = forward ? cfg.predecessorCount(b) : cfg.successorCount(b);
+            boolean isBoundary = forward ? b == 0 : inputs == 0;
+            if (isBoundary || this.meet == Meet.UNION) {
+                Arrays.fill(value, 0L);
+            } else {
+                Arrays.fill(value, -1L);
+            }
+            if (isBoundary) {
+                boundary(b, value, 0);
+            }
+            for (int k = 0; k < inputs; k++) {
+                int from = (forward ? cfg.predecessor(b, k) : cfg.successor(b, k)) * this.words;
+                if (this.meet == Meet.UNION) {
+                    for (int w = 0; w < this.words; w++) {
+                        value[w] |= out[from + w];
+                    }
+                } else {
+                    for (int w = 0; w < this.words; w++) {
+                        value[w] &= out[from + w];
+                    }
+                }
+            }
+            join(b, value, 0);
+            System.arraycopy(value, 0, in, at, this.words);
+
+            transfer(b, in, at, value, 0);
+            boolean changed = false;
+            for (int w = 0; w < this.words; w++) {
+                if (value[w] != out[at + w]) {
+                    out[at + w] = value[w];
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                continue;
+            }
+            int outputs = forward ? cfg.successorCount(b) : cfg.predecessorCount(b);
+            for (int k = 0; k < outputs; k++) {
+                int to = cfg.reversePostorderIndex(forward ? cfg.successor(b, k) : cfg.predecessor(b, k));
+                if ((pending[to >>> 6] & (1L << to)) == 0) {
+                    pending[to >>> 6] |= 1L << to;
+                    remaining++;
+                }
+            }
+        }
+        return this;
+    }
+
+    public ControlFlowGraph getGraph() {
+        return this.cfg;
+    }
+
+    /**
+     * @return The number of words in each set
+     */
+    public int words() {
+        return this.words;
+    }
+
+    /**
+     * @return How many times the solver evaluated a block
+     */
+    public int getVisits() {
+        return this.visits;
+    }
+
+    /**
+     * @return Whether the bit is set at the top of the block
+     */
+    public boolean entry(int block, int bit) {
+        return (this.entry[block * this.words + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @return Whether the bit is set at the bottom of the block
+     */
+    public boolean exit(int block, int bit) {
+        return (this.exit[block * this.words + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Copies the set at the top of the block into a vector of at least {@link #words()} words.
+     */
+    public void copyEntry(int block, long[] into) {
+        System.arraycopy(this.entry, block * this.words, into, 0, this.words);
+    }
+
+    public void copyExit(int block, long[] into) {
+        System.arraycopy(this.exit, block * this.words, into, 0, this.words);
+    }
+
+    /**
+     * Finds the registers that can be live across a block boundary: those some block reads
+     * before writing them, and those a phi reads. The rest are written and read within a single
+     * block, so problems over registers or their definitions can leave them out of their sets.
+     */
+    protected static boolean[] globals(IRFunction function, ControlFlowGraph cfg) {
+        int registers = function.getRegisterCount();
+        boolean[] globals = new boolean[registers];
+        int[] writtenIn = new int[registers]; // last block seen writing each register
+        Arrays.fill(writtenIn, -1);
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (function.opcode(i) == Opcode.PHI) {
+                    int arguments = function.src2(i);
+                    for (int k = 1; k < function.argumentCount(arguments); k += 2) {
+                        if (Operand.isRegister(function.argument(arguments, k))) {
+                            globals[function.argument(arguments, k)] = true;
+                        }
+                    }
+                } else {
+                    for (int k = 0; k < function.useCount(i); k++) {
+                        int use = function.use(i, k);
+                        if (Operand.isRegister(use) && writtenIn[use] != b) {
+                            globals[use] = true;
+                        }
+                    }
+                }
+                if (function.opcode(i).definesRegister() && function.dest(i) != Operand.NONE) {
+                    writtenIn[function.dest(i)] = b;
+                }
+            }
+        }
+        return globals;
+    }
+
+    /**
+     * Sets the given bits of a set, or ors in their mask when there are more bits than words:
+     * a register written in many blocks then costs a word loop per block, not a loop over all
+     * its definitions or readers.
+     * @param masks Cache of each key's mask, filled on first use
+     */
+    protected void setAll(long[] sets, int at, int[] bits, int from, int to, long[][] masks, int key) {
+        if (to - from <= this.words) {
+            for (int k = from; k < to; k++) {
+                set(sets, at, bits[k]);
+            }
+            return;
+        }
+        long[] mask = masks[key];
+        if (mask == null) {
+            mask = masks[key] = new long[this.words];
+            for (int k = from; k < to; k++) {
+                set(mask, 0, bits[k]);
+            }
+        }
+        for (int w = 0; w < this.words; w++) {
+            sets[at + w] |= mask[w];
+        }
+    }
+
+    protected static boolean get(long[] sets, int at, int bit) {
+        return (sets[at + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    protected static void set(long[] sets, int at, int bit) {
+        sets[at + (bit >>> 6)] |= 1L << bit;
+    }
+
+    protected static void clear(long[] sets, int at, int bit) {
+        sets[at + (bit >>> 6)] &= ~(1L << bit);
+    }
+
+    private static int nextSet(long[] set, int from) {
+        for (int w = from >>> 6; w < set.length; w++) {
+            long word = set[w];
+            if (w == from >>> 6) {
+                word &= -1L << from;
+            }
+            if (word != 0) {
+                return w << 6 | Long.numberOfTrailingZeros(word);
+            }
+        }
+        return -1;
+    }
+
+    private static int previousSet(long[] set, int from) {
+        for (int w = from >>> 6; w >= 0; w--) {
+            long word = set[w];
+            if (w == from >>> 6 && (from & 63) != 63) {
+                word &= (1L << (from + 1)) - 1;
+            }
+            if (word != 0) {
+                return w << 6 | (63 - Long.numberOfLeadingZeros(word));
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,327 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * Copy propagation, mark-sweep dead code elimination and control flow clean-up over a function
+ * in SSA form, selected with {@code -O dce}.
+ *
+ * Copies go first: in SSA form the register a move writes can be replaced everywhere by the
+ * value it copies, and a phi whose arguments are all one value is a copy of it, so both are
+ * removed and their uses renamed.
+ *
+ * Dead code is then found optimistically, as in Cytron et al.'s "aggressive" elimination:
+ * nothing is live until shown to be. The instructions with effects beyond their result are
+ * marked first, namely calls, returns, traps, bounds checks, divisions that could trap, stores
+ * to anything other than a frame array that is never read, and the control flow, and liveness spreads from each marked
+ * instruction to the definitions of the registers it reads. Every unmarked instruction is
+ * removed, even those whose results feed each other around a loop, which counting uses would
+ * keep.
+ *
+ * Branches and jumps are not removed by the marking, so a loop that might never end is never
+ * deleted with its body. Empty blocks are taken out instead by a clean-up in the manner of
+ * Cooper and Torczon's: edges into a block holding nothing but a jump go straight to its
+ * target, a branch whose targets agree becomes a jump, a jump to the block laid out next
+ * disappears, a label nothing refers to is dropped so that its block merges into the one before
+ * it, and blocks no longer reached are deleted. Each of these can leave more dead code or
+ * empty blocks, so marking and clean-up alternate until neither finds anything.
+ */
+public class DeadCodeElimination implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "dce";
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        int changes = propagateCopies(function);
+        for (int round = sweep(function) + clean(function); round > 0; round = sweep(function) + clean(function)) {
+            changes += round;
+        }
+        return changes;
+    }
+
+    /**
+     * Removes the moves and the phis of a single value, renaming their uses.
+     * @return How many were removed
+     */
+    static int propagateCopies(IRFunction f) {
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        int[] value = new int[f.getRegisterCount()];
+        for (int r = 0; r < value.length; r++) {
+            value[r] = r;
+        }
+        boolean[] removed = new boolean[f.size()];
+        int count = 0;
+        // definitions come before their uses in reverse postorder, but for phi arguments
+        for (int n = 0; n < cfg.getReachableCount(); n++) {
+            int b = cfg.reversePostorder(n);
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int copied;
+                if (f.opcode(i) == Opcode.MOVE) {
+                    copied = number(value, f.src1(i));
+                } else if (f.opcode(i) == Opcode.PHI) {
+                    copied = sameArguments(f, value, i);
+                } else {
+                    continue;
+                }
+                if (copied != Operand.NONE && copied != f.dest(i)) {
+                    value[f.dest(i)] = copied;
+                    removed[i] = true;
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            IRFunction.Code old = f.detachCode();
+            for (int i = 0; i < old.size(); i++) {
+                if (!removed[i]) {
+                    int at = f.emit(old, i);
+                    for (int k = 0; k < f.useCount(at); k++) {
+                        f.setUse(at, k, number(value, f.use(at, k)));
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The one value all of a phi's arguments have, ignoring the phi itself, or NONE
+     */
+    private static int sameArguments(IRFunction f, int[] value, int phi) {
+        int arguments = f.src2(phi);
+        int same = Operand.NONE;
+        for (int k = 1; k < f.argumentCount(arguments); k += 2) {
+            int argument = number(value, f.argument(arguments, k));
+            if (argument == f.dest(phi)) {
+                continue;
+            }
+            if (same != Operand.NONE && argument != same) {
+                return Operand.NONE;
+            }
+            same = argument;
+        }
+        return same;
+    }
+
+    private static int number(int[] value, int operand) {
+        int v = operand;
+        while (Operand.isRegister(v) && value[v] != v) {
+            v = value[v];
+        }
+        return v;
+    }
+
+    /**
+     * Marks the live instructions and removes the rest.
+     * @return How many were removed
+     */
+    static int sweep(IRFunction f) {
+        DefUse defUse = new DefUse(f);
+        boolean[] read = new boolean[f.getFrameSize()];
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == Opcode.LOAD && Operand.isFrame(f.src1(i))) {
+                read[Operand.index(f.src1(i))] = true;
+            }
+            for (int k = 0; k < f.useCount(i); k++) {
+                if (Operand.isFrame(f.use(i, k))) {
+                    read[Operand.index(f.use(i, k))] = true;
+                }
+            }
+        }
+
+        boolean[] live = new boolean[f.size()];
+        int[] stack = new int[f.size()];
+        int top = 0;
+        for (int i = 0; i < f.size(); i++) {
+            if (isCritical(f, i, read)) {
+                live[i] = true;
+                stack[top++] = i;
+            }
+        }
+        while (top > 0) {
+            int i = stack[--top];
+            for (int k = 0; k < f.useCount(i); k++) {
+                int use = f.use(i, k);
+                int def = Operand.isRegister(use) ? defUse.def(use) : -1;
+                if (def >= 0 && !live[def]) {
+                    live[def] = true;
+                    stack[top++] = def;
+                }
+            }
+        }
+
+        int removed = 0;
+        for (boolean l : live) {
+            removed += l ? 0 : 1;
+        }
+        if (removed > 0) {
+            IRFunction.Code old = f.detachCode();
+            for (int i = 0; i < old.size(); i++) {
+                if (live[i]) {
+                    f.emit(old, i);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return Whether the instruction is live whether or not its result is used
+     */
+    private static boolean isCritical(IRFunction f, int i, boolean[] read) {
+        switch (f.opcode(i)) {
+            case LABEL: case JUMP: case BRANCH: case RETURN: case TRAP:
+            case CHECK: case CALL:
+                return true;
+            case DIV: case MOD:
+                return !f.isPure(i); // may trap
+
+            case STORE:
+                return !Operand.isFrame(f.dest(i)) || read[Operand.index(f.dest(i))];
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Takes out empty blocks, jumps to the next block, labels nothing refers to and unreachable
+     * blocks.
+     * @return How many edges were moved and instructions removed
+     */
+    static int clean(IRFunction f) {
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        int blocks = cfg.getBlockCount();
+        int changes = 0;
+
+        // where control goes from each block that holds nothing but a label and maybe a jump
+        int[] forward = new int[blocks];
+        Arrays.fill(forward, -1);
+        for (int b = 1; b < blocks; b++) {
+            int start = cfg.start(b);
+            int size = cfg.end(b) - start;
+            if (!cfg.isReachable(b) || size == 0 || f.opcode(start) != Opcode.LABEL) {
+                continue;
+            }
+            if (size == 1 && b + 1 < blocks) {
+                forward[b] = b + 1;
+            } else if (size == 2 && f.opcode(start + 1) == Opcode.JUMP) {
+                forward[b] = cfg.blockOf(f.src1(start + 1));
+            }
+            if (forward[b] == b) {
+                forward[b] = -1;
+            }
+        }
+
+        // move the edges into those blocks on to their targets, unless that is another such
+        // block, which a later round takes care of
+        for (int b = 0; b < blocks; b++) {
+            int last = cfg.end(b) - 1;
+            if (!cfg.isReachable(b) || last < cfg.start(b)) {
+                continue;
+            }
+            Opcode opcode = f.opcode(last);
+            if (opcode == Opcode.JUMP) {
+                int label = retarget(f, cfg, forward, b, f.src1(last), -1);
+                if (label != f.src1(last)) {
+                    f.setSrc1(last, label);
+                    changes++;
+                }
+            } else if (opcode == Opcode.BRANCH) {
+                int ifTrue = retarget(f, cfg, forward, b, f.src2(last), -1);
+                int ifFalse = retarget(f, cfg, forward, b, f.dest(last), cfg.blockOf(ifTrue));
+                if (ifTrue != f.src2(last) || ifFalse != f.dest(last)) {
+                    f.setSrc2(last, ifTrue);
+                    f.setDest(last, ifFalse);
+                    changes++;
+                }
+                if (ifTrue == ifFalse) {
+                    f.set(last, Opcode.JUMP, null, Operand.NONE, ifTrue, Operand.NONE);
+                    changes++;
+                }
+            }
+        }
+
+        // rebuild without what is no longer reached or referred to
+        cfg = new ControlFlowGraph(f);
+        blocks = cfg.getBlockCount();
+        int[] references = new int[f.getLabelCount()];
+        for (int b = 0; b < blocks; b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                Opcode opcode = f.opcode(i);
+                if (opcode == Opcode.JUMP) {
+                    references[f.src1(i)]++;
+                } else if (opcode == Opcode.BRANCH) {
+                    references[f.src2(i)]++;
+                    references[f.dest(i)]++;
+                } else if (opcode == Opcode.PHI) {
+                    for (int k = 0; k < f.argumentCount(f.src2(i)); k += 2) {
+                        references[f.argument(f.src2(i), k)]++;
+                    }
+                }
+            }
+        }
+        int removed = 0;
+        boolean[] kept = new boolean[f.size()];
+        for (int b = 0; b < blocks; b++) {
+            if (!cfg.isReachable(b)) {
+                removed += cfg.end(b) - cfg.start(b);
+                continue;
+            }
+            int next = b + 1;
+            while (next < blocks && !cfg.isReachable(next)) {
+                next++;
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                Opcode opcode = f.opcode(i);
+                boolean unreferenced = opcode == Opcode.LABEL && b != 0 && references[f.src1(i)] == 0;
+                boolean toNext = opcode == Opcode.JUMP && next < blocks && cfg.label(next) == f.src1(i);
+                kept[i] = !unreferenced && !toNext;
+                removed += kept[i] ? 0 : 1;
+            }
+        }
+        if (removed > 0) {
+            IRFunction.Code old = f.detachCode();
+            for (int i = 0; i < old.size(); i++) {
+                if (kept[i]) {
+                    f.emit(old, i);
+                }
+            }
+        }
+        return changes + removed;
+    }
+
+    /**
+     * @param other A block b now also goes to, besides its successors in the graph, or -1
+     * @return The label block b should go to instead of the given one
+     */
+    private static int retarget(IRFunction f, ControlFlowGraph cfg, int[] forward, int b, int label, int other) {
+        int empty = cfg.blockOf(label);
+        int target = empty >= 0 ? forward[empty] : -1;
+        if (target < 0 || forward[target] >= 0 || target == b) {
+            return label;
+        }
+        int first = cfg.start(target) + 1;
+        if (first < cfg.end(target) && f.opcode(first) == Opcode.PHI) {
+            // the phis must name b in place of the empty block, which b must then be the only
+            // way into, and b must not already reach the target some other way
+            if (cfg.predecessorCount(empty) != 1 || cfg.predecessorIndex(target, b) >= 0 || other == target) {
+                return label;
+            }
+            for (int i = first; i < cfg.end(target) && f.opcode(i) == Opcode.PHI; i++) {
+                int arguments = f.src2(i);
+                for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+                    if (f.argument(arguments, k) == label) {
+                        f.setArgument(arguments, k, cfg.label(b));
+                    }
+                }
+            }
+        }
+        return cfg.label(target);
+    }
+}
@@ -0,0 +1,69 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * Def-use chains of a function in SSA form: the one instruction that writes each register, and
+ * the instructions that read it. With these, a sparse analysis follows each value to its uses
+ * directly, so its cost is proportional to the size of the program rather than to the number of
+ * blocks times the number of variables.
+ *
+ * The use lists are stored back to back in one array. An instruction reading a register twice
+ * is listed twice. Like the {@link ControlFlowGraph}, the chains describe the function as it
+ * was when they were built.
+ */
+public class DefUse {
+    private final int[] defs;       // instruction writing each register, or -1
+    private final int[] useStarts;
+    private final int[] uses;
+
+    public DefUse(IRFunction function) {
+        int registers = function.getRegisterCount();
+        this.defs = new int[registers];
+        Arrays.fill(this.defs, -1);
+        this.useStarts = new int[registers + 1];
+        for (int i = 0; i < function.size(); i++) {
+            if (function.opcode(i).definesRegister() && function.dest(i) != Operand.NONE) {
+                this.defs[function.dest(i)] = i;
+            }
+            for (int k = 0; k < function.useCount(i); k++) {
+                int use = function.use(i, k);
+                if (Operand.isRegister(use)) {
+                    this.useStarts[use + 1]++;
+                }
+            }
+        }
+        for (int r = 0; r < registers; r++) {
+            this.useStarts[r + 1] += this.useStarts[r];
+        }
+        this.uses = new int[this.useStarts[registers]];
+        int[] fill = Arrays.copyOf(this.useStarts, registers);
+        for (int i = 0; i < function.size(); i++) {
+            for (int k = 0; k < function.useCount(i); k++) {
+                int use = function.use(i, k);
+                if (Operand.isRegister(use)) {
+                    this.uses[fill[use]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The instruction that writes the register, or -1 for a parameter's entry value or a
+     *         register never written
+     */
+    public int def(int register) {
+        return this.defs[register];
+    }
+
+    public int useCount(int register) {
+        return this.useStarts[register + 1] - this.useStarts[register];
+    }
+
+    /**
+     * @return The index-th instruction reading the register
+     */
+    public int use(int register, int index) {
+        return this.uses[this.useStarts[register] + index];
+    }
+}
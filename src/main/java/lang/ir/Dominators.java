@@ -0,0 +1,190 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * Dominator tree and dominance frontiers of a {@link ControlFlowGraph}, for its reachable blocks.
+ *
+ * Immediate dominators are found with the iterative algorithm of Cooper, Harvey and Kennedy
+ * ("A Simple, Fast Dominance Algorithm"): blocks are visited in reverse postorder, and each
+ * one's immediate dominator is the intersection of its processed predecessors' dominators,
+ * found by walking both up the tree being built, comparing reverse-postorder numbers. On
+ * reducible graphs, which is all Decaf produces, this settles in one pass plus a check.
+ *
+ * Dominance frontiers follow the same paper: for each join point, walk up from each
+ * predecessor to the join's immediate dominator, adding the join to the frontier of every block
+ * passed. The tree is also numbered in pre- and postorder, so that whether one block dominates
+ * another is two comparisons.
+ *
+ * The entry must have no predecessors.
+ */
+public class Dominators {
+    private final ControlFlowGraph cfg;
+    private final int[] idom; // immediate dominator; the entry's is itself, -1 if unreachable
+
+    private final int[] childStarts; // dominator tree children, back to back
+    private final int[] children;
+    private final int[] preorder;    // numbering of the tree, for dominance queries
+    private final int[] postorder;
+
+    private final int[] frontierStarts;
+    private final int[] frontiers;
+
+    public Dominators(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        int count = cfg.getBlockCount();
+        this.idom = new int[count];
+        Arrays.fill(this.idom, -1);
+        this.idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < cfg.getReachableCount(); i++) {
+                int b = cfg.reversePostorder(i);
+                int dominator = -1;
+                for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                    int p = cfg.predecessor(b, k);
+                    if (this.idom[p] >= 0) {
+                        dominator = dominator < 0 ? p : intersect(p, dominator);
+                    }
+                }
+                if (this.idom[b] != dominator) {
+                    this.idom[b] = dominator;
+                    changed = true;
+                }
+            }
+        }
+
+        // the tree, as child lists in block order
+        this.childStarts = new int[count + 1];
+        for (int b = 1; b < count; b++) {
+            if (this.idom[b] >= 0) {
+                this.childStarts[this.idom[b] + 1]++;
+            }
+        }
+        for (int b = 0; b < count; b++) {
+            this.childStarts[b + 1] += this.childStarts[b];
+        }
+        this.children = new int[this.childStarts[count]];
+        int[] fill = Arrays.copyOf(this.childStarts, count);
+        for (int b = 1; b < count; b++) {
+            if (this.idom[b] >= 0) {
+                this.children[fill[this.idom[b]]++] = b;
+            }
+        }
+
+        this.preorder = new int[count];
+        this.postorder = new int[count];
+        Arrays.fill(this.preorder, -1);
+        int[] stack = new int[count];
+        int[] next = new int[count];
+        int top = 0;
+        int pre = 0;
+        int post = 0;
+        stack[top++] = 0;
+        this.preorder[0] = pre++;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (next[b] < childCount(b)) {
+                int c = child(b, next[b]++);
+                this.preorder[c] = pre++;
+                stack[top++] = c;
+            } else {
+                this.postorder[b] = post++;
+                top--;
+            }
+        }
+
+        // frontiers: each join point is added to the frontiers of the blocks between each of
+        // its predecessors and its immediate dominator
+        int[][] lists = new int[count][];
+        int[] sizes = new int[count];
+        int total = 0;
+        for (int b = 0; b < count; b++) {
+            if (this.idom[b] < 0 || cfg.predecessorCount(b) < 2) {
+                continue;
+            }
+            for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                int runner = cfg.predecessor(b, k);
+                while (runner != this.idom[b]) {
+                    int n = sizes[runner];
+                    if (n > 0 && lists[runner][n - 1] == b) {
+                        break; // already added, and so are the blocks above it
+                    }
+                    if (lists[runner] == null) {
+                        lists[runner] = new int[2];
+                    } else if (n == lists[runner].length) {
+                        lists[runner] = Arrays.copyOf(lists[runner], n * 2);
+                    }
+                    lists[runner][sizes[runner]++] = b;
+                    total++;
+                    runner = this.idom[runner];
+                }
+            }
+        }
+        this.frontierStarts = new int[count + 1];
+        this.frontiers = new int[total];
+        for (int b = 0; b < count; b++) {
+            this.frontierStarts[b + 1] = this.frontierStarts[b] + sizes[b];
+            if (sizes[b] > 0) {
+                System.arraycopy(lists[b], 0, this.frontiers, this.frontierStarts[b], sizes[b]);
+            }
+        }
+    }
+
+    public ControlFlowGraph getGraph() {
+        return this.cfg;
+    }
+
+    /**
+     * @return The immediate dominator of a block; the entry's is itself, and an unreachable
+     *         block's is -1
+     */
+    public int idom(int block) {
+        return this.idom[block];
+    }
+
+    public int childCount(int block) {
+        return this.childStarts[block + 1] - this.childStarts[block];
+    }
+
+    public int child(int block, int index) {
+        return this.children[this.childStarts[block] + index];
+    }
+
+    /**
+     * @return Whether a dominates b; every reachable block dominates itself
+     */
+    public boolean dominates(int a, int b) {
+        return this.preorder[a] >= 0 && this.preorder[b] >= 0
+            && this.preorder[a] <= this.preorder[b] && this.postorder[b] <= this.postorder[a];
+    }
+
+    /**
+     * @return The block's position in a preorder walk of the dominator tree, or -1 if it is
+     *         unreachable
+     */
+    public int preorderIndex(int block) {
+        return this.preorder[block];
+    }
+
+    public int frontierSize(int block) {
+        return this.frontierStarts[block + 1] - this.frontierStarts[block];
+    }
+
+    public int frontier(int block, int index) {
+        return this.frontiers[this.frontierStarts[block] + index];
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (this.cfg.reversePostorderIndex(a) > this.cfg.reversePostorderIndex(b)) {
+                a = this.idom[a];
+            }
+            while (this.cfg.reversePostorderIndex(b) > this.cfg.reversePostorderIndex(a)) {
+                b = this.idom[b];
+            }
+        }
+        return a;
+    }
+}
@@ -0,0 +1,223 @@
+package lang.ir;
+
+/**
+ * Dominator-based global value numbering over a function in SSA form, selected with
+ * {@code -O cse}.
+ *
+ * The blocks are visited in a preorder walk of the dominator tree, as in Briggs, Cooper and
+ * Simpson's "Value Numbering". In SSA form every register is a value of its own, so a value
+ * number is simply the register or constant standing for a set of equal values. Each pure
+ * instruction is hashed by its opcode, type and operands' value numbers, commutative operands
+ * in a fixed order, into an open-addressing table; if an equal instruction is already in the
+ * table, it dominates this one, which is removed and its register replaced by the earlier one.
+ * Bounds checks are entered the same way, so that a check of an index already checked against
+ * the same length on every path is removed too. Copies, and phis whose arguments are all the
+ * same value, are removed as well.
+ *
+ * The table is scoped along the dominator tree: what a block enters is removed again when the
+ * walk leaves its subtree, so that only dominating computations are ever found. Entries are
+ * removed in the reverse of the order they were added, which leaves linear probing sound.
+ */
+public class GlobalValueNumbering implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "cse";
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        return new Numbering(function).run();
+    }
+
+    private static final class Numbering {
+        private final IRFunction function;
+        private final ControlFlowGraph cfg;
+        private final Dominators dominators;
+        private final int[] value;      // value number of each register
+        private final boolean[] removed;
+        private int removedCount = 0;
+
+        // the scoped table: an instruction's key, and the value it computed, per slot
+        private final int[] headers;    // opcode and type + 1, or 0 if the slot is empty
+        private final int[] lefts;
+        private final int[] rights;
+        private final int[] results;
+        private final int[] log;        // slots filled, in order, to empty on leaving a subtree
+        private int logSize = 0;
+
+        Numbering(IRFunction function) {
+            this.function = function;
+            this.cfg = new ControlFlowGraph(function);
+            this.dominators = new Dominators(this.cfg);
+            this.value = new int[function.getRegisterCount()];
+            for (int r = 0; r < this.value.length; r++) {
+                this.value[r] = r;
+            }
+            this.removed = new boolean[function.size()];
+            int capacity = 16;
+            while (capacity < 2 * function.size()) {
+                capacity <<= 1;
+            }
+            this.headers = new int[capacity];
+            this.lefts = new int[capacity];
+            this.rights = new int[capacity];
+            this.results = new int[capacity];
+            this.log = new int[function.size()];
+        }
+
+        int run() {
+            int blocks = this.cfg.getBlockCount();
+            int[] stack = new int[blocks];
+            int[] next = new int[blocks];
+            int[] marks = new int[blocks];
+            int top = 0;
+            visit(0);
+            stack[top++] = 0;
+            while (top > 0) {
+                int b = stack[top - 1];
+                if (next[b] < this.dominators.childCount(b)) {
+                    int c = this.dominators.child(b, next[b]++);
+                    marks[c] = this.logSize;
+                    visit(c);
+                    stack[top++] = c;
+                } else {
+                    while (this.logSize > marks[b]) {
+                        this.headers[this.log[--this.logSize]] = 0;
+                    }
+                    top--;
+                }
+            }
+            if (this.removedCount > 0) {
+                rewrite();
+            }
+            return this.removedCount;
+        }
+
+        private void visit(int b) {
+            IRFunction f = this.function;
+            for (int i = this.cfg.start(b); i < this.cfg.end(b); i++) {
+                Opcode opcode = f.opcode(i);
+                if (opcode == Opcode.PHI) {
+                    int same = sameArguments(i);
+                    if (same != Operand.NONE) {
+                        remove(i, same);
+                    }
+                    continue;
+                }
+                for (int k = 0; k < f.useCount(i); k++) {
+                    f.setUse(i, k, number(f.use(i, k)));
+                }
+                if (opcode == Opcode.MOVE) {
+                    remove(i, f.src1(i));
+                } else if (opcode.isPure() || opcode == Opcode.DIV || opcode == Opcode.MOD || opcode == Opcode.CHECK) {
+                    // a repeat of a division or check that could trap is dominated by the first,
+                    // which would have trapped already
+                    int header = opcode.ordinal() | (f.type(i) == null ? 0 : f.type(i).ordinal() + 1) << 8;
+                    int left = f.src1(i);
+                    int right = f.src2(i);
+                    if (isCommutative(opcode) && left > right) {
+                        int swap = left;
+                        left = right;
+                        right = swap;
+                    }
+                    int found = lookup(header, left, right, f.dest(i));
+                    if (found >= 0) {
+                        remove(i, this.results[found]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The one value all of a phi's arguments have, ignoring the phi itself, or NONE
+         */
+        private int sameArguments(int phi) {
+            IRFunction f = this.function;
+            int arguments = f.src2(phi);
+            int same = Operand.NONE;
+            for (int k = 1; k < f.argumentCount(arguments); k += 2) {
+                int argument = number(f.argument(arguments, k));
+                if (argument == f.dest(phi)) {
+                    continue;
+                }
+                if (same != Operand.NONE && argument != same) {
+                    return Operand.NONE;
+                }
+                same = argument;
+            }
+            return same;
+        }
+
+        private int number(int operand) {
+            if (!Operand.isRegister(operand)) {
+                return operand;
+            }
+            int v = operand;
+            while (this.value[v] != v) {
+                v = this.value[v];
+                if (!Operand.isRegister(v)) {
+                    break;
+                }
+            }
+            return v;
+        }
+
+        private void remove(int i, int replacement) {
+            this.removed[i] = true;
+            this.removedCount++;
+            int dest = this.function.dest(i);
+            if (this.function.opcode(i).definesRegister() && dest != Operand.NONE) {
+                this.value[dest] = replacement;
+            }
+        }
+
+        /**
+         * Finds an equal entry, or adds this one.
+         * @return The slot of the equal entry, or -1 if there was none
+         */
+        private int lookup(int header, int left, int right, int result) {
+            int mask = this.headers.length - 1;
+            int s = hash(header, left, right) & mask;
+            for (; this.headers[s] != 0; s = (s + 1) & mask) {
+                if (this.headers[s] == header + 1 && this.lefts[s] == left && this.rights[s] == right) {
+                    return s;
+                }
+            }
+            this.headers[s] = header + 1;
+            this.lefts[s] = left;
+            this.rights[s] = right;
+            this.results[s] = result;
+            this.log[this.logSize++] = s;
+            return -1;
+        }
+
+        /**
+         * Drops the removed instructions and points every remaining use at its value number.
+         */
+        private void rewrite() {
+            IRFunction f = this.function;
+            IRFunction.Code old = f.detachCode();
+            for (int i = 0; i < old.size(); i++) {
+                if (this.removed[i]) {
+                    continue;
+                }
+                int at = f.emit(old, i);
+                for (int k = 0; k < f.useCount(at); k++) {
+                    f.setUse(at, k, number(f.use(at, k)));
+                }
+            }
+        }
+
+        private static boolean isCommutative(Opcode opcode) {
+            return opcode == Opcode.ADD || opcode == Opcode.MUL || opcode == Opcode.EQ || opcode == Opcode.NE;
+        }
+
+        private static int hash(int header, int left, int right) {
+            int h = header * 0x9E3779B1;
+            h = (h ^ left) * 0x9E3779B1;
+            h = (h ^ right) * 0x9E3779B1;
+            return h ^ h >>> 16;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package lang.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lang.grammars.decaf.DecafType;
+import lombok.Getter;
+
+/**
+ * One method in three-address form: a linear sequence of instructions over an unbounded set of
+ * virtual registers, with control flow expressed by labels, jumps and two-way branches.
+ *
+ * Instructions are not objects. Each one is four consecutive ints of a single array: the opcode
+ * and operand type packed into the first, then dest, src1 and src2 (see {@link Opcode} for what
+ * each slot holds and {@link Operand} for how operands are encoded). Everything an operand can
+ * refer to lives in a pool of its own, also held in flat arrays:
+ * <ul>
+ * <li>registers, by number, with their types and the names of the variables they hold;
+ * registers 0 to {@code getParameterCount() - 1} hold the parameters on entry;</li>
+ * <li>constants, interned by type and value, so that equal constants are equal operands;</li>
+ * <li>string literals, as written in the source, for arguments to imports;</li>
+ * <li>argument lists of calls and phis: a count followed by that many operands;</li>
+ * <li>arrays declared in the method's blocks, which live in its frame.</li>
+ * </ul>
+ * An instruction thus costs 16 bytes and a register or constant 9 or so, against the several
+ * objects per token of the syntax tree it comes from.
+ */
+public class IRFunction {
+    private static final int WIDTH = 4; // ints per instruction
+    private static final DecafType[] TYPES = DecafType.values();
+
+    @Getter private final String name;
+    @Getter private final DecafType resultType;
+    @Getter private final int parameterCount;
+
+    private int[] code = new int[64 * WIDTH];
+    private int size = 0;
+
+    private byte[] registerTypes = new byte[32];
+    private String[] registerNames = new String[32]; // null for temporaries
+    private int registerCount = 0;
+
+    private long[] constants = new long[16];
+    private byte[] constantTypes = new byte[16];
+    private int constantCount = 0;
+    private int[] constantSlots = new int[32]; // constant + 1, or 0 if empty
+
+    private String[] strings = new String[4];
+    private int stringCount = 0;
+
+    private int[] arguments = new int[16];
+    private int argumentsSize = 0;
+
+    private final List<IRProgram.Symbol> frame = new ArrayList<>();
+    private int labelCount = 0;
+    private boolean ssa = false;
+
+    /**
+     * A detached instruction sequence, read while the function's new one is emitted.
+     */
+    public static final class Code {
+        private final int[] code;
+        private final int size;
+
+        private Code(int[] code, int size) {
+            this.code = code;
+            this.size = size;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public Opcode opcode(int instruction) {
+            return Opcode.of(this.code[instruction * WIDTH] & 0xff);
+        }
+
+        public DecafType type(int instruction) {
+            int type = this.code[instruction * WIDTH] >>> 8;
+            return type == 0 ? null : TYPES[type - 1];
+        }
+
+        public int dest(int instruction) {
+            return this.code[instruction * WIDTH + 1];
+        }
+
+        public int src1(int instruction) {
+            return this.code[instruction * WIDTH + 2];
+        }
+
+        public int src2(int instruction) {
+            return this.code[instruction * WIDTH + 3];
+        }
+    }
+
+    /**
+     * Creates an empty function whose parameters, of the given types and names, are its first
+     * registers.
+     */
+    public IRFunction(String name, DecafType resultType, List<DecafType> parameterTypes, List<String> parameterNames) {
+        this.name = name;
+        this.resultType = resultType;
+        this.parameterCount = parameterTypes.size();
+        for (int i = 0; i < this.parameterCount; i++) {
+            newRegister(parameterTypes.get(i), parameterNames.get(i));
+        }
+    }
+
+    /*
+     * Instructions
+     */
+
+    /**
+     * @return The number of instructions
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public Opcode opcode(int instruction) {
+        return Opcode.of(this.code[instruction * WIDTH] & 0xff);
+    }
+
+    /**
+     * @return Whether the instruction's opcode {@link Opcode#isPure() is pure}, or it is a
+     *         division or remainder by a constant other than 0 and -1, which cannot trap
+     */
+    public boolean isPure(int instruction) {
+        Opcode opcode = opcode(instruction);
+        if (opcode == Opcode.DIV || opcode == Opcode.MOD) {
+            int divisor = src2(instruction);
+            return Operand.isConstant(divisor) && constantValue(divisor) != 0 && constantValue(divisor) != -1;
+        }
+        return opcode.isPure();
+    }
+
+    /**
+     * @return The type the instruction computes in: its result's type, the operands' type for a
+     *         comparison, or the element type for a load or store; null if it has none
+     */
+    public DecafType type(int instruction) {
+        int type = this.code[instruction * WIDTH] >>> 8;
+        return type == 0 ? null : TYPES[type - 1];
+    }
+
+    public int dest(int instruction) {
+        return this.code[instruction * WIDTH + 1];
+    }
+
+    public int src1(int instruction) {
+        return this.code[instruction * WIDTH + 2];
+    }
+
+    public int src2(int instruction) {
+        return this.code[instruction * WIDTH + 3];
+    }
+
+    /**
+     * Appends an instruction.
+     * @param type The instruction's type, or null if it has none
+     * @return The index of the instruction
+     */
+    public int emit(Opcode opcode, DecafType type, int dest, int src1, int src2) {
+        if ((this.size + 1) * WIDTH > this.code.length) {
+            this.code = Arrays.copyOf(this.code, Math.max(this.code.length * 2, 64 * WIDTH));
+        }
+        set(this.size, opcode, type, dest, src1, src2);
+        return this.size++;
+    }
+
+    /**
+     * Appends a copy of an instruction of detached code.
+     * @return The index of the copy
+     */
+    public int emit(Code from, int instruction) {
+        if ((this.size + 1) * WIDTH > this.code.length) {
+            this.code = Arrays.copyOf(this.code, Math.max(this.code.length * 2, 64 * WIDTH));
+        }
+        System.arraycopy(from.code, instruction * WIDTH, this.code, this.size * WIDTH, WIDTH);
+        return this.size++;
+    }
+
+    /**
+     * Removes all instructions, keeping every pool, so that a pass can emit a rewritten
+     * sequence while it reads the old one.
+     * @return The old instructions
+     */
+    public Code detachCode() {
+        Code old = new Code(this.code, this.size);
+        this.code = new int[Math.max(this.size + this.size / 4, 64) * WIDTH];
+        this.size = 0;
+        return old;
+    }
+
+    /**
+     * Replaces an instruction.
+     */
+    public void set(int instruction, Opcode opcode, DecafType type, int dest, int src1, int src2) {
+        int at = instruction * WIDTH;
+        this.code[at] = opcode.ordinal() | (type == null ? 0 : type.ordinal() + 1) << 8;
+        this.code[at + 1] = dest;
+        this.code[at + 2] = src1;
+        this.code[at + 3] = src2;
+    }
+
+    public void setDest(int instruction, int dest) {
+        this.code[instruction * WIDTH + 1] = dest;
+    }
+
+    public void setSrc1(int instruction, int src1) {
+        this.code[instruction * WIDTH + 2] = src1;
+    }
+
+    public void setSrc2(int instruction, int src2) {
+        this.code[instruction * WIDTH + 3] = src2;
+    }
+
+    /**
+     * @return The number of value operands the instruction reads: the operands that may be
+     *         registers, including call arguments and the values of a phi, but not variables or
+     *         labels. Some may be {@link Operand#NONE}.
+     */
+    public int useCount(int instruction) {
+        switch (opcode(instruction)) {
+            case LABEL:
+            case JUMP:
+                return 0;
+            case MOVE: case NEG: case NOT: case EXTEND: case TRUNCATE:
+            case LOAD: case BRANCH: case RETURN: case TRAP:
+                return 1;
+            case CALL:
+                return argumentCount(src2(instruction));
+            case PHI:
+                return argumentCount(src2(instruction)) / 2;
+            default:
+                return 2;
+        }
+    }
+
+    /**
+     * @return The index-th value operand the instruction reads
+     */
+    public int use(int instruction, int index) {
+        int at = instruction * WIDTH;
+        switch (opcode(instruction)) {
+            case LOAD:
+                return this.code[at + 3];
+            case CALL:
+                return argument(this.code[at + 3], index);
+            case PHI:
+                return argument(this.code[at + 3], 2 * index + 1);
+            default:
+                return this.code[at + 2 + index];
+        }
+    }
+
+    public void setUse(int instruction, int index, int operand) {
+        int at = instruction * WIDTH;
+        switch (opcode(instruction)) {
+            case LOAD:
+                this.code[at + 3] = operand;
+                break;
+            case CALL:
+                setArgument(this.code[at + 3], index, operand);
+                break;
+            case PHI:
+                setArgument(this.code[at + 3], 2 * index + 1, operand);
+                break;
+            default:
+                this.code[at + 2 + index] = operand;
+                break;
+        }
+    }
+
+    /**
+     * @return Whether the function is in SSA form: every register is written by at most one
+     *         instruction, and control-flow merges are expressed by phis
+     */
+    public boolean isSSA() {
+        return this.ssa;
+    }
+
+    public void setSSA(boolean ssa) {
+        this.ssa = ssa;
+    }
+
+    /*
+     * Registers and labels
+     */
+
+    /**
+     * @param name The source variable the register holds, or null for a temporary
+     * @return The new register, which is also its operand
+     */
+    public int newRegister(DecafType type, String name) {
+        int register = this.registerCount++;
+        if (register == this.registerTypes.length) {
+            this.registerTypes = Arrays.copyOf(this.registerTypes, register * 2);
+            this.registerNames = Arrays.copyOf(this.registerNames, register * 2);
+        }
+        this.registerTypes[register] = (byte) type.ordinal();
+        this.registerNames[register] = name;
+        return register;
+    }
+
+    public int getRegisterCount() {
+        return this.registerCount;
+    }
+
+    public DecafType registerType(int register) {
+        return TYPES[this.registerTypes[register]];
+    }
+
+    /**
+     * @return The source variable the register holds, or null for a temporary
+     */
+    public String registerName(int register) {
+        return this.registerNames[register];
+    }
+
+    public int newLabel() {
+        return this.labelCount++;
+    }
+
+    public int getLabelCount() {
+        return this.labelCount;
+    }
+
+    /*
+     * Pools
+     */
+
+    /**
+     * @return The operand for the constant, the same one for every request of an equal constant
+     */
+    public int constant(DecafType type, long value) {
+        int hash = Long.hashCode(value * 0x9E3779B97F4A7C15L) ^ type.ordinal();
+        int mask = this.constantSlots.length - 1;
+        int i = hash & mask;
+        for (; this.constantSlots[i] != 0; i = (i + 1) & mask) {
+            int c = this.constantSlots[i] - 1;
+            if (this.constants[c] == value && this.constantTypes[c] == type.ordinal()) {
+                return Operand.constant(c);
+            }
+        }
+        int c = this.constantCount++;
+        if (c == this.constants.length) {
+            this.constants = Arrays.copyOf(this.constants, c * 2);
+            this.constantTypes = Arrays.copyOf(this.constantTypes, c * 2);
+        }
+        this.constants[c] = value;
+        this.constantTypes[c] = (byte) type.ordinal();
+        this.constantSlots[i] = c + 1;
+        if (this.constantCount * 2 > this.constantSlots.length) {
+            rehashConstants();
+        }
+        return Operand.constant(c);
+    }
+
+    public long constantValue(int operand) {
+        return this.constants[Operand.index(operand)];
+    }
+
+    public DecafType constantType(int operand) {
+        return TYPES[this.constantTypes[Operand.index(operand)]];
+    }
+
+    /**
+     * @param literal A string literal as written, quotes and escapes included
+     */
+    public int string(String literal) {
+        if (this.stringCount == this.strings.length) {
+            this.strings = Arrays.copyOf(this.strings, this.stringCount * 2);
+        }
+        this.strings[this.stringCount] = literal;
+        return Operand.string(this.stringCount++);
+    }
+
+    public String stringValue(int operand) {
+        return this.strings[Operand.index(operand)];
+    }
+
+    /**
+     * Adds the argument list of a call.
+     * @return Where the list starts, for the call's src2 slot
+     */
+    public int arguments(int[] operands, int count) {
+        int start = this.argumentsSize;
+        if (start + count + 1 > this.arguments.length) {
+            this.arguments = Arrays.copyOf(this.arguments, Math.max(start + count + 1, this.arguments.length * 2));
+        }
+        this.arguments[start] = count;
+        System.arraycopy(operands, 0, this.arguments, start + 1, count);
+        this.argumentsSize = start + count + 1;
+        return start;
+    }
+
+    public int argumentCount(int start) {
+        return this.arguments[start];
+    }
+
+    public int argument(int start, int index) {
+        return this.arguments[start + 1 + index];
+    }
+
+    public void setArgument(int start, int index, int operand) {
+        this.arguments[start + 1 + index] = operand;
+    }
+
+    /**
+     * Declares an array in the frame.
+     * @return The operand referring to it
+     */
+    public int declareFrame(IRProgram.Symbol array) {
+        this.frame.add(array);
+        return Operand.frame(this.frame.size() - 1);
+    }
+
+    /**
+     * @param operand An operand made by {@link Operand#frame(int)}
+     */
+    public IRProgram.Symbol getFrameSymbol(int operand) {
+        return this.frame.get(Operand.index(operand));
+    }
+
+    public int getFrameSize() {
+        return this.frame.size();
+    }
+
+    /**
+     * @return The type of a register or constant operand, or null for other operands
+     */
+    public DecafType typeOf(int operand) {
+        if (Operand.isRegister(operand)) {
+            return registerType(operand);
+        }
+        return Operand.isConstant(operand) ? constantType(operand) : null;
+    }
+
+    /**
+     * Shrinks the arrays to what is in use, once no more code will be added.
+     */
+    public void trim() {
+        this.code = Arrays.copyOf(this.code, this.size * WIDTH);
+        this.registerTypes = Arrays.copyOf(this.registerTypes, Math.max(this.registerCount, 1));
+        this.registerNames = Arrays.copyOf(this.registerNames, Math.max(this.registerCount, 1));
+        this.arguments = Arrays.copyOf(this.arguments, Math.max(this.argumentsSize, 1));
+    }
+
+    /**
+     * @return Approximate bytes held by the code, register, constant and argument arrays
+     */
+    public long footprint() {
+        return 4L * this.code.length + 5L * this.registerTypes.length + 9L * this.constants.length
+            + 4L * this.constantSlots.length + 4L * this.arguments.length + 4L * this.strings.length;
+    }
+
+    private void rehashConstants() {
+        int[] grown = new int[this.constantSlots.length * 2];
+        int mask = grown.length - 1;
+        for (int c = 0; c < this.constantCount; c++) {
+            int i = (Long.hashCode(this.constants[c] * 0x9E3779B97F4A7C15L) ^ this.constantTypes[c]) & mask;
+            while (grown[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            grown[i] = c + 1;
+        }
+        this.constantSlots = grown;
+    }
+}
@@ -0,0 +1,226 @@
+package lang.ir;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Textual listing of a program's IR, one instruction per line:
+ * <pre>
+ * import printf
+ * global int[] @a[10]
+ *
+ * method int sum(int %n) {
+ *     %s = move int 0
+ *     %i = move int 0
+ * L0:
+ *     %1 = lt int %i, %n
+ *     branch %1, L1, L2
+ * L1:
+ *     check %i, 10
+ *     %2 = load int @a[%i]
+ *     ...
+ * }
+ * </pre>
+ * Registers print as {@code %name} when they hold a source variable whose name no other register
+ * of the function holds, as {@code %name.N} when several do, and as {@code %N} for temporaries.
+ * Globals, methods and imports print as {@code @name}, frame arrays as {@code $name.N}, and
+ * constants as Decaf literals. A phi lists its incoming values with the labels of the blocks
+ * they come from: {@code %x.5 = phi int [L1: %x.2], [L3: %x.4]}.
+ */
+public final class IRPrinter {
+    private final IRProgram program;
+    private final StringBuilder out;
+    private IRFunction function;
+    private Map<String, Integer> nameCounts;
+
+    private IRPrinter(IRProgram program, StringBuilder out) {
+        this.program = program;
+        this.out = out;
+    }
+
+    public static String print(IRProgram program) {
+        StringBuilder out = new StringBuilder();
+        IRPrinter printer = new IRPrinter(program, out);
+        for (IRProgram.Symbol symbol : program.getSymbols()) {
+            switch (symbol.getKind()) {
+                case IMPORT:
+                    out.append("import ").append(symbol.getName()).append('\n');
+                    break;
+                case VARIABLE:
+                    out.append("global ");
+                    printer.declaration(symbol);
+                    out.append('\n');
+                    break;
+                default:
+                    break;
+            }
+        }
+        for (IRFunction function : program.getFunctions()) {
+            out.append('\n');
+            printer.function(function);
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return The listing of one function of the program
+     */
+    public static String print(IRProgram program, IRFunction function) {
+        StringBuilder out = new StringBuilder();
+        new IRPrinter(program, out).function(function);
+        return out.toString();
+    }
+
+    private void function(IRFunction function) {
+        this.function = function;
+        this.nameCounts = new HashMap<>();
+        for (int r = 0; r < function.getRegisterCount(); r++) {
+            if (function.registerName(r) != null) {
+                this.nameCounts.merge(function.registerName(r), 1, Integer::sum);
+            }
+        }
+
+        this.out.append("method ").append(function.getResultType()).append(' ').append(function.getName()).append('(');
+        for (int p = 0; p < function.getParameterCount(); p++) {
+            this.out.append(p == 0 ? "" : ", ").append(function.registerType(p)).append(' ');
+            operand(p);
+        }
+        this.out.append(") {\n");
+        for (int f = 0; f < function.getFrameSize(); f++) {
+            IRProgram.Symbol array = function.getFrameSymbol(Operand.frame(f));
+            this.out.append("    frame ").append(array.getType()).append(' ');
+            operand(Operand.frame(f));
+            this.out.append('[').append(array.getLength()).append("]\n");
+        }
+        for (int i = 0; i < function.size(); i++) {
+            instruction(i);
+        }
+        this.out.append("}\n");
+    }
+
+    private void instruction(int i) {
+        IRFunction f = this.function;
+        Opcode opcode = f.opcode(i);
+        DecafType type = f.type(i);
+        int dest = f.dest(i);
+        int src1 = f.src1(i);
+        int src2 = f.src2(i);
+        if (opcode == Opcode.LABEL) {
+            this.out.append('L').append(src1).append(":\n");
+            return;
+        }
+
+        this.out.append("    ");
+        if (opcode.definesRegister() && dest != Operand.NONE) {
+            operand(dest);
+            this.out.append(" = ");
+        }
+        this.out.append(opcode);
+        if (type != null && opcode != Opcode.CHECK) {
+            this.out.append(' ').append(type);
+        }
+        this.out.append(' ');
+        switch (opcode) {
+            case LOAD:
+                location(src1, src2);
+                break;
+            case STORE:
+                location(dest, src1);
+                this.out.append(", ");
+                operand(src2);
+                break;
+            case CALL:
+                operand(src1);
+                this.out.append('(');
+                for (int k = 0; k < f.argumentCount(src2); k++) {
+                    this.out.append(k == 0 ? "" : ", ");
+                    operand(f.argument(src2, k));
+                }
+                this.out.append(')');
+                break;
+            case PHI:
+                for (int k = 0; k < f.argumentCount(src2); k += 2) {
+                    this.out.append(k == 0 ? "[L" : ", [L").append(f.argument(src2, k)).append(": ");
+                    operand(f.argument(src2, k + 1));
+                    this.out.append(']');
+                }
+                break;
+            case JUMP:
+                this.out.append('L').append(src1);
+                break;
+            case BRANCH:
+                operand(src1);
+                this.out.append(", L").append(src2).append(", L").append(dest);
+                break;
+            case RETURN:
+                if (src1 == Operand.NONE) {
+                    this.out.setLength(this.out.length() - 1);
+                } else {
+                    operand(src1);
+                }
+                break;
+            default:
+                operand(src1);
+                if (src2 != Operand.NONE) {
+                    this.out.append(", ");
+                    operand(src2);
+                }
+                break;
+        }
+        this.out.append('\n');
+    }
+
+    private void location(int variable, int index) {
+        operand(variable);
+        if (index != Operand.NONE) {
+            this.out.append('[');
+            operand(index);
+            this.out.append(']');
+        }
+    }
+
+    private void operand(int operand) {
+        IRFunction f = this.function;
+        if (Operand.isRegister(operand)) {
+            String name = f.registerName(operand);
+            this.out.append('%');
+            if (name == null) {
+                this.out.append(operand);
+            } else if (this.nameCounts.get(name) == 1) {
+                this.out.append(name);
+            } else {
+                this.out.append(name).append('.').append(operand);
+            }
+        } else if (Operand.isConstant(operand)) {
+            long value = f.constantValue(operand);
+            switch (f.constantType(operand)) {
+                case BOOL:
+                    this.out.append(value != 0);
+                    break;
+                case LONG:
+                    this.out.append(value).append('L');
+                    break;
+                default:
+                    this.out.append(value);
+                    break;
+            }
+        } else if (Operand.isString(operand)) {
+            this.out.append(f.stringValue(operand));
+        } else if (Operand.isGlobal(operand)) {
+            this.out.append('@').append(this.program.getSymbol(operand).getName());
+        } else if (Operand.isFrame(operand)) {
+            this.out.append('$').append(f.getFrameSymbol(operand).getName()).append('.').append(Operand.index(operand));
+        } else {
+            this.out.append('_');
+        }
+    }
+
+    private void declaration(IRProgram.Symbol symbol) {
+        this.out.append(symbol.getType()).append(" @").append(symbol.getName());
+        if (symbol.getType().isArray()) {
+            this.out.append('[').append(symbol.getLength()).append(']');
+        }
+    }
+}
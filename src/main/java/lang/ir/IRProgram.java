@@ -0,0 +1,101 @@
+package lang.ir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lang.grammars.decaf.DecafType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A whole program in three-address form: the program-level symbols that instructions refer to
+ * through {@link Operand#global(int)}, and one {@link IRFunction} per method, in source order.
+ */
+public class IRProgram {
+    /**
+     * A global variable, method or import. Arrays in a function's frame are symbols too, but
+     * belong to their function rather than to the program.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Symbol {
+        public static enum Kind {
+            VARIABLE,
+            METHOD,
+            IMPORT
+        }
+
+        private final Kind kind;
+        private final String name;
+        private final DecafType type; // result type for methods and imports
+        private final int length;     // number of elements for arrays, 0 otherwise
+    }
+
+    private final List<Symbol> symbols = new ArrayList<>();
+    private final List<IRFunction> functions = new ArrayList<>();
+    private final Map<String, IRFunction> functionsByName = new HashMap<>();
+
+    /**
+     * @return The operand referring to the new symbol
+     */
+    public int declare(Symbol symbol) {
+        this.symbols.add(symbol);
+        return Operand.global(this.symbols.size() - 1);
+    }
+
+    /**
+     * @param operand An operand made by {@link Operand#global(int)}
+     */
+    public Symbol getSymbol(int operand) {
+        return this.symbols.get(Operand.index(operand));
+    }
+
+    public List<Symbol> getSymbols() {
+        return Collections.unmodifiableList(this.symbols);
+    }
+
+    public void addFunction(IRFunction function) {
+        this.functions.add(function);
+        this.functionsByName.put(function.getName(), function);
+    }
+
+    public List<IRFunction> getFunctions() {
+        return Collections.unmodifiableList(this.functions);
+    }
+
+    /**
+     * @return The function for the named method, or null if there is none
+     */
+    public IRFunction getFunction(String name) {
+        return this.functionsByName.get(name);
+    }
+
+    /**
+     * @return The number of instructions in all functions
+     */
+    public int size() {
+        int size = 0;
+        for (IRFunction function : this.functions) {
+            size += function.size();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the textual listing produced by {@link IRPrinter}. Used for INTER stage output.
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        outputStream.write(toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return IRPrinter.print(this);
+    }
+}
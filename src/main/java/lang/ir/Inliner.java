@@ -0,0 +1,282 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Inlining of calls to small methods, selected with {@code -O inline}.
+ *
+ * Unlike the other passes this one runs before its function is put into SSA form, and the
+ * optimizer visits functions bottom-up in the {@link CallGraph}, so every callee has already
+ * been inlined into and optimized, and is back out of SSA form, when its callers are. A call is
+ * replaced by a copy of the callee's code with fresh registers and labels: moves of the
+ * arguments into the copies of the parameters go first, and each return becomes a move into the
+ * call's result and a jump to the code after it. Calls to a method in the caller's own strongly
+ * connected component are never inlined, so no recursive cycle is unrolled; neither are calls to
+ * imports. The copy's own calls are not looked at again, since the callee's were already
+ * considered when it was optimized.
+ *
+ * Whether a call is inlined is a cost model over the callee's size in instructions, not
+ * counting labels. It must be at most a threshold that grows with each constant argument, which
+ * later passes can fold through the copy, and doubles with each loop around the call, up to
+ * {@link #MAX_DEPTH}, since the call's overhead is paid on every trip. Calls in deeper loops are
+ * considered first, and smaller callees before larger ones.
+ *
+ * The code the inlined calls add is limited by a budget, a percentage of the size of the whole
+ * program when the pass first sees it, shared by every function: a call whose copy would
+ * outgrow what is left is not inlined, unless the copy is no larger than the call it replaces.
+ *
+ * Arrays in the callee's frame are zero on each call. They are copied into the caller's frame,
+ * which is zeroed only once per call of the caller, so a callee with arrays is inlined only at
+ * calls outside every loop.
+ */
+public class Inliner implements Optimizer.Pass {
+    /** Percentage by which inlining may grow the program, unless configured otherwise. */
+    public static final int DEFAULT_BUDGET = 100;
+
+    // Largest callee inlined at a call outside loops with no constant arguments
+    private static final int BASE_THRESHOLD = 12;
+    // Instructions added to the threshold per constant argument
+    private static final int CONSTANT_BONUS = 6;
+    // Loop depth beyond which the threshold stops growing
+    private static final int MAX_DEPTH = 3;
+
+    private final int budget;
+
+    // the program being inlined in, and what is left of its budget
+    private IRProgram program;
+    private CallGraph calls;
+    private long remaining;
+
+    public Inliner() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget Percentage by which inlining may grow the program
+     */
+    public Inliner(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Negative inlining budget " + budget);
+        }
+        this.budget = budget;
+    }
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public boolean usesSSA() {
+        return false;
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        if (program != this.program) {
+            this.program = program;
+            this.calls = new CallGraph(program);
+            this.remaining = (long) program.size() * this.budget / 100;
+        }
+        int caller = this.calls.indexOf(function.getName());
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        // loop depth of each block; a loop through the entry cannot be found, so then every
+        // block counts as in one
+        int[] depths = new int[cfg.getBlockCount()];
+        if (cfg.predecessorCount(0) > 0) {
+            Arrays.fill(depths, 1);
+        } else {
+            Loops loops = new Loops(new Dominators(cfg));
+            for (int b = 0; b < depths.length; b++) {
+                int l = loops.innermost(b);
+                depths[b] = l < 0 ? 0 : loops.depth(l);
+            }
+        }
+
+        // the calls that may be inlined, keyed by depth, then size, then position
+        long[] candidates = new long[8];
+        int count = 0;
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            int depth = Math.min(depths[b], MAX_DEPTH);
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int callee = function.opcode(i) == Opcode.CALL ? callee(function, i) : -1;
+                if (callee < 0 || this.calls.component(callee) == this.calls.component(caller)) {
+                    continue;
+                }
+                IRFunction f = this.calls.function(callee);
+                if (f.isSSA() || f.getFrameSize() > 0 && depths[b] > 0) {
+                    continue;
+                }
+                int size = size(f);
+                int constants = 0;
+                for (int k = 0; k < function.useCount(i); k++) {
+                    constants += Operand.isConstant(function.use(i, k)) ? 1 : 0;
+                }
+                if (size > (BASE_THRESHOLD + CONSTANT_BONUS * constants) << depth) {
+                    continue;
+                }
+                if (count == candidates.length) {
+                    candidates = Arrays.copyOf(candidates, count * 2);
+                }
+                candidates[count++] = (long) (MAX_DEPTH - depth) << 58 | (long) size << 32 | i;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(candidates, 0, count);
+
+        int[] callees = new int[function.size()];
+        Arrays.fill(callees, -1);
+        int inlined = 0;
+        for (int n = 0; n < count; n++) {
+            int i = (int) candidates[n];
+            int callee = callee(function, i);
+            int growth = growth(this.calls.function(callee), function.useCount(i), function.dest(i) != Operand.NONE);
+            if (growth > 0 && growth > this.remaining) {
+                continue;
+            }
+            this.remaining -= Math.max(growth, 0);
+            callees[i] = callee;
+            inlined++;
+        }
+        if (inlined > 0) {
+            IRFunction.Code old = function.detachCode();
+            for (int i = 0; i < old.size(); i++) {
+                if (callees[i] >= 0) {
+                    expand(function, old, i, this.calls.function(callees[i]));
+                } else {
+                    function.emit(old, i);
+                }
+            }
+        }
+        return inlined;
+    }
+
+    /**
+     * @return The number of the method a call calls in the call graph, or -1 for an import
+     */
+    private int callee(IRFunction function, int call) {
+        IRProgram.Symbol symbol = this.program.getSymbol(function.src1(call));
+        return symbol.getKind() == IRProgram.Symbol.Kind.METHOD ? this.calls.indexOf(symbol.getName()) : -1;
+    }
+
+    /**
+     * @return The number of instructions in the function other than labels
+     */
+    private static int size(IRFunction f) {
+        int size = 0;
+        for (int i = 0; i < f.size(); i++) {
+            size += f.opcode(i) == Opcode.LABEL ? 0 : 1;
+        }
+        return size;
+    }
+
+    /**
+     * @return How many more instructions the copy of the callee has than the call it replaces
+     */
+    private static int growth(IRFunction callee, int arguments, boolean result) {
+        int size = arguments + 1; // the moves of the arguments, and the label after the copy
+        int last = callee.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            if (callee.opcode(i) == Opcode.RETURN) {
+                size += (result ? 1 : 0) + (i < last ? 1 : 0);
+            } else {
+                size++;
+            }
+        }
+        return size - 1;
+    }
+
+    /**
+     * Emits a copy of the callee's code in place of a call to it.
+     */
+    private static void expand(IRFunction f, IRFunction.Code old, int call, IRFunction callee) {
+        // the callee's registers, labels and arrays, renumbered into the caller's
+        int registers = f.getRegisterCount();
+        for (int r = 0; r < callee.getRegisterCount(); r++) {
+            f.newRegister(callee.registerType(r), callee.registerName(r));
+        }
+        int labels = f.getLabelCount();
+        for (int l = 0; l < callee.getLabelCount(); l++) {
+            f.newLabel();
+        }
+        int[] frame = new int[callee.getFrameSize()];
+        for (int a = 0; a < frame.length; a++) {
+            frame[a] = f.declareFrame(callee.getFrameSymbol(Operand.frame(a)));
+        }
+        int after = f.newLabel();
+
+        int result = old.dest(call);
+        int arguments = old.src2(call);
+        for (int k = 0; k < callee.getParameterCount(); k++) {
+            DecafType type = callee.registerType(k);
+            f.emit(Opcode.MOVE, type, registers + k, f.argument(arguments, k), Operand.NONE);
+        }
+        int[] operands = new int[8];
+        int last = callee.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            Opcode opcode = callee.opcode(i);
+            switch (opcode) {
+                case LABEL:
+                case JUMP:
+                    f.emit(opcode, null, Operand.NONE, labels + callee.src1(i), Operand.NONE);
+                    break;
+                case BRANCH:
+                    f.emit(opcode, callee.type(i), labels + callee.dest(i),
+                        operand(f, callee, registers, frame, callee.src1(i)), labels + callee.src2(i));
+                    break;
+                case RETURN:
+                    if (result != Operand.NONE) {
+                        f.emit(Opcode.MOVE, f.registerType(result), result,
+                            operand(f, callee, registers, frame, callee.src1(i)), Operand.NONE);
+                    }
+                    if (i < last) {
+                        f.emit(Opcode.JUMP, null, Operand.NONE, after, Operand.NONE);
+                    }
+                    break;
+                case CALL: {
+                    int count = callee.argumentCount(callee.src2(i));
+                    if (count > operands.length) {
+                        operands = Arrays.copyOf(operands, Math.max(count, operands.length * 2));
+                    }
+                    for (int k = 0; k < count; k++) {
+                        operands[k] = operand(f, callee, registers, frame, callee.argument(callee.src2(i), k));
+                    }
+                    f.emit(opcode, callee.type(i), operand(f, callee, registers, frame, callee.dest(i)),
+                        callee.src1(i), f.arguments(operands, count));
+                    break;
+                }
+                case PHI:
+                    throw new IllegalStateException(callee.getName() + " is in SSA form");
+                default:
+                    f.emit(opcode, callee.type(i), operand(f, callee, registers, frame, callee.dest(i)),
+                        operand(f, callee, registers, frame, callee.src1(i)),
+                        operand(f, callee, registers, frame, callee.src2(i)));
+                    break;
+            }
+        }
+        f.emit(Opcode.LABEL, null, Operand.NONE, after, Operand.NONE);
+    }
+
+    /**
+     * @return The caller's operand for one of the callee's
+     */
+    private static int operand(IRFunction f, IRFunction callee, int registers, int[] frame, int operand) {
+        if (operand == Operand.NONE || Operand.isGlobal(operand)) {
+            return operand;
+        } else if (Operand.isRegister(operand)) {
+            return registers + operand;
+        } else if (Operand.isConstant(operand)) {
+            return f.constant(callee.constantType(operand), callee.constantValue(operand));
+        } else if (Operand.isString(operand)) {
+            return f.string(callee.stringValue(operand));
+        }
+        return frame[Operand.index(operand)];
+    }
+}
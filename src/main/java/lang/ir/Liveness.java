@@ -0,0 +1,134 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * Registers live on entry to and exit from each block of a function: a backward union problem
+ * whose gen sets are the registers a block reads before writing them, and whose kill sets are
+ * the registers it writes.
+ *
+ * Only registers that some block reads before writing them, or that a phi reads, get a bit in
+ * the sets; every other register is written and read within one block and is never live across
+ * a block boundary. The temporaries of the lowering are all of this kind, so the sets of a
+ * large method stay a few words wide.
+ *
+ * Phis are handled the SSA way: a phi's value is live out of the predecessor it comes from, not
+ * into the phi's block, and its result is defined at the top of that block.
+ */
+public class Liveness extends Dataflow {
+    private final int registerCount;
+    private final int[] bitOf;     // bit of each register, or -1 if it is never live across blocks
+    private final int[] registers; // register of each bit
+    private final long[] phiUses;  // what the phis of each block's successors read from it
+    private final long[] scratch;
+
+    public Liveness(IRFunction function, ControlFlowGraph cfg) {
+        this(function, cfg, numberGlobals(function, cfg));
+    }
+
+    private Liveness(IRFunction function, ControlFlowGraph cfg, int[] bitOf) {
+        super(cfg, bitOf[bitOf.length - 1], Direction.BACKWARD, Meet.UNION);
+        this.registerCount = function.getRegisterCount();
+        this.bitOf = bitOf;
+        this.registers = new int[this.bits];
+        for (int r = 0; r < this.registerCount; r++) {
+            if (bitOf[r] >= 0) {
+                this.registers[bitOf[r]] = r;
+            }
+        }
+        this.phiUses = new long[cfg.getBlockCount() * this.words];
+        this.scratch = new long[this.words];
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            int at = b * this.words;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (function.opcode(i) == Opcode.PHI) {
+                    int arguments = function.src2(i);
+                    for (int k = 0; k < function.argumentCount(arguments); k += 2) {
+                        int pred = cfg.blockOf(function.argument(arguments, k));
+                        int value = function.argument(arguments, k + 1);
+                        if (pred >= 0 && Operand.isRegister(value)) {
+                            set(this.phiUses, pred * this.words, bitOf[value]);
+                        }
+                    }
+                } else {
+                    for (int k = 0; k < function.useCount(i); k++) {
+                        int use = function.use(i, k);
+                        if (Operand.isRegister(use) && bitOf[use] >= 0 && !get(this.kill, at, bitOf[use])) {
+                            set(this.gen, at, bitOf[use]);
+                        }
+                    }
+                }
+                int dest = function.dest(i);
+                if (function.opcode(i).definesRegister() && dest != Operand.NONE && bitOf[dest] >= 0) {
+                    set(this.kill, at, bitOf[dest]);
+                }
+            }
+        }
+        solve();
+    }
+
+    /**
+     * Adds what the phis of the block's successors read from it to its live-out set.
+     */
+    @Override
+    protected void join(int block, long[] value, int at) {
+        int from = block * this.words;
+        for (int w = 0; w < this.words; w++) {
+            value[at + w] |= this.phiUses[from + w];
+        }
+    }
+
+    /**
+     * @return The bit of each register, -1 for those never live across a block boundary, with
+     *         the number of bits appended
+     */
+    private static int[] numberGlobals(IRFunction function, ControlFlowGraph cfg) {
+        boolean[] globals = globals(function, cfg);
+        int[] bitOf = new int[globals.length + 1];
+        int count = 0;
+        for (int r = 0; r < globals.length; r++) {
+            bitOf[r] = globals[r] ? count++ : -1;
+        }
+        bitOf[globals.length] = count;
+        return bitOf;
+    }
+
+    public boolean isLiveIn(int block, int register) {
+        return this.bitOf[register] >= 0 && entry(block, this.bitOf[register]);
+    }
+
+    public boolean isLiveOut(int block, int register) {
+        return this.bitOf[register] >= 0 && exit(block, this.bitOf[register]);
+    }
+
+    /**
+     * Copies the block's live-out set into a bit vector indexed by register, of at least
+     * {@link #registerWords()} words.
+     */
+    public void copyLiveOut(int block, long[] into) {
+        copyExit(block, this.scratch);
+        expand(into);
+    }
+
+    public void copyLiveIn(int block, long[] into) {
+        copyEntry(block, this.scratch);
+        expand(into);
+    }
+
+    /**
+     * @return The number of words in a bit vector indexed by register
+     */
+    public int registerWords() {
+        return (this.registerCount + 63) >>> 6;
+    }
+
+    private void expand(long[] into) {
+        Arrays.fill(into, 0, registerWords(), 0L);
+        for (int w = 0; w < this.words; w++) {
+            for (long bits = this.scratch[w]; bits != 0; bits &= bits - 1) {
+                int r = this.registers[w << 6 | Long.numberOfTrailingZeros(bits)];
+                into[r >>> 6] |= 1L << r;
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * Loop-invariant code motion over a function in SSA form, selected with {@code -O licm}.
+ *
+ * An instruction is invariant in a loop if every register it reads is written outside the
+ * loop, or by an instruction that is itself invariant in it. Pure operations qualify, including
+ * a division or remainder by a constant other than 0 and -1, but not one that could trap on a
+ * path that never ran it; so do loads of scalar globals the loop neither stores nor can change
+ * by a call. Bounds checks, array loads and everything with an effect stay where they are.
+ *
+ * Blocks are visited in reverse postorder, so that the registers an instruction reads have been
+ * placed before it is: each is placed in the preheader of the outermost {@link Loops loop} it
+ * is invariant in, and everything it feeds can then leave at most as far. A hoisted instruction
+ * may have been conditional inside the loop; since it cannot trap, running it anyway only costs
+ * the time it takes once.
+ *
+ * Preheaders are added only to loops that receive code. Each is a new block laid out just
+ * before the header, taking over every edge into the header from outside the loop; the header's
+ * phis take that block's label in place of theirs, and where several edges came in from outside
+ * a phi in the preheader merges their values first.
+ */
+public class LoopInvariantCodeMotion implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "licm";
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        Loops loops = new Loops(new Dominators(cfg));
+        if (loops.getLoopCount() == 0) {
+            return 0;
+        }
+        return new Motion(program, function, cfg, loops).run();
+    }
+
+    private static final class Motion {
+        private final IRFunction function;
+        private final ControlFlowGraph cfg;
+        private final Loops loops;
+        private final int[] targets;     // loop whose preheader each instruction moves to, or -1
+        private final int[] placements;  // innermost loop each register is computed in, or -1
+        private final int globalWords;
+        private final long[] stores;     // globals stored in each loop, globalWords per loop
+        private final boolean[] calls;   // whether each loop makes a call
+
+        Motion(IRProgram program, IRFunction function, ControlFlowGraph cfg, Loops loops) {
+            this.function = function;
+            this.cfg = cfg;
+            this.loops = loops;
+            this.targets = new int[function.size()];
+            Arrays.fill(this.targets, -1);
+            this.placements = new int[function.getRegisterCount()];
+            Arrays.fill(this.placements, -1);
+            this.globalWords = (program.getSymbols().size() + 63) >>> 6;
+            this.stores = new long[loops.getLoopCount() * this.globalWords];
+            this.calls = new boolean[loops.getLoopCount()];
+            for (int b = 0; b < cfg.getBlockCount(); b++) {
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    Opcode opcode = function.opcode(i);
+                    boolean global = opcode == Opcode.STORE && Operand.isGlobal(function.dest(i));
+                    for (int l = loops.innermost(b); l >= 0 && (global || opcode == Opcode.CALL); l = loops.parent(l)) {
+                        if (global) {
+                            int g = Operand.index(function.dest(i));
+                            this.stores[l * this.globalWords + (g >>> 6)] |= 1L << g;
+                        } else {
+                            this.calls[l] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        int run() {
+            IRFunction f = this.function;
+            int hoisted = 0;
+            for (int n = 0; n < this.cfg.getReachableCount(); n++) {
+                int b = this.cfg.reversePostorder(n);
+                int loop = this.loops.innermost(b);
+                for (int i = this.cfg.start(b); i < this.cfg.end(b); i++) {
+                    if (!f.opcode(i).definesRegister() || f.dest(i) == Operand.NONE) {
+                        continue;
+                    }
+                    int target = loop >= 0 && isMovable(i) ? target(i, loop) : -1;
+                    if (target >= 0) {
+                        this.targets[i] = target;
+                        this.placements[f.dest(i)] = this.loops.parent(target);
+                        hoisted++;
+                    } else {
+                        this.placements[f.dest(i)] = loop;
+                    }
+                }
+            }
+            if (hoisted > 0) {
+                rewrite();
+            }
+            return hoisted;
+        }
+
+        private boolean isMovable(int i) {
+            IRFunction f = this.function;
+            Opcode opcode = f.opcode(i);
+            if (opcode == Opcode.LOAD) {
+                return Operand.isGlobal(f.src1(i)) && f.src2(i) == Operand.NONE;
+            }
+            return f.isPure(i);
+        }
+
+        /**
+         * @return The outermost loop the instruction, in the given innermost loop, can leave,
+         *         or -1 if it must stay
+         */
+        private int target(int i, int loop) {
+            IRFunction f = this.function;
+            // the innermost loop enclosing the instruction that it must stay in
+            int limit = -1;
+            for (int k = 0; k < f.useCount(i); k++) {
+                int use = f.use(i, k);
+                if (Operand.isRegister(use)) {
+                    limit = Math.max(limit, enclosing(loop, this.placements[use]));
+                }
+            }
+            if (f.opcode(i) == Opcode.LOAD) {
+                int g = Operand.index(f.src1(i));
+                for (int l = loop; l > limit; l = this.loops.parent(l)) {
+                    if (this.calls[l] || (this.stores[l * this.globalWords + (g >>> 6)] & 1L << g) != 0) {
+                        limit = l;
+                    }
+                }
+            }
+            int target = -1;
+            for (int l = loop; l != limit; l = this.loops.parent(l)) {
+                if (this.cfg.label(this.loops.header(l)) >= 0) {
+                    target = l;
+                }
+            }
+            return target;
+        }
+
+        /**
+         * @return The innermost loop enclosing both the given loop and a value computed in the
+         *         other, or -1
+         */
+        private int enclosing(int loop, int other) {
+            for (int l = loop; l >= 0; l = this.loops.parent(l)) {
+                int o = other;
+                while (o > l) {
+                    o = this.loops.parent(o);
+                }
+                if (o == l) {
+                    return l;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isInside(int loop, int label) {
+            int b = this.cfg.blockOf(label);
+            return b >= 0 && this.loops.contains(loop, b);
+        }
+
+        private void rewrite() {
+            IRFunction f = this.function;
+            ControlFlowGraph cfg = this.cfg;
+            int loopCount = this.loops.getLoopCount();
+
+            // what goes to each preheader, in order
+            int[] starts = new int[loopCount + 1];
+            for (int target : this.targets) {
+                if (target >= 0) {
+                    starts[target + 1]++;
+                }
+            }
+            for (int l = 0; l < loopCount; l++) {
+                starts[l + 1] += starts[l];
+            }
+            int[] moved = new int[starts[loopCount]];
+            int[] fill = Arrays.copyOf(starts, loopCount);
+            for (int n = 0; n < cfg.getReachableCount(); n++) {
+                int b = cfg.reversePostorder(n);
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    if (this.targets[i] >= 0) {
+                        moved[fill[this.targets[i]]++] = i;
+                    }
+                }
+            }
+
+            // send the edges entering from outside to the preheaders
+            int[] preheaders = new int[cfg.getBlockCount()]; // label of each header's preheader
+            Arrays.fill(preheaders, -1);
+            for (int l = 0; l < loopCount; l++) {
+                if (starts[l + 1] == starts[l]) {
+                    continue;
+                }
+                int h = this.loops.header(l);
+                int label = cfg.label(h);
+                preheaders[h] = f.newLabel();
+                for (int k = 0; k < cfg.predecessorCount(h); k++) {
+                    int p = cfg.predecessor(h, k);
+                    int last = cfg.end(p) - 1;
+                    if (this.loops.contains(l, p) || last < cfg.start(p)) {
+                        continue;
+                    }
+                    if (f.opcode(last) == Opcode.JUMP && f.src1(last) == label) {
+                        f.setSrc1(last, preheaders[h]);
+                    } else if (f.opcode(last) == Opcode.BRANCH) {
+                        if (f.src2(last) == label) {
+                            f.setSrc2(last, preheaders[h]);
+                        }
+                        if (f.dest(last) == label) {
+                            f.setDest(last, preheaders[h]);
+                        }
+                    }
+                }
+            }
+
+            IRFunction.Code old = f.detachCode();
+            int[] operands = new int[8];
+            for (int b = 0; b < cfg.getBlockCount(); b++) {
+                int[] phis = null; // the header's phi argument lists, as changed
+                if (preheaders[b] >= 0) {
+                    int l = this.loops.innermost(b);
+                    int last = cfg.end(b - 1) - 1;
+                    if (cfg.isReachable(b - 1) && last >= cfg.start(b - 1) && !old.opcode(last).isTerminator()
+                            && this.loops.contains(l, b - 1)) {
+                        f.emit(Opcode.JUMP, null, Operand.NONE, cfg.label(b), Operand.NONE);
+                    }
+                    f.emit(Opcode.LABEL, null, Operand.NONE, preheaders[b], Operand.NONE);
+                    phis = new int[cfg.end(b) - cfg.start(b)];
+                    for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                        if (old.opcode(i) != Opcode.PHI) {
+                            continue;
+                        }
+                        // the values from outside, merged in the preheader if there are several
+                        int arguments = old.src2(i);
+                        int outside = 0;
+                        int inside = 0;
+                        for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+                            if (!isInside(l, f.argument(arguments, k))) {
+                                if (outside + 2 > operands.length) {
+                                    operands = Arrays.copyOf(operands, operands.length * 2);
+                                }
+                                operands[outside++] = f.argument(arguments, k);
+                                operands[outside++] = f.argument(arguments, k + 1);
+                            }
+                        }
+                        int value = operands[1];
+                        if (outside > 2) {
+                            value = f.newRegister(f.registerType(old.dest(i)), f.registerName(old.dest(i)));
+                            f.emit(Opcode.PHI, old.type(i), value, Operand.NONE, f.arguments(operands, outside));
+                        }
+                        operands[0] = preheaders[b];
+                        operands[1] = value;
+                        inside = 2;
+                        for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+                            if (isInside(l, f.argument(arguments, k))) {
+                                if (inside + 2 > operands.length) {
+                                    operands = Arrays.copyOf(operands, operands.length * 2);
+                                }
+                                operands[inside++] = f.argument(arguments, k);
+                                operands[inside++] = f.argument(arguments, k + 1);
+                            }
+                        }
+                        phis[i - cfg.start(b)] = f.arguments(operands, inside);
+                    }
+                    for (int k = starts[l]; k < starts[l + 1]; k++) {
+                        f.emit(old, moved[k]);
+                    }
+                }
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    if (this.targets[i] >= 0) {
+                        continue;
+                    }
+                    int at = f.emit(old, i);
+                    if (phis != null && old.opcode(i) == Opcode.PHI) {
+                        f.setSrc2(at, phis[i - cfg.start(b)]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Unrolling of counted loops, selected with {@code -O unroll}.
+ *
+ * Like the {@link Inliner} this pass runs before its function is put into SSA form: copies of
+ * a loop body can then write the same registers as the original, and only their labels need
+ * renaming. The passes in SSA form clean up after it, folding the copies' constants and
+ * merging what they compute alike.
+ *
+ * A counted loop is an innermost {@link Loops loop} shaped as the lowering shapes a {@code for}
+ * loop: its blocks are laid out back to back, with at most blocks only it reaches between, the
+ * header holds nothing but a comparison of an induction variable with a bound and a branch into
+ * the body or out of the loop, and the one latch, last, ends with a jump to the header. The
+ * induction variable is written once in the loop, by adding or subtracting a constant in the
+ * latch, and steps towards the bound, which is a constant or a register the loop does not
+ * write.
+ *
+ * Such a loop is unrolled by 8 if its body is at most {@link #SMALL_BODY} instructions, or by 4
+ * if it is at most {@link #LARGE_BODY}. The unrolled loop runs while all of the next trips
+ * would: for {@code i < n} stepping by {@code s} and unrolled by {@code k}, while
+ * {@code i < n - (k - 1) * s}, that limit being found before the loop and the unrolled loop
+ * skipped where finding it overflows. Its body is the copies back to back, with no tests
+ * between them. The original loop follows as the remainder loop, for the trips that are left,
+ * so the body runs exactly as often as before whatever the bound.
+ *
+ * Where the induction variable is set to a constant just before the loop and the bound is a
+ * constant, the trip count is known. If it is at most {@link #FULL_TRIPS} and the copies come to
+ * at most {@link #FULL_SIZE} instructions, the loop is replaced by that many copies of its body
+ * and no tests at all.
+ */
+public class LoopUnrolling implements Optimizer.Pass {
+    // Largest body unrolled by 8
+    private static final int SMALL_BODY = 8;
+    // Largest body unrolled by 4
+    private static final int LARGE_BODY = 32;
+    // Most trips of a loop unrolled fully
+    private static final int FULL_TRIPS = 16;
+    // Most instructions a full unrolling may produce
+    private static final int FULL_SIZE = 64;
+
+    @Override
+    public String getName() {
+        return "unroll";
+    }
+
+    @Override
+    public boolean usesSSA() {
+        return false;
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        if (cfg.predecessorCount(0) > 0) {
+            return 0; // a loop through the entry, which the dominators cannot handle
+        }
+        Loops loops = new Loops(new Dominators(cfg));
+        if (loops.getLoopCount() == 0) {
+            return 0;
+        }
+        return new Unrolling(function, cfg, loops).run();
+    }
+
+    private static final class Unrolling {
+        private final IRFunction function;
+        private final ControlFlowGraph cfg;
+        private final Loops loops;
+
+        // the counted loops found, by loop
+        private final int[] factors;    // copies in the unrolled loop, or 0 if not unrolled
+        private final int[] trips;      // trips of a loop unrolled fully, or -1
+        private final int[] variables;  // induction variable
+        private final int[] bounds;
+        private final Opcode[] tests;   // the comparison, with the variable on the left
+        private final long[] steps;     // as added, negated for a subtraction
+
+        private final int[] unrolled;   // loop each header starts, or -1
+        private final int[] renamed;    // copy of each label in the body being copied, or -1
+
+        Unrolling(IRFunction function, ControlFlowGraph cfg, Loops loops) {
+            this.function = function;
+            this.cfg = cfg;
+            this.loops = loops;
+            int count = loops.getLoopCount();
+            this.factors = new int[count];
+            this.trips = new int[count];
+            Arrays.fill(this.trips, -1);
+            this.variables = new int[count];
+            this.bounds = new int[count];
+            this.tests = new Opcode[count];
+            this.steps = new long[count];
+            this.unrolled = new int[cfg.getBlockCount()];
+            Arrays.fill(this.unrolled, -1);
+            this.renamed = new int[function.getLabelCount()];
+            Arrays.fill(this.renamed, -1);
+        }
+
+        int run() {
+            int count = 0;
+            for (int l = 0; l < this.loops.getLoopCount(); l++) {
+                if (isCounted(l)) {
+                    plan(l);
+                }
+                if (this.factors[l] > 0 || this.trips[l] >= 0) {
+                    this.unrolled[this.loops.header(l)] = l;
+                    count++;
+                }
+            }
+            if (count > 0) {
+                rewrite();
+            }
+            return count;
+        }
+
+        /**
+         * Finds whether the loop is a counted loop, and if so its variable, bound, test and step.
+         */
+        private boolean isCounted(int loop) {
+            IRFunction f = this.function;
+            ControlFlowGraph cfg = this.cfg;
+            if (this.loops.latchCount(loop) != 1) {
+                return false;
+            }
+            int h = this.loops.header(loop);
+            int e = this.loops.latch(loop, 0);
+            if (e <= h) {
+                return false;
+            }
+            // the blocks between that are not in the loop, such as a break's, are copied along
+            // with it, so they must be reached from it alone
+            int inside = 0;
+            for (int b = h; b <= e; b++) {
+                if (this.loops.innermost(b) == loop) {
+                    inside++;
+                    continue;
+                }
+                if (this.loops.innermost(b) != this.loops.parent(loop)) {
+                    return false;
+                }
+                for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                    int p = cfg.predecessor(b, k);
+                    if (p < h || p > e) {
+                        return false;
+                    }
+                }
+            }
+            if (inside != this.loops.blockCount(loop)) {
+                return false; // not laid out back to back, or not innermost
+            }
+
+            // the header: label, comparison, branch into the next block or out of the loop
+            int start = cfg.start(h);
+            if (cfg.end(h) - start != 3 || !f.opcode(start + 1).isComparison() || f.opcode(start + 2) != Opcode.BRANCH) {
+                return false;
+            }
+            int test = start + 1;
+            int branch = start + 2;
+            int exit = cfg.blockOf(f.dest(branch));
+            if (f.src1(branch) != f.dest(test) || f.src2(branch) != cfg.label(h + 1) || exit >= h && exit <= e) {
+                return false;
+            }
+            int last = cfg.end(e) - 1;
+            if (last < cfg.start(e) || f.opcode(last) != Opcode.JUMP || f.src1(last) != cfg.label(h)) {
+                return false;
+            }
+
+            // the variable is the operand written once in the loop, by a step in the latch
+            for (int side = 0; side < 2; side++) {
+                int variable = side == 0 ? f.src1(test) : f.src2(test);
+                int bound = side == 0 ? f.src2(test) : f.src1(test);
+                if (!Operand.isRegister(variable) || variable == bound) {
+                    continue;
+                }
+                int step = -1;
+                boolean written = false;
+                for (int i = cfg.start(h); i < cfg.end(e); i++) {
+                    if (f.opcode(i).definesRegister() && f.dest(i) == bound) {
+                        written = true;
+                    } else if (f.opcode(i).definesRegister() && f.dest(i) == variable) {
+                        written |= step >= 0;
+                        step = i;
+                    }
+                }
+                if (written || step < cfg.start(e)) {
+                    continue;
+                }
+                Opcode opcode = f.opcode(step);
+                boolean added = opcode == Opcode.ADD && f.src1(step) == variable && Operand.isConstant(f.src2(step));
+                boolean subtracted = opcode == Opcode.SUB && f.src1(step) == variable && Operand.isConstant(f.src2(step));
+                if (!added && !subtracted) {
+                    continue;
+                }
+                long by = f.constantValue(f.src2(step));
+                long delta = added ? by : -by;
+                Opcode towards = side == 0 ? f.opcode(test) : f.opcode(test).mirrored();
+                boolean up = towards == Opcode.LT || towards == Opcode.LE;
+                boolean down = towards == Opcode.GT || towards == Opcode.GE;
+                if (up && delta > 0 || down && delta < 0) {
+                    this.variables[loop] = variable;
+                    this.bounds[loop] = bound;
+                    this.tests[loop] = towards;
+                    this.steps[loop] = delta;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Chooses a full unrolling or a factor for the counted loop, if either is worth it.
+         */
+        private void plan(int loop) {
+            IRFunction f = this.function;
+            int h = this.loops.header(loop);
+            int e = this.loops.latch(loop, 0);
+            int size = 0;
+            for (int i = this.cfg.start(h + 1); i < this.cfg.end(e); i++) {
+                size += f.opcode(i) == Opcode.LABEL ? 0 : 1;
+            }
+            int variable = this.variables[loop];
+            int bound = this.bounds[loop];
+            DecafType type = f.registerType(variable);
+            long step = this.steps[loop];
+
+            int trips = -1;
+            int start = Operand.isConstant(bound) ? entry(loop) : Operand.NONE;
+            if (start != Operand.NONE) {
+                // count the trips as the loop would run them, wrapping and all
+                long value = f.constantValue(start);
+                long limit = f.constantValue(bound);
+                trips = 0;
+                while (trips <= FULL_TRIPS && passes(this.tests[loop], value, limit)) {
+                    value = wrap(type, value + step);
+                    trips++;
+                }
+                if (trips <= FULL_TRIPS && (long) trips * size <= FULL_SIZE) {
+                    this.trips[loop] = trips;
+                    return;
+                }
+            }
+
+            int factor = size <= SMALL_BODY ? 8 : size <= LARGE_BODY ? 4 : 0;
+            if (factor == 0 || trips >= 0 && trips < factor) {
+                return;
+            }
+            long reach = (factor - 1) * step;
+            if (Math.multiplyHigh(factor - 1, step) != reach >> 63 || wrap(type, reach) != reach) {
+                return;
+            }
+            if (Operand.isConstant(bound)) {
+                long value = f.constantValue(bound);
+                long limit = value - reach;
+                if (((value ^ reach) & (value ^ limit)) < 0 || wrap(type, limit) != limit) {
+                    return; // the unrolled loop would never run
+                }
+            }
+            this.factors[loop] = factor;
+        }
+
+        /**
+         * @return The constant the loop's variable is set to just before the loop, or NONE
+         */
+        private int entry(int loop) {
+            int h = this.loops.header(loop);
+            int outside = -1;
+            for (int k = 0; k < this.cfg.predecessorCount(h); k++) {
+                int p = this.cfg.predecessor(h, k);
+                if (!this.loops.contains(loop, p)) {
+                    if (outside >= 0) {
+                        return Operand.NONE;
+                    }
+                    outside = p;
+                }
+            }
+            for (int i = this.cfg.end(outside) - 1; i >= this.cfg.start(outside); i--) {
+                IRFunction f = this.function;
+                if (f.opcode(i).definesRegister() && f.dest(i) == this.variables[loop]) {
+                    return f.opcode(i) == Opcode.MOVE && Operand.isConstant(f.src1(i)) ? f.src1(i) : Operand.NONE;
+                }
+            }
+            return Operand.NONE;
+        }
+
+        private static boolean passes(Opcode test, long value, long bound) {
+            switch (test) {
+                case LT: return value < bound;
+                case LE: return value <= bound;
+                case GT: return value > bound;
+                default: return value >= bound;
+            }
+        }
+
+        private static long wrap(DecafType type, long value) {
+            return type == DecafType.INT ? (int) value : value;
+        }
+
+        private void rewrite() {
+            IRFunction f = this.function;
+            ControlFlowGraph cfg = this.cfg;
+
+            // edges into unrolled loops from outside go to the test before the unrolled copies
+            int[] entries = new int[cfg.getBlockCount()];
+            Arrays.fill(entries, -1);
+            for (int h = 0; h < cfg.getBlockCount(); h++) {
+                int loop = this.unrolled[h];
+                if (loop < 0 || this.factors[loop] == 0) {
+                    continue;
+                }
+                int label = cfg.label(h);
+                entries[h] = f.newLabel();
+                for (int k = 0; k < cfg.predecessorCount(h); k++) {
+                    int p = cfg.predecessor(h, k);
+                    int last = cfg.end(p) - 1;
+                    if (this.loops.contains(loop, p) || last < cfg.start(p)) {
+                        continue;
+                    }
+                    if (f.opcode(last) == Opcode.JUMP && f.src1(last) == label) {
+                        f.setSrc1(last, entries[h]);
+                    } else if (f.opcode(last) == Opcode.BRANCH) {
+                        if (f.src2(last) == label) {
+                            f.setSrc2(last, entries[h]);
+                        }
+                        if (f.dest(last) == label) {
+                            f.setDest(last, entries[h]);
+                        }
+                    }
+                }
+            }
+
+            IRFunction.Code old = f.detachCode();
+            for (int b = 0; b < cfg.getBlockCount(); b++) {
+                int loop = this.unrolled[b];
+                if (loop >= 0 && this.trips[loop] >= 0) {
+                    int e = this.loops.latch(loop, 0);
+                    f.emit(old, cfg.start(b));
+                    for (int n = 0; n < this.trips[loop]; n++) {
+                        copy(old, b + 1, e, -1);
+                    }
+                    int exit = old.dest(cfg.start(b) + 2);
+                    f.emit(Opcode.JUMP, null, Operand.NONE, exit, Operand.NONE);
+                    b = e;
+                    continue;
+                }
+                if (loop >= 0) {
+                    unroll(old, loop, entries[b]);
+                }
+                for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                    f.emit(old, i);
+                }
+            }
+        }
+
+        /**
+         * Emits the test for the unrolled loop and its copies of the body, before the original
+         * loop, which is left as the remainder loop.
+         */
+        private void unroll(IRFunction.Code old, int loop, int entry) {
+            IRFunction f = this.function;
+            int h = this.loops.header(loop);
+            int e = this.loops.latch(loop, 0);
+            int header = this.cfg.label(h);
+            int test = this.cfg.start(h) + 1;
+            DecafType type = old.type(test);
+            int variable = this.variables[loop];
+            int bound = this.bounds[loop];
+            long reach = (this.factors[loop] - 1) * this.steps[loop];
+
+            f.emit(Opcode.LABEL, null, Operand.NONE, entry, Operand.NONE);
+            int limit;
+            if (Operand.isConstant(bound)) {
+                limit = f.constant(type, f.constantValue(bound) - reach);
+            } else {
+                // bound - reach, unless that overflows, in which case only the remainder runs
+                limit = f.newRegister(type, null);
+                int safe = f.newRegister(DecafType.BOOL, null);
+                f.emit(Opcode.SUB, type, limit, bound, f.constant(type, reach));
+                f.emit(reach > 0 ? Opcode.LT : Opcode.GT, type, safe, limit, bound);
+                int guarded = f.newLabel();
+                f.emit(Opcode.BRANCH, null, header, safe, guarded);
+                f.emit(Opcode.LABEL, null, Operand.NONE, guarded, Operand.NONE);
+            }
+            int top = f.newLabel();
+            int all = f.newRegister(DecafType.BOOL, null);
+            f.emit(Opcode.LABEL, null, Operand.NONE, top, Operand.NONE);
+            f.emit(this.tests[loop], type, all, variable, limit);
+            int first = f.newLabel();
+            f.emit(Opcode.BRANCH, null, header, all, first);
+            f.emit(Opcode.LABEL, null, Operand.NONE, first, Operand.NONE);
+            for (int n = 0; n < this.factors[loop]; n++) {
+                copy(old, h + 1, e, n == this.factors[loop] - 1 ? top : -1);
+            }
+        }
+
+        /**
+         * Emits a copy of the loop body from block first to the latch, with fresh labels.
+         * @param back Where the latch's jump back goes, or -1 to fall through to what follows
+         */
+        private void copy(IRFunction.Code old, int first, int latch, int back) {
+            IRFunction f = this.function;
+            ControlFlowGraph cfg = this.cfg;
+            for (int b = first; b <= latch; b++) {
+                if (cfg.label(b) >= 0) {
+                    this.renamed[cfg.label(b)] = f.newLabel();
+                }
+            }
+            int last = cfg.end(latch) - 1;
+            int[] operands = new int[8];
+            for (int i = cfg.start(first); i < last; i++) {
+                Opcode opcode = old.opcode(i);
+                switch (opcode) {
+                    case LABEL:
+                    case JUMP:
+                        f.emit(opcode, null, Operand.NONE, rename(old.src1(i)), Operand.NONE);
+                        break;
+                    case BRANCH:
+                        f.emit(opcode, old.type(i), rename(old.dest(i)), old.src1(i), rename(old.src2(i)));
+                        break;
+                    case CALL: {
+                        // the copies need argument lists of their own, to be rewritten apart
+                        int count = f.argumentCount(old.src2(i));
+                        if (count > operands.length) {
+                            operands = Arrays.copyOf(operands, Math.max(count, operands.length * 2));
+                        }
+                        for (int k = 0; k < count; k++) {
+                            operands[k] = f.argument(old.src2(i), k);
+                        }
+                        f.emit(opcode, old.type(i), old.dest(i), old.src1(i), f.arguments(operands, count));
+                        break;
+                    }
+                    default:
+                        f.emit(old, i);
+                        break;
+                }
+            }
+            if (back >= 0) {
+                f.emit(Opcode.JUMP, null, Operand.NONE, back, Operand.NONE);
+            }
+        }
+
+        private int rename(int label) {
+            return label < this.renamed.length && this.renamed[label] >= 0 ? this.renamed[label] : label;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * The natural loops of a {@link ControlFlowGraph} and how they nest.
+ *
+ * An edge is a back edge if its target dominates its source; the target is then a loop header,
+ * and the loop is the header with every block that reaches a source of one of its back edges
+ * without passing through the header. Loops with the same header are one loop. In a reducible
+ * graph, which is all Decaf produces, two loops are either disjoint or one lies inside the
+ * other, so they form a forest.
+ *
+ * Loops are numbered in the preorder of their headers in the dominator tree, so that a loop
+ * comes after every loop enclosing it. The blocks of each loop are stored back to back in one
+ * array, header first, and every block knows the innermost loop it is in.
+ */
+public class Loops {
+    private final int[] headers;
+    private final int[] parents;     // enclosing loop, or -1
+    private final int[] depths;      // 1 for an outermost loop
+    private final int[] innermost;   // innermost loop of each block, or -1
+    private final int[] bodyStarts;  // blocks of each loop, back to back
+    private final int[] bodies;
+    private final int[] latchStarts; // sources of each loop's back edges, back to back
+    private final int[] latches;
+
+    public Loops(Dominators dominators) {
+        ControlFlowGraph cfg = dominators.getGraph();
+        int blocks = cfg.getBlockCount();
+
+        // headers, in dominator tree preorder
+        int[] byPreorder = new int[blocks];
+        Arrays.fill(byPreorder, -1);
+        int latchCount = 0;
+        for (int b = 0; b < blocks; b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            for (int k = 0; k < cfg.successorCount(b); k++) {
+                int s = cfg.successor(b, k);
+                if (dominators.dominates(s, b)) {
+                    byPreorder[dominators.preorderIndex(s)] = s;
+                    latchCount++;
+                }
+            }
+        }
+        int count = 0;
+        for (int h : byPreorder) {
+            if (h >= 0) {
+                byPreorder[count++] = h;
+            }
+        }
+        this.headers = Arrays.copyOf(byPreorder, count);
+        int[] loopOf = new int[blocks];
+        Arrays.fill(loopOf, -1);
+        for (int l = 0; l < count; l++) {
+            loopOf[this.headers[l]] = l;
+        }
+
+        this.latchStarts = new int[count + 1];
+        this.latches = new int[latchCount];
+        for (int b = 0; b < blocks; b++) {
+            for (int k = 0; cfg.isReachable(b) && k < cfg.successorCount(b); k++) {
+                int s = cfg.successor(b, k);
+                if (dominators.dominates(s, b)) {
+                    this.latchStarts[loopOf[s] + 1]++;
+                }
+            }
+        }
+        for (int l = 0; l < count; l++) {
+            this.latchStarts[l + 1] += this.latchStarts[l];
+        }
+        int[] fill = Arrays.copyOf(this.latchStarts, count);
+        for (int b = 0; b < blocks; b++) {
+            for (int k = 0; cfg.isReachable(b) && k < cfg.successorCount(b); k++) {
+                int s = cfg.successor(b, k);
+                if (dominators.dominates(s, b)) {
+                    this.latches[fill[loopOf[s]]++] = b;
+                }
+            }
+        }
+
+        // bodies, outermost first, so that the innermost loop of a block is the last to claim it
+        // and the loop already claiming a header encloses it
+        this.parents = new int[count];
+        this.depths = new int[count];
+        this.innermost = new int[blocks];
+        Arrays.fill(this.innermost, -1);
+        this.bodyStarts = new int[count + 1];
+        int[] bodies = new int[Math.max(count, 16)];
+        int size = 0;
+        int[] stamps = new int[blocks];
+        Arrays.fill(stamps, -1);
+        int[] stack = new int[blocks];
+        for (int l = 0; l < count; l++) {
+            int h = this.headers[l];
+            this.parents[l] = this.innermost[h];
+            this.depths[l] = this.parents[l] < 0 ? 1 : this.depths[this.parents[l]] + 1;
+            this.bodyStarts[l] = size;
+            int top = 0;
+            stamps[h] = l;
+            for (int k = this.latchStarts[l]; k < this.latchStarts[l + 1]; k++) {
+                if (stamps[this.latches[k]] != l) {
+                    stamps[this.latches[k]] = l;
+                    stack[top++] = this.latches[k];
+                }
+            }
+            if (size + 1 > bodies.length) {
+                bodies = Arrays.copyOf(bodies, bodies.length * 2);
+            }
+            bodies[size++] = h;
+            while (top > 0) {
+                int b = stack[--top];
+                if (size + 1 > bodies.length) {
+                    bodies = Arrays.copyOf(bodies, bodies.length * 2);
+                }
+                bodies[size++] = b;
+                for (int k = 0; k < cfg.predecessorCount(b); k++) {
+                    int p = cfg.predecessor(b, k);
+                    if (stamps[p] != l) {
+                        stamps[p] = l;
+                        stack[top++] = p;
+                    }
+                }
+            }
+            for (int k = this.bodyStarts[l]; k < size; k++) {
+                this.innermost[bodies[k]] = l;
+            }
+        }
+        this.bodyStarts[count] = size;
+        this.bodies = Arrays.copyOf(bodies, size);
+    }
+
+    public int getLoopCount() {
+        return this.headers.length;
+    }
+
+    public int header(int loop) {
+        return this.headers[loop];
+    }
+
+    /**
+     * @return The loop immediately enclosing the loop, or -1 if it is outermost
+     */
+    public int parent(int loop) {
+        return this.parents[loop];
+    }
+
+    /**
+     * @return How many loops enclose the loop, itself included
+     */
+    public int depth(int loop) {
+        return this.depths[loop];
+    }
+
+    /**
+     * @return The innermost loop the block is in, or -1 if it is in none
+     */
+    public int innermost(int block) {
+        return this.innermost[block];
+    }
+
+    /**
+     * @return Whether the block is in the loop or in a loop nested inside it
+     */
+    public boolean contains(int loop, int block) {
+        int l = this.innermost[block];
+        while (l > loop) {
+            l = this.parents[l];
+        }
+        return l == loop;
+    }
+
+    public int blockCount(int loop) {
+        return this.bodyStarts[loop + 1] - this.bodyStarts[loop];
+    }
+
+    /**
+     * @return The index-th block of the loop; the 0th is the header
+     */
+    public int block(int loop, int index) {
+        return this.bodies[this.bodyStarts[loop] + index];
+    }
+
+    public int latchCount(int loop) {
+        return this.latchStarts[loop + 1] - this.latchStarts[loop];
+    }
+
+    /**
+     * @return The index-th block with a back edge to the loop's header
+     */
+    public int latch(int loop, int index) {
+        return this.latches[this.latchStarts[loop] + index];
+    }
+}
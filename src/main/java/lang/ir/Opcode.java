@@ -0,0 +1,112 @@
+package lang.ir;
+
+/**
+ * Operations of the three-address IR. Each instruction has a destination and two sources; the
+ * comment on each opcode gives what those three slots hold, in the order dest, src1, src2, with
+ * "-" for a slot that is unused and holds {@link Operand#NONE}.
+ */
+public enum Opcode {
+    // -, label, -: marks the position of a label
+    LABEL,
+
+    // dest, value, -: dest = value
+    MOVE,
+    NEG,
+    NOT,
+    EXTEND,   // int to long
+    TRUNCATE, // long to int
+
+    // dest, left, right: dest = left op right; comparisons are typed by their operands
+    ADD,
+    SUB,
+    MUL,
+    DIV,
+    MOD,
+    EQ,
+    NE,
+    LT,
+    LE,
+    GT,
+    GE,
+
+    // dest, variable, index: dest = variable[index], or the scalar global itself if index is NONE
+    LOAD,
+    // dest, -, arguments: in SSA form, dest = the value paired with the label of the block
+    // control came from; the arguments alternate predecessor labels and values
+    PHI,
+    // variable, index, value: variable[index] = value, or the scalar global if index is NONE
+    STORE,
+    // -, index, length: traps unless 0 <= index < length
+    CHECK,
+    // dest, callee, arguments: dest = callee(arguments...); dest is NONE if the result is unused
+    CALL,
+
+    // -, label, -
+    JUMP,
+    // false label, condition, true label
+    BRANCH,
+    // -, value, -: value is NONE in a void method
+    RETURN,
+    // -, status, -: ends the program with the given exit status
+    TRAP;
+
+    private static final Opcode[] VALUES = values();
+
+    public static Opcode of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * @return Whether the dest slot, unless NONE, is a register written by the instruction
+     */
+    public boolean definesRegister() {
+        return this.compareTo(MOVE) >= 0 && this.compareTo(PHI) <= 0 || this == CALL;
+    }
+
+    public boolean isUnary() {
+        return this.compareTo(NEG) >= 0 && this.compareTo(TRUNCATE) <= 0;
+    }
+
+    /**
+     * @return Whether the instruction's result depends on its operands alone and it has no other
+     *         effect, so that it can be reused, moved or removed freely. DIV and MOD do not
+     *         count, as they trap when dividing by zero or the least value of their type by -1;
+     *         see {@link IRFunction#isPure(int)} for those that cannot.
+     */
+    public boolean isPure() {
+        return isUnary() || isBinary() && this != DIV && this != MOD;
+    }
+
+    public boolean isBinary() {
+        return this.compareTo(ADD) >= 0 && this.compareTo(GE) <= 0;
+    }
+
+    public boolean isComparison() {
+        return this.compareTo(EQ) >= 0 && this.compareTo(GE) <= 0;
+    }
+
+    /**
+     * @return The comparison that gives the same result with its operands swapped
+     */
+    public Opcode mirrored() {
+        switch (this) {
+            case LT: return GT;
+            case LE: return GE;
+            case GT: return LT;
+            case GE: return LE;
+            default: return this;
+        }
+    }
+
+    /**
+     * @return Whether the instruction ends a basic block
+     */
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == RETURN || this == TRAP;
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,68 @@
+package lang.ir;
+
+/**
+ * Encoding of instruction operands as single ints.
+ *
+ * A non-negative operand is a virtual register. Anything else is the complement of an index
+ * into one of the pools, shifted left by three bits, with the pool in the low bits: a constant
+ * of the function, a string literal of the function, a program-level symbol (a global variable,
+ * a method or an import), or an array in the function's frame. -1 is none of these and stands
+ * for an absent operand.
+ */
+public final class Operand {
+    public static final int NONE = -1;
+
+    private static final int CONSTANT = 1;
+    private static final int STRING = 2;
+    private static final int GLOBAL = 3;
+    private static final int FRAME = 4;
+
+    private Operand() {}
+
+    public static int constant(int index) {
+        return encode(index, CONSTANT);
+    }
+
+    public static int string(int index) {
+        return encode(index, STRING);
+    }
+
+    public static int global(int index) {
+        return encode(index, GLOBAL);
+    }
+
+    public static int frame(int index) {
+        return encode(index, FRAME);
+    }
+
+    public static boolean isRegister(int operand) {
+        return operand >= 0;
+    }
+
+    public static boolean isConstant(int operand) {
+        return operand < 0 && (~operand & 7) == CONSTANT;
+    }
+
+    public static boolean isString(int operand) {
+        return operand < 0 && (~operand & 7) == STRING;
+    }
+
+    public static boolean isGlobal(int operand) {
+        return operand < 0 && (~operand & 7) == GLOBAL;
+    }
+
+    public static boolean isFrame(int operand) {
+        return operand < 0 && (~operand & 7) == FRAME;
+    }
+
+    /**
+     * @return The pool index of an operand that is not a register
+     */
+    public static int index(int operand) {
+        return ~operand >>> 3;
+    }
+
+    private static int encode(int index, int pool) {
+        return ~(index << 3 | pool);
+    }
+}
@@ -0,0 +1,134 @@
+package lang.ir;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * The optimization passes that can be selected by name with {@code -O}, in the order they run.
+ *
+ * Every pass transforms one function, and most in SSA form. The optimizer converts each
+ * function into SSA form before the first selected pass that uses it and back out after the
+ * last, so the passes share that cost and can use the sparse {@link DefUse} chains and the
+ * {@link Dataflow} analyses over it; the passes that do not use it run on the function first.
+ * Functions are optimized bottom-up in the {@link CallGraph}, callees before their callers, so
+ * that the {@link Inliner} copies code that is already optimized. Each pass reports how many
+ * changes it made, totalled by pass name in {@link #getStatistics()} for the debug output.
+ */
+public class Optimizer {
+    /**
+     * An optimization over one function.
+     */
+    public interface Pass {
+        /**
+         * @return The name that selects the pass with -O
+         */
+        String getName();
+
+        /**
+         * @return How many changes the pass made
+         */
+        int run(IRProgram program, IRFunction function);
+
+        /**
+         * @return Whether the pass runs on the function in SSA form, rather than before it is
+         *         converted
+         */
+        default boolean usesSSA() {
+            return true;
+        }
+
+        /**
+         * Adds what the pass found besides its count of changes to the statistics, once every
+         * function has been optimized.
+         */
+        default void report(Map<String, Integer> statistics) {
+        }
+    }
+
+    private final List<Pass> passes;
+    private final boolean[] enabled;
+    @Getter private final Map<String, Integer> statistics = new LinkedHashMap<>();
+
+    /**
+     * @param enabled Which passes to run, indexed as {@link #names()}; missing entries are false
+     */
+    public Optimizer(boolean[] enabled) {
+        this(enabled, Inliner.DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param enabled Which passes to run, indexed as {@link #names()}; missing entries are false
+     * @param inlineBudget Percentage by which the {@link Inliner} may grow the program
+     */
+    public Optimizer(boolean[] enabled, int inlineBudget) {
+        this.passes = passes(inlineBudget);
+        this.enabled = Arrays.copyOf(enabled, this.passes.size());
+    }
+
+    private static List<Pass> passes(int inlineBudget) {
+        return List.of(
+            new Inliner(inlineBudget),
+            new LoopUnrolling(),
+            new ConstantPropagation(),
+            new GlobalValueNumbering(),
+            new BoundsCheckElimination(),
+            new LoopInvariantCodeMotion(),
+            new StrengthReduction(),
+            new DeadCodeElimination());
+    }
+
+    /**
+     * @return The names of the passes, in the order they run, for the -O option
+     */
+    public static String[] names() {
+        List<Pass> passes = passes(Inliner.DEFAULT_BUDGET);
+        String[] names = new String[passes.size()];
+        for (int p = 0; p < names.length; p++) {
+            names[p] = passes.get(p).getName();
+        }
+        return names;
+    }
+
+    public void optimize(IRProgram program) {
+        boolean any = false;
+        boolean ssa = false;
+        for (int p = 0; p < this.passes.size(); p++) {
+            any |= this.enabled[p];
+            ssa |= this.enabled[p] && this.passes.get(p).usesSSA();
+        }
+        if (!any) {
+            return;
+        }
+        CallGraph calls = new CallGraph(program);
+        for (int n = 0; n < calls.getFunctionCount(); n++) {
+            IRFunction function = calls.function(calls.bottomUp(n));
+            run(program, function, false);
+            if (ssa) {
+                SSA.construct(function);
+                run(program, function, true);
+                SSA.destruct(function);
+            }
+        }
+        for (int p = 0; p < this.passes.size(); p++) {
+            if (this.enabled[p]) {
+                this.passes.get(p).report(this.statistics);
+            }
+        }
+    }
+
+    /**
+     * Runs the enabled passes that use SSA form, or those that do not.
+     */
+    private void run(IRProgram program, IRFunction function, boolean ssa) {
+        for (int p = 0; p < this.passes.size(); p++) {
+            Pass pass = this.passes.get(p);
+            if (this.enabled[p] && pass.usesSSA() == ssa) {
+                this.statistics.merge(pass.getName(), pass.run(program, function), Integer::sum);
+            }
+        }
+    }
+}
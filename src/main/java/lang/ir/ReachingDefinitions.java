@@ -0,0 +1,109 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+/**
+ * The definitions reaching each block: a forward union problem over the instructions that write
+ * a register. A definition reaches a point if some path from it gets there without another
+ * write of the same register. The entry values of the parameters are not definitions.
+ *
+ * Only definitions of registers that can be live across a block boundary are tracked: the
+ * others reach no use outside their block, and {@link #reachesEntry(int, int)} is false for them.
+ */
+public class ReachingDefinitions extends Dataflow {
+    private final int[] definitions;  // instruction of each definition
+    private final int[] numbers;      // definition of each instruction, or -1
+
+    public ReachingDefinitions(IRFunction function, ControlFlowGraph cfg) {
+        this(function, cfg, number(function, cfg));
+    }
+
+    private ReachingDefinitions(IRFunction function, ControlFlowGraph cfg, int[] numbers) {
+        super(cfg, numbers[numbers.length - 1], Direction.FORWARD, Meet.UNION);
+        this.numbers = Arrays.copyOf(numbers, function.size());
+        this.definitions = new int[this.bits];
+
+        // the definitions of each register, back to back
+        int registers = function.getRegisterCount();
+        int[] starts = new int[registers + 1];
+        for (int i = 0; i < function.size(); i++) {
+            if (this.numbers[i] >= 0) {
+                this.definitions[this.numbers[i]] = i;
+                starts[function.dest(i) + 1]++;
+            }
+        }
+        for (int r = 0; r < registers; r++) {
+            starts[r + 1] += starts[r];
+        }
+        int[] byRegister = new int[this.bits];
+        int[] fill = Arrays.copyOf(starts, registers);
+        for (int d = 0; d < this.bits; d++) {
+            byRegister[fill[function.dest(this.definitions[d])]++] = d;
+        }
+
+        // a write kills every definition of its register, and the last one in a block survives
+        long[][] masks = new long[registers][];
+        int[] genBlock = new int[registers];
+        int[] genDefinition = new int[registers];
+        Arrays.fill(genBlock, -1);
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            int at = b * this.words;
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                int d = this.numbers[i];
+                if (d < 0) {
+                    continue;
+                }
+                int r = function.dest(i);
+                setAll(this.kill, at, byRegister, starts[r], starts[r + 1], masks, r);
+                if (genBlock[r] == b) {
+                    clear(this.gen, at, genDefinition[r]);
+                }
+                genBlock[r] = b;
+                genDefinition[r] = d;
+                set(this.gen, at, d);
+            }
+        }
+        solve();
+    }
+
+    public int getDefinitionCount() {
+        return this.bits;
+    }
+
+    /**
+     * @return The instruction of the index-th definition
+     */
+    public int definition(int index) {
+        return this.definitions[index];
+    }
+
+    /**
+     * @return Whether the write at the instruction reaches the top of the block
+     */
+    public boolean reachesEntry(int block, int instruction) {
+        return this.numbers[instruction] >= 0 && entry(block, this.numbers[instruction]);
+    }
+
+    /**
+     * @return Whether the write at the instruction reaches the bottom of the block
+     */
+    public boolean reachesExit(int block, int instruction) {
+        return this.numbers[instruction] >= 0 && exit(block, this.numbers[instruction]);
+    }
+
+    /**
+     * @return The definition number of each instruction, or -1, with the count appended
+     */
+    private static int[] number(IRFunction function, ControlFlowGraph cfg) {
+        boolean[] globals = globals(function, cfg);
+        int[] numbers = new int[function.size() + 1];
+        int count = 0;
+        for (int i = 0; i < function.size(); i++) {
+            boolean tracked = function.opcode(i).definesRegister() && function.dest(i) != Operand.NONE
+                && globals[function.dest(i)];
+            numbers[i] = tracked ? count++ : -1;
+        }
+        numbers[function.size()] = count;
+        return numbers;
+    }
+}
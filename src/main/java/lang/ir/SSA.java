@@ -0,0 +1,673 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Conversion of a function into and out of SSA form.
+ *
+ * Construction follows Cytron et al. Phis are placed on the iterated dominance frontiers of the
+ * blocks writing each variable, but only for variables some block reads before writing them
+ * (the "semi-pruned" form of Briggs et al.): a temporary the lowering writes and reads within
+ * one block never needs a phi. The registers are then renamed in one walk of the dominator
+ * tree, each write getting a fresh register with the variable's name; a read with no write on
+ * some path to it, which the analyzer's rules allow for locals only through their zero
+ * initialization, reads a zero constant.
+ *
+ * Destruction replaces each phi with copies at the end of its predecessors, splitting an edge
+ * that leaves a block with two successors into a block of its own. The copies of one edge happen
+ * in parallel, and are sequentialized as in Boissinot et al., breaking cycles with a temporary.
+ * Most of the resulting moves are then removed by coalescing: registers of the same type joined
+ * by a move are merged unless they are live at the same time, as in Chaitin's allocator.
+ */
+public final class SSA {
+    private final IRFunction function;
+    private final ControlFlowGraph cfg;
+    private final Dominators dominators;
+    private final int[] starts;       // first instruction of each block in the new code
+    private final int[][] phis;       // variables given phis in each block, in emission order
+    private final int[] phiCounts;
+    private final boolean[] variable; // registers written more than once
+    private final int[] current;      // current version of each variable while renaming
+    private int[] log;                // (variable, previous version) pairs to undo when leaving a block
+    private int logSize = 0;
+
+    private SSA(IRFunction function, ControlFlowGraph cfg) {
+        this.function = function;
+        this.cfg = cfg;
+        this.dominators = new Dominators(cfg);
+        int blocks = cfg.getBlockCount();
+        int registers = function.getRegisterCount();
+        this.starts = new int[blocks + 1];
+        this.phis = new int[blocks][];
+        this.phiCounts = new int[blocks];
+        this.variable = new boolean[registers];
+        this.current = new int[registers];
+        this.log = new int[64];
+    }
+
+    /**
+     * Converts a function to SSA form. Unreachable blocks are removed, and every block is given a
+     * label so that phis can name their predecessors.
+     */
+    public static void construct(IRFunction function) {
+        if (function.isSSA()) {
+            return;
+        }
+        normalize(function);
+        SSA ssa = new SSA(function, new ControlFlowGraph(function));
+        ssa.placePhis();
+        ssa.rename();
+        function.setSSA(true);
+    }
+
+    /**
+     * Converts a function out of SSA form, leaving no phis and as few moves as coalescing allows.
+     */
+    public static void destruct(IRFunction function) {
+        if (!function.isSSA()) {
+            return;
+        }
+        new Copies(function).lower();
+        function.setSSA(false);
+        coalesce(function);
+    }
+
+    /*
+     * Construction
+     */
+
+    private static void normalize(IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        IRFunction.Code old = function.detachCode();
+        if (cfg.label(0) < 0 || cfg.predecessorCount(0) > 0) {
+            function.emit(Opcode.LABEL, null, Operand.NONE, function.newLabel(), Operand.NONE);
+        }
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            if (!cfg.isReachable(b)) {
+                continue;
+            }
+            if (b > 0 && cfg.label(b) < 0) {
+                function.emit(Opcode.LABEL, null, Operand.NONE, function.newLabel(), Operand.NONE);
+            }
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                function.emit(old, i);
+            }
+        }
+    }
+
+    private void placePhis() {
+        IRFunction f = this.function;
+        ControlFlowGraph cfg = this.cfg;
+        int blocks = cfg.getBlockCount();
+        int registers = f.getRegisterCount();
+        int parameters = f.getParameterCount();
+
+        // a parameter is written once, on entry
+        int[] defCounts = new int[registers];
+        Arrays.fill(defCounts, 0, parameters, 1);
+        for (int i = 0; i < f.size(); i++) {
+            if (defines(f, i)) {
+                defCounts[f.dest(i)]++;
+            }
+        }
+        for (int r = 0; r < registers; r++) {
+            this.variable[r] = defCounts[r] > 1;
+            this.current[r] = r < parameters ? r : Operand.NONE;
+        }
+
+        // the blocks writing each variable, back to back, and whether some block reads it
+        // before writing it
+        int[] defStarts = new int[registers + 1];
+        for (int r = 0; r < registers; r++) {
+            defStarts[r + 1] = defStarts[r] + (this.variable[r] ? defCounts[r] : 0);
+        }
+        int[] defBlocks = new int[defStarts[registers]];
+        int[] defFill = Arrays.copyOf(defStarts, registers);
+        int[] lastDef = new int[registers];
+        Arrays.fill(lastDef, -1);
+        boolean[] global = new boolean[registers];
+        for (int p = 0; p < parameters; p++) {
+            if (this.variable[p]) {
+                defBlocks[defFill[p]++] = 0;
+                lastDef[p] = 0;
+            }
+        }
+        for (int b = 0; b < blocks; b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                for (int k = 0; k < f.useCount(i); k++) {
+                    int use = f.use(i, k);
+                    if (Operand.isRegister(use) && this.variable[use] && lastDef[use] != b) {
+                        global[use] = true;
+                    }
+                }
+                if (defines(f, i) && this.variable[f.dest(i)] && lastDef[f.dest(i)] != b) {
+                    lastDef[f.dest(i)] = b;
+                    defBlocks[defFill[f.dest(i)]++] = b;
+                }
+            }
+        }
+
+        // iterated dominance frontiers, with each block's last placed and queued variable as
+        // stamps so that nothing is cleared between variables
+        int[] placed = new int[blocks];
+        int[] queued = new int[blocks];
+        Arrays.fill(placed, -1);
+        Arrays.fill(queued, -1);
+        int[] worklist = new int[blocks];
+        for (int v = 0; v < registers; v++) {
+            if (!global[v]) {
+                continue;
+            }
+            int top = 0;
+            for (int k = defStarts[v]; k < defFill[v]; k++) {
+                queued[defBlocks[k]] = v;
+                worklist[top++] = defBlocks[k];
+            }
+            while (top > 0) {
+                int b = worklist[--top];
+                for (int k = 0; k < this.dominators.frontierSize(b); k++) {
+                    int join = this.dominators.frontier(b, k);
+                    if (placed[join] == v) {
+                        continue;
+                    }
+                    placed[join] = v;
+                    if (this.phis[join] == null) {
+                        this.phis[join] = new int[4];
+                    } else if (this.phiCounts[join] == this.phis[join].length) {
+                        this.phis[join] = Arrays.copyOf(this.phis[join], this.phiCounts[join] * 2);
+                    }
+                    this.phis[join][this.phiCounts[join]++] = v;
+                    if (queued[join] != v) {
+                        queued[join] = v;
+                        worklist[top++] = join;
+                    }
+                }
+            }
+        }
+
+        // the phis go right after each block's label, their values filled in by renaming
+        IRFunction.Code old = f.detachCode();
+        int[] arguments = new int[0];
+        for (int b = 0; b < blocks; b++) {
+            this.starts[b] = f.size();
+            f.emit(old, cfg.start(b));
+            int preds = cfg.predecessorCount(b);
+            if (arguments.length < 2 * preds) {
+                arguments = new int[2 * preds];
+            }
+            for (int j = 0; j < this.phiCounts[b]; j++) {
+                int v = this.phis[b][j];
+                for (int k = 0; k < preds; k++) {
+                    arguments[2 * k] = cfg.label(cfg.predecessor(b, k));
+                    arguments[2 * k + 1] = v;
+                }
+                f.emit(Opcode.PHI, f.registerType(v), v, Operand.NONE, f.arguments(arguments, 2 * preds));
+            }
+            for (int i = cfg.start(b) + 1; i < cfg.end(b); i++) {
+                f.emit(old, i);
+            }
+        }
+        this.starts[blocks] = f.size();
+    }
+
+    /**
+     * Renames the variables in a preorder walk of the dominator tree, undoing each block's
+     * versions when its subtree is done.
+     */
+    private void rename() {
+        int blocks = this.cfg.getBlockCount();
+        int[] stack = new int[blocks];
+        int[] next = new int[blocks];
+        int[] marks = new int[blocks];
+        int top = 0;
+        marks[0] = this.logSize;
+        renameBlock(0);
+        stack[top++] = 0;
+        while (top > 0) {
+            int b = stack[top - 1];
+            if (next[b] < this.dominators.childCount(b)) {
+                int c = this.dominators.child(b, next[b]++);
+                marks[c] = this.logSize;
+                renameBlock(c);
+                stack[top++] = c;
+            } else {
+                while (this.logSize > marks[b]) {
+                    this.logSize -= 2;
+                    this.current[this.log[this.logSize]] = this.log[this.logSize + 1];
+                }
+                top--;
+            }
+        }
+    }
+
+    private void renameBlock(int b) {
+        IRFunction f = this.function;
+        for (int i = this.starts[b]; i < this.starts[b + 1]; i++) {
+            if (f.opcode(i) != Opcode.PHI) {
+                for (int k = 0; k < f.useCount(i); k++) {
+                    int use = f.use(i, k);
+                    if (Operand.isRegister(use) && use < this.variable.length && this.variable[use]) {
+                        f.setUse(i, k, version(use));
+                    }
+                }
+            }
+            if (defines(f, i) && f.dest(i) < this.variable.length && this.variable[f.dest(i)]) {
+                int v = f.dest(i);
+                int renamed = f.newRegister(f.registerType(v), f.registerName(v));
+                if (this.logSize + 2 > this.log.length) {
+                    this.log = Arrays.copyOf(this.log, this.log.length * 2);
+                }
+                this.log[this.logSize++] = v;
+                this.log[this.logSize++] = this.current[v];
+                this.current[v] = renamed;
+                f.setDest(i, renamed);
+            }
+        }
+        for (int k = 0; k < this.cfg.successorCount(b); k++) {
+            int s = this.cfg.successor(b, k);
+            int index = this.cfg.predecessorIndex(s, b);
+            for (int j = 0; j < this.phiCounts[s]; j++) {
+                int phi = this.starts[s] + 1 + j;
+                f.setArgument(f.src2(phi), 2 * index + 1, version(this.phis[s][j]));
+            }
+        }
+    }
+
+    private int version(int variable) {
+        int version = this.current[variable];
+        return version != Operand.NONE ? version : this.function.constant(this.function.registerType(variable), 0);
+    }
+
+    private static boolean defines(IRFunction f, int i) {
+        return f.opcode(i).definesRegister() && f.dest(i) != Operand.NONE;
+    }
+
+    /*
+     * Destruction
+     */
+
+    /**
+     * Rewrites a function in SSA form with the phis replaced by copies on the edges into their
+     * blocks.
+     */
+    private static final class Copies {
+        private final IRFunction function;
+        private final ControlFlowGraph cfg;
+        private IRFunction.Code old;
+
+        // one parallel copy, and the state of its sequentialization
+        private int[] dests = new int[8];
+        private int[] sources = new int[8];
+        private int count = 0;
+        private final int[] location; // where the value each source had is now, or NONE
+        private final int[] pred;     // the source copied into each destination, or NONE
+        private int[] ready = new int[8];
+        private int[] todo = new int[8];
+
+        Copies(IRFunction function) {
+            this.function = function;
+            this.cfg = new ControlFlowGraph(function);
+            this.location = new int[function.getRegisterCount()];
+            this.pred = new int[function.getRegisterCount()];
+            Arrays.fill(this.location, Operand.NONE);
+            Arrays.fill(this.pred, Operand.NONE);
+        }
+
+        void lower() {
+            IRFunction f = this.function;
+            ControlFlowGraph cfg = this.cfg;
+            int blocks = cfg.getBlockCount();
+            this.old = f.detachCode();
+
+            // edges from a block with two successors into a block with phis get blocks of their
+            // own, placed after all the others
+            int[] splitFrom = new int[4];
+            int[] splitTo = new int[4];
+            int[] splitLabels = new int[4];
+            int splits = 0;
+            for (int p = 0; p < blocks; p++) {
+                int last = cfg.end(p) - 1;
+                boolean terminated = last >= cfg.start(p) && this.old.opcode(last).isTerminator();
+                for (int i = cfg.start(p); i < (terminated ? last : cfg.end(p)); i++) {
+                    if (this.old.opcode(i) != Opcode.PHI) {
+                        f.emit(this.old, i);
+                    }
+                }
+                if (cfg.successorCount(p) == 1 && hasPhis(cfg.successor(p, 0))) {
+                    copy(p, cfg.successor(p, 0));
+                }
+                if (!terminated) {
+                    continue;
+                }
+                int at = f.emit(this.old, last);
+                if (cfg.successorCount(p) < 2) {
+                    continue;
+                }
+                for (int k = 0; k < 2; k++) {
+                    int s = cfg.successor(p, k);
+                    if (!hasPhis(s)) {
+                        continue;
+                    }
+                    if (splits == splitFrom.length) {
+                        splitFrom = Arrays.copyOf(splitFrom, splits * 2);
+                        splitTo = Arrays.copyOf(splitTo, splits * 2);
+                        splitLabels = Arrays.copyOf(splitLabels, splits * 2);
+                    }
+                    int label = f.newLabel();
+                    splitFrom[splits] = p;
+                    splitTo[splits] = s;
+                    splitLabels[splits++] = label;
+                    if (f.src2(at) == cfg.label(s)) {
+                        f.setSrc2(at, label);
+                    } else {
+                        f.setDest(at, label);
+                    }
+                }
+            }
+            for (int k = 0; k < splits; k++) {
+                f.emit(Opcode.LABEL, null, Operand.NONE, splitLabels[k], Operand.NONE);
+                copy(splitFrom[k], splitTo[k]);
+                f.emit(Opcode.JUMP, null, Operand.NONE, this.cfg.label(splitTo[k]), Operand.NONE);
+            }
+        }
+
+        private int firstPhi(int block) {
+            int i = this.cfg.start(block);
+            return i < this.cfg.end(block) && this.old.opcode(i) == Opcode.LABEL ? i + 1 : i;
+        }
+
+        private boolean hasPhis(int block) {
+            int i = firstPhi(block);
+            return i < this.cfg.end(block) && this.old.opcode(i) == Opcode.PHI;
+        }
+
+        /**
+         * Emits the copies the phis of block s make on the edge from block p.
+         */
+        private void copy(int p, int s) {
+            IRFunction f = this.function;
+            int label = this.cfg.label(p);
+            if (label < 0 || !this.cfg.isReachable(p)) {
+                return;
+            }
+            this.count = 0;
+            for (int i = firstPhi(s); i < this.cfg.end(s) && this.old.opcode(i) == Opcode.PHI; i++) {
+                int arguments = this.old.src2(i);
+                for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+                    if (f.argument(arguments, k) == label) {
+                        if (this.count == this.dests.length) {
+                            this.dests = Arrays.copyOf(this.dests, this.count * 2);
+                            this.sources = Arrays.copyOf(this.sources, this.count * 2);
+                        }
+                        this.dests[this.count] = this.old.dest(i);
+                        this.sources[this.count++] = f.argument(arguments, k + 1);
+                        break;
+                    }
+                }
+            }
+            sequentialize();
+        }
+
+        /**
+         * Emits the current parallel copy as moves. While there is a destination whose value
+         * no other copy still needs, it is written; what remains then are cycles, each broken by
+         * saving one of its registers in a temporary. Copies of constants overwrite nothing that
+         * is needed and go last.
+         */
+        private void sequentialize() {
+            IRFunction f = this.function;
+            if (this.ready.length < this.count) {
+                this.ready = new int[this.count];
+                this.todo = new int[this.count];
+            }
+            int readyCount = 0;
+            int todoCount = 0;
+            for (int j = 0; j < this.count; j++) {
+                int source = this.sources[j];
+                if (Operand.isRegister(source) && source != this.dests[j]) {
+                    this.location[source] = source;
+                    this.pred[this.dests[j]] = source;
+                    this.todo[todoCount++] = this.dests[j];
+                }
+            }
+            for (int j = 0; j < this.count; j++) {
+                int source = this.sources[j];
+                if (Operand.isRegister(source) && source != this.dests[j] && this.location[this.dests[j]] == Operand.NONE) {
+                    this.ready[readyCount++] = this.dests[j];
+                }
+            }
+            while (todoCount > 0) {
+                while (readyCount > 0) {
+                    int dest = this.ready[--readyCount];
+                    int source = this.pred[dest];
+                    int from = this.location[source];
+                    f.emit(Opcode.MOVE, f.registerType(dest), dest, from, Operand.NONE);
+                    this.location[source] = dest;
+                    if (from == source && this.pred[source] != Operand.NONE) {
+                        this.ready[readyCount++] = source;
+                    }
+                }
+                int dest = this.todo[--todoCount];
+                if (this.location[dest] == dest) {
+                    int saved = f.newRegister(f.registerType(dest), null);
+                    f.emit(Opcode.MOVE, f.registerType(dest), saved, dest, Operand.NONE);
+                    this.location[dest] = saved;
+                    this.ready[readyCount++] = dest;
+                }
+            }
+            for (int j = 0; j < this.count; j++) {
+                int source = this.sources[j];
+                if (!Operand.isRegister(source)) {
+                    f.emit(Opcode.MOVE, f.registerType(this.dests[j]), this.dests[j], source, Operand.NONE);
+                } else {
+                    this.location[source] = Operand.NONE;
+                }
+                this.pred[this.dests[j]] = Operand.NONE;
+                this.location[this.dests[j]] = Operand.NONE;
+            }
+        }
+    }
+
+    /*
+     * Coalescing
+     */
+
+    /**
+     * Merges registers joined by moves that do not interfere, then drops the moves that became
+     * copies of a register to itself.
+     */
+    private static void coalesce(IRFunction function) {
+        IRFunction f = function;
+        int registers = f.getRegisterCount();
+        Interference graph = new Interference(f, registers);
+
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) != Opcode.MOVE || !Operand.isRegister(f.src1(i))) {
+                continue;
+            }
+            int a = graph.find(f.dest(i));
+            int b = graph.find(f.src1(i));
+            if (a != b && f.registerType(a) == f.registerType(b) && !graph.interferes(a, b)) {
+                graph.union(a, b);
+            }
+        }
+
+        IRFunction.Code old = f.detachCode();
+        for (int i = 0; i < old.size(); i++) {
+            if (old.opcode(i) == Opcode.MOVE && Operand.isRegister(old.src1(i))
+                && graph.find(old.dest(i)) == graph.find(old.src1(i))) {
+                continue;
+            }
+            int at = f.emit(old, i);
+            for (int k = 0; k < f.useCount(at); k++) {
+                int use = f.use(at, k);
+                if (Operand.isRegister(use)) {
+                    f.setUse(at, k, graph.find(use));
+                }
+            }
+            if (defines(f, at)) {
+                f.setDest(at, graph.find(f.dest(at)));
+            }
+        }
+    }
+
+    /**
+     * The interference graph of a function's registers, with the classes of registers merged so
+     * far. Two registers interfere if one is written where the other is live, unless the write
+     * copies the other; only registers of the same type are ever merged, so only their edges are
+     * kept. Edges are kept both in a hash set, to add each once, and in adjacency lists, which a
+     * merged class concatenates.
+     */
+    private static final class Interference {
+        private final IRFunction function;
+        private final int[] parent;
+        private final int[][] neighbours;
+        private final int[] degrees;
+        private long[] edges = new long[64]; // (low + 1) << 32 | (high + 1), or 0 if empty
+        private int edgeCount = 0;
+
+        Interference(IRFunction function, int registers) {
+            this.function = function;
+            this.parent = new int[registers];
+            for (int r = 0; r < registers; r++) {
+                this.parent[r] = r;
+            }
+            this.neighbours = new int[registers][];
+            this.degrees = new int[registers];
+
+            ControlFlowGraph cfg = new ControlFlowGraph(function);
+            Liveness liveness = new Liveness(function, cfg);
+            long[] live = new long[liveness.registerWords()];
+            for (int b = 0; b < cfg.getBlockCount(); b++) {
+                if (!cfg.isReachable(b)) {
+                    continue;
+                }
+                liveness.copyLiveOut(b, live);
+                for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+                    if (defines(function, i)) {
+                        int dest = function.dest(i);
+                        int copied = function.opcode(i) == Opcode.MOVE ? function.src1(i) : Operand.NONE;
+                        interfere(dest, copied, live);
+                        live[dest >>> 6] &= ~(1L << dest);
+                    }
+                    for (int k = 0; k < function.useCount(i); k++) {
+                        int use = function.use(i, k);
+                        if (Operand.isRegister(use)) {
+                            live[use >>> 6] |= 1L << use;
+                        }
+                    }
+                }
+                if (b == 0) {
+                    // the parameters are all written on entry
+                    for (int p = 0; p < function.getParameterCount(); p++) {
+                        interfere(p, Operand.NONE, live);
+                    }
+                }
+            }
+        }
+
+        int find(int register) {
+            while (this.parent[register] != register) {
+                this.parent[register] = this.parent[this.parent[register]];
+                register = this.parent[register];
+            }
+            return register;
+        }
+
+        /**
+         * @param a A class representative
+         * @param b Another
+         */
+        boolean interferes(int a, int b) {
+            if (this.degrees[a] > this.degrees[b]) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            for (int k = 0; k < this.degrees[a]; k++) {
+                if (find(this.neighbours[a][k]) == b) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Merges two classes, keeping as representative a parameter, whose register is fixed on
+         * entry, or else a register holding a named variable, so listings stay readable.
+         */
+        void union(int a, int b) {
+            if (rank(b) < rank(a)) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            this.parent[b] = a;
+            for (int k = 0; k < this.degrees[b]; k++) {
+                add(a, this.neighbours[b][k]);
+            }
+            this.neighbours[b] = null;
+            this.degrees[b] = 0;
+        }
+
+        private int rank(int register) {
+            if (register < this.function.getParameterCount()) {
+                return 0;
+            }
+            return this.function.registerName(register) != null ? 1 : 2;
+        }
+
+        private void interfere(int dest, int except, long[] live) {
+            DecafType type = this.function.registerType(dest);
+            for (int w = 0; w < live.length; w++) {
+                for (long bits = live[w]; bits != 0; bits &= bits - 1) {
+                    int r = w << 6 | Long.numberOfTrailingZeros(bits);
+                    if (r != dest && r != except && this.function.registerType(r) == type) {
+                        edge(dest, r);
+                    }
+                }
+            }
+        }
+
+        private void edge(int a, int b) {
+            long key = (long) (Math.min(a, b) + 1) << 32 | (Math.max(a, b) + 1);
+            int mask = this.edges.length - 1;
+            int i = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            for (; this.edges[i] != 0; i = (i + 1) & mask) {
+                if (this.edges[i] == key) {
+                    return;
+                }
+            }
+            this.edges[i] = key;
+            if (++this.edgeCount * 2 > this.edges.length) {
+                long[] grown = new long[this.edges.length * 2];
+                int grownMask = grown.length - 1;
+                for (long e : this.edges) {
+                    if (e != 0) {
+                        int j = Long.hashCode(e * 0x9E3779B97F4A7C15L) & grownMask;
+                        while (grown[j] != 0) {
+                            j = (j + 1) & grownMask;
+                        }
+                        grown[j] = e;
+                    }
+                }
+                this.edges = grown;
+            }
+            add(a, b);
+            add(b, a);
+        }
+
+        private void add(int register, int neighbour) {
+            int n = this.degrees[register];
+            if (this.neighbours[register] == null) {
+                this.neighbours[register] = new int[4];
+            } else if (n == this.neighbours[register].length) {
+                this.neighbours[register] = Arrays.copyOf(this.neighbours[register], n * 2);
+            }
+            this.neighbours[register][n] = neighbour;
+            this.degrees[register] = n + 1;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package lang.ir;
+
+import java.util.Arrays;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Induction variable strength reduction over a function in SSA form, selected with
+ * {@code -O sr}.
+ *
+ * A basic induction variable of a {@link Loops loop} is a phi in its header with two arguments,
+ * a start coming from the one block entering the loop and, from the loop's one latch, the phi
+ * plus or minus a step that does not change in the loop. A product of a basic induction
+ * variable and such an invariant is a derived one, and is what array indexing in a loop is made
+ * of: {@code a[i * m + j]} multiplies on every trip. Each distinct product becomes an induction
+ * variable of its own, started at {@code start * factor} before the loop and bumped by
+ * {@code step * factor} on the way round, so the loop only adds; wrapping arithmetic makes the
+ * two agree even where the product overflows.
+ *
+ * Once its products are gone, a basic variable often only feeds its exit test: the comparison
+ * its header branches on to stay in the loop or leave it. Where that test compares the variable
+ * with a constant in the direction it moves, and its start, step and factor are all constants,
+ * the test keeps the variable between its start and one step past the bound. If the product of
+ * each end of that range is exact, the test is rewritten to compare the product with the scaled
+ * bound instead, and the original variable, if now dead, is removed. Other comparisons in the
+ * loop are left alone, as the product may overflow at values they are not tested with.
+ *
+ * The block entering the loop must have the header as its only successor, as the preheaders the
+ * lowering and {@link LoopInvariantCodeMotion} leave do; other loops are left alone.
+ */
+public class StrengthReduction implements Optimizer.Pass {
+
+    @Override
+    public String getName() {
+        return "sr";
+    }
+
+    @Override
+    public int run(IRProgram program, IRFunction function) {
+        ControlFlowGraph cfg = new ControlFlowGraph(function);
+        Loops loops = new Loops(new Dominators(cfg));
+        if (loops.getLoopCount() == 0) {
+            return 0;
+        }
+        int reduced = new Reduction(function, cfg, loops).run();
+        return reduced == 0 ? 0 : reduced + DeadCodeElimination.sweep(function);
+    }
+
+    private static final class Reduction {
+        private final IRFunction function;
+        private final ControlFlowGraph cfg;
+        private final Loops loops;
+        private final DefUse defUse;
+        private final int[] blockOf;
+
+        // the basic induction variables found, by phi register
+        private final int[] loopOf;      // loop, or -1 if the register is not one
+        private final int[] starts;
+        private final int[] steps;       // as added, negated for a subtraction
+
+        private final int[] replacements; // what each product register becomes, or itself
+        private final boolean[] removed;
+        private final int[] testLoops;    // loop whose product a comparison is rewritten to use, or -1
+        private final int[] testOperands; // the comparison's new operands
+
+        // instructions to add, five ints each: block, then opcode, dest, src1, src2; the type is
+        // that of dest, and a phi goes after the block's label and anything else before its end
+        private int[] added = new int[5 * 8];
+        private int addedCount = 0;
+
+        Reduction(IRFunction function, ControlFlowGraph cfg, Loops loops) {
+            this.function = function;
+            this.cfg = cfg;
+            this.loops = loops;
+            this.defUse = new DefUse(function);
+            this.blockOf = new int[function.size()];
+            for (int b = 0; b < cfg.getBlockCount(); b++) {
+                Arrays.fill(this.blockOf, cfg.start(b), cfg.end(b), b);
+            }
+            int registers = function.getRegisterCount();
+            this.loopOf = new int[registers];
+            Arrays.fill(this.loopOf, -1);
+            this.starts = new int[registers];
+            this.steps = new int[registers];
+            this.replacements = new int[registers];
+            for (int r = 0; r < registers; r++) {
+                this.replacements[r] = r;
+            }
+            this.removed = new boolean[function.size()];
+            this.testLoops = new int[function.size()];
+            Arrays.fill(this.testLoops, -1);
+            this.testOperands = new int[2 * function.size()];
+        }
+
+        int run() {
+            IRFunction f = this.function;
+            for (int l = 0; l < this.loops.getLoopCount(); l++) {
+                findBasic(l);
+            }
+
+            // each product of a basic variable and an invariant, by (variable, factor)
+            int[] keys = new int[16];
+            int[] reduced = new int[8];
+            int count = 0;
+            int changes = 0;
+            for (int i = 0; i < f.size(); i++) {
+                if (f.opcode(i) != Opcode.MUL) {
+                    continue;
+                }
+                int variable = f.src1(i);
+                int factor = f.src2(i);
+                if (!isBasic(variable) || !isInvariant(this.loopOf[variable], factor)) {
+                    variable = f.src2(i);
+                    factor = f.src1(i);
+                }
+                if (!isBasic(variable) || !isInvariant(this.loopOf[variable], factor)
+                        || !this.loops.contains(this.loopOf[variable], this.blockOf[i])) {
+                    continue;
+                }
+                int k = 0;
+                while (k < count && (keys[2 * k] != variable || keys[2 * k + 1] != factor)) {
+                    k++;
+                }
+                if (k == count) {
+                    if (2 * count + 2 > keys.length) {
+                        keys = Arrays.copyOf(keys, keys.length * 2);
+                        reduced = Arrays.copyOf(reduced, reduced.length * 2);
+                    }
+                    keys[2 * count] = variable;
+                    keys[2 * count + 1] = factor;
+                    reduced[count++] = reduce(variable, factor, f.type(i));
+                }
+                this.replacements[f.dest(i)] = reduced[k];
+                this.removed[i] = true;
+                changes++;
+            }
+            for (int k = 0; k < count; k++) {
+                changes += replaceExitTest(keys[2 * k], keys[2 * k + 1], reduced[k]);
+            }
+            if (changes > 0) {
+                rewrite();
+            }
+            return changes;
+        }
+
+        /**
+         * Records the basic induction variables of a loop.
+         */
+        private void findBasic(int loop) {
+            IRFunction f = this.function;
+            if (this.loops.latchCount(loop) != 1 || preheader(loop) < 0) {
+                return;
+            }
+            int h = this.loops.header(loop);
+            int latch = this.loops.latch(loop, 0);
+            for (int i = this.cfg.start(h); i < this.cfg.end(h); i++) {
+                if (f.opcode(i) != Opcode.PHI || f.argumentCount(f.src2(i)) != 4) {
+                    continue;
+                }
+                int phi = f.dest(i);
+                int arguments = f.src2(i);
+                int outside = this.cfg.blockOf(f.argument(arguments, 0)) == latch ? 2 : 0;
+                if (this.cfg.blockOf(f.argument(arguments, 2 - outside)) != latch) {
+                    continue;
+                }
+                int start = f.argument(arguments, outside + 1);
+                int next = f.argument(arguments, 3 - outside);
+                int increment = Operand.isRegister(next) ? this.defUse.def(next) : -1;
+                if (increment < 0 || !this.loops.contains(loop, this.blockOf[increment])) {
+                    continue;
+                }
+                Opcode opcode = f.opcode(increment);
+                int step;
+                if (opcode == Opcode.ADD && f.src1(increment) == phi) {
+                    step = f.src2(increment);
+                } else if (opcode == Opcode.ADD && f.src2(increment) == phi) {
+                    step = f.src1(increment);
+                } else if (opcode == Opcode.SUB && f.src1(increment) == phi && Operand.isConstant(f.src2(increment))) {
+                    DecafType type = f.constantType(f.src2(increment));
+                    long negated = -f.constantValue(f.src2(increment));
+                    step = f.constant(type, type == DecafType.INT ? (int) negated : negated);
+                } else {
+                    continue;
+                }
+                if (isInvariant(loop, step)) {
+                    this.loopOf[phi] = loop;
+                    this.starts[phi] = start;
+                    this.steps[phi] = step;
+                }
+            }
+        }
+
+        /**
+         * Adds an induction variable for the product of a basic one and a factor.
+         * @return Its register
+         */
+        private int reduce(int variable, int factor, DecafType type) {
+            IRFunction f = this.function;
+            int loop = this.loopOf[variable];
+            int preheader = preheader(loop);
+            int latch = this.loops.latch(loop, 0);
+            int start = product(preheader, type, this.starts[variable], factor);
+            int step = product(preheader, type, this.steps[variable], factor);
+            int phi = f.newRegister(type, null);
+            int next = f.newRegister(type, null);
+            int h = this.loops.header(loop);
+            add(h, Opcode.PHI, phi, Operand.NONE, f.arguments(new int[] {
+                this.cfg.label(preheader), start, this.cfg.label(latch), next}, 4));
+            add(latch, Opcode.ADD, next, phi, step);
+            return phi;
+        }
+
+        /**
+         * @return The product, folded if both are constants or one is 0 or 1, and otherwise
+         *         computed at the end of the block
+         */
+        private int product(int block, DecafType type, int left, int right) {
+            IRFunction f = this.function;
+            if (Operand.isConstant(left) && Operand.isConstant(right)) {
+                long value = f.constantValue(left) * f.constantValue(right);
+                return f.constant(type, type == DecafType.INT ? (int) value : value);
+            }
+            for (int k = 0; k < 2; k++) {
+                int constant = k == 0 ? left : right;
+                if (Operand.isConstant(constant) && f.constantValue(constant) == 0) {
+                    return constant;
+                }
+                if (Operand.isConstant(constant) && f.constantValue(constant) == 1) {
+                    return k == 0 ? right : left;
+                }
+            }
+            int product = f.newRegister(type, null);
+            add(block, Opcode.MUL, product, left, right);
+            return product;
+        }
+
+        /**
+         * Rewrites the exit test of a basic variable's loop in terms of a product of it, where
+         * the test compares the variable with a constant bound and nothing can overflow.
+         * @return 1 if it was rewritten, or 0
+         */
+        private int replaceExitTest(int variable, int factor, int reduced) {
+            IRFunction f = this.function;
+            int loop = this.loopOf[variable];
+            int start = this.starts[variable];
+            int step = this.steps[variable];
+            if (!Operand.isConstant(start) || !Operand.isConstant(step) || !Operand.isConstant(factor)
+                    || f.constantValue(factor) <= 0) {
+                return 0;
+            }
+            int i = exitTest(loop);
+            if (i < 0 || this.testLoops[i] >= 0 || f.src1(i) != variable && f.src2(i) != variable) {
+                return 0;
+            }
+            DecafType type = f.registerType(variable);
+            long scale = f.constantValue(factor);
+            long by = f.constantValue(step);
+            boolean left = f.src1(i) == variable;
+            int limit = left ? f.src2(i) : f.src1(i);
+            if (!Operand.isConstant(limit)) {
+                return 0;
+            }
+            // the variable must move towards the bound, so that it stays between its start
+            // and one step past the bound
+            Opcode towards = left ? f.opcode(i) : f.opcode(i).mirrored();
+            boolean up = towards == Opcode.LT || towards == Opcode.LE;
+            boolean down = towards == Opcode.GT || towards == Opcode.GE;
+            if (!(up && by > 0 || down && by < 0)) {
+                return 0;
+            }
+            long from = f.constantValue(start);
+            long bound = f.constantValue(limit);
+            long to = bound + by;
+            if (((bound ^ to) & (by ^ to)) < 0 || !fits(type, from, scale) || !fits(type, to, scale)) {
+                return 0;
+            }
+            this.testLoops[i] = loop;
+            int scaled = f.constant(type, bound * scale);
+            this.testOperands[2 * i] = left ? reduced : scaled;
+            this.testOperands[2 * i + 1] = left ? scaled : reduced;
+            return 1;
+        }
+
+        /**
+         * @return The comparison in a loop's header that its branch tests, staying in the loop
+         *         when it holds and leaving it otherwise, or -1
+         */
+        private int exitTest(int loop) {
+            IRFunction f = this.function;
+            int h = this.loops.header(loop);
+            int last = this.cfg.end(h) - 1;
+            if (last < this.cfg.start(h) || f.opcode(last) != Opcode.BRANCH || !Operand.isRegister(f.src1(last))
+                    || !this.loops.contains(loop, this.cfg.blockOf(f.src2(last)))
+                    || this.loops.contains(loop, this.cfg.blockOf(f.dest(last)))) {
+                return -1;
+            }
+            int test = this.defUse.def(f.src1(last));
+            return test >= 0 && this.blockOf[test] == h && f.opcode(test).isComparison() ? test : -1;
+        }
+
+        /**
+         * @return Whether the value and its product with the scale are exact in the type
+         */
+        private static boolean fits(DecafType type, long value, long scale) {
+            long product = value * scale;
+            if (Math.multiplyHigh(value, scale) != product >> 63) {
+                return false;
+            }
+            return type != DecafType.INT || value == (int) value && product == (int) product;
+        }
+
+        private boolean isBasic(int operand) {
+            return Operand.isRegister(operand) && this.loopOf[operand] >= 0;
+        }
+
+        private boolean isInvariant(int loop, int operand) {
+            if (!Operand.isRegister(operand)) {
+                return Operand.isConstant(operand);
+            }
+            int def = this.defUse.def(operand);
+            return def < 0 || !this.loops.contains(loop, this.blockOf[def]);
+        }
+
+        /**
+         * @return The one block entering the loop if the header is its only successor and it is
+         *         labeled, or -1
+         */
+        private int preheader(int loop) {
+            int h = this.loops.header(loop);
+            int preheader = -1;
+            for (int k = 0; k < this.cfg.predecessorCount(h); k++) {
+                int p = this.cfg.predecessor(h, k);
+                if (!this.loops.contains(loop, p)) {
+                    if (preheader >= 0) {
+                        return -1;
+                    }
+                    preheader = p;
+                }
+            }
+            boolean labeled = this.cfg.label(preheader) >= 0 && this.cfg.label(this.loops.latch(loop, 0)) >= 0;
+            return this.cfg.successorCount(preheader) == 1 && labeled ? preheader : -1;
+        }
+
+        private void add(int block, Opcode opcode, int dest, int src1, int src2) {
+            if (5 * this.addedCount + 5 > this.added.length) {
+                this.added = Arrays.copyOf(this.added, this.added.length * 2);
+            }
+            int at = 5 * this.addedCount++;
+            this.added[at] = block;
+            this.added[at + 1] = opcode.ordinal();
+            this.added[at + 2] = dest;
+            this.added[at + 3] = src1;
+            this.added[at + 4] = src2;
+        }
+
+        private void rewrite() {
+            IRFunction f = this.function;
+            ControlFlowGraph cfg = this.cfg;
+            IRFunction.Code old = f.detachCode();
+            for (int b = 0; b < cfg.getBlockCount(); b++) {
+                int end = cfg.end(b);
+                int last = end > cfg.start(b) && old.opcode(end - 1).isTerminator() ? end - 1 : end;
+                for (int i = cfg.start(b); i < end; i++) {
+                    if (i == last) {
+                        emitAdded(b, false);
+                    }
+                    if (this.removed[i]) {
+                        continue;
+                    }
+                    int at = f.emit(old, i);
+                    for (int k = 0; k < f.useCount(at); k++) {
+                        int use = f.use(at, k);
+                        if (Operand.isRegister(use)) {
+                            f.setUse(at, k, this.replacements[use]);
+                        }
+                    }
+                    if (this.testLoops[i] >= 0) {
+                        f.setSrc1(at, this.testOperands[2 * i]);
+                        f.setSrc2(at, this.testOperands[2 * i + 1]);
+                    }
+                    if (i == cfg.start(b) && old.opcode(i) == Opcode.LABEL) {
+                        emitAdded(b, true);
+                    }
+                }
+                if (last == end) {
+                    emitAdded(b, false);
+                }
+            }
+        }
+
+        private void emitAdded(int block, boolean phis) {
+            IRFunction f = this.function;
+            for (int at = 0; at < 5 * this.addedCount; at += 5) {
+                Opcode opcode = Opcode.of(this.added[at + 1]);
+                if (this.added[at] == block && (opcode == Opcode.PHI) == phis) {
+                    int dest = this.added[at + 2];
+                    f.emit(opcode, f.registerType(dest), dest, this.added[at + 3], this.added[at + 4]);
+                }
+            }
+        }
+    }
+}
@@ -8,6 +8,9 @@ import java.util.Vector;
  * single-dimensional arrays in nested loops. As part of the analysis a simple
  * interface for solving linear Diophantine equations is included.
  *
+ * getAccessPattern only handles two loop variables with equal coefficients in
+ * both references; {@link DependenceTester} handles any affine subscripts.
+ *
  * @author 6.1100 Staff
  */
 
@@ -0,0 +1,254 @@
+package lang.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lang.parallel.DependenceTester.Direction;
+import lang.parallel.DependenceTester.Result;
+
+/**
+ * Memoizing front end to {@link DependenceTester}.
+ *
+ * Every pair of references in a loop nest is a query, so a nest with n references asks O(n^2)
+ * of them, and the same loop shapes recur across methods and across recompiles. Each query is
+ * reduced to a canonical form that keeps only what the answer depends on:
+ * <ul>
+ * <li>loops that neither subscript uses are dropped, since their direction is always "any";
+ * the others keep their nesting order, which direction vectors depend on;</li>
+ * <li>each used loop is shifted to start at 0, moving its lower bound into the constant, which
+ * changes neither directions nor distances;</li>
+ * <li>the dependence equation is divided by the gcd of all its coefficients and its constant,
+ * and negated if needed so that its first nonzero term is positive.</li>
+ * </ul>
+ * The canonical form is a flat sequence of longs, which is the key of an open-addressing hash
+ * table: the keys are stored back to back in one long[] arena, and each slot holds an entry
+ * index, so a lookup hashes and compares primitives only. A hit maps the cached answer back to
+ * the query's loops. Answers may be shared between queries and must not be modified.
+ *
+ * A cache is not thread-safe.
+ */
+public class DependenceCache {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Keys of all entries, back to back; entry e's key is keys[keyStarts[e], keyStarts[e + 1])
+    private long[] keys = new long[INITIAL_CAPACITY * 8];
+    private int[] keyStarts = new int[INITIAL_CAPACITY + 1];
+    private int[] keyHashes = new int[INITIAL_CAPACITY];
+    private Result[] results = new Result[INITIAL_CAPACITY];
+    private int count = 0;
+    private int[] slots = new int[INITIAL_CAPACITY * 2]; // entry + 1, or 0 if empty
+
+    private long[] key = new long[16]; // canonical form of the query in progress
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Answers the same query as {@code new DependenceTester(lower, upper).test(source, sink)}.
+     */
+    public Result test(long[] lower, long[] upper, long[] source, long[] sink) {
+        int depth = lower.length;
+        if (upper.length != depth || source.length != depth + 1 || sink.length != depth + 1) {
+            throw new IllegalArgumentException("Subscripts must have one coefficient per loop and a constant");
+        }
+        for (int k = 0; k < depth; k++) {
+            if (lower[k] != DependenceTester.UNKNOWN && upper[k] != DependenceTester.UNKNOWN && lower[k] > upper[k]) {
+                return new Result(List.of(), true, new long[depth], new boolean[depth]); // never runs
+            }
+        }
+
+        int[] used = new int[depth];
+        int m = 0;
+        for (int k = 0; k < depth; k++) {
+            if (source[k] != 0 || sink[k] != 0) {
+                used[m++] = k;
+            }
+        }
+        int length = 4 * m + 2;
+        if (this.key.length < length) {
+            this.key = new long[Math.max(length, this.key.length * 2)];
+        }
+        if (!canonicalize(lower, upper, source, sink, used, m)) {
+            this.misses++;
+            return new DependenceTester(lower, upper).test(source, sink); // too large to shift
+        }
+
+        int hash = hash(this.key, length);
+        int mask = this.slots.length - 1;
+        int i = hash & mask;
+        for (; this.slots[i] != 0; i = (i + 1) & mask) {
+            int e = this.slots[i] - 1;
+            if (this.keyHashes[e] == hash && Arrays.equals(this.keys, this.keyStarts[e], this.keyStarts[e + 1],
+                                                           this.key, 0, length)) {
+                this.hits++;
+                return expand(this.results[e], used, m, depth);
+            }
+        }
+
+        this.misses++;
+        Result result = solve(m);
+        insert(i, hash, length, result);
+        return expand(result, used, m, depth);
+    }
+
+    /**
+     * @return The number of distinct canonical queries cached
+     */
+    public int size() {
+        return this.count;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public void clear() {
+        Arrays.fill(this.slots, 0);
+        Arrays.fill(this.results, 0, this.count, null);
+        this.count = 0;
+    }
+
+    /*
+     * Writes the canonical form [m, a..., b..., lower..., upper..., rhs] of the query's used
+     * loops into key. Returns false if shifting the bounds would overflow.
+     */
+    private boolean canonicalize(long[] lower, long[] upper, long[] source, long[] sink, int[] used, int m) {
+        int depth = lower.length;
+        long[] key = this.key;
+        key[0] = m;
+        long rhs;
+        try {
+            rhs = Math.subtractExact(sink[depth], source[depth]); // sum a_k i_k - sum b_k j_k = rhs
+            for (int u = 0; u < m; u++) {
+                int k = used[u];
+                long lo = lower[k];
+                long hi = upper[k];
+                if (lo != DependenceTester.UNKNOWN) {
+                    // i = i' + lo moves (a_k - b_k) lo to the right-hand side
+                    rhs = Math.subtractExact(rhs, Math.multiplyExact(Math.subtractExact(source[k], sink[k]), lo));
+                    hi = hi == DependenceTester.UNKNOWN ? hi : Math.subtractExact(hi, lo);
+                    lo = 0;
+                }
+                key[1 + u] = source[k];
+                key[1 + m + u] = sink[k];
+                key[1 + 2 * m + u] = lo;
+                key[1 + 3 * m + u] = hi;
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        key[1 + 4 * m] = rhs;
+
+        // divide the equation through, and make its first nonzero term positive
+        long g = Math.abs(rhs);
+        for (int u = 1; u <= 2 * m; u++) {
+            g = gcd(g, Math.abs(key[u]));
+        }
+        if (g < 0) {
+            return false; // a term is Long.MIN_VALUE
+        }
+        int first = 1;
+        while (first <= 2 * m && key[first] == 0) {
+            first++;
+        }
+        boolean negative = first <= 2 * m ? key[first] < 0 : rhs < 0;
+        long divisor = g == 0 ? 1 : (negative ? -g : g);
+        for (int u = 1; u <= 2 * m; u++) {
+            key[u] /= divisor;
+        }
+        key[1 + 4 * m] /= divisor;
+        return true;
+    }
+
+    // Runs the tester on the canonical query in key
+    private Result solve(int m) {
+        long[] key = this.key;
+        long[] source = new long[m + 1];
+        long[] sink = new long[m + 1];
+        System.arraycopy(key, 1, source, 0, m);
+        System.arraycopy(key, 1 + m, sink, 0, m);
+        sink[m] = key[1 + 4 * m];
+        return new DependenceTester(Arrays.copyOfRange(key, 1 + 2 * m, 1 + 3 * m),
+                                    Arrays.copyOfRange(key, 1 + 3 * m, 1 + 4 * m)).test(source, sink);
+    }
+
+    // Maps a canonical answer back to the query's loops; dropped loops have any direction
+    private static Result expand(Result canonical, int[] used, int m, int depth) {
+        if (m == depth) {
+            return canonical;
+        }
+        List<Direction[]> directions = new ArrayList<>(canonical.getDirections().size());
+        for (Direction[] vector : canonical.getDirections()) {
+            Direction[] full = new Direction[depth];
+            Arrays.fill(full, Direction.ANY);
+            for (int u = 0; u < m; u++) {
+                full[used[u]] = vector[u];
+            }
+            directions.add(full);
+        }
+        long[] distances = new long[depth];
+        boolean[] known = new boolean[depth];
+        for (int u = 0; u < m; u++) {
+            if (canonical.isDistanceKnown(u)) {
+                known[used[u]] = true;
+                distances[used[u]] = canonical.getDistance(u);
+            }
+        }
+        return new Result(directions, canonical.isExact(), distances, known);
+    }
+
+    private void insert(int slot, int hash, int length, Result result) {
+        int e = this.count++;
+        if (e == this.results.length) {
+            this.results = Arrays.copyOf(this.results, e * 2);
+            this.keyHashes = Arrays.copyOf(this.keyHashes, e * 2);
+            this.keyStarts = Arrays.copyOf(this.keyStarts, e * 2 + 1);
+        }
+        int start = this.keyStarts[e];
+        if (start + length > this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, Math.max(start + length, this.keys.length * 2));
+        }
+        System.arraycopy(this.key, 0, this.keys, start, length);
+        this.keyStarts[e + 1] = start + length;
+        this.keyHashes[e] = hash;
+        this.results[e] = result;
+        this.slots[slot] = e + 1;
+        if (this.count * 2 > this.slots.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        int[] grown = new int[this.slots.length * 2];
+        int mask = grown.length - 1;
+        for (int e = 0; e < this.count; e++) {
+            int i = this.keyHashes[e] & mask;
+            while (grown[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            grown[i] = e + 1;
+        }
+        this.slots = grown;
+    }
+
+    private static int hash(long[] key, int length) {
+        long h = 0;
+        for (int i = 0; i < length; i++) {
+            h = (h + key[i]) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long gcd(long x, long y) {
+        while (y != 0) {
+            long t = x % y;
+            x = y;
+            y = t;
+        }
+        return x;
+    }
+}
@@ -0,0 +1,420 @@
+package lang.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Dependence tester for pairs of array references with affine subscripts in a loop nest.
+ *
+ * A subscript is a primitive array [c_0, ..., c_{n-1}, c] standing for
+ * c_0*i_0 + ... + c_{n-1}*i_{n-1} + c, where i_0 is the variable of the outermost loop and
+ * i_{n-1} that of the innermost. The two references may use any loops with any coefficients.
+ * Each loop runs over a constant inclusive range; a bound that is not known at compile time is
+ * given as {@link #UNKNOWN}.
+ *
+ * The references depend on each other if an iteration i of the first and an iteration j of the
+ * second touch the same element. Dependences are described by direction vectors, which say for
+ * each loop k whether i_k &lt; j_k, i_k = j_k or i_k &gt; j_k. They are found by hierarchical
+ * refinement: starting with every loop at "any direction", one loop at a time is split into
+ * its three directions, and a branch is dropped as soon as a test proves that no dependence
+ * has its directions. Loops whose variable neither subscript uses are never split. Each
+ * candidate faces, in order of cost:
+ * <ul>
+ * <li>the GCD test: the gcd of the equation's coefficients must divide its constant;</li>
+ * <li>Banerjee's inequalities: the constant must lie between the least and greatest values
+ * the left-hand side takes over the loop bounds and the directions;</li>
+ * <li>an exact test, once every direction is fixed and the iteration space of the loops
+ * involved has at most {@link #EXACT_LIMIT} points: the space is searched outright.</li>
+ * </ul>
+ * The first two are sound but not exact, so a direction vector that only they pass is a
+ * possible dependence; {@link Result#isExact()} tells whether every reported vector was
+ * confirmed.
+ *
+ * Where both subscripts have the same coefficients and only one loop's distance is free, the
+ * dependence distance j_k - i_k is constant and reported as well.
+ */
+public class DependenceTester {
+    /** Loop bound that is not known at compile time. */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    /** Largest iteration space searched by the exact test. */
+    public static final long EXACT_LIMIT = 1 << 16;
+
+    // Bounds and coefficients past this are left to the inexact tests, so no sum can overflow
+    private static final long EXACT_MAGNITUDE = 1 << 24;
+
+    public static enum Direction {
+        LT("<"),
+        EQ("="),
+        GT(">"),
+        ANY("*");
+
+        private final String symbol;
+
+        Direction(String symbol) {
+            this.symbol = symbol;
+        }
+
+        @Override
+        public String toString() {
+            return this.symbol;
+        }
+    }
+
+    /**
+     * The dependences between two references.
+     */
+    public static final class Result {
+        private final List<Direction[]> directions;
+        private final boolean exact;
+        private final long[] distances;
+        private final boolean[] distanceKnown;
+
+        Result(List<Direction[]> directions, boolean exact, long[] distances, boolean[] distanceKnown) {
+            this.directions = Collections.unmodifiableList(directions);
+            this.exact = exact;
+            this.distances = distances;
+            this.distanceKnown = distanceKnown;
+        }
+
+        /**
+         * @return Whether the references never touch the same element
+         */
+        public boolean isIndependent() {
+            return this.directions.isEmpty();
+        }
+
+        /**
+         * @return The direction vectors of all possible dependences, outermost loop first
+         */
+        public List<Direction[]> getDirections() {
+            return this.directions;
+        }
+
+        /**
+         * @return Whether every reported direction vector is known to hold for some pair of
+         *         iterations, rather than merely not ruled out
+         */
+        public boolean isExact() {
+            return this.exact;
+        }
+
+        /**
+         * @return Whether j_k - i_k is the same for every dependence
+         */
+        public boolean isDistanceKnown(int loop) {
+            return this.distanceKnown[loop];
+        }
+
+        /**
+         * @return j_k - i_k for every dependence, if {@link #isDistanceKnown(int)}
+         */
+        public long getDistance(int loop) {
+            if (!this.distanceKnown[loop]) {
+                throw new IllegalStateException("Distance of loop " + loop + " is not constant");
+            }
+            return this.distances[loop];
+        }
+
+        /**
+         * Whether a dependence may be carried by the given loop: the iterations may be equal in
+         * every loop outside it but not in it. The loop's iterations can run in parallel unless
+         * this holds.
+         */
+        public boolean isCarriedBy(int loop) {
+            for (Direction[] vector : this.directions) {
+                boolean outerEqual = true;
+                for (int k = 0; k < loop && outerEqual; k++) {
+                    outerEqual = vector[k] == Direction.EQ || vector[k] == Direction.ANY;
+                }
+                if (outerEqual && vector[loop] != Direction.EQ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final long[] lower;
+    private final long[] upper;
+    private final int depth;
+
+    // State of the test in progress
+    private long[] a;
+    private long[] b;
+    private long rhs;
+    private List<Direction[]> found;
+    private boolean exact;
+
+    /**
+     * @param lower Inclusive lower bound of each loop, outermost first, or {@link #UNKNOWN}
+     * @param upper Inclusive upper bound of each loop, outermost first, or {@link #UNKNOWN}
+     */
+    public DependenceTester(long[] lower, long[] upper) {
+        if (lower.length != upper.length) {
+            throw new IllegalArgumentException("Loop bounds differ in length");
+        }
+        this.lower = lower.clone();
+        this.upper = upper.clone();
+        this.depth = lower.length;
+    }
+
+    /**
+     * Tests two references, of which the first is taken as the source: direction LT in a loop
+     * means the source's iteration comes first.
+     * @param source Subscript of the first reference, [c_0, ..., c_{n-1}, c]
+     * @param sink Subscript of the second reference, in the same form
+     */
+    public Result test(long[] source, long[] sink) {
+        if (source.length != this.depth + 1 || sink.length != this.depth + 1) {
+            throw new IllegalArgumentException("Subscripts must have one coefficient per loop and a constant");
+        }
+        this.a = source;
+        this.b = sink;
+        this.rhs = sink[this.depth] - source[this.depth]; // sum a_k i_k - sum b_k j_k = rhs
+        this.found = new ArrayList<>();
+        this.exact = true;
+        try {
+            if (!isEmptyNest()) {
+                Direction[] vector = new Direction[this.depth];
+                Arrays.fill(vector, Direction.ANY);
+                refine(vector, 0);
+            }
+            long[] distances = new long[this.depth];
+            boolean[] known = new boolean[this.depth];
+            distances(distances, known);
+            return new Result(this.found, this.exact || this.found.isEmpty(), distances, known);
+        } finally {
+            this.a = null;
+            this.b = null;
+            this.found = null;
+        }
+    }
+
+    private boolean isEmptyNest() {
+        for (int k = 0; k < this.depth; k++) {
+            if (isKnown(k) && this.lower[k] > this.upper[k]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Splits the first unrefined loop at or after k into its three directions, dropping every
+     * branch that a test rules out.
+     */
+    private void refine(Direction[] vector, int k) {
+        if (!gcdTest(vector) || !banerjeeTest(vector)) {
+            return;
+        }
+        while (k < this.depth && this.a[k] == 0 && this.b[k] == 0) {
+            k++; // neither reference uses this loop; any direction is possible
+        }
+        if (k == this.depth) {
+            int solved = exactTest(vector);
+            if (solved != 0) {
+                this.exact &= solved > 0;
+                this.found.add(vector.clone());
+            }
+            return;
+        }
+        for (Direction direction : new Direction[] { Direction.LT, Direction.EQ, Direction.GT }) {
+            vector[k] = direction;
+            refine(vector, k + 1);
+        }
+        vector[k] = Direction.ANY;
+    }
+
+    /*
+     * GCD test: where a loop's direction is EQ its two variables are one, with coefficient
+     * a_k - b_k; elsewhere they are separate.
+     */
+    private boolean gcdTest(Direction[] vector) {
+        long g = 0;
+        for (int k = 0; k < this.depth; k++) {
+            if (vector[k] == Direction.EQ) {
+                g = gcd(g, this.a[k] - this.b[k]);
+            } else {
+                g = gcd(gcd(g, this.a[k]), this.b[k]);
+            }
+        }
+        return g == 0 ? this.rhs == 0 : this.rhs % g == 0;
+    }
+
+    /*
+     * Banerjee's test: the bounds of sum a_k i_k - b_k j_k are the sums of each loop's bounds,
+     * and each loop's are found at the corners of the region its direction allows.
+     */
+    private boolean banerjeeTest(Direction[] vector) {
+        long min = 0;
+        long max = 0;
+        for (int k = 0; k < this.depth; k++) {
+            long ak = this.a[k];
+            long bk = this.b[k];
+            if ((ak == 0 && bk == 0) || (vector[k] == Direction.EQ && ak == bk)) {
+                continue; // contributes nothing
+            }
+            if (!isKnown(k)) {
+                return true; // unbounded in both directions
+            }
+            long lo = this.lower[k];
+            long hi = this.upper[k];
+            long[] corners;
+            switch (vector[k]) {
+                case LT:
+                    if (lo == hi) {
+                        return false;
+                    }
+                    corners = new long[] { lo, lo + 1, lo, hi, hi - 1, hi };
+                    break;
+                case GT:
+                    if (lo == hi) {
+                        return false;
+                    }
+                    corners = new long[] { lo + 1, lo, hi, lo, hi, hi - 1 };
+                    break;
+                case EQ:
+                    corners = new long[] { lo, lo, hi, hi };
+                    break;
+                default:
+                    corners = new long[] { lo, lo, lo, hi, hi, lo, hi, hi };
+                    break;
+            }
+            try {
+                long least = Long.MAX_VALUE;
+                long greatest = Long.MIN_VALUE;
+                for (int c = 0; c < corners.length; c += 2) {
+                    long value = Math.subtractExact(Math.multiplyExact(ak, corners[c]),
+                                                    Math.multiplyExact(bk, corners[c + 1]));
+                    least = Math.min(least, value);
+                    greatest = Math.max(greatest, value);
+                }
+                min = Math.addExact(min, least);
+                max = Math.addExact(max, greatest);
+            } catch (ArithmeticException e) {
+                return true; // too large to bound; assume the worst
+            }
+        }
+        return min <= this.rhs && this.rhs <= max;
+    }
+
+    /*
+     * Searches a fully refined vector's iteration space for a solution. Returns 1 if there is
+     * one, 0 if there is none, and -1 if the space is too large or its bounds unknown.
+     */
+    private int exactTest(Direction[] vector) {
+        if (Math.abs(this.rhs) > EXACT_MAGNITUDE) {
+            return -1;
+        }
+        long points = 1;
+        for (int k = 0; k < this.depth; k++) {
+            if (this.a[k] == 0 && this.b[k] == 0) {
+                continue;
+            }
+            if (!isKnown(k) || Math.abs(this.lower[k]) > EXACT_MAGNITUDE || Math.abs(this.upper[k]) > EXACT_MAGNITUDE
+                    || Math.abs(this.a[k]) > EXACT_MAGNITUDE || Math.abs(this.b[k]) > EXACT_MAGNITUDE) {
+                return -1;
+            }
+            long range = this.upper[k] - this.lower[k] + 1;
+            points *= vector[k] == Direction.EQ ? range : range * (range - 1) / 2;
+            if (points > EXACT_LIMIT) {
+                return -1;
+            }
+        }
+        return search(vector, 0, this.rhs) ? 1 : 0;
+    }
+
+    // Whether sum over loops k.. of a_k i_k - b_k j_k can equal remaining
+    private boolean search(Direction[] vector, int k, long remaining) {
+        while (k < this.depth && this.a[k] == 0 && this.b[k] == 0) {
+            k++;
+        }
+        if (k == this.depth) {
+            return remaining == 0;
+        }
+        long ak = this.a[k];
+        long bk = this.b[k];
+        long lo = this.lower[k];
+        long hi = this.upper[k];
+        switch (vector[k]) {
+            case EQ:
+                for (long x = lo; x <= hi; x++) {
+                    if (search(vector, k + 1, remaining - (ak - bk) * x)) {
+                        return true;
+                    }
+                }
+                return false;
+            case LT:
+                for (long x = lo; x < hi; x++) {
+                    for (long y = x + 1; y <= hi; y++) {
+                        if (search(vector, k + 1, remaining - ak * x + bk * y)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            default: // GT
+                for (long y = lo; y < hi; y++) {
+                    for (long x = y + 1; x <= hi; x++) {
+                        if (search(vector, k + 1, remaining - ak * x + bk * y)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+        }
+    }
+
+    /*
+     * A loop's distance is constant if it is EQ in every dependence, or if the subscripts have
+     * the same coefficients and it is the only loop they use that is not: then
+     * a_k (j_k - i_k) = c_source - c_sink, and its direction is the distance's sign.
+     */
+    private void distances(long[] distances, boolean[] known) {
+        if (this.found.isEmpty()) {
+            return;
+        }
+        boolean uniform = true;
+        int free = -1;
+        int freeCount = 0;
+        for (int k = 0; k < this.depth; k++) {
+            uniform &= this.a[k] == this.b[k];
+            boolean alwaysEqual = true;
+            for (Direction[] vector : this.found) {
+                alwaysEqual &= vector[k] == Direction.EQ;
+            }
+            if (alwaysEqual) {
+                known[k] = true;
+            } else if (this.a[k] != 0) {
+                free = k;
+                freeCount++;
+            }
+        }
+        if (uniform && freeCount == 1 && this.rhs % this.a[free] == 0) {
+            known[free] = true;
+            distances[free] = -this.rhs / this.a[free];
+            // vectors the inexact tests let through with the wrong sign are not dependences
+            Direction sign = distances[free] > 0 ? Direction.LT : distances[free] < 0 ? Direction.GT : Direction.EQ;
+            int loop = free;
+            this.found.removeIf(vector -> vector[loop] != sign);
+        }
+    }
+
+    private boolean isKnown(int loop) {
+        return this.lower[loop] != UNKNOWN && this.upper[loop] != UNKNOWN;
+    }
+
+    private static long gcd(long x, long y) {
+        x = Math.abs(x);
+        y = Math.abs(y);
+        while (y != 0) {
+            long t = x % y;
+            x = y;
+            y = t;
+        }
+        return x;
+    }
+}
@@ -0,0 +1,20 @@
+package lang.scanner;
+
+import lang.types.LexicalToken;
+
+/**
+ * Receives tokens from a scanner in batches while the scan is still running, so a consumer
+ * such as a parser on another thread can start before the whole input is scanned.
+ */
+public interface TokenSink {
+    /**
+     * Accepts the next batch of tokens, in source order. The scanner does not reuse the array.
+     * @param batch Tokens scanned since the previous batch
+     */
+    void accept(LexicalToken[] batch);
+
+    /**
+     * Called once after the last batch when the scan completes.
+     */
+    void close();
+}
@@ -1,7 +1,10 @@
 package lang.types;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Objects;
 
 import lombok.Getter;
@@ -17,6 +20,7 @@ public class ASTBase {
         EXPR
     }
 
+    @Getter @Setter
     private Environment type;
     private List<ASTBase> children = new ArrayList<>(); // Initialize to avoid null pointer
     @Getter @Setter
@@ -27,6 +31,11 @@ public class ASTBase {
         this.children = new ArrayList<>();
     }
 
+    public ASTBase(Environment type, LexicalToken token) {
+        this(token);
+        this.type = type;
+    }
+
     public int getNumChildren() {
         return this.children.size();
     }
@@ -118,72 +127,96 @@ public class ASTBase {
     public List<ASTBase> getChildren() {
         return new ArrayList<>(children); // Return defensive copy
     }
+
+    /**
+     * Read-only view of this node's children. Unlike {@link #getChildren()} nothing is copied,
+     * so the view reflects later changes to the node.
+     * @return An unmodifiable view of the children
+     */
+    public List<ASTBase> children() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * Walks this subtree iteratively, calling the visitor on entry to and exit from every node.
+     * @param visitor The visitor to call
+     */
+    public void accept(ASTVisitor visitor) {
+        ASTCursor cursor = new ASTCursor(this);
+        while (cursor.advance()) {
+            if (cursor.event() == ASTCursor.Event.ENTER) {
+                if (!visitor.enter(cursor.node(), cursor.depth())) {
+                    cursor.skipChildren();
+                }
+            } else {
+                visitor.exit(cursor.node(), cursor.depth());
+            }
+        }
+    }
     
     /**
      * Pretty-prints this AST node and all its children in a tree format
      * @return A formatted string representation of the AST
      */
     public String prettyPrint() {
-        return prettyPrint(0, "");
+        StringBuilder sb = new StringBuilder();
+        try {
+            prettyPrint(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        return sb.toString();
     }
 
     /**
-     * Pretty-prints this AST node with indentation
-     * @param depth Current depth in the tree (for indentation)
-     * @param prefix Prefix for tree structure visualization
-     * @return A formatted string representation of the AST
+     * Streams the pretty-printed tree to the given output, one line per node.
+     * The tree is walked iteratively and nothing is buffered, so the cost is linear in the
+     * size of the output and extra memory is proportional to the depth of the tree.
+     * @param out Destination for the formatted tree
+     * @throws IOException if writing to out fails
      */
-    private String prettyPrint(int depth, String prefix) {
-        StringBuilder sb = new StringBuilder();
-        
-        // Add the current node
-        sb.append(prefix);
-        
-        // Show node type and token info
-        String nodeType = this.getClass().getSimpleName();
-        String tokenInfo = "";
-        
+    public void prettyPrint(Appendable out) throws IOException {
+        ASTCursor cursor = new ASTCursor(this);
+        while (cursor.nextPreOrder()) {
+            int depth = cursor.depth();
+            // Ancestors draw a rail if more siblings follow them
+            for (int level = 1; level < depth; level++) {
+                out.append(cursor.isLastChild(level) ? "    " : "│   ");
+            }
+            if (depth > 0) {
+                out.append(cursor.isLastChild(depth) ? "└── " : "├── ");
+            }
+            cursor.node().appendLabel(out);
+            out.append('\n');
+        }
+    }
+
+    /*
+     * Show node type and token info, plus operator info for expressions
+     */
+    private void appendLabel(Appendable out) throws IOException {
+        out.append(this.getClass().getSimpleName());
         if (this.token != null) {
-            tokenInfo = String.format(" [%s: '%s']", 
-                this.token.getTokenType(), 
-                this.token.getVal());
+            out.append(" [").append(String.valueOf(this.token.getTokenType()))
+               .append(": '").append(this.token.getVal()).append("']");
         }
-        
-        // Special handling for ASTExpr to show operator info
         if (this instanceof ASTExpr) {
             ASTExpr expr = (ASTExpr) this;
-            tokenInfo += String.format(" (%s %s)", 
-                expr.getArity(), 
-                expr.getFixity());
+            out.append(" (").append(String.valueOf(expr.getArity()))
+               .append(' ').append(String.valueOf(expr.getFixity())).append(')');
         }
-        
-        sb.append(nodeType).append(tokenInfo).append("\n");
-        
-        // Add children with proper tree structure
-        int childCount = this.getNumChildren();
-        for (int i = 0; i < childCount; i++) {
-            ASTBase child = this.getChildAt(i);
-            boolean isLast = (i == childCount - 1);
-            
-            String childPrefix = prefix + (isLast ? "└── " : "├── ");
-            String nextPrefix = prefix + (isLast ? "    " : "│   ");
-            
-            sb.append(child.prettyPrint(depth + 1, childPrefix));
-            
-            // For multi-line child output, we need to handle the prefix correctly
-            if (child.getNumChildren() > 0) {
-                // The recursive call already handles the tree structure
-            }
-        }
-        
-        return sb.toString();
     }
 
     /**
      * Prints the AST to System.out for debugging
      */
     public void debugPrint() {
-        System.out.println(prettyPrint());
+        try {
+            prettyPrint(System.out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println();
     }
 
     /**
@@ -192,22 +225,24 @@ public class ASTBase {
      */
     public String toCompactString() {
         StringBuilder sb = new StringBuilder();
-        
-        if (this.token != null) {
-            sb.append(this.token.getVal());
-        } else {
-            sb.append(this.getClass().getSimpleName());
-        }
-        
-        if (this.getNumChildren() > 0) {
-            sb.append("(");
-            for (int i = 0; i < this.getNumChildren(); i++) {
-                if (i > 0) sb.append(", ");
-                sb.append(this.getChildAt(i).toCompactString());
+        ASTCursor cursor = new ASTCursor(this);
+        boolean separate = false; // whether a sibling has been printed before the next node
+        while (cursor.advance()) {
+            ASTBase node = cursor.node();
+            if (cursor.event() == ASTCursor.Event.ENTER) {
+                if (separate) sb.append(", ");
+                separate = false;
+                if (node.token != null) {
+                    sb.append(node.token.getVal());
+                } else {
+                    sb.append(node.getClass().getSimpleName());
+                }
+                if (node.getNumChildren() > 0) sb.append("(");
+            } else {
+                if (node.getNumChildren() > 0) sb.append(")");
+                separate = true;
             }
-            sb.append(")");
         }
-        
         return sb.toString();
     }
 }
@@ -0,0 +1,209 @@
+package lang.types;
+
+import java.util.Arrays;
+
+/**
+ * Iterative cursor over an AST.
+ *
+ * The cursor produces an ENTER event when it reaches a node and an EXIT event once all of the
+ * node's children are done; pre-order iteration reports only the ENTERs and post-order only the
+ * EXITs. The path from the root to the current node is kept in two arrays that grow with the
+ * depth of the tree, so advancing never allocates once the deepest path has been seen and never
+ * recurses. Null children are skipped.
+ *
+ * Typical use:
+ * <pre>
+ *     ASTCursor cursor = new ASTCursor(root);
+ *     while (cursor.nextPreOrder()) {
+ *         visit(cursor.node(), cursor.depth());
+ *     }
+ * </pre>
+ */
+public class ASTCursor {
+    public enum Event {
+        ENTER,
+        EXIT
+    }
+
+    private static final int INITIAL_DEPTH = 32;
+
+    private ASTBase root;
+    private ASTBase[] path = new ASTBase[INITIAL_DEPTH]; // path[k] is the current node at depth k
+    private int[] slot = new int[INITIAL_DEPTH];         // slot[k] is path[k]'s index in path[k - 1]
+    private int depth = -1;
+    private Event event = null;
+    private boolean skipChildren = false;
+
+    public ASTCursor(ASTBase root) {
+        reset(root);
+    }
+
+    /**
+     * Restarts the cursor at a new root, reusing its path arrays.
+     * @param root The root of the tree to walk; may be null for an empty walk
+     */
+    public void reset(ASTBase root) {
+        this.root = root;
+        Arrays.fill(this.path, 0, Math.max(this.depth + 1, 0), null);
+        this.depth = -1;
+        this.event = null;
+        this.skipChildren = false;
+    }
+
+    /**
+     * Moves to the next ENTER or EXIT event.
+     * @return false once the walk is complete
+     */
+    public boolean advance() {
+        if (event == null) {
+            if (root == null || depth >= 0) {
+                return false;
+            }
+            push(root, 0);
+            event = Event.ENTER;
+            return true;
+        }
+        if (event == Event.ENTER) {
+            boolean descend = !skipChildren;
+            skipChildren = false;
+            if (descend && enterChild(path[depth], 0)) {
+                return true;
+            }
+            event = Event.EXIT;
+            return true;
+        }
+        // EXIT: move to the next sibling, or exit the parent
+        if (depth == 0) {
+            path[0] = null;
+            depth = -1;
+            event = null;
+            root = null;
+            return false;
+        }
+        ASTBase parent = path[depth - 1];
+        int next = slot[depth] + 1;
+        path[depth--] = null;
+        if (enterChild(parent, next)) {
+            return true;
+        }
+        event = Event.EXIT;
+        return true;
+    }
+
+    /**
+     * Moves to the next node in pre-order.
+     * @return false once every node has been visited
+     */
+    public boolean nextPreOrder() {
+        while (advance()) {
+            if (event == Event.ENTER) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the next node in post-order.
+     * @return false once every node has been visited
+     */
+    public boolean nextPostOrder() {
+        while (advance()) {
+            if (event == Event.EXIT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips the children of the node just entered. Has no effect on an EXIT event.
+     */
+    public void skipChildren() {
+        if (event == Event.ENTER) {
+            skipChildren = true;
+        }
+    }
+
+    public Event event() {
+        return event;
+    }
+
+    public ASTBase node() {
+        return depth >= 0 ? path[depth] : null;
+    }
+
+    /**
+     * @return Depth of the current node, with the root at 0
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @return The parent of the current node, or null at the root
+     */
+    public ASTBase parent() {
+        return depth > 0 ? path[depth - 1] : null;
+    }
+
+    /**
+     * @return Index of the current node among its parent's children, or -1 at the root
+     */
+    public int childIndex() {
+        return depth > 0 ? slot[depth] : -1;
+    }
+
+    /**
+     * Gets the ancestor of the current node at the given depth.
+     * @param level A depth between 0 and {@link #depth()}
+     */
+    public ASTBase ancestor(int level) {
+        assert level >= 0 && level <= depth : "Ancestor level out of range";
+        return path[level];
+    }
+
+    /**
+     * Checks whether the ancestor at the given depth is the last non-null child of its parent.
+     * The root counts as a last child.
+     * @param level A depth between 0 and {@link #depth()}
+     */
+    public boolean isLastChild(int level) {
+        assert level >= 0 && level <= depth : "Ancestor level out of range";
+        if (level == 0) {
+            return true;
+        }
+        ASTBase parent = path[level - 1];
+        for (int i = slot[level] + 1; i < parent.getNumChildren(); i++) {
+            if (parent.getChildAt(i) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Pushes the first non-null child of parent at or after index from. Returns false if none.
+     */
+    private boolean enterChild(ASTBase parent, int from) {
+        for (int i = from; i < parent.getNumChildren(); i++) {
+            ASTBase child = parent.getChildAt(i);
+            if (child != null) {
+                push(child, i);
+                event = Event.ENTER;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void push(ASTBase node, int index) {
+        depth++;
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, path.length * 2);
+            slot = Arrays.copyOf(slot, slot.length * 2);
+        }
+        path[depth] = node;
+        slot[depth] = index;
+    }
+}
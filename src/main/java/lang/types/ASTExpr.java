@@ -220,6 +220,23 @@ public class ASTExpr extends ASTBase {
             }
             return expr;
         }
+
+        /**
+         * Builds the expression through a hash-consing table. If an identical side-effect-free
+         * expression was already built through the table, that shared node is returned instead
+         * of allocating a new one. A null table behaves like {@link #build()}.
+         */
+        public ASTExpr build(HashConsTable table) {
+            if (table == null) {
+                return build();
+            }
+            ASTExpr shared = table.find(fixity, arity, operator,
+                operands.toArray(new ASTBase[0]), operands.size());
+            if (shared != null) {
+                return shared;
+            }
+            return (ASTExpr) table.intern(build());
+        }
     }
     
     // Static factory methods for binary infix operations
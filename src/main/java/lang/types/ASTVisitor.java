@@ -0,0 +1,25 @@
+package lang.types;
+
+/**
+ * Callback interface for walking an AST with {@link ASTBase#accept(ASTVisitor)}.
+ * The walk is iterative, so visitors are safe to use on arbitrarily deep trees.
+ */
+public interface ASTVisitor {
+    /**
+     * Called when the walk reaches a node, before any of its children.
+     * @param node The node being entered
+     * @param depth Depth of the node, with the root at 0
+     * @return false to skip the node's children; exit is still called for the node
+     */
+    default boolean enter(ASTBase node, int depth) {
+        return true;
+    }
+
+    /**
+     * Called after all of a node's children have been visited.
+     * @param node The node being exited
+     * @param depth Depth of the node, with the root at 0
+     */
+    default void exit(ASTBase node, int depth) {
+    }
+}
@@ -18,9 +18,10 @@ public class CFGNode {
     @Getter private String name;
     @Getter private boolean isTerminal;
     @Getter private CFGNodeKind kind;
+    @Getter private ASTBase.Environment itemEnvironment; // non-null for list nodes: each visit starts an item
     private String successorName; // Name of the successor node after completing this fragment/expression
     public CFGNode getSuccessor() {
-        return this.graph.get(this.successorName);
+        return resolved().successor();
     }
     /*
      * Lookahead can be the string value of the token or the token type
@@ -40,6 +41,19 @@ public class CFGNode {
 
     private Map<LookaheadKey, TransitionInner> transitions;
 
+    /*
+     * Transitions with their target nodes looked up, split by kind of lookahead so matching a
+     * token allocates nothing. Built on first use, once every node of the graph exists; the
+     * graph is shared between parser threads, so it is published whole through a volatile.
+     */
+    private record Resolved(
+        Map<String, Transition> byValue,
+        Transition[] byType,
+        Transition epsilon,
+        CFGNode successor
+    ) {}
+    private volatile Resolved resolved;
+
     CFGNode(CFGGraph graph, String name) {
         this.graph = graph;
         this.name = name;
@@ -47,9 +61,11 @@ public class CFGNode {
         this.isTerminal = true;
         this.kind = CFGNodeKind.NORMAL;
         this.successorName = null;
+        this.itemEnvironment = null;
     }
 
-    CFGNode(CFGGraph graph, String name, Map<LookaheadKey, TransitionInner> transitions, CFGNodeKind kind, String successorName) {
+    CFGNode(CFGGraph graph, String name, Map<LookaheadKey, TransitionInner> transitions, CFGNodeKind kind, String successorName,
+            ASTBase.Environment itemEnvironment) {
         this.graph = graph;
         this.name = name;
         this.graph.register(this);
@@ -57,19 +73,51 @@ public class CFGNode {
         this.isTerminal = false;
         this.kind = kind;
         this.successorName = successorName;
+        this.itemEnvironment = itemEnvironment;
     }
 
     public Transition matchLL1(LexicalToken ll1) throws ParseException {
-        TransitionInner next =
-        transitions.getOrDefault(new TokenValue(ll1.getVal()),
-        transitions.getOrDefault(new TokenTypeKey(ll1.getTokenType()),
-        transitions.get(new Epsilon())));
+        // A rule on the token's value wins over one on its type, which wins over epsilon
+        Resolved r = resolved();
+        Transition next = r.byValue().get(ll1.getVal());
+        if (next == null) {
+            next = r.byType()[ll1.getTokenType().ordinal()];
+        }
+        if (next == null) {
+            next = r.epsilon();
+        }
 
         if (next == null) {
             throw new ParseException("No transition from " + name + " on " + ll1.toString());
         }
-        return new Transition(graph.get(next.targetNodeName), next.consumesToken);
+        return next;
      }
+
+    private Resolved resolved() {
+        Resolved r = this.resolved;
+        if (r == null) {
+            Map<String, Transition> byValue = new HashMap<>();
+            Transition[] byType = new Transition[LexicalToken.TokenType.values().length];
+            Transition epsilon = null;
+            if (transitions != null) {
+                for (Map.Entry<LookaheadKey, TransitionInner> e : transitions.entrySet()) {
+                    TransitionInner inner = e.getValue();
+                    Transition t = new Transition(graph.get(inner.targetNodeName()), inner.consumesToken());
+                    if (e.getKey() instanceof TokenValue v) {
+                        byValue.put(v.value(), t);
+                    } else if (e.getKey() instanceof TokenTypeKey k) {
+                        byType[k.type().ordinal()] = t;
+                    } else {
+                        epsilon = t;
+                    }
+                }
+            }
+            CFGNode successor = successorName == null ? null : graph.get(successorName);
+            r = new Resolved(byValue, byType, epsilon, successor);
+            this.resolved = r;
+        }
+        return r;
+    }
     
     public boolean isExpr() {
         return this.name.equals("EXPR");
@@ -81,6 +129,7 @@ public class CFGNode {
         private Map<LookaheadKey, TransitionInner> transitions = new HashMap<>();
         private CFGNodeKind kind = CFGNodeKind.NORMAL;
         private String successorName = null;
+        private ASTBase.Environment itemEnvironment = null;
 
         CFGNodeBuilder(CFGGraph graph, String name) {
             this.graph = graph;
@@ -97,6 +146,15 @@ public class CFGNode {
             return this;
         }
 
+        /*
+         * Marks this node as the head of a list of declarations or statements. The parser
+         * starts a new item of the given environment every time it passes through the node.
+         */
+        public CFGNodeBuilder items(ASTBase.Environment environment) {
+            this.itemEnvironment = environment;
+            return this;
+        }
+
         public CFGNodeBuilder rule(String lookahead, String targetNodeName) {
             transitions.put(new TokenValue(lookahead), new TransitionInner(targetNodeName, true));
             return this;
@@ -126,7 +184,7 @@ public class CFGNode {
                 }
             }
 
-            return new CFGNode(graph, name, transitions, kind, successorName);
+            return new CFGNode(graph, name, transitions, kind, successorName, itemEnvironment);
         }
     }
 }
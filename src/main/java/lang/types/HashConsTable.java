@@ -0,0 +1,243 @@
+package lang.types;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Hash-consing table for side-effect-free expression nodes.
+ *
+ * Structurally identical subexpressions built through the table share a single node, so
+ * {@code x*x + x*x} is stored as a DAG with one {@code x*x} node. Every shared node is
+ * assigned a value number in creation order; equal value numbers mean the two subexpressions
+ * are syntactically identical. They are hints only: a later phase must still check that no
+ * operand was written between the two occurrences before reusing a value.
+ *
+ * Only pure nodes are shared: identifier and literal leaves, and operators whose operands are
+ * themselves shared. Method calls and {@code ++}/{@code --} are never shared, and neither is
+ * anything built on top of them. Because every child of a shared node is canonical, two
+ * candidates are compared by token, fixity, arity and child identity, which keeps each lookup
+ * O(1) instead of the O(n) walk done by {@link ASTBase#equals(ASTBase)}.
+ *
+ * Shared nodes may be referenced from many parents and must not be mutated. A shared leaf keeps
+ * the token of its first occurrence, so its line and column point at that occurrence.
+ */
+public class HashConsTable {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private ASTBase[] slots = new ASTBase[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] valueNumbers = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private int nextValueNumber = 0;
+
+    /**
+     * Returns the shared leaf for the given token, creating it on first use.
+     * @param token An identifier or literal token
+     * @return The canonical leaf node
+     */
+    public ASTBase leaf(LexicalToken token) {
+        int hash = hash(token, null, null, null, 0);
+        ASTBase existing = find(hash, token, null, null, null, 0);
+        if (existing != null) {
+            return existing;
+        }
+        ASTBase node = new ASTBase(token);
+        insert(node, hash);
+        return node;
+    }
+
+    /**
+     * Returns the shared node for an operator applied to the given operands, or null if the
+     * combination is impure and must be allocated fresh.
+     */
+    ASTExpr find(ASTExpr.Fixity fixity, ASTExpr.Arity arity, LexicalToken operator,
+                 ASTBase[] operands, int count) {
+        if (!isPure(arity, operator, operands, count)) {
+            return null;
+        }
+        int hash = hash(operator, fixity, arity, operands, count);
+        return (ASTExpr) find(hash, operator, fixity, arity, operands, count);
+    }
+
+    /**
+     * Interns a freshly built node. Returns the canonical node if an identical one already
+     * exists, the node itself if it was added, or the node unchanged if it cannot be shared.
+     * @param node The node to intern; its children should already be canonical
+     * @return The node to use in place of the argument
+     */
+    public ASTBase intern(ASTBase node) {
+        ASTExpr.Fixity fixity = null;
+        ASTExpr.Arity arity = null;
+        if (node instanceof ASTExpr) {
+            fixity = ((ASTExpr) node).getFixity();
+            arity = ((ASTExpr) node).getArity();
+        } else if (node.getNumChildren() > 0 || node.getToken() == null) {
+            return node; // only leaves and expressions are shared
+        }
+        int count = node.getNumChildren();
+        ASTBase[] operands = new ASTBase[count];
+        for (int i = 0; i < count; i++) {
+            operands[i] = node.getChildAt(i);
+        }
+        if (arity != null && !isPure(arity, node.getToken(), operands, count)) {
+            return node;
+        }
+        int hash = hash(node.getToken(), fixity, arity, operands, count);
+        ASTBase existing = find(hash, node.getToken(), fixity, arity, operands, count);
+        if (existing != null) {
+            return existing;
+        }
+        insert(node, hash);
+        return node;
+    }
+
+    /**
+     * Gets the value number of a shared node.
+     * @param node The node to look up
+     * @return The value number, or -1 if the node is not shared through this table
+     */
+    public int valueNumber(ASTBase node) {
+        if (node == null) {
+            return -1;
+        }
+        int hash = hashOf(node);
+        int mask = slots.length - 1;
+        for (int i = hash & mask; slots[i] != null; i = (i + 1) & mask) {
+            if (slots[i] == node) {
+                return valueNumbers[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops every shared node. Called at method boundaries so that sharing stays method-local.
+     */
+    public void clear() {
+        Arrays.fill(slots, null);
+        size = 0;
+        nextValueNumber = 0;
+    }
+
+    /**
+     * @return The number of distinct shared nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    private boolean isPure(ASTExpr.Arity arity, LexicalToken operator, ASTBase[] operands, int count) {
+        if (arity == ASTExpr.Arity.UNBOUNDED) {
+            return false; // method call
+        }
+        if (operator != null && ("++".equals(operator.getVal()) || "--".equals(operator.getVal()))) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (valueNumber(operands[i]) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ASTBase find(int hash, LexicalToken token, ASTExpr.Fixity fixity, ASTExpr.Arity arity,
+                         ASTBase[] operands, int count) {
+        int mask = slots.length - 1;
+        for (int i = hash & mask; slots[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && matches(slots[i], token, fixity, arity, operands, count)) {
+                return slots[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(ASTBase candidate, LexicalToken token, ASTExpr.Fixity fixity,
+                                   ASTExpr.Arity arity, ASTBase[] operands, int count) {
+        if (!Objects.equals(candidate.getToken(), token) || candidate.getNumChildren() != count) {
+            return false;
+        }
+        if (candidate instanceof ASTExpr) {
+            ASTExpr expr = (ASTExpr) candidate;
+            if (expr.getFixity() != fixity || expr.getArity() != arity) {
+                return false;
+            }
+        } else if (arity != null) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (candidate.getChildAt(i) != operands[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(ASTBase node, int hash) {
+        if ((size + 1) * 4 > slots.length * 3) {
+            grow();
+        }
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] != null) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = node;
+        hashes[i] = hash;
+        valueNumbers[i] = nextValueNumber++;
+        size++;
+    }
+
+    private void grow() {
+        ASTBase[] oldSlots = slots;
+        int[] oldHashes = hashes;
+        int[] oldNumbers = valueNumbers;
+        slots = new ASTBase[oldSlots.length * 2];
+        hashes = new int[oldSlots.length * 2];
+        valueNumbers = new int[oldSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int j = 0; j < oldSlots.length; j++) {
+            if (oldSlots[j] == null) continue;
+            int i = oldHashes[j] & mask;
+            while (slots[i] != null) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = oldSlots[j];
+            hashes[i] = oldHashes[j];
+            valueNumbers[i] = oldNumbers[j];
+        }
+    }
+
+    private static int hash(LexicalToken token, ASTExpr.Fixity fixity, ASTExpr.Arity arity,
+                            ASTBase[] operands, int count) {
+        int h = seed(token, fixity, arity);
+        for (int i = 0; i < count; i++) {
+            h = 31 * h + System.identityHashCode(operands[i]);
+        }
+        return spread(h);
+    }
+
+    /*
+     * Same hash as above, reading the children straight from an existing node.
+     */
+    private static int hashOf(ASTBase node) {
+        int h = node instanceof ASTExpr
+            ? seed(node.getToken(), ((ASTExpr) node).getFixity(), ((ASTExpr) node).getArity())
+            : seed(node.getToken(), null, null);
+        for (int i = 0; i < node.getNumChildren(); i++) {
+            h = 31 * h + System.identityHashCode(node.getChildAt(i));
+        }
+        return spread(h);
+    }
+
+    private static int seed(LexicalToken token, ASTExpr.Fixity fixity, ASTExpr.Arity arity) {
+        int h = Objects.hashCode(token);
+        h = 31 * h + (fixity == null ? 0 : fixity.ordinal() + 1);
+        return 31 * h + (arity == null ? 0 : arity.ordinal() + 1);
+    }
+
+    private static int spread(int h) {
+        // children are hashed by identity; mix the bits so linear probing on the low bits stays short
+        return h ^ (h >>> 16);
+    }
+}
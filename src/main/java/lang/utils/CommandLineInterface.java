@@ -24,6 +24,8 @@ public class CommandLineInterface {
                 "  -o <outfile>            --output <outfile>         write output to <outfile>\n" +
                 "  -O <(opt|-opt|all)...>  --opt <(opt|-opt|all)...>  perform the listed optimizations\n" +
                 "  -d                      --debug                    print debugging information\n" +
+                "  -b                      --binary                   write scan/parse output in binary\n" +
+                "                          --inline-budget <percent>  limit code growth from inlining\n" +
                 "  -h                      --help                     print help information\n" +
                 "\n" +
                 "Long description of options:\n" +
@@ -40,6 +42,13 @@ public class CommandLineInterface {
                 "                      explicitly disable an optimization by prefixing its name\n" +
                 "                      with '-'.\n" +
                 "\n" +
+                "  -b                  With -t scan or -t parse, write the token stream (and the\n" +
+                "  --binary            syntax tree) in the compact binary format instead of text.\n" +
+                "\n" +
+                "  --inline-budget <percent>\n" +
+                "                      With -O inline, let inlining grow the program by at most\n" +
+                "                      <percent> percent of its size.  The default is 100.\n" +
+                "\n" +
                 "  -o <outfile>        Write output to <outfile>.  If this option is not given,\n" +
                 "  --output <outfile>  output will be written to a file with the same base name as\n" +
                 "                      the input file and the extension changed according to the\n" +
@@ -93,6 +102,18 @@ public class CommandLineInterface {
      */
     public static boolean debug;
 
+    /**
+     * The binary flag.  This is true if <tt>-b</tt> or <tt>--binary</tt> was
+     * passed on the command line, requesting scan and parse output in binary form.
+     */
+    public static boolean binary;
+
+    /**
+     * The inlining budget, a percentage of the program's size, given with
+     * <tt>--inline-budget</tt>.  This is -1 if the option was not given.
+     */
+    public static int inlineBudget;
+
     /*
       Sets up default values for all of the
       result fields.  Specifically, sets the input and output files
@@ -103,6 +124,7 @@ public class CommandLineInterface {
         outfile = null;
         infile = null;
         target = CompilerAction.DEFAULT;
+        inlineBudget = -1;
         extras = new ArrayList<>();
     }
 
@@ -137,6 +159,8 @@ public class CommandLineInterface {
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--debug") || args[i].equals("-d")) {
                 debug = true;
+            } else if (args[i].equals("--binary") || args[i].equals("-b")) {
+                binary = true;
             } else if (args[i].equals("--help") || args[i].equals("-h")) {
                 printUsage("");
             } else if (args[i].equals("--output") || args[i].equals("-o")) {
@@ -147,6 +171,14 @@ public class CommandLineInterface {
                     printUsage("No output file specified with option " + args[i]);
                     throw new IllegalArgumentException("Incomplete option " + args[i]);
                 }
+            } else if (args[i].equals("--inline-budget")) {
+                if (i < (args.length - 1) && args[i + 1].matches("\\d{1,9}")) {
+                    inlineBudget = Integer.parseInt(args[i + 1]);
+                    i++;
+                } else {
+                    printUsage("No percentage specified with option " + args[i]);
+                    throw new IllegalArgumentException("Incomplete option " + args[i]);
+                }
             } else if (args[i].equals("--target") || args[i].equals("-t")) {
                 if (i < (args.length - 1)) {
                     targetStr = args[i + 1];
@@ -0,0 +1,179 @@
+package lang.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread.
+ *
+ * The producer only writes the tail index and the consumer only writes the head index, so
+ * neither side ever contends on a lock or a CAS. Each side caches the other's index and only
+ * rereads it when the cached value says the ring is full (or empty). A side that has to wait
+ * spins briefly, then parks until the other side publishes; wakeups are only issued when the
+ * other side is actually parked.
+ *
+ * The producer ends the stream with {@link #close()} or {@link #fail(Throwable)}; the consumer
+ * can abandon it with {@link #cancel()}, after which puts are dropped instead of blocking.
+ *
+ * @param <T> Element type; null elements are not allowed
+ */
+public class SpscRingBuffer<T> {
+    private static final int SPINS = 1 << 10;
+
+    private final Object[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to take, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next slot to fill, written by the producer
+    private long cachedHead = 0; // producer's view of head
+    private long cachedTail = 0; // consumer's view of tail
+
+    private volatile boolean closed = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable failure = null;
+    private volatile Thread parkedProducer = null;
+    private volatile Thread parkedConsumer = null;
+
+    /**
+     * @param capacity Maximum number of queued elements, rounded up to a power of two
+     */
+    public SpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an element, waiting while the ring is full. Producer thread only.
+     *
+     * The element is either published, and visible to {@link #take()} in order, or dropped
+     * because the consumer had cancelled; it is never written without being published. A
+     * cancel that comes after the element is published does not unpublish it, though the
+     * consumer is then unlikely to take it.
+     *
+     * @return true if the element was published, false if it was dropped
+     */
+    public boolean put(T element) {
+        if (element == null) {
+            throw new NullPointerException("Null elements are not allowed");
+        }
+        long t = tail.get();
+        int spins = 0;
+        while (t - cachedHead == slots.length) {
+            cachedHead = head.get();
+            if (t - cachedHead < slots.length) {
+                break;
+            }
+            if (cancelled) {
+                return false;
+            }
+            if (spins++ < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                parkedProducer = Thread.currentThread();
+                if (head.get() == cachedHead && !cancelled) {
+                    LockSupport.park(this);
+                }
+                parkedProducer = null;
+            }
+        }
+        if (cancelled) {
+            return false;
+        }
+        slots[(int) t & mask] = element;
+        tail.set(t + 1);
+        wake(parkedConsumer);
+        return true;
+    }
+
+    /**
+     * Removes the next element, waiting while the ring is empty. Consumer thread only.
+     * @return The next element, or null once the producer has closed and the ring is drained
+     * @throws RuntimeException the producer's failure, if it ended the stream with one
+     */
+    @SuppressWarnings("unchecked")
+    public T take() {
+        long h = head.get();
+        int spins = 0;
+        while (h == cachedTail) {
+            cachedTail = tail.get();
+            if (h < cachedTail) {
+                break;
+            }
+            if (closed) {
+                // everything published before close is visible now
+                cachedTail = tail.get();
+                if (h == cachedTail) {
+                    rethrowFailure();
+                    return null;
+                }
+                break;
+            }
+            if (spins++ < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                parkedConsumer = Thread.currentThread();
+                if (tail.get() == h && !closed) {
+                    LockSupport.park(this);
+                }
+                parkedConsumer = null;
+            }
+        }
+        int index = (int) h & mask;
+        T element = (T) slots[index];
+        slots[index] = null;
+        head.set(h + 1);
+        wake(parkedProducer);
+        return element;
+    }
+
+    /**
+     * Ends the stream. Producer thread only.
+     */
+    public void close() {
+        closed = true;
+        wake(parkedConsumer);
+    }
+
+    /**
+     * Ends the stream with a failure that {@link #take()} rethrows once the ring is drained.
+     */
+    public void fail(Throwable cause) {
+        failure = cause;
+        close();
+    }
+
+    /**
+     * Abandons the stream: later puts are dropped and a waiting producer is released.
+     * Consumer thread only.
+     */
+    public void cancel() {
+        cancelled = true;
+        wake(parkedProducer);
+    }
+
+    private static void wake(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable cause = failure;
+        if (cause == null) {
+            return;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException("Producer failed", cause);
+    }
+}
@@ -0,0 +1,347 @@
+package lang.analyzer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import lang.IncrementalParse;
+import lang.Parse;
+import lang.ParseException;
+import lang.Scan;
+import lang.SemanticException;
+import lang.grammars.decaf.DecafAnalyzer;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.types.ASTBase;
+import lang.types.ASTExpr;
+import lang.types.LexicalToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+public class DecafAnalyzerTest {
+
+    private static void analyze(String source) throws ParseException, SemanticException {
+        Scan scan = new Scan(source);
+        scan.scan();
+        new DecafAnalyzer().analyze(new Parse(scan.getTokens(), new DecafCFGGraph()).parseProgram());
+    }
+
+    @Test
+    public void testScopesShadowAndUnwind() {
+        SymbolTable<String> table = new SymbolTable<>();
+        int x = table.intern("x");
+        assertEquals(x, table.intern("x"));
+        assertEquals(SymbolTable.NOT_FOUND, table.find("y"));
+
+        table.enterScope();
+        assertNull(table.declare(x, "global"));
+        assertEquals("global", table.declare(x, "again"));
+        table.enterScope();
+        assertNull(table.declare(x, "local"));
+        assertEquals("local", table.lookup(x));
+        assertEquals(2, table.scopeOf(x));
+        table.exitScope();
+        assertEquals("global", table.lookup(x));
+        table.exitScope();
+        assertNull(table.lookup(x));
+        assertEquals(0, table.scopeOf(x));
+    }
+
+    @Test
+    public void testInternsManyNames() {
+        SymbolTable<Integer> table = new SymbolTable<>();
+        table.enterScope();
+        for (int i = 0; i < 100_000; i++) {
+            assertNull(table.declare(table.intern("v" + i), i));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals((Integer) i, table.lookup(table.find("v" + i)));
+        }
+        assertEquals(100_000, table.size());
+    }
+
+    @Test
+    public void testChildTablesShareFrozenGlobals() {
+        SymbolTable<String> globals = new SymbolTable<>();
+        globals.enterScope();
+        int g = globals.intern("g");
+        globals.declare(g, "global");
+        assertThrows(IllegalStateException.class, () -> new SymbolTable<>(globals));
+        globals.freeze();
+        assertThrows(IllegalStateException.class, () -> globals.intern("h"));
+
+        SymbolTable<String> first = new SymbolTable<>(globals);
+        SymbolTable<String> second = new SymbolTable<>(globals);
+        assertEquals(g, first.intern("g"));
+        assertEquals(first.intern("local"), second.intern("local"));
+        first.enterScope();
+        assertNull(first.declare(g, "shadow"));
+        assertEquals("shadow", first.lookup(g));
+        assertEquals("global", second.lookup(g));
+        first.exitScope();
+        assertEquals("global", first.lookup(g));
+        assertThrows(IllegalStateException.class, first::exitScope);
+        assertEquals(SymbolTable.NOT_FOUND, globals.find("local"));
+    }
+
+    @Test
+    public void testParallelBodiesReportSameErrors() throws ParseException {
+        StringBuilder source = new StringBuilder("int g;\n");
+        for (int m = 0; m < 1000; m++) {
+            source.append("int f").append(m).append("(int x) { int y; ")
+                .append(m % 97 == 0 ? "y = true; " : "y = x + g; ")
+                .append(m % 89 == 0 ? "f" + (m + 1) + "(1); " : "")
+                .append("return y; }\n");
+        }
+        source.append("void main() { }\n");
+        Scan scan = new Scan(source.toString());
+        scan.scan();
+        ASTBase program = new Parse(scan.getTokens(), new DecafCFGGraph()).parseProgram();
+
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SemanticException sequential = assertThrows(SemanticException.class,
+                () -> new DecafAnalyzer(single).analyze(program));
+            assertEquals(11 + 12, sequential.getMessage().split("\n").length);
+            for (int run = 0; run < 5; run++) {
+                SemanticException parallel = assertThrows(SemanticException.class,
+                    () -> new DecafAnalyzer(pool).analyze(program));
+                assertEquals(sequential.getMessage(), parallel.getMessage());
+            }
+        } finally {
+            single.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    private static List<LexicalToken> tokens(String source) {
+        Scan scan = new Scan(source);
+        scan.scan();
+        return scan.getTokens();
+    }
+
+    private static int indexOf(List<LexicalToken> tokens, String val, int occurrence) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).getVal().equals(val) && occurrence-- == 0) {
+                return i;
+            }
+        }
+        throw new AssertionError("No token " + val);
+    }
+
+    private static String errors(DecafAnalyzer analyzer, ASTBase program) {
+        return assertThrows(SemanticException.class, () -> analyzer.analyze(program)).getMessage();
+    }
+
+    @Test
+    public void testReanalyzesOnlyAffectedBodies() throws ParseException, SemanticException {
+        StringBuilder source = new StringBuilder("int g;\n");
+        for (int m = 0; m < 200; m++) {
+            source.append("int f").append(m).append("(int x) { if (x > 0) { return x + g; } return ")
+                .append(m == 0 ? "0" : "f" + (m - 1) + "(x)").append("; }\n");
+        }
+        source.append("void main() { f199(1); }\n");
+        Scan scan = new Scan(source.toString());
+        scan.scan();
+        IncrementalParse parser = new IncrementalParse(scan.getTokens(), new DecafCFGGraph());
+        DecafAnalyzer analyzer = new DecafAnalyzer();
+        ASTBase program = parser.parseProgram();
+        analyzer.analyze(program);
+        assertEquals(201, analyzer.getCheckedBodyCount());
+        analyzer.analyze(program);
+        assertEquals(0, analyzer.getCheckedBodyCount());
+
+        // f100: return x + g;  ->  return x + true;  (inside a nested block, so reparsed in place)
+        int g = indexOf(parser.getTokens(), "g", 101);
+        program = parser.reparse(g, g + 1, tokens("true"));
+        for (ASTBase body : parser.getBodiesChangedInPlace()) {
+            analyzer.invalidate(body);
+        }
+        String incremental = errors(analyzer, program);
+        assertEquals(1, analyzer.getCheckedBodyCount());
+        assertEquals(errors(new DecafAnalyzer(), program), incremental);
+        assertTrue(incremental.startsWith("Operands of '+' must be int or long (found int and bool)"));
+
+        // int f50(int x)  ->  long f50(int x): f50 and its only caller, f51, are checked again
+        int f50 = indexOf(parser.getTokens(), "f50", 0);
+        program = parser.reparse(f50 - 1, f50, tokens("long"));
+        incremental = errors(analyzer, program);
+        assertEquals(2, analyzer.getCheckedBodyCount());
+        assertEquals(errors(new DecafAnalyzer(), program), incremental);
+        assertTrue(incremental.contains("Return value must be int (found long)"), incremental);
+    }
+
+    @Test
+    public void testDeepExpressionsNeedNoStack() throws ParseException {
+        Scan scan = new Scan("void main() { int x; x = 1; }");
+        scan.scan();
+        ASTBase program = new Parse(scan.getTokens(), new DecafCFGGraph()).parseProgram();
+        ASTBase assignment = program.getChildAt(0).getChildAt(4).getChildAt(1); // x = 1 ;
+
+        // x = x + (x + (x + ... + true)), far deeper than any recursive checker could go
+        ASTBase deep = ASTExpr.leaf(new LexicalToken(LexicalToken.TokenType.BOOLEANLITERAL, "true", 1, 0));
+        for (int i = 0; i < 200_000; i++) {
+            deep = ASTExpr.add().left(ASTExpr.leaf("x")).right(deep).build();
+        }
+        assignment.setChild(2, deep);
+        SemanticException e = assertThrows(SemanticException.class, () -> new DecafAnalyzer().analyze(program));
+        assertTrue(e.getMessage().startsWith("Operands of '+' must be int or long (found int and bool)"));
+        assertEquals(1, e.getMessage().split("\n").length);
+    }
+
+    @Test
+    public void testFoldsConstantsWithWraparound() throws ParseException, SemanticException {
+        Scan scan = new Scan(String.join("\n",
+            "int a[0x10];",
+            "void main() {",
+            "    int x; long y;",
+            "    x = 10 * 1024 + 3;",
+            "    y = long(x) * (2L + 3L);",
+            "    x = len(a) - 'A';",
+            "    x = 2147483647 + 1;",
+            "    y = -9223372036854775808L - 1L;",
+            "    x = x / (1 - 1);",
+            "    x = -2147483648 / -1;",
+            "    y = -9223372036854775808L % -1L;",
+            "}"));
+        scan.scan();
+        ASTBase program = new Parse(scan.getTokens(), new DecafCFGGraph()).parseProgram();
+        DecafAnalyzer analyzer = new DecafAnalyzer();
+        analyzer.analyze(program);
+
+        ASTBase block = program.getChildAt(1).getChildAt(4);
+        assertEquals("10243", analyzer.folded(block.getChildAt(2), 2).getToken().getVal());
+        ASTBase product = analyzer.folded(block.getChildAt(3), 2);
+        assertEquals("*", product.getToken().getVal());
+        assertEquals("5L", product.getChildAt(1).getToken().getVal());
+        assertEquals("-49", analyzer.folded(block.getChildAt(4), 2).getToken().getVal());
+        assertEquals("-2147483648", analyzer.folded(block.getChildAt(5), 2).getToken().getVal());
+        assertEquals("9223372036854775807L", analyzer.folded(block.getChildAt(6), 2).getToken().getVal());
+        // division by zero is left to run time, but its constant divisor is still folded
+        ASTBase quotient = analyzer.folded(block.getChildAt(7), 2);
+        assertEquals("/", quotient.getToken().getVal());
+        assertEquals("0", quotient.getChildAt(1).getToken().getVal());
+        // so is the least value divided by -1, which traps too
+        assertEquals("/", analyzer.folded(block.getChildAt(8), 2).getToken().getVal());
+        assertEquals("%", analyzer.folded(block.getChildAt(9), 2).getToken().getVal());
+
+        // the tree itself is left as parsed
+        assertEquals("+", block.getChildAt(2).getChildAt(2).getToken().getVal());
+        assertEquals("-", block.getChildAt(4).getChildAt(2).getToken().getVal());
+        assertSame(block.getChildAt(7).getChildAt(2).getChildAt(0), quotient.getChildAt(0));
+
+        // folded literals are themselves legal
+        assertDoesNotThrow(() -> new DecafAnalyzer().analyze(program));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "void main() { }",
+        "int a[0x10]; void main() { int x; long y; x = -2147483648; y = -0x8000000000000000L; x = len(a) + int(y); }",
+        "import printf; int a[10]; long b; void main() { a[2] = 3; b = 4L; printf(\"%d %d\", a[2], a); }",
+        "int f(int x, bool y) { if (y && !(x > 0)) { return x; } else if (x == 1) { return -x; } else { } return 0; } void main() { f(1, true); }",
+        "int f(int n) { if (n < 2) { return n; } return f(n - 1) + f(n - 2); } void main() { int x; x = f(10); }",
+        "void main() { int i, s; s = 0; for (i = 0; i < 10; i += 1) { if (i == 5) { continue; } s *= i; } while (s > 0) { break; } }",
+        "int main2; void f() { } void main() { bool main2; main2 = true; f(); }",
+        "void main() { int x; if (true) { bool x; x = false; } x = 1; }",
+    })
+    public void testLegalPrograms(String source) {
+        assertDoesNotThrow(() -> analyze(source));
+    }
+
+    private static Stream<Arguments> illegalPrograms() {
+        return Stream.of(
+            Arguments.of("int x; int x; void main() { }",
+                "'x' is already declared in this scope"),
+            Arguments.of("import f; int f; void main() { }",
+                "'f' is already declared in this scope"),
+            Arguments.of("void f(int a) { int a; } void main() { }",
+                "'a' is already declared in this scope"),
+            Arguments.of("void main() { x = 1; }",
+                "'x' is not declared"),
+            Arguments.of("void main() { f(); } void f() { }",
+                "'f' is not declared"),
+            Arguments.of("void f() { }",
+                "Program must define a method 'void main()'"),
+            Arguments.of("int main() { return 0; }",
+                "Program must define a method 'void main()'"),
+            Arguments.of("void f(int a) { } void main() { f(true); }",
+                "Argument 1 of 'f' must be int (found bool)"),
+            Arguments.of("void f(int a) { } void main() { f(1, 2); }",
+                "Method 'f' takes 1 argument(s) but was given 2"),
+            Arguments.of("void f() { } void main() { int x; x = f(); }",
+                "Method 'f' returns void and cannot be used in an expression"),
+            Arguments.of("int a[3]; void f(int x) { } void main() { f(a); }",
+                "Array 'a' cannot be passed to method 'f'"),
+            Arguments.of("void f(int x) { } void main() { f(\"s\"); }",
+                "String literals can only be passed to imports"),
+            Arguments.of("void main() { return 1; }",
+                "Method 'main' returns void and cannot return a value"),
+            Arguments.of("int f() { return true; } void main() { }",
+                "Return value must be int (found bool)"),
+            Arguments.of("void main() { int x; x(); }",
+                "'x' is not a method"),
+            Arguments.of("void main() { int x; x[0] = 1; }",
+                "'x' is not an array"),
+            Arguments.of("int a[3]; void main() { a[true] = 1; }",
+                "Array index must be int (found bool)"),
+            Arguments.of("void main() { if (1) { } }",
+                "Condition of 'if' must be bool (found int)"),
+            Arguments.of("void main() { int x; x = -true; }",
+                "Operand of unary '-' must be int or long (found bool)"),
+            Arguments.of("void main() { int x; long y; x = x + y; }",
+                "Operands of '+' must have the same type (found int and long)"),
+            Arguments.of("void main() { bool b; b = 1 == true; }",
+                "Operands of '==' must both be int, long or bool"),
+            Arguments.of("void main() { bool b; b = 1 && true; }",
+                "Operands of '&&' must be bool"),
+            Arguments.of("void main() { int x; x = true; }",
+                "Cannot assign bool to a location of type int"),
+            Arguments.of("void main() { bool b; b += 1; }",
+                "Location updated by '+=' must be int or long"),
+            Arguments.of("int a[3]; void main() { a = 1; }",
+                "Cannot assign to array 'a' without an index"),
+            Arguments.of("void main() { break; }",
+                "'break' must be inside a loop"),
+            Arguments.of("int a[0]; void main() { }",
+                "Array 'a' must have a positive size"),
+            Arguments.of("void main() { bool i; for (i = 0; i < 3; i++) { } }",
+                "Loop variable 'i' must be int or long (found bool)"),
+            Arguments.of("void main() { int x; x = 2147483648; }",
+                "Literal '2147483648' is out of range for int"),
+            Arguments.of("void main() { long y; y = 9223372036854775808L; }",
+                "Literal '9223372036854775808L' is out of range for long"),
+            Arguments.of("void main() { int x; x = 0x100000000; }",
+                "Literal '0x100000000' is out of range for int"),
+            Arguments.of("int a[99999999999]; void main() { }",
+                "Literal '99999999999' is out of range for int"),
+            Arguments.of("void main() { int x; x = len(x); }",
+                "Argument of 'len' must be an array (found int)"),
+            Arguments.of("void main() { int x; x = int(true); }",
+                "Operand of 'int' cast must be int or long (found bool)")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("illegalPrograms")
+    public void testIllegalPrograms(String source, String expected) {
+        SemanticException e = assertThrows(SemanticException.class, () -> analyze(source));
+        assertTrue(e.getMessage().contains(expected), e.getMessage());
+    }
+
+    @Test
+    public void testReportsEveryErrorInSourceOrder() {
+        SemanticException e = assertThrows(SemanticException.class,
+            () -> analyze("void main() { x = 1; while (true) { y = 2; } }"));
+        String[] lines = e.getMessage().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("'x' is not declared at line 1"));
+        assertTrue(lines[1].startsWith("'y' is not declared at line 1"));
+    }
+}
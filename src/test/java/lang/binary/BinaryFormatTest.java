@@ -0,0 +1,126 @@
+package lang.binary;
+
+import org.junit.jupiter.api.Test;
+
+import lang.Parse;
+import lang.ParseException;
+import lang.Scan;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.types.ASTBase;
+import lang.types.HashConsTable;
+import lang.types.LexicalToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class BinaryFormatTest {
+
+    private static final String PROGRAM = String.join("\n",
+        "import printf;",
+        "int a[10];",
+        "int sum(int n) {",
+        "    int i, s;",
+        "    s = 0;",
+        "    for (i = 0; i < n; i++) {",
+        "        s += a[i] * a[i];",
+        "    }",
+        "    printf(\"%d\\n\", s);",
+        "    return s;",
+        "}",
+        "void main() { sum(10); }",
+        "");
+
+    private static List<LexicalToken> scan(String source) {
+        Scan scan = new Scan(source);
+        scan.scan();
+        return scan.getTokens();
+    }
+
+    @Test
+    public void testTokensRoundTrip() throws IOException {
+        List<LexicalToken> tokens = scan(PROGRAM);
+        BinaryReader reader = new BinaryReader(ByteBuffer.wrap(new BinaryWriter().tokens(tokens).toByteArray()));
+
+        assertTrue(reader.hasTokens());
+        assertFalse(reader.hasTree());
+        assertEquals(tokens, reader.getTokens());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(tokens.get(i).getLineNumber(), reader.getToken(i).getLineNumber());
+            assertEquals(tokens.get(i).getColumnNumber(), reader.getToken(i).getColumnNumber());
+        }
+    }
+
+    @Test
+    public void testTreeRoundTripThroughMappedFile() throws IOException, ParseException {
+        List<LexicalToken> tokens = scan(PROGRAM);
+        ASTBase tree = new Parse(tokens, new DecafCFGGraph()).parseProgram();
+
+        Path file = Files.createTempFile("decaf", ".bin");
+        try {
+            Files.write(file, new BinaryWriter().tokens(tokens).tree(tree).toByteArray());
+            BinaryReader reader = BinaryReader.open(file);
+            assertEquals(BinaryFormat.VERSION, reader.getVersion());
+            assertEquals(tree, reader.getTree());
+            assertEquals(tree.prettyPrint(), reader.getTree().prettyPrint());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSharedNodesStayShared() throws IOException, ParseException {
+        List<LexicalToken> tokens = scan(PROGRAM);
+        Parse parser = new Parse(tokens, new DecafCFGGraph());
+        parser.setHashConsTable(new HashConsTable());
+        ASTBase tree = parser.parseProgram();
+
+        byte[] shared = new BinaryWriter().tree(tree).toByteArray();
+        BinaryReader reader = new BinaryReader(ByteBuffer.wrap(shared));
+        ASTBase read = reader.getTree();
+        assertEquals(tree, read);
+
+        // s += a[i] * a[i] : both a[i] are one node
+        ASTBase loopBody = findBlockContaining(read, "+=");
+        ASTBase product = loopBody.getChildAt(0).getChildAt(2);
+        assertSame(product.getChildAt(0), product.getChildAt(1));
+    }
+
+    @Test
+    public void testRejectsForeignAndTruncatedData() {
+        assertThrows(IOException.class, () -> new BinaryReader(ByteBuffer.wrap("int x;".getBytes())));
+
+        byte[] data = new BinaryWriter().tokens(scan(PROGRAM)).toByteArray();
+        ByteBuffer truncated = ByteBuffer.wrap(data, 0, data.length / 2);
+        assertThrows(IOException.class, () -> new BinaryReader(truncated));
+    }
+
+    @Test
+    public void testRejectsUnknownAndInconsistentFlags() throws IOException {
+        byte[] data = new BinaryWriter().tokens(scan(PROGRAM)).toByteArray();
+        assertTrue(new BinaryReader(ByteBuffer.wrap(data)).hasTokens());
+        data[6] |= 4; // a flag this version does not define
+        assertThrows(IOException.class, () -> new BinaryReader(ByteBuffer.wrap(data)));
+        data[6] = 3; // claims a tree, but the root is none
+        assertThrows(IOException.class, () -> new BinaryReader(ByteBuffer.wrap(data)));
+    }
+
+    private static ASTBase findBlockContaining(ASTBase node, String operator) {
+        for (ASTBase child : node.children()) {
+            if (child.getType() == ASTBase.Environment.BLOCK && child.getNumChildren() > 0
+                    && child.getChildAt(0).getNumChildren() > 1
+                    && operator.equals(child.getChildAt(0).getChildAt(1).getToken().getVal())) {
+                return child;
+            }
+            ASTBase found = findBlockContaining(child, operator);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
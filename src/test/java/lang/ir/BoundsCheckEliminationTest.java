@@ -0,0 +1,80 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+
+public class BoundsCheckEliminationTest {
+
+    @Test
+    public void testChecksInRangeOfTheirBranchesAreRemoved() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int a[100];\n" +
+            "int f(int n) {\n" +
+            "  int i, s;\n" +
+            "  for (i = 0; i < 100; i++) { s += a[i]; }\n" +              // removed
+            "  for (i = 0; i < n; i++) { s += a[i]; }\n" +                // kept: n is unknown
+            "  for (i = 0; i < n && i < 100; i++) { s += a[i]; }\n" +     // removed
+            "  for (i = 99; i >= 0; i -= 1) { a[i] = s; }\n" +            // removed
+            "  s += a[s % 100];\n" +                                      // kept: s may be negative
+            "  if (s >= 0) { s += a[s % 100]; }\n" +                      // removed
+            "  return s;\n" +
+            "}\n" +
+            "void main() { }\n");
+        Map<String, Integer> statistics = OptimizerTest.optimize(program, "bce");
+        assertEquals(4, (int) statistics.get("bce"));
+        assertEquals(2, (int) statistics.get("bce kept"));
+        assertEquals(2, OptimizerTest.count(program.getFunction("f"), Opcode.CHECK));
+    }
+
+    @Test
+    public void testChecksThatCanFailAreKept() throws Exception {
+        String source =
+            "int a[100];\n" +
+            "int next(int n) { int i, s; for (i = 0; i < 100; i++) { s += a[i + 1]; } return s; }\n" +
+            "int twice(int n) { int i, s; for (i = 0; i < n; i++) { s += a[i * 2 % 100]; } return s; }\n" +
+            "int below(int n) { int i, s; for (i = n; i < 100; i++) { s += a[i]; } return s; }\n" +
+            "void main() { }\n";
+        IRProgram program = DecafLoweringTest.lower(source);
+        assertEquals(0, (int) OptimizerTest.optimize(program, "cp", "bce").get("bce"));
+        assertEquals(3, OptimizerTest.count(program.getFunction("next"), Opcode.CHECK)
+            + OptimizerTest.count(program.getFunction("twice"), Opcode.CHECK)
+            + OptimizerTest.count(program.getFunction("below"), Opcode.CHECK));
+
+        // unrolled by 8 under i < 93, the first seven copies in next are safe, but not the last
+        program = DecafLoweringTest.lower(source);
+        OptimizerTest.optimize(program, Optimizer.names());
+        for (String name : new String[] {"next", "twice", "below"}) {
+            assertTrue(OptimizerTest.count(program.getFunction(name), Opcode.CHECK) > 0, name);
+        }
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertThrows(IRInterpreter.Trap.class, () -> interpreter.run("next", 0));
+        assertThrows(IRInterpreter.Trap.class, () -> interpreter.run("below", -1));
+        assertEquals(0, interpreter.run("twice", 10));
+    }
+
+    @Test
+    public void testUnrolledCopiesNeedNoChecks() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int a[100];\n" +
+            "int fill() { int i; for (i = 0; i < 100; i++) { a[i] = i; } return a[99]; }\n" +
+            "void main() { }\n");
+        OptimizerTest.optimize(program, "unroll", "cp", "cse", "bce", "dce");
+        IRFunction f = program.getFunction("fill");
+        assertEquals(8 + 1, OptimizerTest.count(f, Opcode.STORE), f.toString());
+        assertEquals(0, OptimizerTest.count(f, Opcode.CHECK), f.toString());
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertEquals(99, interpreter.run("fill"));
+        assertEquals(42, interpreter.globalArray("a")[42]);
+    }
+
+    @Test
+    public void testExampleProgramKeepsItsResults() throws Exception {
+        long[] expected = SSATest.run(DecafLoweringTest.lower(SSATest.PROGRAM));
+        IRProgram program = DecafLoweringTest.lower(SSATest.PROGRAM);
+        assertTrue(OptimizerTest.optimize(program, "cp", "bce").get("bce") > 0);
+        assertArrayEquals(expected, SSATest.run(program));
+    }
+}
@@ -0,0 +1,84 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConstantPropagationTest {
+
+    private static int returned(IRFunction f) {
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == Opcode.RETURN) {
+                return f.src1(i);
+            }
+        }
+        return Operand.NONE;
+    }
+
+    @Test
+    public void testConstantFlagRemovesItsBranch() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "import printf;\n" +
+            "int scale(int x) {\n" +
+            "  bool verbose;\n" +
+            "  int factor, i;\n" +
+            "  verbose = false;\n" +
+            "  factor = 2 + 1;\n" +
+            "  if (verbose) {\n" +
+            "    for (i = 0; i < x; i++) { printf(\"%d\", i); }\n" +
+            "  }\n" +
+            "  return x * factor;\n" +
+            "}\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("scale");
+        int size = f.size();
+        assertTrue(OptimizerTest.optimize(program, "cp").get("cp") > 0);
+        assertEquals(0, OptimizerTest.count(f, Opcode.BRANCH));
+        assertEquals(0, OptimizerTest.count(f, Opcode.CALL));
+        assertTrue(f.size() < size / 2, f.toString());
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertEquals(21, interpreter.run("scale", 7));
+        assertTrue(interpreter.getCalls().isEmpty());
+    }
+
+    @Test
+    public void testConstantsFlowOnlyAlongExecutableEdges() throws Exception {
+        // k is only ever written on a path that is never taken, so it stays 5 around the loop
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int n) {\n" +
+            "  int i, k;\n" +
+            "  k = 5;\n" +
+            "  for (i = 0; i < n; i++) {\n" +
+            "    if (k != 5) { k = k + 1; }\n" +
+            "  }\n" +
+            "  return k;\n" +
+            "}\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        OptimizerTest.optimize(program, "cp");
+        int k = returned(f);
+        assertTrue(Operand.isConstant(k), f.toString());
+        assertEquals(5, f.constantValue(k));
+        // the loop itself stays
+        assertEquals(1, OptimizerTest.count(f, Opcode.BRANCH));
+        assertEquals(5, new IRInterpreter(program).run("f", 4));
+    }
+
+    @Test
+    public void testDivisionsThatTrapAreNotFolded() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f() { int z; z = 0; return 7 / z; }\n" +
+            "int g() { int a, b; a = 7; b = 2; return a / b - a % b; }\n" +
+            "int h() { int m, d; m = -2147483648; d = -1; return m / d; }\n" +
+            "long k() { long m, d; m = -9223372036854775808L; d = -1L; return m % d; }\n" +
+            "void main() { }\n");
+        OptimizerTest.optimize(program, "cp");
+        assertEquals(1, OptimizerTest.count(program.getFunction("f"), Opcode.DIV));
+        // the least value divided by -1 overflows, which traps too
+        assertEquals(1, OptimizerTest.count(program.getFunction("h"), Opcode.DIV));
+        assertEquals(1, OptimizerTest.count(program.getFunction("k"), Opcode.MOD));
+        int g = returned(program.getFunction("g"));
+        assertTrue(Operand.isConstant(g));
+        assertEquals(2, program.getFunction("g").constantValue(g));
+    }
+}
@@ -0,0 +1,148 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataflowTest {
+
+    private static int blockOf(ControlFlowGraph cfg, int instruction) {
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            if (cfg.start(b) <= instruction && instruction < cfg.end(b)) {
+                return b;
+            }
+        }
+        return -1;
+    }
+
+    private static int find(IRFunction f, Opcode opcode, int from) {
+        for (int i = from; i < f.size(); i++) {
+            if (f.opcode(i) == opcode) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testLiveness() throws Exception {
+        IRFunction f = DecafLoweringTest.lower(
+            "int count(int n) { int i, s; for (i = 0; i < n; i++) { s += i; } return s; }\n" +
+            "void main() { }\n").getFunction("count");
+        // L0 is the loop test, L3 the exit
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        Liveness liveness = new Liveness(f, cfg);
+        int n = 0;
+        int i = f.dest(find(f, Opcode.ADD, find(f, Opcode.ADD, 0) + 1));
+        int s = f.dest(find(f, Opcode.ADD, 0));
+        int test = cfg.blockOf(0);
+        int exit = cfg.blockOf(3);
+        assertTrue(liveness.isLiveIn(test, n));
+        assertTrue(liveness.isLiveIn(test, i));
+        assertTrue(liveness.isLiveIn(test, s));
+        assertTrue(liveness.isLiveIn(exit, s));
+        assertFalse(liveness.isLiveIn(exit, i));
+        assertFalse(liveness.isLiveIn(0, i));     // written before it is read
+        assertTrue(liveness.isLiveIn(0, n));
+        assertFalse(liveness.isLiveOut(exit, s)); // nothing follows the return
+    }
+
+    @Test
+    public void testLivenessInSSAForm() throws Exception {
+        IRFunction f = DecafLoweringTest.lower(
+            "int count(int n) { int i, s; for (i = 0; i < n; i++) { s += i; } return s; }\n" +
+            "void main() { }\n").getFunction("count");
+        SSA.construct(f);
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        Liveness liveness = new Liveness(f, cfg);
+        int phis = 0;
+        for (int at = find(f, Opcode.PHI, 0); at >= 0; at = find(f, Opcode.PHI, at + 1)) {
+            int arguments = f.src2(at);
+            for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+                int value = f.argument(arguments, k + 1);
+                if (Operand.isRegister(value)) {
+                    // live out of the predecessor it comes from, but not into the phi's block
+                    assertTrue(liveness.isLiveOut(cfg.blockOf(f.argument(arguments, k)), value), f.toString());
+                    assertFalse(liveness.isLiveIn(blockOf(cfg, at), value), f.toString());
+                    phis++;
+                }
+            }
+        }
+        assertTrue(phis >= 2, f.toString()); // i and s around the back edge
+    }
+
+    @Test
+    public void testReachingDefinitions() throws Exception {
+        IRFunction f = DecafLoweringTest.lower(
+            "int pick(bool c) { int x; x = 1; if (c) { x = 2; } return x; }\n" +
+            "void main() { }\n").getFunction("pick");
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        ReachingDefinitions reaching = new ReachingDefinitions(f, cfg);
+        int zero = find(f, Opcode.MOVE, 0);
+        int one = find(f, Opcode.MOVE, zero + 1);
+        int two = find(f, Opcode.MOVE, one + 1);
+        int join = blockOf(cfg, find(f, Opcode.RETURN, 0));
+        assertEquals(3, reaching.getDefinitionCount());
+        assertFalse(reaching.reachesEntry(join, zero));
+        assertTrue(reaching.reachesEntry(join, one));
+        assertTrue(reaching.reachesEntry(join, two));
+        assertFalse(reaching.reachesExit(0, zero));
+        assertTrue(reaching.reachesExit(0, one));
+    }
+
+    @Test
+    public void testAvailableExpressions() throws Exception {
+        IRFunction f = DecafLoweringTest.lower(
+            "int g(int a, int b, bool c) {\n" +
+            "  int x, y;\n" +
+            "  x = a * b;\n" +
+            "  y = a + b;\n" +
+            "  if (c) { a = 0; } else { x = a * b; }\n" +
+            "  return a * b + (a + b);\n" +
+            "}\n" +
+            "void main() { }\n").getFunction("g");
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        AvailableExpressions available = new AvailableExpressions(f, cfg);
+        int product = available.expression(find(f, Opcode.MUL, 0));
+        int sum = available.expression(find(f, Opcode.ADD, 0));
+        int exit = blockOf(cfg, find(f, Opcode.RETURN, 0));
+        assertEquals(product, available.expression(find(f, Opcode.MUL, find(f, Opcode.MUL, 0) + 1)));
+        // both are computed before the branch, but a is written on one side
+        assertTrue(available.isAvailable(1, product));
+        assertFalse(available.isAvailable(exit, product));
+        assertFalse(available.isAvailable(exit, sum));
+        assertEquals(-1, available.expression(find(f, Opcode.RETURN, 0)));
+
+        // in SSA form nothing is killed, and a * b of the original registers stays available
+        SSA.construct(f);
+        cfg = new ControlFlowGraph(f);
+        available = new AvailableExpressions(f, cfg);
+        int first = find(f, Opcode.MUL, 0);
+        for (int b = 1; b < cfg.getBlockCount(); b++) {
+            assertTrue(available.isAvailable(b, available.expression(first)));
+        }
+    }
+
+    @Test
+    public void testLargeMethodSettlesQuickly() throws Exception {
+        // over 10,000 blocks: each if adds a then, an else and a join
+        StringBuilder source = new StringBuilder("int big(int n) {\n  int x, y, i;\n");
+        source.append("  for (i = 0; i < n; i++) {\n");
+        for (int k = 0; k < 3400; k++) {
+            source.append("    if (x < ").append(k).append(") { x = x + y; } else { y = x * ").append(k).append("; }\n");
+        }
+        source.append("  }\n  return x + y;\n}\nvoid main() { }\n");
+        IRFunction f = DecafLoweringTest.lower(source.toString()).getFunction("big");
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        assertTrue(cfg.getBlockCount() >= 10_000, cfg.getBlockCount() + " blocks");
+
+        Dataflow[] problems = {
+            new Liveness(f, cfg), new ReachingDefinitions(f, cfg), new AvailableExpressions(f, cfg),
+        };
+        for (Dataflow problem : problems) {
+            // one sweep to settle the body, one more around the loop's back edge, one to confirm
+            assertTrue(problem.getVisits() <= 3 * cfg.getReachableCount(),
+                problem.getClass().getSimpleName() + " took " + problem.getVisits() + " visits");
+        }
+    }
+}
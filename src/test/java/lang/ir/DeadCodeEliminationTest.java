@@ -0,0 +1,95 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadCodeEliminationTest {
+
+    @Test
+    public void testDeadCyclesAndStoresAreRemoved() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int n) {\n" +
+            "  int i, s, unused;\n" +
+            "  int t[10];\n" +
+            "  for (i = 0; i < n; i++) {\n" +
+            "    unused += i * 2;\n" +
+            "    t[i % 10] = i;\n" +
+            "    s += i;\n" +
+            "  }\n" +
+            "  return s;\n" +
+            "}\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        assertTrue(OptimizerTest.optimize(program, "dce").get("dce") > 0);
+        // unused only feeds itself around the loop, and t is never read
+        assertEquals(0, OptimizerTest.count(f, Opcode.MUL), f.toString());
+        assertEquals(0, OptimizerTest.count(f, Opcode.STORE));
+        // but an index out of bounds must still trap
+        assertEquals(1, OptimizerTest.count(f, Opcode.CHECK));
+        assertEquals(10, new IRInterpreter(program).run("f", 5));
+    }
+
+    @Test
+    public void testDivisionsThatMayTrapAreKept() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int x, int d) { int q, r, s; q = x / d; r = x % -1; s = x / 3; return x; }\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        OptimizerTest.optimize(program, "dce");
+        // only the division by 3 cannot trap, and its result is never used
+        assertEquals(1, OptimizerTest.count(f, Opcode.DIV), f.toString());
+        assertEquals(1, OptimizerTest.count(f, Opcode.MOD));
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertThrows(ArithmeticException.class, () -> interpreter.run("f", 7, 0));
+        assertThrows(ArithmeticException.class, () -> interpreter.run("f", Integer.MIN_VALUE, 1));
+        assertEquals(7, interpreter.run("f", 7, 2));
+    }
+
+    @Test
+    public void testEmptyBlocksDisappear() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int g;\n" +
+            "int f(int x) {\n" +
+            "  bool trace;\n" +
+            "  trace = false;\n" +
+            "  if (x > 0) {\n" +
+            "    if (trace) { g = x; }\n" +
+            "  } else {\n" +
+            "    if (trace) { g = -x; }\n" +
+            "  }\n" +
+            "  return x;\n" +
+            "}\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        OptimizerTest.optimize(program, "cp", "dce");
+        // both sides of the outer branch are left empty, so it goes too
+        assertEquals(0, OptimizerTest.count(f, Opcode.BRANCH), f.toString());
+        assertEquals(0, OptimizerTest.count(f, Opcode.JUMP), f.toString());
+        assertEquals(1, OptimizerTest.count(f, Opcode.LABEL), f.toString());
+        assertEquals(-3, new IRInterpreter(program).run("f", -3));
+    }
+
+    @Test
+    public void testCopiesArePropagated() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int a) { int b, c, d; b = a; c = b; d = c; return d + b * c; }\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        OptimizerTest.optimize(program, "dce");
+        assertEquals(0, OptimizerTest.count(f, Opcode.MOVE), f.toString());
+        assertEquals(12, new IRInterpreter(program).run("f", 3));
+    }
+
+    @Test
+    public void testLoopsThatMayNotEndAreKept() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int n) { while (n != 0) { n = n - 2; } return 0; }\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        OptimizerTest.optimize(program, "dce");
+        assertEquals(1, OptimizerTest.count(f, Opcode.BRANCH));
+        assertEquals(1, OptimizerTest.count(f, Opcode.SUB));
+        assertEquals(0, new IRInterpreter(program).run("f", 6));
+    }
+}
@@ -0,0 +1,229 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import lang.IncrementalParse;
+import lang.Parse;
+import lang.ParseException;
+import lang.Scan;
+import lang.SemanticException;
+import lang.grammars.decaf.DecafAnalyzer;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.grammars.decaf.DecafLowering;
+import lang.types.ASTBase;
+import lang.types.LexicalToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class DecafLoweringTest {
+
+    static IRProgram lower(String source) throws ParseException, SemanticException {
+        Scan scan = new Scan(source);
+        scan.scan();
+        ASTBase ast = new Parse(scan.getTokens(), new DecafCFGGraph()).parseProgram();
+        DecafAnalyzer analyzer = new DecafAnalyzer();
+        analyzer.analyze(ast);
+        return new DecafLowering(analyzer).lower(ast);
+    }
+
+    @Test
+    public void testListing() throws Exception {
+        IRProgram program = lower(
+            "import printf;\n" +
+            "int a[10];\n" +
+            "int sum(int n) {\n" +
+            "  int s, i;\n" +
+            "  for (i = 0; i < n; i++) { s += a[i]; }\n" +
+            "  return s;\n" +
+            "}\n" +
+            "void main() { printf(\"%d\\n\", sum(3)); }\n");
+        assertEquals(
+            "import printf\n" +
+            "global int[] @a[10]\n" +
+            "\n" +
+            "method int sum(int %n) {\n" +
+            "    %s = move int 0\n" +
+            "    %i = move int 0\n" +
+            "    %i = move int 0\n" +
+            "L0:\n" +
+            "    %3 = lt int %i, %n\n" +
+            "    branch %3, L1, L3\n" +
+            "L1:\n" +
+            "    check %i, 10\n" +
+            "    %4 = load int @a[%i]\n" +
+            "    %s = add int %s, %4\n" +
+            "L2:\n" +
+            "    %i = add int %i, 1\n" +
+            "    jump L0\n" +
+            "L3:\n" +
+            "    return int %s\n" +
+            "}\n" +
+            "\n" +
+            "method void main() {\n" +
+            "    %0 = call int @sum(3)\n" +
+            "    call @printf(\"%d\\n\", %0)\n" +
+            "    return\n" +
+            "}\n",
+            program.toString());
+    }
+
+    @Test
+    public void testComputesWhatTheSourceDoes() throws Exception {
+        IRProgram program = lower(
+            "import printf;\n" +
+            "long total;\n" +
+            "int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n" +
+            "int collatz(int n) {\n" +
+            "  int steps;\n" +
+            "  while (n != 1) {\n" +
+            "    if (n % 2 == 0) { n /= 2; } else { n = 3 * n + 1; }\n" +
+            "    steps += 1;\n" +
+            "  }\n" +
+            "  return steps;\n" +
+            "}\n" +
+            "bool between(int x, int lo, int hi) { return lo <= x && x < hi || x == -1; }\n" +
+            "int wrap(int x) { return x * 65536 * 65536 + int(long(x) * 3L); }\n" +
+            "void main() {\n" +
+            "  int i;\n" +
+            "  for (i = 0; i < 10; i += 1) {\n" +
+            "    if (i == 7) { break; } else if (i % 3 == 0) { continue; }\n" +
+            "    total += long(i);\n" +
+            "  }\n" +
+            "  printf(\"%d\", total);\n" +
+            "}\n");
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertEquals(55, interpreter.run("fib", 10));
+        assertEquals(111, interpreter.run("collatz", 27));
+        assertEquals(1, interpreter.run("between", 3, 0, 5));
+        assertEquals(0, interpreter.run("between", 5, 0, 5));
+        assertEquals(1, interpreter.run("between", -1, 0, 5));
+        assertEquals(3 * 1_000_000_007L - (1L << 32), interpreter.run("wrap", 1_000_000_007));
+
+        interpreter.run("main");
+        assertEquals(1 + 2 + 4 + 5, interpreter.global("total"));
+        assertEquals(List.of("printf(\"%d\", 12)"), interpreter.getCalls());
+    }
+
+    @Test
+    public void testArraysScopesAndShortCircuit() throws Exception {
+        IRProgram program = lower(
+            "import probe;\n" +
+            "bool flags[4];\n" +
+            "int calls;\n" +
+            "bool hit(int i) { calls += 1; return flags[i]; }\n" +
+            "int run() {\n" +
+            "  int x, local[3];\n" +
+            "  bool b;\n" +
+            "  x = 1;\n" +
+            "  flags[2] = true;\n" +
+            "  b = hit(0) && hit(1);\n" +
+            "  b = hit(2) || hit(3);\n" +
+            "  if (true) { int x; x = 5; local[x - 4] = x; }\n" +
+            "  local[0] = x;\n" +
+            "  probe(local, len(local), !b);\n" +
+            "  return local[0] * 10 + local[1];\n" +
+            "}\n" +
+            "void main() { }\n");
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertEquals(15, interpreter.run("run"));
+        assertEquals(2, interpreter.global("calls"));
+        assertEquals(List.of("probe([1, 5, 0], 3, 0)"), interpreter.getCalls());
+    }
+
+    @Test
+    public void testTraps() throws Exception {
+        IRProgram program = lower(
+            "int a[3];\n" +
+            "int sign(int x) { if (x > 0) { return 1; } else if (x < 0) { return -1; } }\n" +
+            "int at(int i) { return a[i]; }\n" +
+            "void main() { }\n");
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertEquals(1, interpreter.run("sign", 5));
+        assertEquals(-1, interpreter.run("sign", -5));
+        assertEquals(-1, assertThrows(IRInterpreter.Trap.class, () -> interpreter.run("sign", 0)).status);
+        assertEquals(0, interpreter.run("at", 2));
+        assertThrows(IRInterpreter.Trap.class, () -> interpreter.run("at", 3));
+        assertThrows(IRInterpreter.Trap.class, () -> interpreter.run("at", -1));
+    }
+
+    @Test
+    public void testIncrementalAnalysisFoldsTheEditedLength() throws Exception {
+        Scan scan = new Scan(
+            "int a[16];\n" +
+            "int last() { return len(a) * 2 + 1; }\n" +
+            "void main() { }\n");
+        scan.scan();
+        IncrementalParse parser = new IncrementalParse(scan.getTokens(), new DecafCFGGraph());
+        DecafAnalyzer analyzer = new DecafAnalyzer();
+        ASTBase program = parser.parseProgram();
+        analyzer.analyze(program);
+        IRProgram ir = new DecafLowering(analyzer).lower(program);
+        assertEquals(0, count(ir.getFunction("last"), Opcode.MUL));
+        assertEquals(33, new IRInterpreter(ir).run("last"));
+
+        // the body of last is reused by each reparse, but must be folded again for each length
+        for (String length : new String[] {"32", "4"}) {
+            int size = indexOf(parser.getTokens(), "[") + 1;
+            program = parser.reparse(size, size + 1, tokens(length));
+            analyzer.analyze(program);
+            assertEquals(1, analyzer.getCheckedBodyCount());
+            ir = new DecafLowering(analyzer).lower(program);
+            assertEquals(0, count(ir.getFunction("last"), Opcode.MUL));
+            assertEquals(Integer.parseInt(length) * 2 + 1, new IRInterpreter(ir).run("last"));
+        }
+    }
+
+    private static int count(IRFunction f, Opcode opcode) {
+        int count = 0;
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<LexicalToken> tokens(String source) {
+        Scan scan = new Scan(source);
+        scan.scan();
+        return scan.getTokens();
+    }
+
+    private static int indexOf(List<LexicalToken> tokens, String val) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).getVal().equals(val)) {
+                return i;
+            }
+        }
+        throw new AssertionError("No token " + val);
+    }
+
+    @Test
+    public void testFootprintIsSmallPerToken() throws Exception {
+        StringBuilder source = new StringBuilder("int g[100];\n");
+        for (int m = 0; m < 200; m++) {
+            source.append("int f").append(m).append("(int n) {\n")
+                  .append("  int i, s;\n")
+                  .append("  for (i = 0; i < n; i++) {\n")
+                  .append("    if (i % 3 == 0 && s < 1000) { s += g[i] * 2 - i; } else { g[i] = s / 2; }\n")
+                  .append("  }\n")
+                  .append("  return s;\n")
+                  .append("}\n");
+        }
+        source.append("void main() { }\n");
+        Scan scan = new Scan(source.toString());
+        scan.scan();
+        int tokens = scan.getTokens().size();
+        IRProgram program = lower(source.toString());
+
+        long bytes = 0;
+        for (IRFunction function : program.getFunctions()) {
+            bytes += function.footprint();
+        }
+        assertTrue(program.size() < tokens, program.size() + " instructions for " + tokens + " tokens");
+        // a token object alone takes 24 bytes or more, before its string
+        assertTrue(bytes < 24L * tokens, bytes + " bytes for " + tokens + " tokens");
+    }
+}
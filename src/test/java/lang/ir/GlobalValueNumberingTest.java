@@ -0,0 +1,74 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GlobalValueNumberingTest {
+    static final String PROGRAM =
+        "int a[64];\n" +
+        "int stencil(int i, int w) {\n" +
+        "  int s;\n" +
+        "  s = a[i * w + 1];\n" +
+        "  if (s > 0) {\n" +
+        "    s += a[i * w + 1] * 2 + a[w * i + 2];\n" +
+        "  } else {\n" +
+        "    s -= a[i * w + 1];\n" +
+        "  }\n" +
+        "  return s + (i * w + 1);\n" +
+        "}\n" +
+        "int fill(int n) {\n" +
+        "  int i;\n" +
+        "  for (i = 0; i < 64; i++) { a[i] = (i * 7 + n) % 11 - 5; }\n" +
+        "  return 0;\n" +
+        "}\n" +
+        "void main() { }\n";
+
+    @Test
+    public void testRedundantComputationsAreRemoved() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        IRFunction f = program.getFunction("stencil");
+        int multiplications = OptimizerTest.count(f, Opcode.MUL);
+        int checks = OptimizerTest.count(f, Opcode.CHECK);
+
+        assertTrue(OptimizerTest.optimize(program, "cse").get("cse") > 0);
+        // i * w is computed once; the doubling stays
+        assertEquals(2, OptimizerTest.count(f, Opcode.MUL));
+        assertTrue(OptimizerTest.count(f, Opcode.MUL) < multiplications);
+        // the index i * w + 1 is checked once, before the branch, and i * w + 2 once
+        assertEquals(2, OptimizerTest.count(f, Opcode.CHECK));
+        assertTrue(OptimizerTest.count(f, Opcode.CHECK) < checks);
+    }
+
+    @Test
+    public void testResultsAreUnchanged() throws Exception {
+        IRProgram plain = DecafLoweringTest.lower(PROGRAM);
+        IRProgram optimized = DecafLoweringTest.lower(PROGRAM);
+        OptimizerTest.optimize(optimized, "cse");
+        IRInterpreter before = new IRInterpreter(plain);
+        IRInterpreter after = new IRInterpreter(optimized);
+        for (int n = 0; n < 4; n++) {
+            before.run("fill", n);
+            after.run("fill", n);
+            for (int i = 0; i < 8; i++) {
+                for (int w = 0; w < 7; w++) {
+                    assertEquals(before.run("stencil", i, w), after.run("stencil", i, w));
+                }
+            }
+        }
+        assertTrue(after.getSteps() < before.getSteps());
+    }
+
+    @Test
+    public void testOnlyDominatingComputationsAreReused() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int x, bool c) { int y; if (c) { y = x * 3; } else { y = 1; } return y + x * 3; }\n" +
+            "void main() { }\n");
+        OptimizerTest.optimize(program, "cse");
+        // neither x * 3 dominates the other
+        assertEquals(2, OptimizerTest.count(program.getFunction("f"), Opcode.MUL));
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertEquals(12, interpreter.run("f", 2, 1));
+        assertEquals(7, interpreter.run("f", 2, 0));
+    }
+}
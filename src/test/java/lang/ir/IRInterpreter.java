@@ -0,0 +1,253 @@
+package lang.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lang.grammars.decaf.DecafType;
+
+/**
+ * Executes IR directly, for checking that lowering and optimizations preserve what a program
+ * computes. Calls to imports are not executed but recorded, with their arguments, in
+ * {@link #getCalls()}; they return 0.
+ */
+public class IRInterpreter {
+    /** Thrown when a TRAP or a failed CHECK ends the program. */
+    public static class Trap extends RuntimeException {
+        public final long status;
+
+        Trap(long status) {
+            super("trap " + status);
+            this.status = status;
+        }
+    }
+
+    private final IRProgram program;
+    private final long[][] globals; // by symbol index; scalars have one element
+    private final List<String> calls = new ArrayList<>();
+    private long steps = 0;
+    private long stepLimit = 100_000_000;
+
+    public IRInterpreter(IRProgram program) {
+        this.program = program;
+        List<IRProgram.Symbol> symbols = program.getSymbols();
+        this.globals = new long[symbols.size()][];
+        for (int i = 0; i < symbols.size(); i++) {
+            IRProgram.Symbol symbol = symbols.get(i);
+            if (symbol.getKind() == IRProgram.Symbol.Kind.VARIABLE) {
+                this.globals[i] = new long[symbol.getType().isArray() ? symbol.getLength() : 1];
+            }
+        }
+    }
+
+    public List<String> getCalls() {
+        return this.calls;
+    }
+
+    /**
+     * @return The number of instructions executed so far
+     */
+    public long getSteps() {
+        return this.steps;
+    }
+
+    public void setStepLimit(long stepLimit) {
+        this.stepLimit = stepLimit;
+    }
+
+    public long global(String name) {
+        return this.globals[globalIndex(name)][0];
+    }
+
+    public long[] globalArray(String name) {
+        return this.globals[globalIndex(name)];
+    }
+
+    /**
+     * Runs a method and returns its result, or 0 for a void method.
+     */
+    public long run(String method, long... arguments) {
+        IRFunction function = this.program.getFunction(method);
+        if (function == null) {
+            throw new IllegalArgumentException("No method " + method);
+        }
+        return call(function, arguments);
+    }
+
+    private long call(IRFunction f, long[] arguments) {
+        int[] labels = new int[f.getLabelCount()];
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == Opcode.LABEL) {
+                labels[f.src1(i)] = i;
+            }
+        }
+        long[] registers = new long[f.getRegisterCount()];
+        System.arraycopy(arguments, 0, registers, 0, arguments.length);
+        long[][] frame = new long[f.getFrameSize()][];
+        for (int a = 0; a < frame.length; a++) {
+            frame[a] = new long[f.getFrameSymbol(Operand.frame(a)).getLength()];
+        }
+
+        int pc = 0;
+        int block = -1;    // label of the block being run, and of the one before it
+        int previous = -1;
+        while (true) {
+            if (++this.steps > this.stepLimit) {
+                throw new IllegalStateException("Step limit exceeded in " + f.getName());
+            }
+            int i = pc++;
+            Opcode opcode = f.opcode(i);
+            DecafType type = f.type(i);
+            int dest = f.dest(i);
+            int src1 = f.src1(i);
+            int src2 = f.src2(i);
+            switch (opcode) {
+                case LABEL:
+                    previous = block;
+                    block = src1;
+                    break;
+                case PHI: {
+                    // the phis at the top of a block all read their values before any is written
+                    int end = i;
+                    while (end < f.size() && f.opcode(end) == Opcode.PHI) {
+                        end++;
+                    }
+                    long[] values = new long[end - i];
+                    for (int j = i; j < end; j++) {
+                        values[j - i] = phi(f, registers, j, previous);
+                    }
+                    for (int j = i; j < end; j++) {
+                        registers[f.dest(j)] = values[j - i];
+                    }
+                    pc = end;
+                    break;
+                }
+                case MOVE:
+                    registers[dest] = value(f, registers, src1);
+                    break;
+                case NEG:
+                    registers[dest] = wrap(type, -value(f, registers, src1));
+                    break;
+                case NOT:
+                    registers[dest] = value(f, registers, src1) ^ 1;
+                    break;
+                case EXTEND:
+                    registers[dest] = value(f, registers, src1);
+                    break;
+                case TRUNCATE:
+                    registers[dest] = (int) value(f, registers, src1);
+                    break;
+                case ADD: case SUB: case MUL: case DIV: case MOD:
+                case EQ: case NE: case LT: case LE: case GT: case GE:
+                    registers[dest] = binary(opcode, type, value(f, registers, src1), value(f, registers, src2));
+                    break;
+                case LOAD:
+                    registers[dest] = memory(f, frame, src1)[src2 == Operand.NONE ? 0 : (int) value(f, registers, src2)];
+                    break;
+                case STORE:
+                    memory(f, frame, dest)[src1 == Operand.NONE ? 0 : (int) value(f, registers, src1)] = value(f, registers, src2);
+                    break;
+                case CHECK: {
+                    long index = value(f, registers, src1);
+                    if (index < 0 || index >= value(f, registers, src2)) {
+                        throw new Trap(-2);
+                    }
+                    break;
+                }
+                case CALL: {
+                    int count = f.argumentCount(src2);
+                    long[] values = new long[count];
+                    StringBuilder text = new StringBuilder(this.program.getSymbol(src1).getName()).append('(');
+                    for (int k = 0; k < count; k++) {
+                        int argument = f.argument(src2, k);
+                        if (Operand.isString(argument)) {
+                            text.append(k == 0 ? "" : ", ").append(f.stringValue(argument));
+                        } else if (Operand.isGlobal(argument) || Operand.isFrame(argument)) {
+                            text.append(k == 0 ? "" : ", ").append(Arrays.toString(memory(f, frame, argument)));
+                        } else {
+                            values[k] = value(f, registers, argument);
+                            text.append(k == 0 ? "" : ", ").append(values[k]);
+                        }
+                    }
+                    long result;
+                    IRFunction callee = this.program.getFunction(this.program.getSymbol(src1).getName());
+                    if (callee == null) {
+                        this.calls.add(text.append(')').toString());
+                        result = 0;
+                    } else {
+                        result = call(callee, values);
+                    }
+                    if (dest != Operand.NONE) {
+                        registers[dest] = result;
+                    }
+                    break;
+                }
+                case JUMP:
+                    pc = labels[src1];
+                    break;
+                case BRANCH:
+                    pc = labels[value(f, registers, src1) != 0 ? src2 : dest];
+                    break;
+                case RETURN:
+                    return src1 == Operand.NONE ? 0 : value(f, registers, src1);
+                case TRAP:
+                    throw new Trap(value(f, registers, src1));
+                default:
+                    throw new IllegalStateException("Cannot interpret " + opcode);
+            }
+        }
+    }
+
+    private static long value(IRFunction f, long[] registers, int operand) {
+        return Operand.isRegister(operand) ? registers[operand] : f.constantValue(operand);
+    }
+
+    private long[] memory(IRFunction f, long[][] frame, int operand) {
+        return Operand.isFrame(operand) ? frame[Operand.index(operand)] : this.globals[Operand.index(operand)];
+    }
+
+    private static long phi(IRFunction f, long[] registers, int i, int previous) {
+        int arguments = f.src2(i);
+        for (int k = 0; k < f.argumentCount(arguments); k += 2) {
+            if (f.argument(arguments, k) == previous) {
+                return value(f, registers, f.argument(arguments, k + 1));
+            }
+        }
+        throw new IllegalStateException("No value for L" + previous + " in the phi at " + i);
+    }
+
+    private static long binary(Opcode opcode, DecafType type, long left, long right) {
+        if ((opcode == Opcode.DIV || opcode == Opcode.MOD) && right == -1
+                && left == (type == DecafType.INT ? Integer.MIN_VALUE : Long.MIN_VALUE)) {
+            // the quotient does not fit, which traps as division by zero does
+            throw new ArithmeticException("/ by -1 overflows");
+        }
+        switch (opcode) {
+            case ADD: return wrap(type, left + right);
+            case SUB: return wrap(type, left - right);
+            case MUL: return wrap(type, left * right);
+            case DIV: return wrap(type, left / right);
+            case MOD: return wrap(type, left % right);
+            case EQ:  return left == right ? 1 : 0;
+            case NE:  return left != right ? 1 : 0;
+            case LT:  return left < right ? 1 : 0;
+            case LE:  return left <= right ? 1 : 0;
+            case GT:  return left > right ? 1 : 0;
+            default:  return left >= right ? 1 : 0;
+        }
+    }
+
+    private static long wrap(DecafType type, long value) {
+        return type == DecafType.INT ? (int) value : value;
+    }
+
+    private int globalIndex(String name) {
+        List<IRProgram.Symbol> symbols = this.program.getSymbols();
+        for (int i = 0; i < symbols.size(); i++) {
+            if (symbols.get(i).getName().equals(name) && symbols.get(i).getKind() == IRProgram.Symbol.Kind.VARIABLE) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No global " + name);
+    }
+}
@@ -0,0 +1,166 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import lang.grammars.decaf.DecafType;
+import java.util.Map;
+
+public class InlinerTest {
+
+    private static final String PROGRAM =
+        "import printf;\n" +
+        "int square(int x) { return x * x; }\n" +
+        "int clamp(int x, int lo, int hi) { if (x < lo) { return lo; } if (x > hi) { return hi; } return x; }\n" +
+        "int histogram(int n) {\n" +
+        "  int counts[4];\n" +
+        "  int i;\n" +
+        "  for (i = 0; i < n; i++) { counts[i % 4] = counts[i % 4] + 1; }\n" +
+        "  return counts[0] * 100 + counts[3];\n" +
+        "}\n" +
+        "int fact(int n) { if (n < 2) { return 1; } return n * fact(n - 1); }\n" +
+        "int sum(int n) {\n" +
+        "  int i, s;\n" +
+        "  for (i = 0; i < n; i++) { s += clamp(square(i), 2, 50); }\n" +
+        "  return s + histogram(9) + histogram(2);\n" +
+        "}\n" +
+        "void main() {\n" +
+        "  printf(\"%d\", fact(5) + sum(10));\n" +
+        "}\n";
+
+    /**
+     * Builds even and odd, which call each other, as the source cannot: a method must be
+     * declared before it is called. main calls even.
+     */
+    private static IRProgram mutualRecursion() {
+        IRProgram program = new IRProgram();
+        int[] methods = new int[3];
+        String[] names = {"even", "odd", "main"};
+        for (int m = 0; m < 3; m++) {
+            methods[m] = program.declare(new IRProgram.Symbol(IRProgram.Symbol.Kind.METHOD, names[m], DecafType.BOOL, 0));
+        }
+        for (int m = 0; m < 2; m++) {
+            IRFunction f = new IRFunction(names[m], DecafType.BOOL, List.of(DecafType.INT), List.of("n"));
+            int zero = f.newRegister(DecafType.BOOL, null);
+            int less = f.newRegister(DecafType.INT, null);
+            int result = f.newRegister(DecafType.BOOL, null);
+            int base = f.newLabel();
+            int step = f.newLabel();
+            f.emit(Opcode.EQ, DecafType.INT, zero, 0, f.constant(DecafType.INT, 0));
+            f.emit(Opcode.BRANCH, null, step, zero, base);
+            f.emit(Opcode.LABEL, null, Operand.NONE, base, Operand.NONE);
+            f.emit(Opcode.RETURN, null, Operand.NONE, f.constant(DecafType.BOOL, 1 - m), Operand.NONE);
+            f.emit(Opcode.LABEL, null, Operand.NONE, step, Operand.NONE);
+            f.emit(Opcode.SUB, DecafType.INT, less, 0, f.constant(DecafType.INT, 1));
+            f.emit(Opcode.CALL, DecafType.BOOL, result, methods[1 - m], f.arguments(new int[] {less}, 1));
+            f.emit(Opcode.RETURN, null, Operand.NONE, result, Operand.NONE);
+            program.addFunction(f);
+        }
+        IRFunction main = new IRFunction("main", DecafType.BOOL, List.of(), List.of());
+        int result = main.newRegister(DecafType.BOOL, null);
+        main.emit(Opcode.CALL, DecafType.BOOL, result, methods[0],
+            main.arguments(new int[] {main.constant(DecafType.INT, 7)}, 1));
+        main.emit(Opcode.RETURN, null, Operand.NONE, result, Operand.NONE);
+        program.addFunction(main);
+        return program;
+    }
+
+    private static int calls(IRProgram program, IRFunction f, String callee) {
+        int count = 0;
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == Opcode.CALL && program.getSymbol(f.src1(i)).getName().equals(callee)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> run(IRProgram program) {
+        IRInterpreter interpreter = new IRInterpreter(program);
+        assertEquals(645, interpreter.run("sum", 10));
+        interpreter.run("main");
+        return interpreter.getCalls();
+    }
+
+    @Test
+    public void testComponentsAreNumberedBottomUp() throws Exception {
+        CallGraph cycle = new CallGraph(mutualRecursion());
+        int even = cycle.indexOf("even");
+        int odd = cycle.indexOf("odd");
+        assertEquals(cycle.component(even), cycle.component(odd));
+        assertTrue(cycle.isRecursive(even) && cycle.isRecursive(odd));
+        assertFalse(cycle.isRecursive(cycle.indexOf("main")));
+        assertTrue(cycle.component(even) < cycle.component(cycle.indexOf("main")));
+
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        CallGraph calls = new CallGraph(program);
+        int main = calls.indexOf("main");
+        assertTrue(calls.isRecursive(calls.indexOf("fact")));
+        assertFalse(calls.isRecursive(calls.indexOf("sum")));
+        for (int f = 0; f < calls.getFunctionCount(); f++) {
+            for (int k = 0; k < calls.calleeCount(f); k++) {
+                assertTrue(calls.component(calls.callee(f, k)) <= calls.component(f));
+            }
+        }
+        int[] positions = new int[calls.getFunctionCount()];
+        for (int n = 0; n < positions.length; n++) {
+            positions[calls.bottomUp(n)] = n;
+        }
+        assertTrue(positions[calls.indexOf("square")] < positions[calls.indexOf("sum")]);
+        assertTrue(positions[calls.indexOf("sum")] < positions[main]);
+        assertEquals(positions.length - 1, positions[main]);
+    }
+
+    @Test
+    public void testSmallCalleesAreInlinedButNotRecursion() throws Exception {
+        List<String> expected = run(DecafLoweringTest.lower(PROGRAM));
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        Map<String, Integer> statistics = OptimizerTest.optimize(program, "inline");
+        assertTrue(statistics.get("inline") >= 3, statistics.toString());
+        IRFunction sum = program.getFunction("sum");
+        assertEquals(0, calls(program, sum, "square"), sum.toString());
+        assertEquals(0, calls(program, sum, "clamp"), sum.toString());
+        assertEquals(1, calls(program, program.getFunction("main"), "fact"));
+        assertEquals(1, calls(program, program.getFunction("fact"), "fact"));
+        assertEquals(expected, run(program));
+
+        // main may take in the cycle once, but the cycle never takes in itself
+        IRProgram cycle = mutualRecursion();
+        OptimizerTest.optimize(cycle, "inline");
+        assertEquals(1, calls(cycle, cycle.getFunction("even"), "odd"));
+        assertEquals(1, calls(cycle, cycle.getFunction("odd"), "even"));
+        assertEquals(0, new IRInterpreter(cycle).run("main"));
+
+        // optimized first and not unrolled, histogram is small enough too; the copies of its
+        // array would not be zeroed again on each trip of a loop, but the calls are outside loops
+        program = DecafLoweringTest.lower(PROGRAM);
+        OptimizerTest.optimize(program, "inline", "cp", "cse", "licm", "sr", "dce");
+        sum = program.getFunction("sum");
+        assertEquals(0, calls(program, sum, "histogram"), sum.toString());
+        assertEquals(2, sum.getFrameSize());
+        assertEquals(expected, run(program));
+    }
+
+    @Test
+    public void testBudgetLimitsGrowth() throws Exception {
+        List<String> expected = run(DecafLoweringTest.lower(PROGRAM));
+        boolean[] enabled = new boolean[Optimizer.names().length];
+        enabled[List.of(Optimizer.names()).indexOf("inline")] = true;
+
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        int size = program.size();
+        Optimizer optimizer = new Optimizer(enabled, 0);
+        optimizer.optimize(program);
+        assertEquals(0, (int) optimizer.getStatistics().get("inline"));
+        assertEquals(size, program.size());
+
+        program = DecafLoweringTest.lower(PROGRAM);
+        optimizer = new Optimizer(enabled, 10);
+        optimizer.optimize(program);
+        assertTrue(program.size() <= size + size / 10, program.size() + " from " + size);
+        assertEquals(expected, run(program));
+    }
+}
@@ -0,0 +1,188 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import lang.grammars.decaf.DecafType;
+
+public class LoopInvariantCodeMotionTest {
+    static final String NEST =
+        "int a[100];\n" +
+        "int g;\n" +
+        "int f(int n, int m) {\n" +
+        "  int i, j, s;\n" +
+        "  for (i = 0; i < n; i++) {\n" +
+        "    for (j = 0; j < m; j++) {\n" +
+        "      s += a[i * m + j] + n * m + g;\n" +
+        "    }\n" +
+        "  }\n" +
+        "  return s;\n" +
+        "}\n" +
+        "int h(int n) {\n" +
+        "  int i, s;\n" +
+        "  for (i = 0; i < n; i++) { s += g; g = g + 1; }\n" +
+        "  return s;\n" +
+        "}\n" +
+        "void fill() { int i; for (i = 0; i < 100; i++) { a[i] = i % 7; } g = 5; }\n" +
+        "void main() { }\n";
+
+    /**
+     * @return The depth of the innermost loop around the first instruction that passes the test
+     */
+    static int depthOf(IRFunction f, IntPredicate test) {
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        Loops loops = new Loops(new Dominators(cfg));
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                if (test.test(i)) {
+                    int l = loops.innermost(b);
+                    return l < 0 ? 0 : loops.depth(l);
+                }
+            }
+        }
+        throw new AssertionError("no such instruction in " + f);
+    }
+
+    @Test
+    public void testLoops() throws Exception {
+        IRFunction f = DecafLoweringTest.lower(NEST).getFunction("f");
+        SSA.construct(f);
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        Loops loops = new Loops(new Dominators(cfg));
+        assertEquals(2, loops.getLoopCount());
+        assertEquals(-1, loops.parent(0));
+        assertEquals(0, loops.parent(1));
+        assertEquals(2, loops.depth(1));
+        assertEquals(1, loops.latchCount(1));
+        assertTrue(loops.blockCount(0) > loops.blockCount(1));
+        for (int k = 0; k < loops.blockCount(1); k++) {
+            assertTrue(loops.contains(0, loops.block(1, k)));
+            assertEquals(1, loops.innermost(loops.block(1, k)));
+        }
+        assertEquals(-1, loops.innermost(0));
+    }
+
+    @Test
+    public void testInvariantsLeaveAsFarAsTheyCan() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(NEST);
+        IRFunction f = program.getFunction("f");
+        assertEquals(3, (int) OptimizerTest.optimize(program, "licm").get("licm"));
+        int n = 0;
+        int m = 1; // the parameters' registers
+        // n * m and the load of g leave both loops, i * m only the inner one
+        assertEquals(0, depthOf(f, i -> f.opcode(i) == Opcode.MUL && f.src1(i) == n && f.src2(i) == m));
+        assertEquals(0, depthOf(f, i -> f.opcode(i) == Opcode.LOAD && f.src2(i) == Operand.NONE));
+        assertEquals(1, depthOf(f, i -> f.opcode(i) == Opcode.MUL && f.src1(i) != n));
+        // h writes g in its loop, so the load stays
+        IRFunction h = program.getFunction("h");
+        assertEquals(1, depthOf(h, i -> h.opcode(i) == Opcode.LOAD));
+    }
+
+    @Test
+    public void testResultsAreUnchanged() throws Exception {
+        IRProgram plain = DecafLoweringTest.lower(NEST);
+        IRProgram optimized = DecafLoweringTest.lower(NEST);
+        OptimizerTest.optimize(optimized, "licm");
+        IRInterpreter before = new IRInterpreter(plain);
+        IRInterpreter after = new IRInterpreter(optimized);
+        before.run("fill");
+        after.run("fill");
+        for (int n = 0; n < 5; n++) {
+            assertEquals(before.run("f", n, 7), after.run("f", n, 7));
+            assertEquals(before.run("h", n), after.run("h", n));
+        }
+        assertTrue(after.getSteps() < before.getSteps());
+    }
+
+    @Test
+    public void testTrappingDivisionStays() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int n, int d) { int i, s; for (i = 0; i < n; i++) { s += n / d + n / 4; } return s; }\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        assertEquals(1, (int) OptimizerTest.optimize(program, "licm").get("licm"));
+        assertEquals(1, depthOf(f, i -> f.opcode(i) == Opcode.DIV && Operand.isRegister(f.src2(i))));
+        assertEquals(0, depthOf(f, i -> f.opcode(i) == Opcode.DIV && Operand.isConstant(f.src2(i))));
+        // and a loop that never runs still never divides
+        assertEquals(0, new IRInterpreter(program).run("f", 0, 0));
+    }
+
+    @Test
+    public void testGuardedDivisionByMinusOneStays() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int f(int n, int x) {\n" +
+            "  int i, s;\n" +
+            "  for (i = 0; i < n; i++) { if (x != -2147483648) { s += x / -1 + x % -1; } }\n" +
+            "  return s;\n" +
+            "}\n" +
+            "void main() { }\n");
+        IRFunction f = program.getFunction("f");
+        OptimizerTest.optimize(program, "licm");
+        // the least int divided by -1 traps, so neither may run ahead of the guard
+        assertEquals(1, depthOf(f, i -> f.opcode(i) == Opcode.DIV));
+        assertEquals(1, depthOf(f, i -> f.opcode(i) == Opcode.MOD));
+        assertEquals(0, new IRInterpreter(program).run("f", 3, Integer.MIN_VALUE));
+        assertEquals(-21, new IRInterpreter(program).run("f", 3, 7));
+    }
+
+    @Test
+    public void testPreheaderMergesSeveralEntries() {
+        // both sides of an if jump straight to the loop, each with its own start for i
+        IRProgram program = new IRProgram();
+        IRFunction f = new IRFunction("f", DecafType.INT, List.of(DecafType.INT, DecafType.BOOL), List.of("n", "c"));
+        int i = f.newRegister(DecafType.INT, "i");
+        int next = f.newRegister(DecafType.INT, "i");
+        int step = f.newRegister(DecafType.INT, null);
+        int test = f.newRegister(DecafType.BOOL, null);
+        int entry = f.newLabel();
+        int one = f.newLabel();
+        int two = f.newLabel();
+        int head = f.newLabel();
+        int body = f.newLabel();
+        int exit = f.newLabel();
+        f.emit(Opcode.LABEL, null, Operand.NONE, entry, Operand.NONE);
+        f.emit(Opcode.BRANCH, null, two, 1, one);
+        f.emit(Opcode.LABEL, null, Operand.NONE, one, Operand.NONE);
+        f.emit(Opcode.JUMP, null, Operand.NONE, head, Operand.NONE);
+        f.emit(Opcode.LABEL, null, Operand.NONE, two, Operand.NONE);
+        f.emit(Opcode.JUMP, null, Operand.NONE, head, Operand.NONE);
+        f.emit(Opcode.LABEL, null, Operand.NONE, head, Operand.NONE);
+        f.emit(Opcode.PHI, DecafType.INT, i, Operand.NONE, f.arguments(new int[] {
+            one, f.constant(DecafType.INT, 1), two, f.constant(DecafType.INT, 2), body, next}, 6));
+        f.emit(Opcode.LT, DecafType.INT, test, i, 0);
+        f.emit(Opcode.BRANCH, null, exit, test, body);
+        f.emit(Opcode.LABEL, null, Operand.NONE, body, Operand.NONE);
+        f.emit(Opcode.MUL, DecafType.INT, step, 0, f.constant(DecafType.INT, 3));
+        f.emit(Opcode.ADD, DecafType.INT, next, i, step);
+        f.emit(Opcode.JUMP, null, Operand.NONE, head, Operand.NONE);
+        f.emit(Opcode.LABEL, null, Operand.NONE, exit, Operand.NONE);
+        f.emit(Opcode.RETURN, DecafType.INT, Operand.NONE, i, Operand.NONE);
+        f.setSSA(true);
+        program.addFunction(f);
+        long[] expected = {1, 2, 7, 2, 13, 14};
+        IRInterpreter interpreter = new IRInterpreter(program);
+        for (int n = 0; n < 3; n++) {
+            assertEquals(expected[2 * n], interpreter.run("f", 2 * n, 1));
+            assertEquals(expected[2 * n + 1], interpreter.run("f", 2 * n, 0));
+        }
+
+        assertEquals(1, new LoopInvariantCodeMotion().run(program, f));
+        SSATest.assertSSA(f);
+        assertEquals(0, depthOf(f, k -> f.opcode(k) == Opcode.MUL));
+        // the two starting values now meet in the preheader
+        assertEquals(2, OptimizerTest.count(f, Opcode.PHI));
+        for (int n = 0; n < 3; n++) {
+            assertEquals(expected[2 * n], interpreter.run("f", 2 * n, 1));
+            assertEquals(expected[2 * n + 1], interpreter.run("f", 2 * n, 0));
+        }
+        SSA.destruct(f);
+        for (int n = 0; n < 3; n++) {
+            assertEquals(expected[2 * n], interpreter.run("f", 2 * n, 1));
+            assertEquals(expected[2 * n + 1], interpreter.run("f", 2 * n, 0));
+        }
+    }
+}
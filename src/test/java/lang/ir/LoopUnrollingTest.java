@@ -0,0 +1,79 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopUnrollingTest {
+
+    private static final String PROGRAM =
+        "int a[100];\n" +
+        "int fill(int n) { int i; for (i = 0; i < n; i++) { a[i] = i * 3; } return i; }\n" +
+        "int sum(int from, int to) {\n" +
+        "  int i, s;\n" +
+        "  for (i = from; i <= to; i += 3) {\n" +
+        "    if (i % 7 == 5) { continue; }\n" +
+        "    s += a[i % 100] + i % 10;\n" +
+        "    if (s > 1000 || s < -1000) { break; }\n" +
+        "  }\n" +
+        "  return s * 1000 + i % 1000;\n" +
+        "}\n" +
+        "int down(int n) { int i, s; for (i = n; i > 0; i -= 2) { s += i; } return s; }\n" +
+        "int squares() { int i, s; for (i = 0; i < 5; i++) { s += i * i; } return s; }\n" +
+        "void main() { }\n";
+
+    private static final int MAX = Integer.MAX_VALUE;
+    private static final int MIN = Integer.MIN_VALUE;
+
+    private static long[] run(IRProgram program) {
+        IRInterpreter interpreter = new IRInterpreter(program);
+        long[] results = new long[40];
+        int r = 0;
+        for (int n = 0; n < 20; n++) {
+            results[r++] = interpreter.run("fill", n);
+        }
+        interpreter.run("fill", 100);
+        results[r++] = interpreter.run("sum", 0, 99);
+        results[r++] = interpreter.run("sum", 10, 12);
+        results[r++] = interpreter.run("sum", 5, 4);
+        results[r++] = interpreter.run("sum", MAX - 40, MAX - 5);
+        results[r++] = interpreter.run("sum", -100, MIN + 5);
+        for (int n = -1; n < 12; n++) {
+            results[r++] = interpreter.run("down", n);
+        }
+        results[r++] = interpreter.run("squares");
+        return results;
+    }
+
+    @Test
+    public void testUnrolledLoopsComputeTheSame() throws Exception {
+        long[] expected = run(DecafLoweringTest.lower(PROGRAM));
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        assertEquals(4, (int) OptimizerTest.optimize(program, "unroll").get("unroll"));
+        assertArrayEquals(expected, run(program), "unroll");
+
+        program = DecafLoweringTest.lower(PROGRAM);
+        OptimizerTest.optimize(program, Optimizer.names());
+        assertArrayEquals(expected, run(program), "all");
+    }
+
+    @Test
+    public void testSmallBodiesAreUnrolledByEight() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        OptimizerTest.optimize(program, "unroll");
+        // eight copies and the remainder loop
+        assertEquals(9, OptimizerTest.count(program.getFunction("fill"), Opcode.STORE));
+        // the body of sum is larger, so four copies
+        assertEquals(5, OptimizerTest.count(program.getFunction("sum"), Opcode.CHECK));
+    }
+
+    @Test
+    public void testShortConstantLoopIsUnrolledFully() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        OptimizerTest.optimize(program, "unroll", "cp", "dce");
+        IRFunction f = program.getFunction("squares");
+        assertEquals(0, OptimizerTest.count(f, Opcode.BRANCH), f.toString());
+        assertEquals(0, OptimizerTest.count(f, Opcode.MUL), f.toString());
+        assertEquals(30, new IRInterpreter(program).run("squares"));
+    }
+}
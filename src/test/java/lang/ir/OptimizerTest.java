@@ -0,0 +1,59 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class OptimizerTest {
+
+    /**
+     * Runs the named passes over a program.
+     * @return The changes each pass made
+     */
+    static Map<String, Integer> optimize(IRProgram program, String... passes) {
+        List<String> names = Arrays.asList(Optimizer.names());
+        boolean[] enabled = new boolean[names.size()];
+        for (String pass : passes) {
+            assertTrue(names.contains(pass), "no pass " + pass);
+            enabled[names.indexOf(pass)] = true;
+        }
+        Optimizer optimizer = new Optimizer(enabled);
+        optimizer.optimize(program);
+        return optimizer.getStatistics();
+    }
+
+    static int count(IRFunction f, Opcode opcode) {
+        int count = 0;
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testNothingSelectedLeavesTheProgram() throws Exception {
+        String source = "int f(int n) { int s; s = n * 2; if (n > 0) { s = n * 2 + 1; } return s; }\nvoid main() { }\n";
+        IRProgram program = DecafLoweringTest.lower(source);
+        assertTrue(optimize(program).isEmpty());
+        assertEquals(DecafLoweringTest.lower(source).toString(), program.toString());
+    }
+
+    @Test
+    public void testEveryPassComputesTheSame() throws Exception {
+        long[] expected = SSATest.run(DecafLoweringTest.lower(SSATest.PROGRAM));
+        for (String pass : Optimizer.names()) {
+            IRProgram program = DecafLoweringTest.lower(SSATest.PROGRAM);
+            optimize(program, pass);
+            assertArrayEquals(expected, SSATest.run(program), pass);
+        }
+        IRProgram program = DecafLoweringTest.lower(SSATest.PROGRAM);
+        optimize(program, Optimizer.names());
+        assertArrayEquals(expected, SSATest.run(program));
+    }
+}
@@ -0,0 +1,222 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import lang.grammars.decaf.DecafType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class SSATest {
+    static final String PROGRAM =
+        "import printf;\n" +
+        "long total;\n" +
+        "int a[8];\n" +
+        "int fib(int n) { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n" +
+        "int collatz(int n) {\n" +
+        "  int steps;\n" +
+        "  while (n != 1) {\n" +
+        "    if (n % 2 == 0) { n /= 2; } else { n = 3 * n + 1; }\n" +
+        "    steps += 1;\n" +
+        "  }\n" +
+        "  return steps;\n" +
+        "}\n" +
+        "int gcd(int x, int y) { while (y != 0) { int t; t = x % y; x = y; y = t; } return x; }\n" +
+        "bool between(int x, int lo, int hi) { return lo <= x && x < hi || x == -1; }\n" +
+        "int sorted(int n) {\n" +
+        "  int i, j, key;\n" +
+        "  for (i = 0; i < 8; i++) { a[i] = (i * 5 + n) % 8; }\n" +
+        "  for (i = 1; i < 8; i++) {\n" +
+        "    key = a[i];\n" +
+        "    j = i - 1;\n" +
+        "    while (j >= 0 && a[j] > key) { a[j + 1] = a[j]; j -= 1; }\n" +
+        "    a[j + 1] = key;\n" +
+        "  }\n" +
+        "  return a[0] * 1000 + a[3] * 100 + a[7];\n" +
+        "}\n" +
+        "void main() {\n" +
+        "  int i;\n" +
+        "  for (i = 0; i < 10; i += 1) {\n" +
+        "    if (i == 7) { break; } else if (i % 3 == 0) { continue; }\n" +
+        "    total += long(i);\n" +
+        "  }\n" +
+        "  printf(\"%d\", total);\n" +
+        "}\n";
+
+    @Test
+    public void testEveryRegisterIsWrittenOnceBeforeItsUses() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        for (IRFunction function : program.getFunctions()) {
+            SSA.construct(function);
+            assertTrue(function.isSSA());
+            assertSSA(function);
+        }
+    }
+
+    @Test
+    public void testRoundTripComputesTheSame() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        long[] before = run(program);
+        for (IRFunction function : program.getFunctions()) {
+            SSA.construct(function);
+        }
+        assertArrayEquals(before, run(program));
+        for (IRFunction function : program.getFunctions()) {
+            SSA.destruct(function);
+            assertFalse(function.isSSA());
+            for (int i = 0; i < function.size(); i++) {
+                assertNotEquals(Opcode.PHI, function.opcode(i), function.getName());
+            }
+        }
+        assertArrayEquals(before, run(program));
+    }
+
+    @Test
+    public void testPhisJoinLoopValues() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int count(int n) { int i, s; for (i = 0; i < n; i++) { s += i; } return s; }\n" +
+            "void main() { }\n");
+        IRFunction function = program.getFunction("count");
+        SSA.construct(function);
+        assertEquals(
+            "method int count(int %n) {\n" +
+            "L4:\n" +
+            "    %i.4 = move int 0\n" +
+            "    %s.5 = move int 0\n" +
+            "    %i.6 = move int 0\n" +
+            "L0:\n" +
+            "    %i.7 = phi int [L4: %i.6], [L2: %i.10]\n" +
+            "    %s.8 = phi int [L4: %s.5], [L2: %s.9]\n" +
+            "    %3 = lt int %i.7, %n\n" +
+            "    branch %3, L1, L3\n" +
+            "L1:\n" +
+            "    %s.9 = add int %s.8, %i.7\n" +
+            "L2:\n" +
+            "    %i.10 = add int %i.7, 1\n" +
+            "    jump L0\n" +
+            "L3:\n" +
+            "    return int %s.8\n" +
+            "}\n",
+            IRPrinter.print(program, function));
+    }
+
+    @Test
+    public void testCoalescingRemovesTheCopies() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(PROGRAM);
+        for (IRFunction function : program.getFunctions()) {
+            int moves = count(function, Opcode.MOVE);
+            SSA.construct(function);
+            SSA.destruct(function);
+            // the copies that replace phis mostly merge back into their variables
+            assertTrue(count(function, Opcode.MOVE) <= moves, function.getName());
+        }
+    }
+
+    @Test
+    public void testParallelCopiesSwap() {
+        // x and y swap on every trip around the loop, so their copies form a cycle
+        IRProgram program = new IRProgram();
+        IRFunction f = new IRFunction("swap", DecafType.INT, List.of(DecafType.INT), List.of("n"));
+        int x = f.newRegister(DecafType.INT, "x");
+        int y = f.newRegister(DecafType.INT, "y");
+        int i = f.newRegister(DecafType.INT, "i");
+        int next = f.newRegister(DecafType.INT, "i");
+        int c = f.newRegister(DecafType.BOOL, null);
+        int tens = f.newRegister(DecafType.INT, null);
+        int result = f.newRegister(DecafType.INT, null);
+        int entry = f.newLabel();
+        int head = f.newLabel();
+        int body = f.newLabel();
+        int exit = f.newLabel();
+        f.emit(Opcode.LABEL, null, Operand.NONE, entry, Operand.NONE);
+        f.emit(Opcode.JUMP, null, Operand.NONE, head, Operand.NONE);
+        f.emit(Opcode.LABEL, null, Operand.NONE, head, Operand.NONE);
+        f.emit(Opcode.PHI, DecafType.INT, x, Operand.NONE,
+            f.arguments(new int[] {entry, f.constant(DecafType.INT, 1), body, y}, 4));
+        f.emit(Opcode.PHI, DecafType.INT, y, Operand.NONE,
+            f.arguments(new int[] {entry, f.constant(DecafType.INT, 2), body, x}, 4));
+        f.emit(Opcode.PHI, DecafType.INT, i, Operand.NONE,
+            f.arguments(new int[] {entry, f.constant(DecafType.INT, 0), body, next}, 4));
+        f.emit(Opcode.LT, DecafType.INT, c, i, 0);
+        f.emit(Opcode.BRANCH, null, exit, c, body);
+        f.emit(Opcode.LABEL, null, Operand.NONE, body, Operand.NONE);
+        f.emit(Opcode.ADD, DecafType.INT, next, i, f.constant(DecafType.INT, 1));
+        f.emit(Opcode.JUMP, null, Operand.NONE, head, Operand.NONE);
+        f.emit(Opcode.LABEL, null, Operand.NONE, exit, Operand.NONE);
+        f.emit(Opcode.MUL, DecafType.INT, tens, x, f.constant(DecafType.INT, 10));
+        f.emit(Opcode.ADD, DecafType.INT, result, tens, y);
+        f.emit(Opcode.RETURN, DecafType.INT, Operand.NONE, result, Operand.NONE);
+        f.setSSA(true);
+        program.addFunction(f);
+        assertSSA(f);
+
+        assertEquals(21, new IRInterpreter(program).run("swap", 3));
+        SSA.destruct(f);
+        assertEquals(21, new IRInterpreter(program).run("swap", 3));
+        assertEquals(12, new IRInterpreter(program).run("swap", 4));
+    }
+
+    /**
+     * Checks that each register is written at most once, parameters never, and that every write
+     * dominates the reads of what it writes.
+     */
+    static void assertSSA(IRFunction f) {
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        Dominators dominators = new Dominators(cfg);
+        DefUse chains = new DefUse(f);
+        int[] blockOf = new int[f.size()];
+        int[] writes = new int[f.getRegisterCount()];
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                blockOf[i] = b;
+                if (f.opcode(i).definesRegister() && f.dest(i) != Operand.NONE) {
+                    assertTrue(f.dest(i) >= f.getParameterCount(), f.getName() + " writes a parameter");
+                    assertEquals(1, ++writes[f.dest(i)], f.getName() + " writes %" + f.dest(i) + " twice");
+                }
+            }
+        }
+        for (int r = f.getParameterCount(); r < f.getRegisterCount(); r++) {
+            int def = chains.def(r);
+            for (int k = 0; k < chains.useCount(r); k++) {
+                int use = chains.use(r, k);
+                assertTrue(def >= 0, f.getName() + " reads %" + r + " which is never written");
+                if (f.opcode(use) == Opcode.PHI) {
+                    // the value must be available at the end of the predecessor it comes from
+                    int arguments = f.src2(use);
+                    for (int a = 0; a < f.argumentCount(arguments); a += 2) {
+                        if (f.argument(arguments, a + 1) == r) {
+                            int pred = cfg.blockOf(f.argument(arguments, a));
+                            assertTrue(dominators.dominates(blockOf[def], pred), f.getName() + " phi at " + use);
+                        }
+                    }
+                } else if (blockOf[def] == blockOf[use]) {
+                    assertTrue(def < use, f.getName() + " reads %" + r + " before writing it");
+                } else {
+                    assertTrue(dominators.dominates(blockOf[def], blockOf[use]), f.getName() + " at " + use);
+                }
+            }
+        }
+    }
+
+    static long[] run(IRProgram program) {
+        IRInterpreter interpreter = new IRInterpreter(program);
+        long[] results = {
+            interpreter.run("fib", 12), interpreter.run("collatz", 27), interpreter.run("gcd", 1071, 462),
+            interpreter.run("between", 3, 0, 5), interpreter.run("between", -1, 0, 5),
+            interpreter.run("sorted", 3), interpreter.run("main"), interpreter.global("total"),
+        };
+        assertEquals(List.of("printf(\"%d\", 12)"), interpreter.getCalls());
+        return results;
+    }
+
+    private static int count(IRFunction f, Opcode opcode) {
+        int count = 0;
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
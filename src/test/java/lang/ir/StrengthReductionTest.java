@@ -0,0 +1,137 @@
+package lang.ir;
+
+import org.junit.jupiter.api.Test;
+
+import lang.grammars.decaf.DecafType;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StrengthReductionTest {
+    static final String KERNELS =
+        "int a[100];\n" +
+        "int matrix(int n, int m) {\n" +
+        "  int i, j, s;\n" +
+        "  for (i = 0; i < n; i++) {\n" +
+        "    for (j = 0; j < m; j++) { s += a[i * m + j] * 3; }\n" +
+        "  }\n" +
+        "  return s;\n" +
+        "}\n" +
+        "int stencil() {\n" +
+        "  int i, s;\n" +
+        "  for (i = 1; i < 24; i++) { s += a[i * 4 - 4] + a[4 * i] + a[i * 4 + 4]; }\n" +
+        "  return s;\n" +
+        "}\n" +
+        "int far() {\n" +
+        "  int i, s;\n" +
+        "  for (i = 0; i < 1000000000; i++) { if (i == 20) { break; } s += a[i * 4 % 100]; }\n" +
+        "  return s;\n" +
+        "}\n" +
+        "int early() {\n" +
+        "  int i, s;\n" +
+        "  for (i = 0; i < 300000000; i++) { if (i < 5) { s += i * 8; } }\n" +
+        "  return s;\n" +
+        "}\n" +
+        "void fill() { int i; for (i = 0; i < 100; i++) { a[i] = i * 7 % 11; } }\n" +
+        "void main() { }\n";
+
+    /**
+     * @return The multiplications by a register or a constant other than 3 inside loops
+     */
+    private static int multiplicationsInLoops(IRFunction f) {
+        ControlFlowGraph cfg = new ControlFlowGraph(f);
+        Loops loops = new Loops(new Dominators(cfg));
+        int count = 0;
+        for (int b = 0; b < cfg.getBlockCount(); b++) {
+            for (int i = cfg.start(b); i < cfg.end(b) && loops.innermost(b) >= 0; i++) {
+                boolean byThree = Operand.isConstant(f.src2(i)) && f.constantValue(f.src2(i)) == 3;
+                if (f.opcode(i) == Opcode.MUL && !byThree) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long bound(IRFunction f) {
+        for (int i = 0; i < f.size(); i++) {
+            if (f.opcode(i) == Opcode.LT && Operand.isConstant(f.src2(i))) {
+                return f.constantValue(f.src2(i));
+            }
+        }
+        throw new AssertionError("no loop test in " + f);
+    }
+
+    @Test
+    public void testIndexMultiplicationsLeaveTheLoops() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(KERNELS);
+        assertTrue(multiplicationsInLoops(program.getFunction("matrix")) > 0);
+        assertTrue(OptimizerTest.optimize(program, "sr").get("sr") > 0);
+        for (String name : new String[] {"matrix", "stencil", "far"}) {
+            assertEquals(0, multiplicationsInLoops(program.getFunction(name)), program.getFunction(name).toString());
+        }
+        // a product of a loaded value is no induction variable, and stays in the inner loop
+        IRFunction matrix = program.getFunction("matrix");
+        assertEquals(2, LoopInvariantCodeMotionTest.depthOf(matrix, i -> matrix.opcode(i) == Opcode.MUL
+            && Operand.isConstant(matrix.src2(i)) && matrix.constantValue(matrix.src2(i)) == 3));
+    }
+
+    @Test
+    public void testRedundantVariableIsReplacedWhereSafe() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(KERNELS);
+        OptimizerTest.optimize(program, "cp", "sr", "dce");
+        // i only fed its test and i * 4, so the test now counts in fours
+        IRFunction stencil = program.getFunction("stencil");
+        assertEquals(96, bound(stencil));
+        assertEquals(2, OptimizerTest.count(stencil, Opcode.ADD) - 3, stencil.toString());
+        // 4 * 1000000000 does not fit an int
+        assertEquals(1000000000, bound(program.getFunction("far")));
+        // i * 8 wraps once i reaches 2^28, so i < 5 inside the loop is no exit test to rewrite
+        IRFunction early = program.getFunction("early");
+        assertEquals(300000000, bound(early));
+        for (int i = 0; i < early.size(); i++) {
+            assertFalse(early.opcode(i) == Opcode.LT && early.constantValue(early.src2(i)) == 40, early.toString());
+        }
+    }
+
+    @Test
+    public void testSubtractedLeastValueWraps() throws Exception {
+        IRProgram program = DecafLoweringTest.lower(
+            "int flip(int n) {\n" +
+            "  int i, k, s;\n" +
+            "  i = 1;\n" +
+            "  for (k = 0; k < 5; k++) { s += i * n; i -= -2147483648; }\n" +
+            "  return s;\n" +
+            "}\n" +
+            "void main() { }\n");
+        long before = new IRInterpreter(program).run("flip", 3);
+        OptimizerTest.optimize(program, "sr");
+        IRFunction f = program.getFunction("flip");
+        // subtracting the least int adds it, rather than 2^31 in an int constant
+        for (int i = 0; i < f.size(); i++) {
+            for (int k = 0; k < f.useCount(i); k++) {
+                int use = f.use(i, k);
+                if (Operand.isConstant(use) && f.constantType(use) == DecafType.INT) {
+                    assertEquals((int) f.constantValue(use), f.constantValue(use), f.toString());
+                }
+            }
+        }
+        assertEquals(before, new IRInterpreter(program).run("flip", 3));
+    }
+
+    @Test
+    public void testResultsAreUnchanged() throws Exception {
+        IRProgram plain = DecafLoweringTest.lower(KERNELS);
+        IRProgram optimized = DecafLoweringTest.lower(KERNELS);
+        OptimizerTest.optimize(optimized, "cp", "licm", "sr", "dce");
+        IRInterpreter before = new IRInterpreter(plain);
+        IRInterpreter after = new IRInterpreter(optimized);
+        before.run("fill");
+        after.run("fill");
+        for (int n = 0; n < 5; n++) {
+            assertEquals(before.run("matrix", n, 2 * n + 1), after.run("matrix", n, 2 * n + 1));
+        }
+        assertEquals(before.run("stencil"), after.run("stencil"));
+        assertEquals(before.run("far"), after.run("far"));
+        assertTrue(after.getSteps() < before.getSteps());
+    }
+}
@@ -0,0 +1,70 @@
+package lang.parallel;
+
+import org.junit.jupiter.api.Test;
+
+import lang.parallel.DependenceTester.Result;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class DependenceCacheTest {
+
+    private static void assertSameAnswer(Result expected, Result actual, int depth) {
+        assertEquals(expected.isIndependent(), actual.isIndependent());
+        assertEquals(expected.isExact(), actual.isExact());
+        assertEquals(expected.getDirections().size(), actual.getDirections().size());
+        for (int v = 0; v < expected.getDirections().size(); v++) {
+            assertArrayEquals(expected.getDirections().get(v), actual.getDirections().get(v));
+        }
+        for (int k = 0; k < depth; k++) {
+            assertEquals(expected.isDistanceKnown(k), actual.isDistanceKnown(k));
+            if (expected.isDistanceKnown(k)) {
+                assertEquals(expected.getDistance(k), actual.getDistance(k));
+            }
+        }
+    }
+
+    @Test
+    public void testEquivalentShapesShareOneEntry() {
+        DependenceCache cache = new DependenceCache();
+        // a[i] vs a[i - 1] for i in 1..99, a[2i + 2] vs a[2i] for i in 0..98 with an unused outer
+        // loop, and a[-3i] vs a[-3i + 3] for i in 5..103: all the same equation once shifted
+        Result first = cache.test(new long[] { 1 }, new long[] { 99 }, new long[] { 1, 0 }, new long[] { 1, -1 });
+        Result second = cache.test(new long[] { 0, 0 }, new long[] { 7, 98 },
+                                   new long[] { 0, 2, 2 }, new long[] { 0, 2, 0 });
+        Result third = cache.test(new long[] { 5 }, new long[] { 103 }, new long[] { -3, 0 }, new long[] { -3, 3 });
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, first.getDistance(0));
+        assertEquals(1, second.getDistance(1));
+        assertFalse(second.isDistanceKnown(0));
+        assertEquals("[*, <]", Arrays.toString(second.getDirections().get(0)));
+        assertEquals(1, third.getDistance(0));
+    }
+
+    @Test
+    public void testAnswersMatchTheTester() {
+        Random random = new Random(42);
+        DependenceCache cache = new DependenceCache();
+        for (int query = 0; query < 2000; query++) {
+            int depth = 1 + random.nextInt(3);
+            long[] lower = new long[depth];
+            long[] upper = new long[depth];
+            long[] source = new long[depth + 1];
+            long[] sink = new long[depth + 1];
+            for (int k = 0; k < depth; k++) {
+                lower[k] = random.nextInt(4) - 1;
+                upper[k] = random.nextInt(5) == 0 ? DependenceTester.UNKNOWN : lower[k] + random.nextInt(6);
+                source[k] = random.nextInt(5) - 2;
+                sink[k] = random.nextInt(5) - 2;
+            }
+            source[depth] = random.nextInt(9) - 4;
+            sink[depth] = random.nextInt(9) - 4;
+            Result expected = new DependenceTester(lower, upper).test(source, sink);
+            assertSameAnswer(expected, cache.test(lower, upper, source, sink), depth);
+        }
+        assertTrue(cache.getHits() > 0);
+    }
+}
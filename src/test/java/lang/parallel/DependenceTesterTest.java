@@ -0,0 +1,92 @@
+package lang.parallel;
+
+import org.junit.jupiter.api.Test;
+
+import lang.parallel.DependenceTester.Direction;
+import lang.parallel.DependenceTester.Result;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+public class DependenceTesterTest {
+
+    private static String directions(Result result) {
+        StringBuilder sb = new StringBuilder();
+        for (Direction[] vector : result.getDirections()) {
+            sb.append(Arrays.toString(vector));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testRecurrenceHasDistanceOne() {
+        // for i in 1..99: a[i] = a[i - 1]
+        DependenceTester tester = new DependenceTester(new long[] { 1 }, new long[] { 99 });
+        Result result = tester.test(new long[] { 1, 0 }, new long[] { 1, -1 });
+        assertEquals("[<]", directions(result));
+        assertTrue(result.isExact());
+        assertEquals(1, result.getDistance(0));
+        assertTrue(result.isCarriedBy(0));
+    }
+
+    @Test
+    public void testGcdAndBanerjeeProveIndependence() {
+        DependenceTester tester = new DependenceTester(new long[] { 0 }, new long[] { 9 });
+        // a[2i] against a[2i + 1]: parity differs
+        assertTrue(tester.test(new long[] { 2, 0 }, new long[] { 2, 1 }).isIndependent());
+        // a[i] against a[i + 100]: out of reach within ten iterations
+        assertTrue(tester.test(new long[] { 1, 0 }, new long[] { 1, 100 }).isIndependent());
+    }
+
+    @Test
+    public void testExactTestRulesOutWhatBoundsAllow() {
+        // for i in 0..1, j in 0..1: a[2i + 3j] against a[1]; 1 is in [0, 5] and gcd(2, 3) = 1
+        DependenceTester tester = new DependenceTester(new long[] { 0, 0 }, new long[] { 1, 1 });
+        assertTrue(tester.test(new long[] { 2, 3, 0 }, new long[] { 0, 0, 1 }).isIndependent());
+        assertFalse(tester.test(new long[] { 2, 3, 0 }, new long[] { 0, 0, 5 }).isIndependent());
+    }
+
+    @Test
+    public void testMatrixMultiplyOuterLoopsAreParallel() {
+        // c[100 i + j] += a[100 i + k] * b[100 k + j] for i, j, k in 0..99
+        DependenceTester tester = new DependenceTester(new long[] { 0, 0, 0 }, new long[] { 99, 99, 99 });
+        Result c = tester.test(new long[] { 100, 1, 0, 0 }, new long[] { 100, 1, 0, 0 });
+        assertEquals("[=, =, *]", directions(c));
+        assertFalse(c.isCarriedBy(0));
+        assertFalse(c.isCarriedBy(1));
+        assertTrue(c.isCarriedBy(2));
+        assertEquals(0, c.getDistance(0));
+        assertFalse(c.isDistanceKnown(2));
+
+        // c against a: different arrays in practice, but the subscripts still intersect
+        Result mixed = tester.test(new long[] { 100, 1, 0, 0 }, new long[] { 100, 0, 1, 0 });
+        assertFalse(mixed.isIndependent());
+    }
+
+    @Test
+    public void testDifferentCoefficientsInDeepNests() {
+        // a[2i + 4j + k] against a[4i + 2j + k + 1] over a four-deep nest with an unused loop
+        DependenceTester tester = new DependenceTester(new long[] { 0, 0, 0, 0 }, new long[] { 3, 3, 1, 5 });
+        Result result = tester.test(new long[] { 2, 4, 0, 1, 0 }, new long[] { 4, 2, 0, 1, 1 });
+        assertFalse(result.isIndependent());
+        assertTrue(result.isExact());
+        for (Direction[] vector : result.getDirections()) {
+            assertEquals(Direction.ANY, vector[2]);
+        }
+        // even subscripts never meet odd ones
+        assertTrue(tester.test(new long[] { 2, 4, 0, 0, 0 }, new long[] { 4, 2, 0, 0, 1 }).isIndependent());
+    }
+
+    @Test
+    public void testUnknownBoundsAreConservative() {
+        long unknown = DependenceTester.UNKNOWN;
+        DependenceTester tester = new DependenceTester(new long[] { 0 }, new long[] { unknown });
+        Result result = tester.test(new long[] { 1, 0 }, new long[] { 1, 100 });
+        assertFalse(result.isIndependent());
+        assertFalse(result.isExact());
+        assertEquals(-100, result.getDistance(0));
+        assertEquals("[>]", directions(result));
+        assertTrue(tester.test(new long[] { 2, 0 }, new long[] { 2, 1 }).isIndependent());
+    }
+}
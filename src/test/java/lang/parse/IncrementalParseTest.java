@@ -0,0 +1,173 @@
+package lang.parse;
+
+import org.junit.jupiter.api.Test;
+
+import lang.IncrementalParse;
+import lang.Parse;
+import lang.ParseException;
+import lang.Scan;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.types.ASTBase;
+import lang.types.ASTCursor;
+import lang.types.HashConsTable;
+import lang.types.LexicalToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class IncrementalParseTest extends ParseBaseTest {
+
+    private static final String PROGRAM = String.join("\n",
+        "int g;",
+        "int first(int a) {",
+        "    int b;",
+        "    b = a * 2;",
+        "    return b;",
+        "}",
+        "void main() {",
+        "    int i;",
+        "    for (i = 0; i < 10; i++) {",
+        "        if (i == 3) {",
+        "            g = g + 1;",
+        "        }",
+        "    }",
+        "}",
+        "");
+
+    private static List<LexicalToken> scan(String source) {
+        Scan scan = new Scan(source);
+        scan.scan();
+        return scan.getTokens();
+    }
+
+    private static ASTBase fullParse(List<LexicalToken> tokens) throws ParseException {
+        // the buffer already ends in EOF, which the parser appends again
+        return new Parse(tokens.subList(0, tokens.size() - 1), new DecafCFGGraph()).parseProgram();
+    }
+
+    private static int indexOf(List<LexicalToken> tokens, String val, int occurrence) {
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).getVal().equals(val) && occurrence-- == 0) {
+                return i;
+            }
+        }
+        throw new AssertionError("No token " + val);
+    }
+
+    // the BLOCK that ends a method item
+    private static ASTBase body(ASTBase root, int method) {
+        ASTBase item = root.getChildAt(method);
+        return item.getChildAt(item.getNumChildren() - 1);
+    }
+
+    @Test
+    public void testEditInsideBlockMatchesFullParse() throws ParseException {
+        IncrementalParse parser = new IncrementalParse(scan(PROGRAM), new DecafCFGGraph());
+        ASTBase root = parser.parseProgram();
+        ASTBase firstBody = body(root, 1);
+        int fragments = parser.getFragmentCount();
+
+        // g = g + 1;  ->  g = g - i;
+        int plus = indexOf(parser.getTokens(), "+", 0);
+        ASTBase updated = parser.reparse(plus, plus + 2, List.of(op("-"), id("i")));
+
+        assertSame(root, updated);
+        assertSame(firstBody, body(updated, 1));
+        assertEquals(1, parser.getBodiesChangedInPlace().size());
+        assertSame(body(updated, 2), parser.getBodiesChangedInPlace().get(0));
+        assertEquals(fragments, parser.getFragmentCount());
+        assertEquals(fullParse(parser.getTokens()), updated);
+    }
+
+    @Test
+    public void testUntouchedNestedBlocksAreReused() throws ParseException {
+        IncrementalParse parser = new IncrementalParse(scan(PROGRAM), new DecafCFGGraph());
+        ASTBase root = parser.parseProgram();
+        ASTBase mainBody = body(root, 2);
+        ASTBase loopBody = mainBody.getChildAt(1).getChildAt(mainBody.getChildAt(1).getNumChildren() - 1);
+
+        // int i;  ->  int i, j;
+        int semi = indexOf(parser.getTokens(), ";", 4);
+        ASTBase updated = parser.reparse(semi, semi, List.of(punct(","), id("j")));
+
+        ASTBase newMainBody = body(updated, 2);
+        assertNotSame(mainBody, newMainBody);
+        assertSame(loopBody, newMainBody.getChildAt(1).getChildAt(newMainBody.getChildAt(1).getNumChildren() - 1));
+        assertEquals(fullParse(parser.getTokens()), updated);
+    }
+
+    @Test
+    public void testNestedReparseSharesWithItsBody() throws ParseException {
+        // first's product is parsed last, so the table holds it when main's block is edited
+        IncrementalParse parser = new IncrementalParse(scan(String.join("\n",
+            "int g;",
+            "void main() {",
+            "    int a, b, c;",
+            "    c = a * b;",
+            "    if (c > 0) {",
+            "        g = a * b;",
+            "    }",
+            "}",
+            "int first(int a) { return a * 2; }",
+            "")), new DecafCFGGraph());
+        parser.setHashConsTable(new HashConsTable());
+        ASTBase root = parser.parseProgram();
+        assertEquals(1, products(body(root, 1)).size());
+
+        // g = a * b;  ->  c = a * b;
+        int g = indexOf(parser.getTokens(), "g", 1);
+        ASTBase updated = parser.reparse(g, g + 1, List.of(id("c")));
+
+        assertEquals(1, parser.getBodiesChangedInPlace().size());
+        assertEquals(1, products(body(updated, 1)).size());
+        assertEquals(fullParse(parser.getTokens()), updated);
+    }
+
+    // the distinct product nodes under a node
+    private static Set<ASTBase> products(ASTBase node) {
+        Set<ASTBase> products = Collections.newSetFromMap(new IdentityHashMap<>());
+        ASTCursor cursor = new ASTCursor(node);
+        while (cursor.nextPreOrder()) {
+            LexicalToken token = cursor.node().getToken();
+            if (token != null && token.getVal().equals("*")) {
+                products.add(cursor.node());
+            }
+        }
+        return products;
+    }
+
+    @Test
+    public void testBraceChangeFallsBackToEnclosingScope() throws ParseException {
+        IncrementalParse parser = new IncrementalParse(scan(PROGRAM), new DecafCFGGraph());
+        parser.parseProgram();
+
+        // return b;  ->  return b; } int second() { return 1;
+        int ret = indexOf(parser.getTokens(), "return", 0);
+        ASTBase updated = parser.reparse(ret + 3, ret + 3, List.of(
+            punct("}"), keyword("int"), id("second"), punct("("), punct(")"), punct("{"),
+            keyword("return"), intLit("1"), punct(";")));
+
+        assertEquals(4, updated.getNumChildren());
+        assertEquals(fullParse(parser.getTokens()), updated);
+    }
+
+    @Test
+    public void testSyntaxErrorThenRecovery() throws ParseException {
+        IncrementalParse parser = new IncrementalParse(scan(PROGRAM), new DecafCFGGraph());
+        ASTBase root = parser.parseProgram();
+        ASTBase firstBody = body(root, 1);
+
+        // b = a * 2;  ->  b = a * ;
+        int two = indexOf(parser.getTokens(), "2", 0);
+        assertThrows(ParseException.class, () -> parser.reparse(two, two + 1, List.of()));
+
+        // put the operand back
+        ASTBase updated = parser.reparse(two, two, List.of(intLit("3")));
+        assertEquals(fullParse(parser.getTokens()), updated);
+        assertNotSame(firstBody, body(updated, 1));
+    }
+}
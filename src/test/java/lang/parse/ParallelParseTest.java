@@ -0,0 +1,81 @@
+package lang.parse;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import lang.ParallelParse;
+import lang.Parse;
+import lang.ParseException;
+import lang.Scan;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.types.ASTBase;
+import lang.types.LexicalToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelParseTest extends ParseBaseTest {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    public static void shutdownPool() {
+        POOL.shutdown();
+    }
+
+    // enough methods that the bodies are split over several tasks
+    private static String program(int methods, String brokenBody) {
+        StringBuilder source = new StringBuilder("int g;\nint a[10];\n");
+        for (int m = 0; m < methods; m++) {
+            source.append("int f").append(m).append("(int x) {\n")
+                .append("    int i, s;\n")
+                .append("    s = 0;\n")
+                .append("    for (i = 0; i < 10; i++) {\n")
+                .append("        if (a[i] > x) { s = s + a[i] * ").append(m).append("; } else { s -= 1; }\n")
+                .append("    }\n")
+                .append(m == methods / 2 && brokenBody != null ? brokenBody : "    return s + g;\n")
+                .append("}\n");
+        }
+        return source.append("void main() { g = f0(1); }\n").toString();
+    }
+
+    private static List<LexicalToken> scan(String source) {
+        Scan scan = new Scan(source);
+        scan.scan();
+        return scan.getTokens();
+    }
+
+    @Test
+    public void testMatchesSequentialParse() throws ParseException {
+        List<LexicalToken> tokens = scan(program(300, null));
+        ParallelParse parser = new ParallelParse(tokens, new DecafCFGGraph(), POOL);
+        ASTBase parallel = parser.parseProgram();
+
+        assertEquals(301, parser.getBodyCount());
+        assertEquals(new Parse(tokens, new DecafCFGGraph()).parseProgram(), parallel);
+    }
+
+    @Test
+    public void testReportsFirstErrorInSourceOrder() {
+        // the middle body fails, and so does the top level after the last body
+        List<LexicalToken> tokens = scan(program(300, "    return s +;\n") + "int");
+        ParseException sequential = assertThrows(ParseException.class,
+            () -> new Parse(tokens, new DecafCFGGraph()).parseProgram());
+        ParseException parallel = assertThrows(ParseException.class,
+            () -> new ParallelParse(tokens, new DecafCFGGraph(), POOL).parseProgram());
+        assertEquals(sequential.getMessage(), parallel.getMessage());
+    }
+
+    @Test
+    public void testUnbalancedBracesFallBackToSequential() {
+        List<LexicalToken> tokens = scan(program(20, "    return s;\n    }\n"));
+        ParallelParse parser = new ParallelParse(tokens, new DecafCFGGraph(), POOL);
+        ParseException parallel = assertThrows(ParseException.class, parser::parseProgram);
+        ParseException sequential = assertThrows(ParseException.class,
+            () -> new Parse(tokens, new DecafCFGGraph()).parseProgram());
+
+        assertEquals(0, parser.getBodyCount());
+        assertEquals(sequential.getMessage(), parallel.getMessage());
+    }
+}
@@ -0,0 +1,99 @@
+package lang.parse;
+
+import org.junit.jupiter.api.Test;
+
+import lang.Parse;
+import lang.ParseException;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.types.ASTBase;
+import lang.types.ASTExpr;
+import lang.types.HashConsTable;
+import lang.types.LexicalToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class ParseHashConsTest extends ParseBaseTest {
+
+    private ASTBase parseShared(List<LexicalToken> tokens, HashConsTable table) throws ParseException {
+        Parse parser = new Parse(tokens, new DecafCFGGraph());
+        parser.setHashConsTable(table);
+        return parser.parseExpr(0).tree;
+    }
+
+    @Test
+    public void testIdenticalSubexpressionsShareNode() throws ParseException {
+        // x*x + x*x
+        List<LexicalToken> tokens = List.of(
+            id("x"), op("*"), id("x"), op("+"), id("x"), op("*"), id("x"), punct(";")
+        );
+        HashConsTable table = new HashConsTable();
+        ASTBase tree = parseShared(tokens, table);
+
+        assertSame(tree.getChildAt(0), tree.getChildAt(1));
+        assertSame(tree.getChildAt(0).getChildAt(0), tree.getChildAt(0).getChildAt(1));
+        assertEquals(table.valueNumber(tree.getChildAt(0)), table.valueNumber(tree.getChildAt(1)));
+        assertEquals(3, table.size()); // x, x*x, x*x + x*x
+    }
+
+    @Test
+    public void testSharedTreeIsStructurallyEqualToUnsharedTree() throws ParseException {
+        // a[i*n+j] + a[i*n+j]
+        List<LexicalToken> tokens = List.of(
+            id("a"), punct("["), id("i"), op("*"), id("n"), op("+"), id("j"), punct("]"),
+            op("+"),
+            id("a"), punct("["), id("i"), op("*"), id("n"), op("+"), id("j"), punct("]"),
+            punct(";")
+        );
+        ASTBase shared = parseShared(tokens, new HashConsTable());
+        ASTBase unshared = parseShared(tokens, null);
+
+        assertSame(shared.getChildAt(0), shared.getChildAt(1));
+        assertNotSame(unshared.getChildAt(0), unshared.getChildAt(1));
+        assertEquals(unshared, shared);
+    }
+
+    @Test
+    public void testMethodCallsAreNotShared() throws ParseException {
+        // f(x) + f(x)
+        List<LexicalToken> tokens = List.of(
+            id("f"), punct("("), id("x"), punct(")"), op("+"),
+            id("f"), punct("("), id("x"), punct(")"), punct(";")
+        );
+        HashConsTable table = new HashConsTable();
+        ASTBase tree = parseShared(tokens, table);
+
+        assertNotSame(tree.getChildAt(0), tree.getChildAt(1));
+        assertEquals(-1, table.valueNumber(tree.getChildAt(0)));
+        assertEquals(-1, table.valueNumber(tree));
+        // the argument itself is still a shared leaf
+        assertSame(tree.getChildAt(0).getChildAt(0), tree.getChildAt(1).getChildAt(0));
+    }
+
+    @Test
+    public void testBuilderReturnsSharedNode() {
+        HashConsTable table = new HashConsTable();
+        ASTBase a = table.leaf(id("a"));
+        ASTBase b = table.leaf(id("b"));
+
+        ASTExpr first = ASTExpr.add().left(a).right(b).build(table);
+        ASTExpr second = ASTExpr.add().left(a).right(b).build(table);
+        ASTExpr swapped = ASTExpr.add().left(b).right(a).build(table);
+
+        assertSame(first, second);
+        assertNotSame(first, swapped);
+    }
+
+    @Test
+    public void testClearEndsSharing() {
+        HashConsTable table = new HashConsTable();
+        ASTBase before = table.leaf(id("a"));
+        table.clear();
+        ASTBase after = table.leaf(id("a"));
+
+        assertNotSame(before, after);
+        assertEquals(-1, table.valueNumber(before));
+        assertEquals(0, table.valueNumber(after));
+    }
+}
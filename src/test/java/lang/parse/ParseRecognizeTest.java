@@ -0,0 +1,55 @@
+package lang.parse;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import lang.Parse;
+import lang.ParseException;
+import lang.Scan;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.types.LexicalToken;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class ParseRecognizeTest extends ParseBaseTest {
+
+    private static String outcome(List<LexicalToken> tokens, boolean recognizeOnly) {
+        Parse parser = new Parse(tokens, new DecafCFGGraph());
+        parser.setRecognizeOnly(recognizeOnly);
+        try {
+            Object tree = parser.parseProgram();
+            assertEquals(recognizeOnly, tree == null);
+            return "ok";
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "void main() { }",
+        "import printf; int a[10]; long b; void main() { a[2] = -(1 + b) * 3; printf(\"%d\", a[2]); }",
+        "int f(int x, bool y) { if (y && !(x > 0)) { return x++; } else { while (true) { break; } } return 0; }",
+        "void main() { int i; for (i = 0; i < 10; i += 1) { continue; } }",
+        "void main() { f(1, g(2, 3)[4]) ; }",
+        "void main() { x = len(a) * 2 + len(b); }",
+        "void main() { x = len(1); }",
+        "void main() { x = len(a; }",
+        "void main() { x = (1 + 2; }",
+        "void main() { a[1 = 2; }",
+        "void main() { f(1, 2; }",
+        "void main() { x = 1 + ; }",
+        "void main() { x = * 2; }",
+        "void main() { if (x) { }",
+        "int x void main() { }",
+        "void main() { return 1 }",
+    })
+    public void testRecognizerMatchesTreeBuildingParser(String source) {
+        Scan scan = new Scan(source);
+        scan.scan();
+        List<LexicalToken> tokens = scan.getTokens();
+        assertEquals(outcome(tokens, false), outcome(tokens, true));
+    }
+}
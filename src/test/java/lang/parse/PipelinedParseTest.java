@@ -0,0 +1,139 @@
+package lang.parse;
+
+import org.junit.jupiter.api.Test;
+
+import lang.Parse;
+import lang.ParseException;
+import lang.PipelinedParse;
+import lang.Scan;
+import lang.grammars.decaf.DecafCFGGraph;
+import lang.types.ASTBase;
+import lang.types.LexicalToken;
+import lang.utils.SpscRingBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PipelinedParseTest extends ParseBaseTest {
+
+    private static String program(int methods, String extra) {
+        StringBuilder source = new StringBuilder("int g;\n");
+        for (int m = 0; m < methods; m++) {
+            source.append("int f").append(m).append("(int x) {\n")
+                .append("    int i;\n")
+                .append("    for (i = 0; i < x; i++) { g = g + i * ").append(m).append("; }\n")
+                .append(m == methods / 2 ? extra : "")
+                .append("    return g;\n")
+                .append("}\n");
+        }
+        return source.append("void main() { f0(3); }\n").toString();
+    }
+
+    // scans on a second thread, as Compiler does
+    private static ASTBase pipelinedParse(Scan scan, Runnable scanner) throws ParseException {
+        PipelinedParse parser = new PipelinedParse(new DecafCFGGraph());
+        scan.setTokenSink(parser.sink());
+        Thread thread = new Thread(() -> {
+            try {
+                scanner.run();
+            } catch (Throwable t) {
+                parser.fail(t);
+            }
+        });
+        thread.start();
+        try {
+            return parser.parseProgram();
+        } finally {
+            parser.cancel();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ASTBase sequentialParse(String source) throws ParseException {
+        Scan scan = new Scan(source);
+        scan.scan();
+        return new Parse(scan.getTokens(), new DecafCFGGraph()).parseProgram();
+    }
+
+    @Test
+    public void testRingPreservesOrderUnderBackpressure() throws InterruptedException {
+        SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(3); // rounded up to 4
+        int count = 100_000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                ring.put(i);
+            }
+            ring.close();
+        });
+        producer.start();
+
+        List<Integer> received = new ArrayList<>();
+        for (Integer i = ring.take(); i != null; i = ring.take()) {
+            received.add(i);
+        }
+        producer.join();
+        assertEquals(count, received.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals((Integer) i, received.get(i));
+        }
+    }
+
+    @Test
+    public void testCancelReleasesBlockedProducer() throws InterruptedException {
+        SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(1);
+        boolean[] dropped = new boolean[1];
+        ring.put(1); // fills the ring before the producer thread takes over
+        Thread producer = new Thread(() -> {
+            dropped[0] = !ring.put(2); // blocks until cancelled
+        });
+        producer.start();
+        ring.cancel(); // the ring stays full, so the second put can only end by being dropped
+        producer.join();
+        assertTrue(dropped[0]);
+        assertEquals((Integer) 1, ring.take());
+
+        // once cancelled, a put into free space is dropped too, not published
+        assertFalse(ring.put(3));
+        ring.close();
+        assertNull(ring.take());
+    }
+
+    @Test
+    public void testMatchesSequentialParse() throws ParseException {
+        String source = program(500, "");
+        Scan scan = new Scan(source);
+        ASTBase pipelined = pipelinedParse(scan, scan::scan);
+
+        assertEquals(sequentialParse(source), pipelined);
+        Scan reference = new Scan(source);
+        reference.scan();
+        assertEquals(reference.getTokens(), scan.getTokens());
+    }
+
+    @Test
+    public void testErrorsMatchSequentialParse() {
+        // a parse error and, separately, a scan error that truncates the token stream
+        for (String extra : List.of("    g = ;\n", "    g = 1 # 2;\n")) {
+            String source = program(500, extra);
+            ParseException sequential = assertThrows(ParseException.class, () -> sequentialParse(source));
+            Scan scan = new Scan(source);
+            ParseException pipelined = assertThrows(ParseException.class, () -> pipelinedParse(scan, scan::scan));
+            assertEquals(sequential.getMessage(), pipelined.getMessage());
+        }
+    }
+
+    @Test
+    public void testScannerFailureReachesParser() {
+        Scan scan = new Scan(program(10, ""));
+        IllegalStateException failure = new IllegalStateException("scanner crashed");
+        ParseException thrown = assertThrows(ParseException.class,
+            () -> pipelinedParse(scan, () -> { throw failure; }));
+        assertSame(failure, thrown.getCause());
+    }
+}
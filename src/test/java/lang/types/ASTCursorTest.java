@@ -0,0 +1,123 @@
+package lang.types;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ASTCursorTest {
+
+    // (a - b) + c
+    private static ASTExpr sampleTree() {
+        return ASTExpr.add()
+            .left(ASTExpr.subtract()
+                .left("a")
+                .right("b")
+                .build())
+            .right("c")
+            .build();
+    }
+
+    @Test
+    public void testPreOrder() {
+        List<String> visited = new ArrayList<>();
+        ASTCursor cursor = new ASTCursor(sampleTree());
+        while (cursor.nextPreOrder()) {
+            visited.add(cursor.node().getToken().getVal() + "@" + cursor.depth());
+        }
+        assertEquals(List.of("+@0", "-@1", "a@2", "b@2", "c@1"), visited);
+    }
+
+    @Test
+    public void testPostOrder() {
+        List<String> visited = new ArrayList<>();
+        ASTCursor cursor = new ASTCursor(sampleTree());
+        while (cursor.nextPostOrder()) {
+            visited.add(cursor.node().getToken().getVal());
+        }
+        assertEquals(List.of("a", "b", "-", "c", "+"), visited);
+    }
+
+    @Test
+    public void testVisitorSkipsChildren() {
+        List<String> entered = new ArrayList<>();
+        List<String> exited = new ArrayList<>();
+        sampleTree().accept(new ASTVisitor() {
+            @Override
+            public boolean enter(ASTBase node, int depth) {
+                entered.add(node.getToken().getVal());
+                return !node.getToken().getVal().equals("-");
+            }
+
+            @Override
+            public void exit(ASTBase node, int depth) {
+                exited.add(node.getToken().getVal());
+            }
+        });
+        assertEquals(List.of("+", "-", "c"), entered);
+        assertEquals(List.of("-", "c", "+"), exited);
+    }
+
+    @Test
+    public void testPrettyPrintDrawsRails() {
+        String expected = String.join("\n",
+            "ASTExpr [PUNCTUATION: '+'] (BINARY LEFT)",
+            "├── ASTExpr [PUNCTUATION: '-'] (BINARY LEFT)",
+            "│   ├── ASTBase [IDENTIFIER: 'a']",
+            "│   └── ASTBase [IDENTIFIER: 'b']",
+            "└── ASTBase [IDENTIFIER: 'c']",
+            "");
+        assertEquals(expected, sampleTree().prettyPrint());
+    }
+
+    @Test
+    public void testCompactString() {
+        assertEquals("+(-(a, b), c)", sampleTree().toCompactString());
+
+        // null children are skipped without leaving a separator behind
+        ASTExpr tree = sampleTree();
+        tree.setChild(0, null);
+        assertEquals("+(c)", tree.toCompactString());
+        ASTBase inner = tree.getChildAt(1);
+        tree.setChild(0, inner);
+        tree.setChild(1, null);
+        assertEquals("+(c)", tree.toCompactString());
+    }
+
+    @Test
+    public void testDeepTreeDoesNotOverflow() throws IOException {
+        // -(-(-(...x)))
+        ASTBase tree = ASTExpr.leaf("x");
+        int depth = 200_000;
+        for (int i = 0; i < depth; i++) {
+            tree = ASTExpr.negate().operand(tree).build();
+        }
+
+        ASTCursor cursor = new ASTCursor(tree);
+        int count = 0;
+        int maxDepth = 0;
+        while (cursor.nextPostOrder()) {
+            count++;
+            maxDepth = Math.max(maxDepth, cursor.depth());
+        }
+        assertEquals(depth + 1, count);
+        assertEquals(depth, maxDepth);
+
+        // indentation makes the printed size quadratic in depth, so print a shallower chain
+        tree = ASTExpr.leaf("x");
+        depth = 5_000;
+        for (int i = 0; i < depth; i++) {
+            tree = ASTExpr.negate().operand(tree).build();
+        }
+        int[] lines = new int[1];
+        tree.prettyPrint(new Appendable() {
+            public Appendable append(CharSequence csq) { return this; }
+            public Appendable append(CharSequence csq, int start, int end) { return this; }
+            public Appendable append(char c) { if (c == '\n') lines[0]++; return this; }
+        });
+        assertEquals(depth + 1, lines[0]);
+    }
+}